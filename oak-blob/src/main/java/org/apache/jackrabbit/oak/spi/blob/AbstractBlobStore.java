@@ -36,7 +36,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -83,6 +89,18 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * hash), level (variable size int, nesting level), total size (variable size
  * long), size of data store id (variable size long), hash code length (variable
  * size int), hash code.
+ * <p>
+ * By default, binaries are split into blocks of the fixed block size. With
+ * content defined chunking enabled, the block boundaries are instead
+ * determined by a rolling hash over the content, so that inserting or
+ * removing bytes only changes the blocks around the modification. The block
+ * size then is the maximum size of a block. As each entry contains the size
+ * of its block, both kinds of ids can be read regardless of the setting.
+ * <p>
+ * Optionally, reading a blob sequentially reads ahead the next blocks
+ * asynchronously (see {@link #setReadAhead(int, Executor)}). Read-ahead is
+ * only useful for stores that keep the blocks in a cache, which need to
+ * override {@link #prefetchBlock(BlockId)}.
  */
 public abstract class AbstractBlobStore implements GarbageCollectableBlobStore,
         Cache.Backend<AbstractBlobStore.BlockId, AbstractBlobStore.Data> {
@@ -119,6 +137,53 @@ public abstract class AbstractBlobStore implements GarbageCollectableBlobStore,
      */
     private int blockSize = 2 * 1024 * 1024;
 
+    /**
+     * Whether to split binaries at content defined boundaries.
+     */
+    private boolean contentDefinedChunking =
+            Boolean.getBoolean("oak.blob.contentDefinedChunking");
+
+    /**
+     * The target average size of a block with content defined chunking, or 0
+     * to use a quarter of the block size.
+     */
+    private int blockSizeAverage;
+
+    /**
+     * The random values of the gear rolling hash used for content defined
+     * chunking. The seed must never change, otherwise the boundaries (and
+     * therefore the block ids) of the same content would change.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random r = new Random(0x4f616b4344434cL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = r.nextLong();
+        }
+    }
+
+    /**
+     * The number of blocks to read ahead, or 0 to disable read-ahead.
+     */
+    private int readAheadBlocks;
+
+    /**
+     * The executor used to read ahead blocks.
+     */
+    private Executor readAheadExecutor;
+
+    /**
+     * Limits the number of blocks read ahead concurrently.
+     */
+    private Semaphore readAheadPermits;
+
+    /**
+     * The digests (in hex form) of the blocks currently read ahead.
+     */
+    private final Set<String> readAheadPending =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     /**
      * The byte array is re-used if possible, to avoid having to create a new,
      * large byte array each time a (potentially very small) binary is stored.
@@ -155,6 +220,57 @@ public abstract class AbstractBlobStore implements GarbageCollectableBlobStore,
         this.blockSize = x;
     }
 
+    /**
+     * Enables or disables content defined chunking. When enabled, the block
+     * boundaries are determined by the content, and blocks are between the
+     * minimum block size and the block size long.
+     *
+     * @param x whether to use content defined chunking
+     */
+    public void setContentDefinedChunking(boolean x) {
+        this.contentDefinedChunking = x;
+    }
+
+    public boolean isContentDefinedChunking() {
+        return contentDefinedChunking;
+    }
+
+    /**
+     * Sets the target average block size for content defined chunking.
+     *
+     * @param x the average block size, or 0 to use a quarter of the block size
+     */
+    public void setBlockSizeAverage(int x) {
+        if (x != 0) {
+            validateBlockSize(x);
+        }
+        this.blockSizeAverage = x;
+    }
+
+    /**
+     * Enables reading ahead blocks. Whenever a read starts at the beginning of
+     * a block, up to the given number of following blocks of the same blob
+     * are loaded asynchronously using {@link #prefetchBlock(BlockId)}. At
+     * most that many blocks are read ahead at the same time, further blocks
+     * are skipped until earlier ones completed.
+     *
+     * @param blocks the number of blocks to read ahead, or 0 to disable
+     * @param executor the executor to read the blocks with
+     */
+    public void setReadAhead(int blocks, Executor executor) {
+        checkArgument(blocks >= 0, "blocks must not be negative");
+        if (blocks > 0) {
+            checkNotNull(executor);
+        }
+        this.readAheadExecutor = executor;
+        this.readAheadPermits = new Semaphore(blocks);
+        this.readAheadBlocks = blocks;
+    }
+
+    public int getReadAheadBlocks() {
+        return readAheadBlocks;
+    }
+
     public void setStatsCollector(BlobStatsCollector stats) {
         this.statsCollector = stats;
     }
@@ -334,8 +450,17 @@ public abstract class AbstractBlobStore implements GarbageCollectableBlobStore,
             // create a new one
             block = new byte[blockSize];
         }
+        boolean chunking = contentDefinedChunking && level == 0;
+        long boundaryMask = chunking ? getBoundaryMask() : 0;
+        // bytes after the last block boundary, kept at the start of the block
+        int carry = 0;
         while (true) {
-            int blockLen = IOUtils.readFully(in, block, 0, block.length);
+            int available = carry + IOUtils.readFully(in, block, carry, block.length - carry);
+            int blockLen = available;
+            if (chunking) {
+                blockLen = nextBoundary(block, available, boundaryMask);
+            }
+            carry = available - blockLen;
             count++;
             if (blockLen == 0) {
                 break;
@@ -372,6 +497,9 @@ public abstract class AbstractBlobStore implements GarbageCollectableBlobStore,
                 storeBlock(digest, level, Arrays.copyOf(block, blockLen));
                 statsCollector.uploaded(System.nanoTime() - start, TimeUnit.NANOSECONDS, blockLen);
             }
+            if (carry > 0) {
+                System.arraycopy(block, blockLen, block, 0, carry);
+            }
             if (idStream.size() > blockSize / 2) {
                 // convert large ids to a block, but ensure it can be stored as
                 // one block (otherwise the indirection no longer works)
@@ -394,6 +522,44 @@ public abstract class AbstractBlobStore implements GarbageCollectableBlobStore,
         in.close();
     }
 
+    /**
+     * Returns the mask of the high bits of the rolling hash which must be zero
+     * at a block boundary. The hash depends on the last 64 bytes, and each
+     * bit of the mask halves the probability of a boundary.
+     */
+    private long getBoundaryMask() {
+        int average = blockSizeAverage == 0 ? blockSize / 4 : blockSizeAverage;
+        int bits = Integer.numberOfTrailingZeros(
+                Integer.highestOneBit(Math.max(average - blockSizeMin, 1)));
+        return bits == 0 ? 0 : -1L << (64 - bits);
+    }
+
+    /**
+     * Returns the length of the next content defined block at the start of
+     * the given data. The block is at least the minimum block size long
+     * (unless less data is available) and at most the block size.
+     *
+     * @param data the data
+     * @param len the number of bytes available
+     * @param boundaryMask the mask of the hash bits that must be zero
+     * @return the length of the block
+     */
+    private int nextBoundary(byte[] data, int len, long boundaryMask) {
+        if (len <= blockSizeMin) {
+            return len;
+        }
+        int max = Math.min(len, blockSize);
+        long hash = 0;
+        // only the last 64 bytes affect the hash
+        for (int i = Math.max(0, blockSizeMin - 64); i < max; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if (i >= blockSizeMin && (hash & boundaryMask) == 0) {
+                return i + 1;
+            }
+        }
+        return max;
+    }
+
     /**
      * Store a block of data.
      * 
@@ -469,6 +635,9 @@ public abstract class AbstractBlobStore implements GarbageCollectableBlobStore,
                         idStream = new ByteArrayInputStream(block);
                     } else {
                         long readPos = pos - pos % blockSize;
+                        if (pos == 0 && readAheadBlocks > 0) {
+                            readAhead(idStream);
+                        }
                         byte[] block = readBlock(digest, readPos);
                         ByteArrayInputStream in = new ByteArrayInputStream(block);
                         IOUtils.skipFully(in, pos - readPos);
@@ -481,6 +650,89 @@ public abstract class AbstractBlobStore implements GarbageCollectableBlobStore,
         }
     }
 
+    /**
+     * Reads ahead the blocks of the following 'hash of content' entries in
+     * the given id stream. Indirect entries are not followed.
+     *
+     * @param idStream the id stream, positioned after the current entry
+     */
+    private void readAhead(ByteArrayInputStream idStream) throws IOException {
+        idStream.mark(0);
+        try {
+            for (int i = 0; i < readAheadBlocks; i++) {
+                int type = idStream.read();
+                if (type == TYPE_DATA) {
+                    IOUtils.skipFully(idStream, IOUtils.readVarInt(idStream));
+                    continue;
+                } else if (type != TYPE_HASH) {
+                    break;
+                }
+                int level = IOUtils.readVarInt(idStream);
+                IOUtils.readVarLong(idStream);
+                if (level > 0) {
+                    break;
+                }
+                byte[] digest = new byte[IOUtils.readVarInt(idStream)];
+                IOUtils.readFully(idStream, digest, 0, digest.length);
+                if (!readAhead(digest)) {
+                    break;
+                }
+            }
+        } finally {
+            idStream.reset();
+        }
+    }
+
+    /**
+     * Asynchronously loads the block with the given digest.
+     *
+     * @param digest the digest of the block
+     * @return false if no more blocks can be read ahead at the moment
+     */
+    private boolean readAhead(byte[] digest) {
+        final String key = StringUtils.convertBytesToHex(digest);
+        if (!readAheadPending.add(key)) {
+            return true;
+        }
+        if (!readAheadPermits.tryAcquire()) {
+            readAheadPending.remove(key);
+            return false;
+        }
+        final BlockId id = new BlockId(digest, 0);
+        try {
+            readAheadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        prefetchBlock(id);
+                    } catch (Exception e) {
+                        log.debug("Failed to read ahead block {}", key, e);
+                    } finally {
+                        readAheadPending.remove(key);
+                        readAheadPermits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            readAheadPending.remove(key);
+            readAheadPermits.release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Loads the given block ahead of its use, so that a later
+     * {@link #readBlockFromBackend(BlockId)} is served from a cache. Stores
+     * without a block cache don't benefit from reading ahead, therefore the
+     * default implementation does nothing.
+     *
+     * @param id the block id
+     */
+    protected void prefetchBlock(BlockId id) throws Exception {
+        // no cache to load the block into
+    }
+
     byte[] readBlock(byte[] digest, long pos) {
         BlockId id = new BlockId(digest, pos);
         return load(id).data;
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.spi.blob;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+/**
+ * Tests the MemoryBlobStore implementation with content defined chunking.
+ */
+public class MemoryBlobStoreChunkingTest extends AbstractBlobStoreTest {
+
+    @Override
+    public void setUp() throws Exception {
+        store = newStore(128, 48, 0);
+    }
+
+    @Test
+    public void insertedByteKeepsChunks() throws Exception {
+        MemoryBlobStore s = newStore(4096, 256, 1024);
+        byte[] data = new byte[256 * 1024];
+        new Random(1).nextBytes(data);
+        byte[] modified = new byte[data.length + 1];
+        modified[0] = 42;
+        System.arraycopy(data, 0, modified, 1, data.length);
+
+        String id1 = s.writeBlob(new ByteArrayInputStream(data));
+        String id2 = s.writeBlob(new ByteArrayInputStream(modified));
+        assertArrayEquals(data, ByteStreams.toByteArray(s.getInputStream(id1)));
+        assertArrayEquals(modified, ByteStreams.toByteArray(s.getInputStream(id2)));
+
+        Set<String> chunks1 = Sets.newHashSet(s.resolveChunks(id1));
+        Set<String> chunks2 = Sets.newHashSet(s.resolveChunks(id2));
+        int shared = Sets.intersection(chunks1, chunks2).size();
+        // only the chunks around the insertion and the index blocks differ
+        assertTrue("shared " + shared + " of " + chunks1.size(),
+                shared >= chunks1.size() * 9 / 10);
+    }
+
+    @Test
+    public void chunkSizes() throws Exception {
+        MemoryBlobStore s = newStore(4096, 256, 1024);
+        byte[] data = new byte[64 * 1024];
+        new Random(2).nextBytes(data);
+        String id = s.writeBlob(new ByteArrayInputStream(data));
+        assertEquals(data.length, s.getBlobLength(id));
+
+        byte[] buff = new byte[100];
+        int len = s.readBlob(id, 30000, buff, 0, buff.length);
+        assertTrue(len > 0);
+        for (int i = 0; i < len; i++) {
+            assertEquals(data[30000 + i], buff[i]);
+        }
+    }
+
+    private static MemoryBlobStore newStore(int blockSize, int blockSizeMin, int average) {
+        MemoryBlobStore s = new MemoryBlobStore();
+        s.setBlockSize(blockSize);
+        s.setBlockSizeMin(blockSizeMin);
+        s.setBlockSizeAverage(average);
+        s.setContentDefinedChunking(true);
+        return s;
+    }
+}
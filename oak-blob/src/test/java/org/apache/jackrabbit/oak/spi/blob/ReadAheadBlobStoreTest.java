@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.spi.blob;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.jackrabbit.oak.commons.StringUtils;
+import org.junit.Test;
+
+/**
+ * Tests reading ahead blocks in the AbstractBlobStore.
+ */
+public class ReadAheadBlobStoreTest {
+
+    @Test
+    public void readAheadSequential() throws Exception {
+        PrefetchingStore store = new PrefetchingStore();
+        store.setBlockSize(1024);
+        store.setBlockSizeMin(48);
+        store.setReadAhead(4, MoreExecutors.sameThreadExecutor());
+
+        byte[] data = new byte[16 * 1024];
+        new Random(1).nextBytes(data);
+        String id = store.writeBlob(new ByteArrayInputStream(data));
+        assertArrayEquals(data, ByteStreams.toByteArray(store.getInputStream(id)));
+
+        Set<String> chunks = Sets.newHashSet(store.resolveChunks(id));
+        // all data blocks but the first one of each index block are read ahead
+        Set<String> prefetched = Sets.newHashSet(store.prefetched);
+        assertTrue(prefetched.size() > chunks.size() / 2);
+        assertTrue(chunks.containsAll(prefetched));
+    }
+
+    @Test
+    public void readAheadDisabled() throws Exception {
+        PrefetchingStore store = new PrefetchingStore();
+        store.setBlockSize(1024);
+        store.setBlockSizeMin(48);
+
+        byte[] data = new byte[8 * 1024];
+        new Random(2).nextBytes(data);
+        String id = store.writeBlob(new ByteArrayInputStream(data));
+        assertArrayEquals(data, ByteStreams.toByteArray(store.getInputStream(id)));
+        assertTrue(store.prefetched.isEmpty());
+    }
+
+    @Test
+    public void backPressure() throws Exception {
+        PrefetchingStore store = new PrefetchingStore();
+        store.setBlockSize(1024);
+        store.setBlockSizeMin(48);
+        final List<Runnable> queued = Lists.newArrayList();
+        store.setReadAhead(2, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+
+        byte[] data = new byte[8 * 1024];
+        new Random(3).nextBytes(data);
+        String id = store.writeBlob(new ByteArrayInputStream(data));
+        assertArrayEquals(data, ByteStreams.toByteArray(store.getInputStream(id)));
+        // nothing completed, so no more than two blocks are read ahead
+        assertEquals(2, queued.size());
+        for (Runnable r : queued) {
+            r.run();
+        }
+        assertEquals(2, store.prefetched.size());
+    }
+
+    private static class PrefetchingStore extends MemoryBlobStore {
+
+        final List<String> prefetched = Lists.newArrayList();
+
+        @Override
+        protected synchronized void prefetchBlock(BlockId id) throws Exception {
+            prefetched.add(StringUtils.convertBytesToHex(id.getDigest()));
+        }
+    }
+}
@@ -92,6 +92,35 @@ public interface QueryEngine {
             Map<String, ? extends PropertyValue> bindings,
             Map<String, String> mappings) throws ParseException;
     
+    /**
+     * Execute a query and get the result, using keyset pagination. Only the
+     * rows that sort after the given sort key are returned. The key
+     * contains one value for each "order by" column, usually those of the
+     * last row of the previous page, with the types of the ordered
+     * properties. Rows with the same sort key are skipped as well, so the
+     * sort key should be unique. Unlike an offset, the rows before the key
+     * are not read if the index returns the rows in the query order.
+     *
+     * @param statement the query statement
+     * @param language the language
+     * @param limit the maximum result set size (may not be negative)
+     * @param offset the number of rows to skip after the sort key (may not
+     *            be negative)
+     * @param searchAfter the sort key, or null to start at the first row
+     * @param bindings the bind variable value bindings
+     * @param mappings namespace prefix mappings
+     * @return the result
+     * @throws ParseException if the statement could not be parsed
+     * @throws IllegalArgumentException if there was an error executing the
+     *             query, or the query is not ordered by as many columns as
+     *             there are values in the sort key
+     */
+    Result executeQuery(
+            String statement, String language, long limit, long offset,
+            List<? extends PropertyValue> searchAfter,
+            Map<String, ? extends PropertyValue> bindings,
+            Map<String, String> mappings) throws ParseException;
+
     /**
      * Execute a query and get the result.
      * This is a convenience method: no limit, and offset 0.
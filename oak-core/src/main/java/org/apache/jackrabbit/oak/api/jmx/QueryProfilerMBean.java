@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.api.jmx;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * The execution profiles of the slowest queries.
+ */
+public interface QueryProfilerMBean {
+    String TYPE = "QueryProfiler";
+
+    /**
+     * Get the profiles of the slowest queries, slowest first. Each profile
+     * contains the time spent parsing, planning and executing the query, and
+     * the number of rows read from the index, rows filtered by the
+     * conditions, rows skipped because they are not readable, and nodes
+     * read, per selector.
+     *
+     * @return the profiles
+     */
+    TabularData getSlowQueries();
+
+    /**
+     * Remove all profiles.
+     */
+    void resetSlowQueries();
+
+    /**
+     * Get the number of slowest queries that are kept.
+     *
+     * @return the number of queries
+     */
+    int getMaxSlowQueries();
+
+    /**
+     * Change the number of slowest queries that are kept.
+     *
+     * @param maxSlowQueries the new number of queries
+     */
+    void setMaxSlowQueries(int maxSlowQueries);
+
+    /**
+     * Whether query profiles are collected.
+     *
+     * @return true if enabled
+     */
+    boolean isEnabled();
+
+    /**
+     * Enable or disable collecting query profiles.
+     *
+     * @param enabled the new value
+     */
+    void setEnabled(boolean enabled);
+
+}
@@ -0,0 +1,457 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.blob;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+import org.apache.jackrabbit.oak.commons.sort.ExternalSort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.jackrabbit.oak.plugins.blob.MarkSweepGarbageCollector.DELIM;
+import static org.apache.jackrabbit.oak.plugins.blob.MarkSweepGarbageCollector.NEWLINE;
+
+/**
+ * Append-only log of blob reference count deltas. Each line of the log has
+ * the form {@code timestamp,delta,chunkId}, where a negative delta records
+ * removed references and a positive delta records added references.
+ * <p>
+ * The log does not need to be ordered. The reference count of a chunk is the
+ * sum of all its deltas and the time of its last removal is the maximum
+ * timestamp of its non-positive deltas. Collecting the candidates sorts the
+ * log externally by chunk id and rewrites it with a single aggregated line
+ * per chunk still referenced or not yet old enough for deletion.
+ * <p>
+ * The log is consistent up to the point marked with
+ * {@link #markConsistent(String)}, which records the name of a checkpoint
+ * of the repository matching the counts at that point in a state file next
+ * to the log. After a restart, {@link #recover()} discards the deltas
+ * appended after that point, so that recording can continue from the
+ * checkpoint.
+ */
+public class BlobReferenceDeltaLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlobReferenceDeltaLog.class);
+
+    private static final String STATE_CHECKPOINT = "checkpoint";
+
+    private static final String STATE_LENGTH = "length";
+
+    private static final Comparator<String> idComparator = new Comparator<String>() {
+        @Override
+        public int compare(String s1, String s2) {
+            return getId(s1).compareTo(getId(s2));
+        }
+    };
+
+    /** The log file. */
+    private final File file;
+
+    /** The file with the state of the last consistent point. */
+    private final File stateFile;
+
+    /** The writer appending to the log file. */
+    private BufferedWriter writer;
+
+    /**
+     * The checkpoint matching the counts up to {@link #consistentLength}, or
+     * {@code null} if the log is not consistent.
+     */
+    private String checkpoint;
+
+    /** The length of the log file at the last consistent point. */
+    private long consistentLength;
+
+    /**
+     * Opens the log stored in the given file. Deltas are appended to the
+     * file if it already exists.
+     *
+     * @param file the log file
+     * @throws IOException if the file cannot be opened
+     */
+    public BlobReferenceDeltaLog(File file) throws IOException {
+        this.file = checkNotNull(file);
+        this.stateFile = new File(file.getPath() + ".state");
+        FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+        this.writer = newAppendingWriter(file);
+    }
+
+    /**
+     * Appends the given reference count deltas.
+     *
+     * @param timestamp the time the deltas were observed
+     * @param deltas map of chunk ids to their reference count deltas
+     * @throws IOException if writing to the log fails
+     */
+    public synchronized void append(long timestamp, Map<String, Integer> deltas)
+            throws IOException {
+        for (Map.Entry<String, Integer> e : deltas.entrySet()) {
+            if (e.getValue() != 0) {
+                writeLine(writer, timestamp, e.getValue(), e.getKey());
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Marks the current end of the log as consistent with the given
+     * checkpoint, that is, the counts of the log are the references of the
+     * checkpoint.
+     *
+     * @param checkpoint the checkpoint
+     * @throws IOException if the state cannot be written
+     */
+    public synchronized void markConsistent(@Nonnull String checkpoint)
+            throws IOException {
+        writer.flush();
+        this.checkpoint = checkNotNull(checkpoint);
+        this.consistentLength = file.length();
+        writeState();
+    }
+
+    /**
+     * Whether the log is consistent with a checkpoint, which is a requirement
+     * to derive garbage collection candidates from it.
+     *
+     * @return whether the log is consistent
+     */
+    public synchronized boolean isConsistent() {
+        return checkpoint != null;
+    }
+
+    /**
+     * Marks the log as not consistent, for example because deltas could not
+     * be recorded.
+     */
+    public synchronized void invalidate() {
+        checkpoint = null;
+        FileUtils.deleteQuietly(stateFile);
+    }
+
+    /**
+     * Recovers the state of the last consistent point of a log written
+     * before, discarding the deltas appended after that point.
+     *
+     * @return the checkpoint of the last consistent point, or {@code null}
+     *         if the state is missing or invalid
+     * @throws IOException if the state or the log cannot be read
+     */
+    @CheckForNull
+    public synchronized String recover() throws IOException {
+        checkpoint = null;
+        if (!stateFile.exists()) {
+            return null;
+        }
+        Properties state = new Properties();
+        InputStream in = new FileInputStream(stateFile);
+        try {
+            state.load(in);
+        } finally {
+            in.close();
+        }
+        String cp = state.getProperty(STATE_CHECKPOINT);
+        long length;
+        try {
+            length = Long.parseLong(state.getProperty(STATE_LENGTH, "-1"));
+        } catch (NumberFormatException e) {
+            length = -1;
+        }
+        writer.flush();
+        if (cp == null || length < 0 || length > file.length()) {
+            LOG.warn("Invalid blob reference log state {}", state);
+            invalidate();
+            return null;
+        }
+        if (length < file.length()) {
+            writer.close();
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(length);
+            } finally {
+                raf.close();
+            }
+            writer = newAppendingWriter(file);
+        }
+        checkpoint = cp;
+        consistentLength = length;
+        return cp;
+    }
+
+    /**
+     * Sets the reference counts of all chunks to zero, before the references
+     * are recorded again from scratch. The removal times are kept, so that
+     * chunks that were already unreferenced can still be collected. Chunks
+     * that were referenced get the given time as their removal time, in case
+     * they are no longer referenced. The log is not consistent afterwards.
+     *
+     * @param timestamp the current time
+     * @throws IOException if the log cannot be rewritten
+     */
+    public synchronized void resetCounts(final long timestamp) throws IOException {
+        invalidate();
+        writer.close();
+        File reset = new File(file.getPath() + ".reset");
+        try {
+            sort(file);
+            final BufferedWriter resetWriter = Files.newWriter(reset, Charsets.UTF_8);
+            try {
+                aggregate(file, new Aggregator() {
+                    @Override
+                    void entry(String id, long count, long lastRemoved) throws IOException {
+                        writeLine(resetWriter, count > 0 ? timestamp : lastRemoved, 0, id);
+                    }
+                });
+            } finally {
+                resetWriter.close();
+            }
+            Files.move(reset, file);
+        } finally {
+            writer = newAppendingWriter(file);
+        }
+    }
+
+    /**
+     * Writes the ids of all chunks whose reference count dropped to zero (or
+     * below) with their last removal before or at the given time to the
+     * candidates file. The log is compacted in the process and no longer
+     * contains the candidates. If the log has a consistent point, only the
+     * deltas up to that point are considered.
+     *
+     * @param maxRemovedTime only chunks removed at or before this time are
+     *                       considered
+     * @param candidates the file to write the candidate chunk ids to
+     * @return the number of candidates
+     * @throws IOException if reading or writing the log fails
+     */
+    public long collectCandidates(final long maxRemovedTime, File candidates)
+            throws IOException {
+        // take a snapshot of the consistent part of the log (or the
+        // complete log if there is no consistent point) and continue
+        // appending to a fresh file with the remaining deltas
+        File snapshot = new File(file.getPath() + ".snapshot");
+        synchronized (this) {
+            writer.close();
+            try {
+                Files.move(file, snapshot);
+                if (checkpoint != null) {
+                    split(snapshot, consistentLength, file);
+                    // a crash before the compacted log is in place
+                    // must not leave a wrong consistent point behind
+                    FileUtils.deleteQuietly(stateFile);
+                }
+            } finally {
+                writer = newAppendingWriter(file);
+            }
+        }
+
+        File compacted = new File(file.getPath() + ".compacted");
+        final long[] numCandidates = new long[1];
+        final long[] numEntries = new long[1];
+        final BufferedWriter candidateWriter = Files.newWriter(candidates, Charsets.UTF_8);
+        try {
+            final BufferedWriter compactedWriter = Files.newWriter(compacted, Charsets.UTF_8);
+            try {
+                sort(snapshot);
+                aggregate(snapshot, new Aggregator() {
+                    @Override
+                    void entry(String id, long count, long lastRemoved) throws IOException {
+                        if (isCandidate(count, lastRemoved, maxRemovedTime)) {
+                            candidateWriter.append(id).append(NEWLINE);
+                            numCandidates[0]++;
+                        } else {
+                            writeLine(compactedWriter, lastRemoved, count, id);
+                            numEntries[0]++;
+                        }
+                    }
+                });
+            } finally {
+                compactedWriter.close();
+            }
+        } finally {
+            candidateWriter.close();
+        }
+
+        // prepend the compacted entries to the deltas appended meanwhile
+        synchronized (this) {
+            writer.close();
+            long compactedLength = compacted.length();
+            try {
+                OutputStream out = new FileOutputStream(compacted, true);
+                try {
+                    Files.copy(file, out);
+                } finally {
+                    out.close();
+                }
+                Files.move(compacted, file);
+            } finally {
+                writer = newAppendingWriter(file);
+            }
+            if (checkpoint != null) {
+                // the compacted part is still consistent with the checkpoint
+                consistentLength = compactedLength;
+                writeState();
+            }
+        }
+        FileUtils.deleteQuietly(snapshot);
+        LOG.debug("Compacted blob reference log to [{}] entries, found [{}] candidates",
+                numEntries[0], numCandidates[0]);
+        return numCandidates[0];
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    //------------------------------------------------------------< private >---
+
+    private void writeState() throws IOException {
+        Properties state = new Properties();
+        state.setProperty(STATE_CHECKPOINT, checkpoint);
+        state.setProperty(STATE_LENGTH, String.valueOf(consistentLength));
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            state.store(out, null);
+        } finally {
+            out.close();
+        }
+        Files.move(tmp, stateFile);
+    }
+
+    /**
+     * Splits a file: the bytes after the given length are moved to the
+     * target file.
+     */
+    private static void split(File source, long length, File target) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(source, "rw");
+        try {
+            OutputStream out = new FileOutputStream(target);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                raf.seek(length);
+                int n;
+                while ((n = raf.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Aggregates the deltas of a log sorted by chunk id.
+     */
+    private static void aggregate(File sorted, Aggregator aggregator) throws IOException {
+        LineIterator lines = FileUtils.lineIterator(sorted, Charsets.UTF_8.name());
+        try {
+            String id = null;
+            long count = 0;
+            long lastRemoved = 0;
+            while (lines.hasNext()) {
+                String line = lines.next();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split(DELIM);
+                if (!parts[2].equals(id)) {
+                    if (id != null) {
+                        aggregator.entry(id, count, lastRemoved);
+                    }
+                    id = parts[2];
+                    count = 0;
+                    lastRemoved = 0;
+                }
+                long timestamp = Long.parseLong(parts[0]);
+                long delta = Long.parseLong(parts[1]);
+                count += delta;
+                if (delta <= 0) {
+                    lastRemoved = Math.max(lastRemoved, timestamp);
+                }
+            }
+            if (id != null) {
+                aggregator.entry(id, count, lastRemoved);
+            }
+        } finally {
+            LineIterator.closeQuietly(lines);
+        }
+    }
+
+    private abstract static class Aggregator {
+
+        /**
+         * Called once per chunk id, in sort order.
+         *
+         * @param id the chunk id
+         * @param count the reference count
+         * @param lastRemoved the time of the last removal, or 0
+         */
+        abstract void entry(String id, long count, long lastRemoved) throws IOException;
+
+    }
+
+    private static boolean isCandidate(long count, long lastRemoved, long maxRemovedTime) {
+        return count <= 0 && lastRemoved <= maxRemovedTime;
+    }
+
+    private static String getId(String line) {
+        int idx = line.lastIndexOf(DELIM);
+        return idx < 0 ? line : line.substring(idx + 1);
+    }
+
+    private static void sort(File file) throws IOException {
+        List<File> sorted = ExternalSort.sortInBatch(file, idComparator, false);
+        ExternalSort.mergeSortedFiles(sorted, file, idComparator, false);
+    }
+
+    private static void writeLine(BufferedWriter writer, long timestamp,
+                                  long delta, String id) throws IOException {
+        writer.append(String.valueOf(timestamp)).append(DELIM)
+                .append(String.valueOf(delta)).append(DELIM)
+                .append(id).append(NEWLINE);
+    }
+
+    private static BufferedWriter newAppendingWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, true), Charsets.UTF_8));
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.blob;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.jackrabbit.oak.api.Type.BINARIES;
+import static org.apache.jackrabbit.oak.api.Type.BINARY;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.MISSING_NODE;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.plugins.blob.datastore.InMemoryDataRecord;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentBlob;
+import org.apache.jackrabbit.oak.spi.blob.GarbageCollectableBlobStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorDiff;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Observer recording the blob references added and removed by each observed
+ * change in a {@link BlobReferenceDeltaLog}. References are resolved to the
+ * chunk ids of the blob store, just like the mark phase of the
+ * {@link MarkSweepGarbageCollector} does.
+ * <p>
+ * The reference counts in the log are only meaningful relative to a known
+ * starting point. Periodically, a checkpoint of the repository is created
+ * and the log is marked consistent with it. After a restart, recording
+ * continues from that checkpoint. Only if there is no such state (or it is
+ * invalid, or {@link #reseed()} was called), the references of the complete
+ * tree are recorded again. This is done using the given executor, and the
+ * changes observed meanwhile are recorded once it is done.
+ */
+public class BlobReferenceDeltaObserver implements Observer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlobReferenceDeltaObserver.class);
+
+    /**
+     * The default interval in milliseconds between two consistent points.
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * The lifetime of the checkpoints. Recording can continue after a
+     * restart within this time, otherwise all references are recorded again.
+     */
+    static final long CHECKPOINT_LIFETIME = TimeUnit.DAYS.toMillis(7);
+
+    private final BlobReferenceDeltaLog log;
+
+    private final GarbageCollectableBlobStore blobStore;
+
+    private final NodeStore nodeStore;
+
+    private final Executor executor;
+
+    private final long checkpointInterval;
+
+    /**
+     * The last recorded root state, or {@code null} if recording did not
+     * start yet.
+     */
+    private NodeState before;
+
+    /** The task recording all references, or {@code null}. */
+    private FutureTask<Void> seeding;
+
+    private boolean reseed;
+
+    /** The checkpoint of the last consistent point, or {@code null}. */
+    private String checkpoint;
+
+    private long lastCheckpointTime;
+
+    public BlobReferenceDeltaObserver(@Nonnull BlobReferenceDeltaLog log,
+                                      @Nonnull GarbageCollectableBlobStore blobStore,
+                                      @Nonnull NodeStore nodeStore,
+                                      @Nonnull Executor executor) {
+        this(log, blobStore, nodeStore, executor, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * @param log the log to record the deltas in
+     * @param blobStore the blob store to resolve the chunks
+     * @param nodeStore the node store to create checkpoints in
+     * @param executor the executor recording all references, if needed
+     * @param checkpointInterval the interval in milliseconds between two
+     *            consistent points
+     */
+    public BlobReferenceDeltaObserver(@Nonnull BlobReferenceDeltaLog log,
+                                      @Nonnull GarbageCollectableBlobStore blobStore,
+                                      @Nonnull NodeStore nodeStore,
+                                      @Nonnull Executor executor,
+                                      long checkpointInterval) {
+        this.log = checkNotNull(log);
+        this.blobStore = checkNotNull(blobStore);
+        this.nodeStore = checkNotNull(nodeStore);
+        this.executor = checkNotNull(executor);
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Records the references of the complete tree again, starting with the
+     * next observed change.
+     */
+    public synchronized void reseed() {
+        reseed = true;
+    }
+
+    @Override
+    public synchronized void contentChanged(@Nonnull NodeState root,
+                                            @Nullable CommitInfo info) {
+        checkNotNull(root);
+        if (seeding != null) {
+            if (!seeding.isDone()) {
+                // changes are recorded relative to the seeded root later
+                return;
+            }
+            try {
+                seeding.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reseed = true;
+            } catch (ExecutionException e) {
+                LOG.warn("Unable to record all blob references. Will retry.", e.getCause());
+                reseed = true;
+            }
+            seeding = null;
+        }
+        try {
+            if (before == null && !reseed && !recover()) {
+                reseed = true;
+            }
+            if (reseed) {
+                startSeeding(root);
+                return;
+            }
+            record(before, root);
+            before = root;
+            if (System.currentTimeMillis() - lastCheckpointTime >= checkpointInterval) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to record blob references. Log will be reseeded.", e);
+            log.invalidate();
+            reseed = true;
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to record blob references. Log will be reseeded.", e);
+            log.invalidate();
+            reseed = true;
+        }
+    }
+
+    /**
+     * Continues recording from the last consistent point of the log.
+     *
+     * @return whether the log could be recovered
+     */
+    private boolean recover() throws IOException {
+        String cp = log.recover();
+        if (cp == null) {
+            return false;
+        }
+        NodeState state = nodeStore.retrieve(cp);
+        if (state == null) {
+            LOG.info("Checkpoint {} of the blob reference log is not available", cp);
+            log.invalidate();
+            return false;
+        }
+        LOG.info("Continuing to record blob references from checkpoint {}", cp);
+        checkpoint = cp;
+        before = state;
+        lastCheckpointTime = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Starts recording the references of the complete tree in the background.
+     * The counts of the log are reset, but the removal times are kept.
+     */
+    private void startSeeding(final NodeState root) {
+        reseed = false;
+        log.invalidate();
+        releaseCheckpoint();
+        before = root;
+        // create a consistent point with the next change
+        lastCheckpointTime = 0;
+        seeding = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                LOG.info("Recording all blob references of the repository");
+                log.resetCounts(System.currentTimeMillis());
+                record(MISSING_NODE, root);
+                LOG.info("Recorded all blob references of the repository");
+                return null;
+            }
+        });
+        executor.execute(seeding);
+    }
+
+    /**
+     * Creates a checkpoint, records the changes up to the checkpoint and marks
+     * the log consistent with it.
+     */
+    private void checkpoint() throws IOException {
+        String cp = nodeStore.checkpoint(CHECKPOINT_LIFETIME, ImmutableMap.of(
+                "creator", BlobReferenceDeltaObserver.class.getSimpleName()));
+        NodeState state = nodeStore.retrieve(cp);
+        if (state == null) {
+            LOG.warn("Unable to retrieve checkpoint {}", cp);
+            return;
+        }
+        // the checkpoint may be newer than the observed root: record the
+        // difference, the following changes are then recorded relative to it
+        record(before, state);
+        before = state;
+        log.markConsistent(cp);
+        releaseCheckpoint();
+        checkpoint = cp;
+        lastCheckpointTime = System.currentTimeMillis();
+    }
+
+    private void releaseCheckpoint() {
+        if (checkpoint != null) {
+            nodeStore.release(checkpoint);
+            checkpoint = null;
+        }
+    }
+
+    private void record(NodeState before, NodeState after) throws IOException {
+        Map<String, Integer> deltas = Maps.newHashMap();
+        CommitFailedException e = EditorDiff.process(
+                new ReferenceEditor(deltas), before, after);
+        if (e != null) {
+            throw new IllegalStateException(e);
+        }
+        log.append(System.currentTimeMillis(), deltas);
+    }
+
+    private void update(Map<String, Integer> deltas, PropertyState property, int delta)
+            throws IOException {
+        if (property.getType() == BINARY) {
+            update(deltas, property.getValue(BINARY), delta);
+        } else if (property.getType() == BINARIES) {
+            for (Blob blob : property.getValue(BINARIES)) {
+                update(deltas, blob, delta);
+            }
+        }
+    }
+
+    private void update(Map<String, Integer> deltas, Blob blob, int delta)
+            throws IOException {
+        String blobId = getBlobId(blob);
+        if (blobId == null || InMemoryDataRecord.isInstance(blobId)) {
+            return;
+        }
+        Iterator<String> chunks = blobStore.resolveChunks(blobId);
+        while (chunks.hasNext()) {
+            String id = chunks.next();
+            Integer count = deltas.get(id);
+            deltas.put(id, count == null ? delta : count + delta);
+        }
+    }
+
+    @CheckForNull
+    private static String getBlobId(Blob blob) {
+        if (blob instanceof BlobStoreBlob) {
+            return ((BlobStoreBlob) blob).getBlobId();
+        } else if (blob instanceof SegmentBlob) {
+            return ((SegmentBlob) blob).isExternal()
+                    ? ((SegmentBlob) blob).getBlobId() : null;
+        }
+        return null;
+    }
+
+    private class ReferenceEditor extends DefaultEditor {
+
+        private final Map<String, Integer> deltas;
+
+        ReferenceEditor(Map<String, Integer> deltas) {
+            this.deltas = deltas;
+        }
+
+        @Override
+        public void propertyAdded(PropertyState after) throws CommitFailedException {
+            record(after, 1);
+        }
+
+        @Override
+        public void propertyChanged(PropertyState before, PropertyState after)
+                throws CommitFailedException {
+            record(before, -1);
+            record(after, 1);
+        }
+
+        @Override
+        public void propertyDeleted(PropertyState before) throws CommitFailedException {
+            record(before, -1);
+        }
+
+        @Override
+        public Editor childNodeAdded(String name, NodeState after) {
+            return this;
+        }
+
+        @Override
+        public Editor childNodeChanged(String name, NodeState before, NodeState after) {
+            return this;
+        }
+
+        @Override
+        public Editor childNodeDeleted(String name, NodeState before) {
+            return this;
+        }
+
+        private void record(PropertyState property, int delta) {
+            try {
+                update(deltas, property, delta);
+            } catch (IOException e) {
+                throw new IllegalStateException("Error in resolving blob chunks", e);
+            }
+        }
+    }
+}
@@ -64,6 +64,16 @@ public abstract class CachingBlobStore extends AbstractBlobStore {
         this(DEFAULT_CACHE_SIZE);
     }
 
+    /**
+     * Loads the block into the cache unless it is already cached.
+     */
+    @Override
+    protected void prefetchBlock(BlockId id) throws Exception {
+        if (!cache.containsKey(StringUtils.convertBytesToHex(id.getDigest()))) {
+            readBlockFromBackend(id);
+        }
+    }
+
     @Override
     public void clearCache() {
         cache.invalidateAll();
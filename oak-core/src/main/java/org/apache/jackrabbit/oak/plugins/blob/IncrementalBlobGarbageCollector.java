@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.blob;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.Closeables;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+import org.apache.jackrabbit.oak.spi.blob.GarbageCollectableBlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Blob garbage collector deriving the deletion candidates from the reference
+ * count deltas recorded by a {@link BlobReferenceDeltaObserver} instead of
+ * scanning the repository for references. Nothing is collected while the
+ * references are recorded from scratch. Chunks are only deleted once their
+ * reference count dropped to zero more than {@code maxLastModifiedInterval}
+ * ago. This interval must therefore be larger than the time references may
+ * still be reachable from older revisions or checkpoints.
+ * <p>
+ * The consistency check and the statistics are delegated to a full
+ * {@link MarkSweepGarbageCollector}, which is meant to be run only
+ * periodically to verify the incremental runs.
+ */
+public class IncrementalBlobGarbageCollector implements BlobGarbageCollector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalBlobGarbageCollector.class);
+
+    private final BlobReferenceDeltaLog log;
+
+    private final GarbageCollectableBlobStore blobStore;
+
+    private final MarkSweepGarbageCollector fullCollector;
+
+    private final String root;
+
+    private final int batchCount;
+
+    private final long maxLastModifiedInterval;
+
+    /**
+     * Creates an incremental blob garbage collector.
+     *
+     * @param log the log the reference count deltas are recorded in
+     * @param blobStore the blob store instance
+     * @param fullCollector the collector used for the consistency check
+     * @param root the root absolute path of directory under which temporary
+     *             files would be created
+     * @param batchCount batch size used when deleting chunks
+     * @param maxLastModifiedInterval time in millis after the last removed
+     *                                reference a chunk becomes garbage
+     */
+    public IncrementalBlobGarbageCollector(@Nonnull BlobReferenceDeltaLog log,
+                                           @Nonnull GarbageCollectableBlobStore blobStore,
+                                           @Nonnull MarkSweepGarbageCollector fullCollector,
+                                           @Nonnull String root,
+                                           int batchCount,
+                                           long maxLastModifiedInterval) {
+        this.log = checkNotNull(log);
+        this.blobStore = checkNotNull(blobStore);
+        this.fullCollector = checkNotNull(fullCollector);
+        this.root = checkNotNull(root);
+        this.batchCount = batchCount;
+        this.maxLastModifiedInterval = maxLastModifiedInterval;
+    }
+
+    /**
+     * Deletes the chunks without references. There is no separate mark phase,
+     * references are recorded continuously. Nothing is done if
+     * {@code markOnly} is {@code true}.
+     */
+    @Override
+    public void collectGarbage(boolean markOnly) throws Exception {
+        if (markOnly) {
+            LOG.info("References are recorded continuously, nothing to mark");
+            return;
+        }
+        if (!log.isConsistent()) {
+            LOG.info("Blob references are not completely recorded yet, skipping garbage collection");
+            return;
+        }
+        boolean threw = true;
+        GarbageCollectorFileState fs = new GarbageCollectorFileState(root);
+        try {
+            Stopwatch sw = Stopwatch.createStarted();
+            LOG.info("Starting incremental blob garbage collection");
+
+            long maxModified = System.currentTimeMillis() - maxLastModifiedInterval;
+            long count = log.collectCandidates(maxModified, fs.getGcCandidates());
+            long deleted = sweep(fs, maxModified);
+            threw = false;
+
+            if (count != deleted) {
+                LOG.warn("Deleted only [{}] blobs entries from the [{}] candidates identified",
+                        deleted, count);
+            }
+            LOG.info("Incremental blob garbage collection completed in {}. Number of blobs deleted [{}]",
+                    sw.toString(), deleted);
+        } finally {
+            Closeables.close(fs, threw);
+        }
+    }
+
+    @Override
+    public List<GarbageCollectionRepoStats> getStats() throws Exception {
+        return fullCollector.getStats();
+    }
+
+    @Override
+    public long checkConsistency() throws Exception {
+        return fullCollector.checkConsistency();
+    }
+
+    private long sweep(GarbageCollectorFileState fs, long maxModified) throws Exception {
+        long deleted = 0;
+        LineIterator iterator = FileUtils.lineIterator(fs.getGcCandidates(), Charsets.UTF_8.name());
+        try {
+            List<String> ids = newArrayList();
+            while (iterator.hasNext()) {
+                ids.add(iterator.next());
+                if (ids.size() >= batchCount) {
+                    deleted += blobStore.countDeleteChunks(ids, maxModified);
+                    ids = newArrayList();
+                }
+            }
+            if (!ids.isEmpty()) {
+                deleted += blobStore.countDeleteChunks(ids, maxModified);
+            }
+        } finally {
+            LineIterator.closeQuietly(iterator);
+        }
+        return deleted;
+    }
+}
@@ -49,6 +49,8 @@ import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.PeekingIterator;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
 import com.google.common.io.Closeables;
 import com.google.common.io.Files;
 import com.google.common.util.concurrent.ListenableFutureTask;
@@ -86,6 +88,17 @@ public class MarkSweepGarbageCollector implements BlobGarbageCollector {
     public static final int DEFAULT_BATCH_COUNT = 2048;
     
     public static final String DELIM = ",";
+
+    /**
+     * Whether the sweep phase by default checks the available blob ids against
+     * a bloom filter of the marked references instead of sorting and diffing
+     * all of them.
+     */
+    static final boolean BLOOM_FILTER_SWEEP = Boolean.getBoolean("oak.blob.gc.bloomFilterSweep");
+
+    /** The false positive probability of the bloom filter used in the sweep phase. */
+    static final double BLOOM_FILTER_FPP =
+            Double.parseDouble(System.getProperty("oak.blob.gc.bloomFilterFpp", "0.01"));
     
     /** The last modified time before current time of blobs to consider for garbage collection. */
     private final long maxLastModifiedInterval;
@@ -105,6 +118,9 @@ public class MarkSweepGarbageCollector implements BlobGarbageCollector {
 
     private final String root;
 
+    /** Whether the sweep uses a bloom filter of the marked references. */
+    private boolean bloomFilterSweep = BLOOM_FILTER_SWEEP;
+
     /**
      * Creates an instance of MarkSweepGarbageCollector
      *
@@ -164,6 +180,20 @@ public class MarkSweepGarbageCollector implements BlobGarbageCollector {
         markAndSweep(markOnly);
     }
 
+    /**
+     * Enables or disables the bloom filter accelerated sweep. When enabled, the
+     * marked references are loaded into a bloom filter and the blob ids
+     * available in the blob store are streamed and checked against it. Only
+     * the ids which might be referenced are written to disk, sorted and
+     * compared exactly with the marked references. The ids definitely not
+     * referenced go straight into the candidate list.
+     *
+     * @param bloomFilterSweep {@code true} to enable the bloom filter sweep
+     */
+    public void setBloomFilterSweep(boolean bloomFilterSweep) {
+        this.bloomFilterSweep = bloomFilterSweep;
+    }
+
     /**
      * Returns the stats related to GC for all repos
      * 
@@ -299,26 +329,144 @@ public class MarkSweepGarbageCollector implements BlobGarbageCollector {
         BufferedWriter bufferWriter = null;
         try {
             bufferWriter = Files.newWriter(fs.getGcCandidates(), Charsets.UTF_8);
-            List<String> expiredSet = newArrayList();
+            numCandidates = saveDifference(iter, bufferWriter);
+            LOG.debug("Found candidates - " + numCandidates);
+        } finally {
+            IOUtils.closeQuietly(bufferWriter);
+            IOUtils.closeQuietly(iter);
+        }
+        return numCandidates;
+    }
 
-            while (iter.hasNext()) {
-                expiredSet.add(iter.next());
-                if (expiredSet.size() > getBatchCount()) {
-                    numCandidates += expiredSet.size();
-                    saveBatchToFile(expiredSet, bufferWriter);
-                }
-            }
+    private long saveDifference(Iterator<String> iter, BufferedWriter bufferWriter) throws IOException {
+        long numCandidates = 0;
+        List<String> expiredSet = newArrayList();
 
-            if (!expiredSet.isEmpty()) {
+        while (iter.hasNext()) {
+            expiredSet.add(iter.next());
+            if (expiredSet.size() > getBatchCount()) {
                 numCandidates += expiredSet.size();
                 saveBatchToFile(expiredSet, bufferWriter);
             }
+        }
+
+        if (!expiredSet.isEmpty()) {
+            numCandidates += expiredSet.size();
+            saveBatchToFile(expiredSet, bufferWriter);
+        }
+        return numCandidates;
+    }
+
+    /**
+     * Difference phase using a bloom filter of the marked references. All blob
+     * ids available in the blob store are streamed. Ids not contained in the
+     * filter are written directly to the gc candidates. Ids which might be
+     * contained are collected in the available references file, sorted and
+     * diffed exactly against the marked references to weed out the false
+     * positives.
+     *
+     * @param fs the garbage collector file state
+     * @throws Exception
+     */
+    private void filterDifference(GarbageCollectorFileState fs) throws Exception {
+        LOG.debug("Starting bloom filter difference phase of the garbage collector");
+
+        BloomFilter<CharSequence> filter = createMarkedFilter(fs.getMarkedRefs());
+        long numCandidates = 0;
+        long numPositives = 0;
+        BufferedWriter candidateWriter = null;
+        BufferedWriter positiveWriter = null;
+        try {
+            candidateWriter = Files.newWriter(fs.getGcCandidates(), Charsets.UTF_8);
+            positiveWriter = Files.newWriter(fs.getAvailableRefs(), Charsets.UTF_8);
+            Iterator<String> idsIter = blobStore.getAllChunkIds(0);
+            List<String> candidates = newArrayList();
+            List<String> positives = newArrayList();
+
+            while (idsIter.hasNext()) {
+                String id = idsIter.next();
+                if (InMemoryDataRecord.isInstance(id)) {
+                    continue;
+                }
+                if (filter.mightContain(id)) {
+                    positives.add(id);
+                    if (positives.size() > getBatchCount()) {
+                        numPositives += positives.size();
+                        saveBatchToFile(positives, positiveWriter);
+                    }
+                } else {
+                    candidates.add(id);
+                    if (candidates.size() > getBatchCount()) {
+                        numCandidates += candidates.size();
+                        saveBatchToFile(candidates, candidateWriter);
+                    }
+                }
+            }
+            if (!positives.isEmpty()) {
+                numPositives += positives.size();
+                saveBatchToFile(positives, positiveWriter);
+            }
+            if (!candidates.isEmpty()) {
+                numCandidates += candidates.size();
+                saveBatchToFile(candidates, candidateWriter);
+            }
+            IOUtils.closeQuietly(positiveWriter);
+            LOG.info("Number of blobs present in BlobStore : [{}] ", numCandidates + numPositives);
+
+            // only the ids which might be referenced need an exact check
+            GarbageCollectorFileState.sort(fs.getAvailableRefs());
+            FileLineDifferenceIterator iter = new FileLineDifferenceIterator(
+                    fs.getMarkedRefs(),
+                    fs.getAvailableRefs());
+            try {
+                long falsePositives = saveDifference(iter, candidateWriter);
+                LOG.debug("Bloom filter positives [{}], of which false positives [{}]",
+                        numPositives, falsePositives);
+                numCandidates += falsePositives;
+            } finally {
+                IOUtils.closeQuietly(iter);
+            }
             LOG.debug("Found candidates - " + numCandidates);
         } finally {
-            IOUtils.closeQuietly(bufferWriter);
-            IOUtils.closeQuietly(iter);
+            IOUtils.closeQuietly(positiveWriter);
+            IOUtils.closeQuietly(candidateWriter);
         }
-        return numCandidates;
+
+        LOG.debug("Ending bloom filter difference phase of the garbage collector");
+    }
+
+    /**
+     * Creates a bloom filter sized for the number of marked references and
+     * populates it with the blob ids of the marked references file.
+     *
+     * @param markedRefs the file with the marked references
+     * @return the bloom filter of the marked blob ids
+     * @throws IOException
+     */
+    static BloomFilter<CharSequence> createMarkedFilter(File markedRefs) throws IOException {
+        long count = 0;
+        LineIterator lines = FileUtils.lineIterator(markedRefs, Charsets.UTF_8.name());
+        try {
+            while (lines.hasNext()) {
+                lines.next();
+                count++;
+            }
+        } finally {
+            LineIterator.closeQuietly(lines);
+        }
+
+        BloomFilter<CharSequence> filter = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8),
+                (int) Math.min(Integer.MAX_VALUE, Math.max(count, 1)), BLOOM_FILTER_FPP);
+        lines = FileUtils.lineIterator(markedRefs, Charsets.UTF_8.name());
+        try {
+            while (lines.hasNext()) {
+                filter.put(lines.next().split(DELIM)[0]);
+            }
+        } finally {
+            LineIterator.closeQuietly(lines);
+        }
+        LOG.debug("Created bloom filter for [{}] marked references", count);
+        return filter;
     }
     
     /**
@@ -366,11 +514,16 @@ public class MarkSweepGarbageCollector implements BlobGarbageCollector {
             return 0;
         }
 
-        // Find all blob references after iterating over the whole repository
-        (new BlobIdRetriever(fs)).call();
+        if (bloomFilterSweep) {
+            // Stream all blob ids and check them against the marked references
+            filterDifference(fs);
+        } else {
+            // Find all blob references after iterating over the whole repository
+            (new BlobIdRetriever(fs)).call();
 
-        // Calculate the references not used
-        difference(fs);
+            // Calculate the references not used
+            difference(fs);
+        }
         long count = 0;
         long deleted = 0;
         
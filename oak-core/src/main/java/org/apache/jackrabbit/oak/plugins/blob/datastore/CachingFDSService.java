@@ -28,7 +28,8 @@ import org.apache.jackrabbit.core.data.DataStore;
 import org.osgi.service.component.ComponentContext;
 
 /**
- * OSGI server wrapper over {@link CachingFDS}
+ * OSGI server wrapper over {@link CachingFDS}. The data store reports the
+ * state of its asynchronous uploads via the {@link OakCachingFDS} stats.
  *
  */
 @Component(policy = ConfigurationPolicy.REQUIRE, name = CachingFDSService.NAME)
@@ -37,7 +38,7 @@ public class CachingFDSService extends AbstractDataStoreService{
 
     @Override
     protected DataStore createDataStore(ComponentContext context, Map<String, Object> config) {
-        CachingFDS dataStore = new CachingFDS();
+        CachingFDS dataStore = new OakCachingFDS(getStatisticsProvider());
         Properties properties = new Properties();
         properties.putAll(config);
         dataStore.setProperties(properties);
@@ -175,11 +175,20 @@ public class DataStoreTextWriter implements TextWriter, Closeable, PreExtractedT
      * @return identified file
      */
     private File getFile(String identifier) {
-        File file = directory;
-        file = new File(file, identifier.substring(0, 2));
-        file = new File(file, identifier.substring(2, 4));
-        file = new File(file, identifier.substring(4, 6));
-        return new File(file, identifier);
+        return new File(directory, getRelativePath(identifier));
+    }
+
+    /**
+     * Returns the path of the identified file relative to the root directory,
+     * with '/' as separator. The same pattern is used by the data store
+     * implementations for their files.
+     *
+     * @param identifier file name
+     * @return relative path of the identified file
+     */
+    static String getRelativePath(String identifier) {
+        return identifier.substring(0, 2) + "/" + identifier.substring(2, 4)
+                + "/" + identifier.substring(4, 6) + "/" + identifier;
     }
 
     private String stripLength(String blobId) {
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.blob.datastore;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.core.data.AsyncTouchCallback;
+import org.apache.jackrabbit.core.data.AsyncUploadCallback;
+import org.apache.jackrabbit.core.data.AsyncUploadResult;
+import org.apache.jackrabbit.core.data.Backend;
+import org.apache.jackrabbit.core.data.CachingDataRecord;
+import org.apache.jackrabbit.core.data.CachingDataStore;
+import org.apache.jackrabbit.core.data.CachingFDS;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.data.DataRecord;
+import org.apache.jackrabbit.core.data.DataStoreException;
+import org.apache.jackrabbit.oak.stats.CounterStats;
+import org.apache.jackrabbit.oak.stats.MeterStats;
+import org.apache.jackrabbit.oak.stats.StatisticsProvider;
+import org.apache.jackrabbit.oak.stats.StatsOptions;
+import org.apache.jackrabbit.oak.stats.TimerStats;
+
+/**
+ * {@link CachingFDS} reporting the state of its asynchronous uploads to a
+ * {@link StatisticsProvider}. Records added to the data store are staged in
+ * the local cache and uploaded to the backend in the background. This class
+ * exposes the number of staged uploads, the time from staging to completed
+ * upload and the number of failed uploads.
+ * <p>
+ * It also counts the streams requested from the records and how many of them
+ * were not served from the local cache but read from the backend. The cache
+ * hit ratio is derived from these two meters.
+ */
+public class OakCachingFDS extends CachingFDS {
+
+    static final String UPLOAD_QUEUE_SIZE = "CACHING_FDS_UPLOAD_QUEUE_SIZE";
+    static final String UPLOAD_LATENCY = "CACHING_FDS_UPLOAD_LATENCY";
+    static final String UPLOAD_FAILURES = "CACHING_FDS_UPLOAD_FAILURES";
+    static final String RECORDS_ADDED = "CACHING_FDS_RECORDS_ADDED";
+    static final String CACHE_REQUESTS = "CACHING_FDS_CACHE_REQUESTS";
+    static final String CACHE_MISSES = "CACHING_FDS_CACHE_MISSES";
+
+    /**
+     * Start time (in nanoseconds) of the staged uploads. An upload is
+     * registered by the backend before it is scheduled, so that it can't
+     * complete before it is registered.
+     */
+    private final ConcurrentMap<DataIdentifier, Long> staged =
+            new ConcurrentHashMap<DataIdentifier, Long>();
+
+    private final CounterStats uploadQueueSize;
+
+    private final TimerStats uploadLatency;
+
+    private final MeterStats uploadFailures;
+
+    private final MeterStats recordsAdded;
+
+    private final MeterStats cacheRequests;
+
+    private final MeterStats cacheMisses;
+
+    /**
+     * Set while a stream is requested, to tell the reads for streams apart
+     * from the proactive downloads into the local cache.
+     */
+    private final ThreadLocal<Boolean> streamRequested = new ThreadLocal<Boolean>();
+
+    /**
+     * Start time (in nanoseconds) of the record being added by the current
+     * thread.
+     */
+    private final ThreadLocal<Long> addRecordStart = new ThreadLocal<Long>();
+
+    public OakCachingFDS(@Nonnull StatisticsProvider statisticsProvider) {
+        checkNotNull(statisticsProvider);
+        this.uploadQueueSize = statisticsProvider.getCounterStats(
+                UPLOAD_QUEUE_SIZE, StatsOptions.DEFAULT);
+        this.uploadLatency = statisticsProvider.getTimer(
+                UPLOAD_LATENCY, StatsOptions.METRICS_ONLY);
+        this.uploadFailures = statisticsProvider.getMeter(
+                UPLOAD_FAILURES, StatsOptions.DEFAULT);
+        this.recordsAdded = statisticsProvider.getMeter(
+                RECORDS_ADDED, StatsOptions.DEFAULT);
+        this.cacheRequests = statisticsProvider.getMeter(
+                CACHE_REQUESTS, StatsOptions.DEFAULT);
+        this.cacheMisses = statisticsProvider.getMeter(
+                CACHE_MISSES, StatsOptions.DEFAULT);
+    }
+
+    @Override
+    protected Backend createBackend() {
+        return new CountingBackend(super.createBackend());
+    }
+
+    @Override
+    public DataRecord addRecord(InputStream input) throws DataStoreException {
+        addRecordStart.set(System.nanoTime());
+        try {
+            DataRecord record = super.addRecord(input);
+            recordsAdded.mark();
+            return counting(record);
+        } finally {
+            addRecordStart.remove();
+        }
+    }
+
+    @Override
+    public DataRecord getRecord(DataIdentifier identifier) throws DataStoreException {
+        return counting(super.getRecord(identifier));
+    }
+
+    @Override
+    public DataRecord getRecordIfStored(DataIdentifier identifier) throws DataStoreException {
+        return counting(super.getRecordIfStored(identifier));
+    }
+
+    @Override
+    public void onSuccess(AsyncUploadResult result) {
+        super.onSuccess(result);
+        completed(result.getIdentifier());
+    }
+
+    @Override
+    public void onFailure(AsyncUploadResult result) {
+        super.onFailure(result);
+        uploadFailures.mark();
+        if (!isPending(result.getIdentifier())) {
+            // no more retries
+            completed(result.getIdentifier());
+        }
+    }
+
+    @Override
+    public void onAbort(AsyncUploadResult result) {
+        super.onAbort(result);
+        completed(result.getIdentifier());
+    }
+
+    /**
+     * @return the number of uploads currently staged in the local cache
+     */
+    public long getUploadQueueSize() {
+        return uploadQueueSize.getCount();
+    }
+
+    /**
+     * @return the share of the requested streams served from the local
+     *         cache, or {@code 1} if no stream was requested yet
+     */
+    public double getCacheHitRatio() {
+        long requests = cacheRequests.getCount();
+        if (requests == 0) {
+            return 1;
+        }
+        return 1 - Math.min(requests, cacheMisses.getCount()) / (double) requests;
+    }
+
+    private boolean isPending(DataIdentifier id) {
+        // pending uploads are keyed by the relative path in the local cache
+        return getPendingUploads().contains(
+                DataStoreTextWriter.getRelativePath(id.toString()));
+    }
+
+    private DataRecord counting(DataRecord record) {
+        if (record instanceof CachingDataRecord) {
+            return new CountingDataRecord(record.getIdentifier());
+        }
+        return record;
+    }
+
+    private void staged(DataIdentifier id) {
+        Long start = addRecordStart.get();
+        // a retry keeps the start time of the first attempt
+        if (staged.putIfAbsent(id, start == null ? System.nanoTime() : start) == null) {
+            uploadQueueSize.inc();
+        }
+    }
+
+    private void completed(DataIdentifier id) {
+        Long start = staged.remove(id);
+        if (start != null) {
+            uploadLatency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            uploadQueueSize.dec();
+        }
+    }
+
+    /**
+     * Record counting the requested streams.
+     */
+    private class CountingDataRecord extends CachingDataRecord {
+
+        CountingDataRecord(DataIdentifier identifier) {
+            super(OakCachingFDS.this, identifier);
+        }
+
+        @Override
+        public InputStream getStream() throws DataStoreException {
+            cacheRequests.mark();
+            streamRequested.set(Boolean.TRUE);
+            try {
+                return super.getStream();
+            } finally {
+                streamRequested.remove();
+            }
+        }
+    }
+
+    /**
+     * Backend counting the reads for requested streams, which only happen
+     * if the stream is not available in the local cache.
+     */
+    private class CountingBackend implements Backend {
+
+        private final Backend backend;
+
+        CountingBackend(Backend backend) {
+            this.backend = backend;
+        }
+
+        @Override
+        public InputStream read(DataIdentifier identifier) throws DataStoreException {
+            if (streamRequested.get() != null) {
+                cacheMisses.mark();
+            }
+            return backend.read(identifier);
+        }
+
+        @Override
+        public void init(CachingDataStore store, String homeDir, String config)
+                throws DataStoreException {
+            backend.init(store, homeDir, config);
+        }
+
+        @Override
+        public long getLength(DataIdentifier identifier) throws DataStoreException {
+            return backend.getLength(identifier);
+        }
+
+        @Override
+        public long getLastModified(DataIdentifier identifier) throws DataStoreException {
+            return backend.getLastModified(identifier);
+        }
+
+        @Override
+        public void write(DataIdentifier identifier, File file) throws DataStoreException {
+            backend.write(identifier, file);
+        }
+
+        @Override
+        public void writeAsync(DataIdentifier identifier, File file,
+                               AsyncUploadCallback callback) throws DataStoreException {
+            staged(identifier);
+            try {
+                backend.writeAsync(identifier, file, callback);
+            } catch (DataStoreException e) {
+                completed(identifier);
+                throw e;
+            } catch (RuntimeException e) {
+                completed(identifier);
+                throw e;
+            }
+        }
+
+        @Override
+        public Iterator<DataIdentifier> getAllIdentifiers() throws DataStoreException {
+            return backend.getAllIdentifiers();
+        }
+
+        @Override
+        public boolean exists(DataIdentifier identifier, boolean touch)
+                throws DataStoreException {
+            return backend.exists(identifier, touch);
+        }
+
+        @Override
+        public boolean exists(DataIdentifier identifier) throws DataStoreException {
+            return backend.exists(identifier);
+        }
+
+        @Override
+        public void touch(DataIdentifier identifier, long minModifiedDate)
+                throws DataStoreException {
+            backend.touch(identifier, minModifiedDate);
+        }
+
+        @Override
+        public void touchAsync(DataIdentifier identifier, long minModifiedDate,
+                               AsyncTouchCallback callback) throws DataStoreException {
+            backend.touchAsync(identifier, minModifiedDate, callback);
+        }
+
+        @Override
+        public void close() throws DataStoreException {
+            backend.close();
+        }
+
+        @Override
+        public Set<DataIdentifier> deleteAllOlderThan(long timestamp)
+                throws DataStoreException {
+            return backend.deleteAllOlderThan(timestamp);
+        }
+
+        @Override
+        public void deleteRecord(DataIdentifier identifier) throws DataStoreException {
+            backend.deleteRecord(identifier);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The adaptive delay between two background reads. The delay is halved after
+ * a background read which saw changes from other cluster nodes and doubled
+ * after a background read which did not, within the given bounds. This way
+ * changes become visible quickly while other cluster nodes are busy, and
+ * idle cluster nodes read the root document less often.
+ */
+final class BackgroundReadDelay {
+
+    private final int minDelay;
+
+    private final int maxDelay;
+
+    private volatile int delay;
+
+    /**
+     * @param minDelay the minimum delay in milliseconds
+     * @param maxDelay the maximum delay in milliseconds
+     * @param initialDelay the initial delay in milliseconds
+     */
+    BackgroundReadDelay(int minDelay, int maxDelay, int initialDelay) {
+        checkArgument(minDelay > 0, "minDelay must be positive");
+        checkArgument(minDelay <= maxDelay, "minDelay must not exceed maxDelay");
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.delay = Math.max(minDelay, Math.min(maxDelay, initialDelay));
+    }
+
+    /**
+     * @return the current delay in milliseconds
+     */
+    int get() {
+        return delay;
+    }
+
+    /**
+     * Adjusts the delay after a background read.
+     *
+     * @param externalChanges whether the background read saw changes from
+     *                        other cluster nodes
+     */
+    void update(boolean externalChanges) {
+        int d = delay;
+        if (externalChanges) {
+            d = Math.max(minDelay, d / 2);
+        } else {
+            d = (int) Math.min(maxDelay, d * 2L);
+        }
+        delay = d;
+    }
+}
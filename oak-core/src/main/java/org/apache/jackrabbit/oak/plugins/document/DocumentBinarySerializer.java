@@ -0,0 +1,394 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import static org.apache.jackrabbit.oak.plugins.document.StableRevisionComparator.REVERSE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.Lists;
+import org.apache.jackrabbit.oak.commons.IOUtils;
+
+/**
+ * Compact binary serialization of {@link NodeDocument}s and
+ * {@link DocumentNodeState}s, as an alternative to the JSON text produced by
+ * {@code asString()}.
+ * <p>
+ * The format starts with a version byte followed by a type byte. Numbers are
+ * written as variable size values. Revisions are written as timestamp,
+ * counter and cluster id; a revision that already occurred in the same
+ * serialized value is written as a back reference, and is shared by the
+ * deserialized value. Frequently used names are written as an index into a
+ * fixed dictionary and deserialized as the same string instance. Property
+ * values are kept in their JSON form, as they are decoded lazily by
+ * {@link DocumentPropertyState}.
+ * <p>
+ * The dictionary must only ever be extended at the end, as the index of a
+ * name is part of the format.
+ */
+public final class DocumentBinarySerializer {
+
+    /**
+     * The current version of the format.
+     */
+    static final int VERSION = 1;
+
+    private static final int TYPE_DOCUMENT = 0;
+    private static final int TYPE_NODE_STATE = 1;
+
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_TRUE = 1;
+    private static final int VALUE_FALSE = 2;
+    private static final int VALUE_LONG = 3;
+    private static final int VALUE_STRING = 4;
+    private static final int VALUE_MAP = 5;
+
+    private static final int FLAG_HAS_CHILDREN = 1;
+    private static final int FLAG_LAST_REV = 2;
+
+    private static final String[] DICTIONARY = {
+            Document.ID,
+            Document.MOD_COUNT,
+            NodeDocument.MODIFIED_IN_SECS,
+            NodeDocument.COLLISIONS,
+            NodeDocument.COMMIT_ROOT,
+            "_prev",
+            "_deleted",
+            NodeDocument.DELETED_ONCE,
+            NodeDocument.REVISIONS,
+            "_lastRev",
+            "_children",
+            NodeDocument.PATH,
+            NodeDocument.HAS_BINARY_FLAG,
+            "_stalePrev",
+            NodeDocument.SD_TYPE,
+            NodeDocument.SD_MAX_REV_TIME_IN_SECS,
+            "jcr:primaryType",
+            "jcr:mixinTypes",
+            "jcr:uuid",
+            "jcr:created",
+            "jcr:createdBy",
+            "jcr:lastModified",
+            "jcr:lastModifiedBy",
+            "jcr:data",
+            "jcr:mimeType",
+            "jcr:encoding",
+            "jcr:title",
+            "jcr:description",
+            ":childOrder",
+            "rep:principalName",
+            "rep:privileges",
+            "rep:glob",
+            "rep:authorizableId",
+            "rep:password",
+    };
+
+    private static final Map<String, Integer> DICTIONARY_INDEX =
+            new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < DICTIONARY.length; i++) {
+            DICTIONARY_INDEX.put(DICTIONARY[i], i);
+        }
+    }
+
+    private DocumentBinarySerializer() {
+    }
+
+    /**
+     * Serializes the given document.
+     *
+     * @param doc the document
+     * @return the serialized document
+     */
+    @Nonnull
+    public static byte[] toBytes(@Nonnull NodeDocument doc) {
+        Writer w = new Writer(TYPE_DOCUMENT);
+        try {
+            IOUtils.writeVarInt(w.out, doc.data.size());
+            for (Map.Entry<String, Object> e : doc.data.entrySet()) {
+                w.writeName(e.getKey());
+                w.writeValue(e.getValue());
+            }
+        } catch (IOException e) {
+            // not possible with a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return w.out.toByteArray();
+    }
+
+    /**
+     * Deserializes a document serialized with {@link #toBytes(NodeDocument)}.
+     *
+     * @param store the document store
+     * @param data the serialized document
+     * @return the document
+     * @throws IllegalArgumentException if the data is not a serialized
+     *          document of a supported version
+     */
+    @Nonnull
+    public static NodeDocument documentFromBytes(@Nonnull DocumentStore store,
+                                                 @Nonnull byte[] data) {
+        Reader r = new Reader(data, TYPE_DOCUMENT);
+        try {
+            NodeDocument doc = new NodeDocument(store);
+            int size = IOUtils.readVarInt(r.in);
+            for (int i = 0; i < size; i++) {
+                String name = r.readName();
+                doc.put(name, r.readValue());
+            }
+            return doc;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupt document", e);
+        }
+    }
+
+    /**
+     * Serializes the given node state.
+     *
+     * @param state the node state
+     * @return the serialized node state
+     */
+    @Nonnull
+    public static byte[] toBytes(@Nonnull DocumentNodeState state) {
+        Writer w = new Writer(TYPE_NODE_STATE);
+        try {
+            int flags = 0;
+            if (state.hasChildren) {
+                flags |= FLAG_HAS_CHILDREN;
+            }
+            if (state.lastRevision != null) {
+                flags |= FLAG_LAST_REV;
+            }
+            w.out.write(flags);
+            IOUtils.writeString(w.out, state.path);
+            w.writeRevisionVector(state.readRevision);
+            if (state.lastRevision != null) {
+                w.writeRevisionVector(state.lastRevision);
+            }
+            IOUtils.writeVarInt(w.out, state.properties.size());
+            for (String name : state.properties.keySet()) {
+                w.writeName(name);
+                IOUtils.writeString(w.out, state.getPropertyAsString(name));
+            }
+        } catch (IOException e) {
+            // not possible with a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return w.out.toByteArray();
+    }
+
+    /**
+     * Deserializes a node state serialized with
+     * {@link #toBytes(DocumentNodeState)}.
+     *
+     * @param store the node store
+     * @param data the serialized node state
+     * @return the node state
+     * @throws IllegalArgumentException if the data is not a serialized node
+     *          state of a supported version
+     */
+    @Nonnull
+    public static DocumentNodeState nodeStateFromBytes(@Nonnull DocumentNodeStore store,
+                                                       @Nonnull byte[] data) {
+        Reader r = new Reader(data, TYPE_NODE_STATE);
+        try {
+            int flags = r.in.read();
+            String path = IOUtils.readString(r.in);
+            RevisionVector rev = r.readRevisionVector();
+            DocumentNodeState state = new DocumentNodeState(store, path, rev,
+                    (flags & FLAG_HAS_CHILDREN) != 0);
+            if ((flags & FLAG_LAST_REV) != 0) {
+                state.setLastRevision(r.readRevisionVector());
+            }
+            int size = IOUtils.readVarInt(r.in);
+            for (int i = 0; i < size; i++) {
+                String name = r.readName();
+                state.setProperty(name, IOUtils.readString(r.in));
+            }
+            return state;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupt node state", e);
+        }
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    private static class Writer {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        /**
+         * The revisions written so far, with their index.
+         */
+        private final Map<Revision, Integer> revisions = new HashMap<Revision, Integer>();
+
+        Writer(int type) {
+            out.write(VERSION);
+            out.write(type);
+        }
+
+        void writeName(String name) throws IOException {
+            Integer idx = DICTIONARY_INDEX.get(name);
+            if (idx != null) {
+                IOUtils.writeVarInt(out, idx + 1);
+            } else {
+                IOUtils.writeVarInt(out, 0);
+                IOUtils.writeString(out, name);
+            }
+        }
+
+        void writeRevision(Revision r) throws IOException {
+            Integer idx = revisions.get(r);
+            if (idx != null) {
+                IOUtils.writeVarInt(out, idx + 1);
+                return;
+            }
+            revisions.put(r, revisions.size());
+            IOUtils.writeVarInt(out, 0);
+            IOUtils.writeVarLong(out, r.getTimestamp());
+            IOUtils.writeVarInt(out, r.getCounter());
+            IOUtils.writeVarInt(out, (r.getClusterId() << 1) | (r.isBranch() ? 1 : 0));
+        }
+
+        void writeRevisionVector(RevisionVector rv) throws IOException {
+            List<Revision> revs = Lists.newArrayList(rv);
+            IOUtils.writeVarInt(out, revs.size());
+            for (Revision r : revs) {
+                writeRevision(r);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.write(VALUE_NULL);
+            } else if (value instanceof Boolean) {
+                out.write((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+            } else if (value instanceof Long || value instanceof Integer) {
+                out.write(VALUE_LONG);
+                long x = ((Number) value).longValue();
+                // zig-zag encoding, to keep small negative values short
+                IOUtils.writeVarLong(out, (x << 1) ^ (x >> 63));
+            } else if (value instanceof Map) {
+                Map<Revision, Object> map = (Map<Revision, Object>) value;
+                out.write(VALUE_MAP);
+                IOUtils.writeVarInt(out, map.size());
+                for (Map.Entry<Revision, Object> e : map.entrySet()) {
+                    writeRevision(e.getKey());
+                    writeValue(e.getValue());
+                }
+            } else {
+                out.write(VALUE_STRING);
+                IOUtils.writeString(out, value.toString());
+            }
+        }
+    }
+
+    private static class Reader {
+
+        final ByteArrayInputStream in;
+
+        /**
+         * The revisions read so far, by their index.
+         */
+        private final List<Revision> revisions = new ArrayList<Revision>();
+
+        Reader(byte[] data, int type) {
+            in = new ByteArrayInputStream(data);
+            int version = in.read();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported version " + version);
+            }
+            int t = in.read();
+            if (t != type) {
+                throw new IllegalArgumentException("Unexpected type " + t);
+            }
+        }
+
+        String readName() throws IOException {
+            int idx = IOUtils.readVarInt(in);
+            if (idx == 0) {
+                return IOUtils.readString(in);
+            } else if (idx > DICTIONARY.length) {
+                throw new IOException("Unknown name index " + idx);
+            }
+            return DICTIONARY[idx - 1];
+        }
+
+        Revision readRevision() throws IOException {
+            int idx = IOUtils.readVarInt(in);
+            if (idx > 0) {
+                if (idx > revisions.size()) {
+                    throw new IOException("Unknown revision index " + idx);
+                }
+                return revisions.get(idx - 1);
+            }
+            long timestamp = IOUtils.readVarLong(in);
+            int counter = IOUtils.readVarInt(in);
+            int x = IOUtils.readVarInt(in);
+            Revision r = new Revision(timestamp, counter, x >>> 1, (x & 1) != 0);
+            revisions.add(r);
+            return r;
+        }
+
+        RevisionVector readRevisionVector() throws IOException {
+            int size = IOUtils.readVarInt(in);
+            Revision[] revs = new Revision[size];
+            for (int i = 0; i < size; i++) {
+                revs[i] = readRevision();
+            }
+            return new RevisionVector(revs);
+        }
+
+        Object readValue() throws IOException {
+            int type = in.read();
+            switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_LONG:
+                long x = IOUtils.readVarLong(in);
+                return (x >>> 1) ^ -(x & 1);
+            case VALUE_STRING:
+                return IOUtils.readString(in);
+            case VALUE_MAP:
+                int size = IOUtils.readVarInt(in);
+                TreeMap<Revision, Object> map = new TreeMap<Revision, Object>(REVERSE);
+                for (int i = 0; i < size; i++) {
+                    Revision r = readRevision();
+                    map.put(r, readValue());
+                }
+                return map;
+            default:
+                throw new IOException("Unknown value type " + type);
+            }
+        }
+    }
+}
@@ -21,8 +21,12 @@ import static com.google.common.base.Preconditions.checkArgument;
 import java.io.InputStream;
 import java.net.UnknownHostException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.CheckForNull;
@@ -33,8 +37,10 @@ import javax.sql.DataSource;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mongodb.DB;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.cache.CacheLIRS;
@@ -51,6 +57,7 @@ import org.apache.jackrabbit.oak.plugins.blob.CachingBlobStore;
 import org.apache.jackrabbit.oak.plugins.blob.ReferencedBlob;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeState.Children;
 import org.apache.jackrabbit.oak.plugins.document.cache.NodeDocumentCache;
+import org.apache.jackrabbit.oak.plugins.document.cache.OffHeapCache;
 import org.apache.jackrabbit.oak.plugins.document.locks.NodeDocumentLocks;
 import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
 import org.apache.jackrabbit.oak.plugins.document.mongo.MongoBlobReferenceIterator;
@@ -112,6 +119,12 @@ public class DocumentMK {
     static final boolean FAST_DIFF = Boolean.parseBoolean(
             System.getProperty("oak.documentMK.fastDiff", "true"));
 
+    /**
+     * Compute diffs for changes of other cluster nodes from the journal.
+     */
+    static final boolean JOURNAL_DIFF = Boolean.parseBoolean(
+            System.getProperty("oak.documentMK.journalDiff", "true"));
+
     /**
      * The guava cache concurrency level.
      */
@@ -498,11 +511,15 @@ public class DocumentMK {
         private BlobStore blobStore;
         private int clusterId  = Integer.getInteger("oak.documentMK.clusterId", 0);
         private int asyncDelay = 1000;
+        private int backgroundReadMinDelay;
+        private int backgroundReadMaxDelay;
         private boolean timing;
         private boolean logging;
         private boolean leaseCheck = true; // OAK-2739 is enabled by default also for non-osgi
         private Weigher<CacheValue, CacheValue> weigher = new EmpiricalWeigher();
         private long memoryCacheSize = DEFAULT_MEMORY_CACHE_SIZE;
+        private long offHeapCacheSize;
+        private final List<CacheStats> offHeapCacheStats = Lists.newArrayList();
         private int nodeCachePercentage = DEFAULT_NODE_CACHE_PERCENTAGE;
         private int childrenCachePercentage = DEFAULT_CHILDREN_CACHE_PERCENTAGE;
         private int diffCachePercentage = DEFAULT_DIFF_CACHE_PERCENTAGE;
@@ -520,6 +537,8 @@ public class DocumentMK {
         private StatisticsProvider statisticsProvider = StatisticsProvider.NOOP;
         private BlobStoreStats blobStoreStats;
         private CacheStats blobStoreCacheStats;
+        private int blobReadAheadBlocks;
+        private ExecutorService blobReadAheadExecutor;
 
         public Builder() {
         }
@@ -783,6 +802,67 @@ public class DocumentMK {
             return asyncDelay;
         }
 
+        /**
+         * Enables an adaptive delay between two background reads. The delay
+         * starts at the async delay and is halved whenever a background read
+         * saw changes from other cluster nodes and doubled otherwise, within
+         * the given bounds. By default the background read runs every
+         * async delay.
+         *
+         * @param minDelay the minimum delay in milliseconds
+         * @param maxDelay the maximum delay in milliseconds
+         * @return this
+         */
+        public Builder setAdaptiveBackgroundRead(int minDelay, int maxDelay) {
+            checkArgument(minDelay > 0 && minDelay <= maxDelay,
+                    "Invalid background read delay bounds: %s, %s", minDelay, maxDelay);
+            this.backgroundReadMinDelay = minDelay;
+            this.backgroundReadMaxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * @return the minimum background read delay, or zero if the delay is
+         *          not adaptive
+         */
+        public int getBackgroundReadMinDelay() {
+            return backgroundReadMinDelay;
+        }
+
+        public int getBackgroundReadMaxDelay() {
+            return backgroundReadMaxDelay;
+        }
+
+        /**
+         * Enables reading ahead blocks when streaming blobs from the blob
+         * store created by this builder (for MongoDB, RDB, or the default
+         * in-memory blob store). This must be set before the connection,
+         * as the blob store is created with it. The blocks are read by
+         * daemon threads, which are stopped when the node store is
+         * disposed. Zero (the default) disables read-ahead.
+         *
+         * @param blocks the number of blocks to read ahead
+         * @return this
+         */
+        public Builder setBlobReadAhead(int blocks) {
+            checkArgument(blocks >= 0);
+            this.blobReadAheadBlocks = blocks;
+            return this;
+        }
+
+        public int getBlobReadAhead() {
+            return blobReadAheadBlocks;
+        }
+
+        /**
+         * @return the executor reading ahead blob blocks, or {@code null} if
+         *         read-ahead is disabled
+         */
+        @CheckForNull
+        ExecutorService getBlobReadAheadExecutor() {
+            return blobReadAheadExecutor;
+        }
+
         public Weigher<CacheValue, CacheValue> getWeigher() {
             return weigher;
         }
@@ -797,6 +877,33 @@ public class DocumentMK {
             return this;
         }
         
+        /**
+         * Sets the size of the off-heap tier of the node and children
+         * caches. The size is distributed among the two caches in the same
+         * ratio as the memory cache. A size of zero (the default) disables
+         * the off-heap tier.
+         *
+         * @param offHeapCacheSize the size in bytes
+         * @return this
+         */
+        public Builder offHeapCacheSize(long offHeapCacheSize) {
+            checkArgument(offHeapCacheSize >= 0);
+            this.offHeapCacheSize = offHeapCacheSize;
+            return this;
+        }
+
+        public long getOffHeapCacheSize() {
+            return offHeapCacheSize;
+        }
+
+        /**
+         * @return the statistics of the off-heap tiers of the caches built
+         *         so far
+         */
+        public Iterable<CacheStats> getOffHeapCacheStats() {
+            return offHeapCacheStats;
+        }
+
         public Builder memoryCacheDistribution(int nodeCachePercentage,
                                                int childrenCachePercentage,
                                                int docChildrenCachePercentage,
@@ -822,6 +929,15 @@ public class DocumentMK {
             return memoryCacheSize * childrenCachePercentage / 100;
         }
 
+        public long getOffHeapNodeCacheSize() {
+            int total = nodeCachePercentage + childrenCachePercentage;
+            return total == 0 ? 0 : offHeapCacheSize * nodeCachePercentage / total;
+        }
+
+        public long getOffHeapChildrenCacheSize() {
+            return offHeapCacheSize - getOffHeapNodeCacheSize();
+        }
+
         public long getDocumentCacheSize() {
             return memoryCacheSize - getNodeCacheSize() - getChildrenCacheSize() 
                     - getDiffCacheSize() - getDocChildrenCacheSize();
@@ -874,6 +990,10 @@ public class DocumentMK {
             return this;
         }
 
+        public StatisticsProvider getStatisticsProvider() {
+            return statisticsProvider;
+        }
+
         @CheckForNull
         public BlobStoreStats getBlobStoreStats() {
             return blobStoreStats;
@@ -949,11 +1069,13 @@ public class DocumentMK {
         }
         
         public Cache<PathRev, DocumentNodeState> buildNodeCache(DocumentNodeStore store) {
-            return buildCache(CacheType.NODE, getNodeCacheSize(), store, null);
+            return buildCache(CacheType.NODE, getNodeCacheSize(),
+                    getOffHeapNodeCacheSize(), "Document-NodeState-OffHeap", store, null);
         }
         
         public Cache<PathRev, DocumentNodeState.Children> buildChildrenCache() {
-            return buildCache(CacheType.CHILDREN, getChildrenCacheSize(), null, null);            
+            return buildCache(CacheType.CHILDREN, getChildrenCacheSize(),
+                    getOffHeapChildrenCacheSize(), "Document-NodeChildren-OffHeap", null, null);
         }
         
         public Cache<StringValue, NodeDocument.Children> buildDocChildrenCache() {
@@ -984,7 +1106,25 @@ public class DocumentMK {
                 DocumentNodeStore docNodeStore,
                 DocumentStore docStore
                 ) {
+            return buildCache(cacheType, maxWeight, 0, null, docNodeStore, docStore);
+        }
+
+        private <K extends CacheValue, V extends CacheValue> Cache<K, V> buildCache(
+                CacheType cacheType,
+                long maxWeight,
+                long offHeapMaxWeight,
+                String offHeapStatsName,
+                DocumentNodeStore docNodeStore,
+                DocumentStore docStore
+                ) {
             Cache<K, V> cache = buildCache(cacheType.name(), maxWeight);
+            if (offHeapMaxWeight > 0) {
+                OffHeapCache<K, V> offHeapCache = new OffHeapCache<K, V>(cache,
+                        cacheType, offHeapMaxWeight, cacheSegmentCount,
+                        cacheStackMoveDistance, docNodeStore, docStore);
+                offHeapCacheStats.add(offHeapCache.getOffHeapCacheStats(offHeapStatsName));
+                cache = offHeapCache;
+            }
             PersistentCache p = getPersistentCache();
             if (p != null) {
                 if (docNodeStore != null) {
@@ -1002,6 +1142,7 @@ public class DocumentMK {
             if (persistentCache == null) {
                 try {
                     persistentCache = new PersistentCache(persistentCacheURI);
+                    persistentCache.setStatisticsProvider(statisticsProvider);
                 } catch (Throwable e) {
                     LOG.warn("Persistent cache not available; please disable the configuration", e);
                     throw new IllegalArgumentException(e);
@@ -1060,6 +1201,21 @@ public class DocumentMK {
             if (blobStore instanceof CachingBlobStore){
                 blobStoreCacheStats = ((CachingBlobStore) blobStore).getCacheStats();
             }
+
+            if (blobReadAheadBlocks > 0 && blobStore instanceof AbstractBlobStore) {
+                if (blobReadAheadExecutor == null) {
+                    // at most one thread per block read ahead at the same time
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                            blobReadAheadBlocks, blobReadAheadBlocks,
+                            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactoryBuilder().setDaemon(true)
+                                    .setNameFormat("oak-blob-read-ahead-%d").build());
+                    executor.allowCoreThreadTimeOut(true);
+                    blobReadAheadExecutor = executor;
+                }
+                ((AbstractBlobStore) blobStore).setReadAhead(
+                        blobReadAheadBlocks, blobReadAheadExecutor);
+            }
         }
 
     }
@@ -161,6 +161,15 @@ public class DocumentNodeState extends AbstractNodeState implements CacheValue {
         return fromExternalChange;
     }
 
+    /**
+     * @param store a node store
+     * @return {@code true} if this is the root node state of a revision of
+     *          the given store; {@code false} otherwise.
+     */
+    boolean isRootOf(DocumentNodeStore store) {
+        return this.store == store && "/".equals(path);
+    }
+
     @Nonnull
     RevisionVector getRevision() {
         return readRevision;
@@ -27,6 +27,7 @@ import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
 import static org.apache.jackrabbit.oak.plugins.document.Collection.JOURNAL;
 import static org.apache.jackrabbit.oak.plugins.document.Collection.NODES;
 import static org.apache.jackrabbit.oak.plugins.document.DocumentMK.FAST_DIFF;
+import static org.apache.jackrabbit.oak.plugins.document.DocumentMK.JOURNAL_DIFF;
 import static org.apache.jackrabbit.oak.plugins.document.DocumentMK.MANY_CHILDREN_THRESHOLD;
 import static org.apache.jackrabbit.oak.plugins.document.JournalEntry.fillExternalChanges;
 import static org.apache.jackrabbit.oak.plugins.document.UpdateOp.Key;
@@ -53,6 +54,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -77,6 +79,7 @@ import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import org.apache.jackrabbit.oak.commons.IOUtils;
+import org.apache.jackrabbit.oak.commons.concurrent.ExecutorCloser;
 import org.apache.jackrabbit.oak.commons.jmx.AnnotatedStandardMBean;
 import org.apache.jackrabbit.oak.plugins.blob.BlobStoreBlob;
 import org.apache.jackrabbit.oak.plugins.blob.MarkSweepGarbageCollector;
@@ -103,6 +106,7 @@ import org.apache.jackrabbit.oak.spi.commit.Observable;
 import org.apache.jackrabbit.oak.spi.commit.CommitHook;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.commit.RootStateResolver;
 import org.apache.jackrabbit.oak.spi.state.AbstractNodeState;
 import org.apache.jackrabbit.oak.spi.state.Clusterable;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
@@ -110,6 +114,10 @@ import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeStateDiff;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
 import org.apache.jackrabbit.oak.stats.Clock;
+import org.apache.jackrabbit.oak.stats.HistogramStats;
+import org.apache.jackrabbit.oak.stats.StatisticsProvider;
+import org.apache.jackrabbit.oak.stats.StatsOptions;
+import org.apache.jackrabbit.oak.stats.TimerStats;
 import org.apache.jackrabbit.oak.util.PerfLogger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -118,18 +126,38 @@ import org.slf4j.LoggerFactory;
  * Implementation of a NodeStore on {@link DocumentStore}.
  */
 public final class DocumentNodeStore
-        implements NodeStore, RevisionContext, Observable, Clusterable {
+        implements NodeStore, RevisionContext, Observable, Clusterable,
+        RootStateResolver {
 
     private static final Logger LOG = LoggerFactory.getLogger(DocumentNodeStore.class);
 
     private static final PerfLogger PERFLOG = new PerfLogger(
             LoggerFactory.getLogger(DocumentNodeStore.class.getName() + ".perf"));
 
+    /**
+     * Prefix of references to root states from external changes.
+     */
+    private static final String EXTERNAL_REF_PREFIX = "ext:";
+
     /**
      * Do not cache more than this number of children for a document.
      */
     static final int NUM_CHILDREN_CACHE_LIMIT = Integer.getInteger("oak.documentMK.childrenCacheLimit", 16 * 1024);
 
+    /**
+     * The maximum number of paths pushed to other cluster nodes after a
+     * background write. If more paths changed, only the revision is pushed.
+     */
+    static final int MAX_PUSHED_PATHS = 100;
+
+    /**
+     * The maximum total length of the paths pushed to other cluster nodes,
+     * in bytes when encoded as UTF-8. The persistent cache additionally
+     * checks the length of the encoded message, and only pushes the
+     * revision if the message is too long for the broadcaster.
+     */
+    static final int MAX_PUSHED_PATHS_LENGTH = 16 * 1024;
+
     /**
      * Feature flag to enable concurrent add/remove operations of hidden empty
      * nodes. See OAK-2673.
@@ -243,6 +271,29 @@ public final class DocumentNodeStore
      */
     private final Object backgroundReadMonitor = new Object();
 
+    /**
+     * Set and notified to run the background read earlier than scheduled,
+     * e.g. when another cluster node pushed changes.
+     */
+    private final AtomicBoolean backgroundReadWakeUp = new AtomicBoolean();
+
+    /**
+     * The adaptive delay between background reads or {@code null} if the
+     * background read runs every {@link #asyncDelay}.
+     */
+    private final BackgroundReadDelay backgroundReadDelay;
+
+    /**
+     * The time from a commit on another cluster node until the change
+     * became visible on this cluster node.
+     */
+    private final TimerStats externalChangeLatency;
+
+    /**
+     * The delay between background reads.
+     */
+    private final HistogramStats backgroundReadDelayStats;
+
     private Thread backgroundUpdateThread;
 
     /**
@@ -369,6 +420,11 @@ public final class DocumentNodeStore
     
     private final Executor executor;
 
+    /**
+     * The executor reading ahead blob blocks, or {@code null}.
+     */
+    private final ExecutorService blobReadAheadExecutor;
+
     private final LastRevRecoveryAgent lastRevRecoveryAgent;
 
     private final boolean disableBranches;
@@ -391,6 +447,7 @@ public final class DocumentNodeStore
         }
         this.changes = Collection.JOURNAL.newDocument(s);
         this.executor = builder.getExecutor();
+        this.blobReadAheadExecutor = builder.getBlobReadAheadExecutor();
         this.clock = builder.getClock();
 
         int cid = builder.getClusterId();
@@ -409,6 +466,18 @@ public final class DocumentNodeStore
         this.clusterId = cid;
         this.branches = new UnmergedBranches();
         this.asyncDelay = builder.getAsyncDelay();
+        if (builder.getBackgroundReadMinDelay() > 0) {
+            this.backgroundReadDelay = new BackgroundReadDelay(
+                    builder.getBackgroundReadMinDelay(),
+                    builder.getBackgroundReadMaxDelay(), asyncDelay);
+        } else {
+            this.backgroundReadDelay = null;
+        }
+        StatisticsProvider statisticsProvider = builder.getStatisticsProvider();
+        this.externalChangeLatency = statisticsProvider.getTimer(
+                "DOCUMENT_NS_EXTERNAL_CHANGE_LATENCY", StatsOptions.METRICS_ONLY);
+        this.backgroundReadDelayStats = statisticsProvider.getHistogram(
+                "DOCUMENT_NS_BACKGROUND_READ_DELAY", StatsOptions.METRICS_ONLY);
         this.versionGarbageCollector = new VersionGarbageCollector(
                 this, builder.createVersionGCSupport());
         this.journalGarbageCollector = new JournalGarbageCollector(this);
@@ -483,7 +552,7 @@ public final class DocumentNodeStore
         String threadNamePostfix = "(" + clusterId + ")";
         batchCommitQueue = new BatchCommitQueue(store);
         backgroundReadThread = new Thread(
-                new BackgroundReadOperation(this, isDisposed),
+                new BackgroundReadOperation(this, isDisposed, backgroundReadWakeUp),
                 "DocumentNodeStore background read thread " + threadNamePostfix);
         backgroundReadThread.setDaemon(true);
         backgroundUpdateThread = new Thread(
@@ -527,6 +596,9 @@ public final class DocumentNodeStore
         synchronized (isDisposed) {
             isDisposed.notifyAll();
         }
+        synchronized (backgroundReadWakeUp) {
+            backgroundReadWakeUp.notifyAll();
+        }
         try {
             backgroundReadThread.join();
         } catch (InterruptedException e) {
@@ -570,6 +642,9 @@ public final class DocumentNodeStore
                 LOG.debug("Error closing blob store " + blobStore, ex);
             }
         }
+        if (blobReadAheadExecutor != null) {
+            new ExecutorCloser(blobReadAheadExecutor).close();
+        }
         if (persistentCache != null) {
             persistentCache.close();
         }
@@ -696,6 +771,19 @@ public final class DocumentNodeStore
         return asyncDelay;
     }
 
+    /**
+     * @return the current delay between two background reads in
+     *          milliseconds, zero if background operations are disabled
+     */
+    int getBackgroundReadDelay() {
+        int delay = asyncDelay;
+        BackgroundReadDelay d = backgroundReadDelay;
+        if (delay != 0 && d != null) {
+            delay = d.get();
+        }
+        return delay;
+    }
+
     public void setMaxBackOffMillis(int time) {
         maxBackOffMillis = time;
     }
@@ -1382,14 +1470,19 @@ public final class DocumentNodeStore
         if (node.hasNoChildren() && base.hasNoChildren()) {
             return true;
         }
+        DiffCache.Loader loader = new DiffCache.Loader() {
+            @Override
+            public String call() {
+                return diffImpl(base, node);
+            }
+        };
+        if (JOURNAL_DIFF) {
+            loader = new JournalDiffLoader(this, base.getRootRevision(),
+                    node.getRootRevision(), node.getPath(), loader);
+        }
         return dispatch(diffCache.getChanges(base.getRootRevision(),
-                node.getRootRevision(), node.getPath(),
-                new DiffCache.Loader() {
-                    @Override
-                    public String call() {
-                        return diffImpl(base, node);
-                    }
-                }), node, base, diff);
+                node.getRootRevision(), node.getPath(), loader),
+                node, base, diff);
     }
 
     /**
@@ -1656,6 +1749,10 @@ public final class DocumentNodeStore
             // pull in changes from other cluster nodes
             BackgroundReadStats readStats = backgroundRead();
             long readTime = clock.getTime() - start;
+            if (backgroundReadDelay != null) {
+                backgroundReadDelay.update(readStats.externalChanges);
+                backgroundReadDelayStats.update(backgroundReadDelay.get());
+            }
             String msg = "Background read operations stats (read:{} {})";
             if (clock.getTime() - start > TimeUnit.SECONDS.toMillis(10)) {
                 // log as info if it took more than 10 seconds
@@ -1732,7 +1829,7 @@ public final class DocumentNodeStore
         BackgroundReadStats stats = new BackgroundReadStats();
         long time = clock.getTime();
         String id = Utils.getIdFromPath("/");
-        NodeDocument doc = store.find(Collection.NODES, id, asyncDelay);
+        NodeDocument doc = store.find(Collection.NODES, id, getBackgroundReadDelay());
         if (doc == null) {
             return stats;
         }
@@ -1779,6 +1876,7 @@ public final class DocumentNodeStore
             time = clock.getTime();
 
             if (!externalChanges.isEmpty()) {
+                stats.externalChanges = true;
                 // invalidate caches
                 if (externalSort == null) {
                     // if no externalSort available, then invalidate the classic way: everything
@@ -1828,6 +1926,10 @@ public final class DocumentNodeStore
                     setRoot(newHead);
                     commitQueue.headRevisionChanged();
                     time = clock.getTime();
+                    for (Revision r : externalChanges) {
+                        externalChangeLatency.update(Math.max(0,
+                                time - r.getTimestamp()), TimeUnit.MILLISECONDS);
+                    }
                     if (externalSort != null) {
                         // then there were external changes and reading them
                         // was successful -> apply them to the diff cache
@@ -1854,6 +1956,7 @@ public final class DocumentNodeStore
     }
 
     private static class BackgroundReadStats {
+        boolean externalChanges;
         CacheInvalidationStats cacheStats;
         long readHead;
         long cacheInvalidationTime;
@@ -1955,15 +2058,61 @@ public final class DocumentNodeStore
     }
 
     BackgroundWriteStats backgroundWrite() {
-        return unsavedLastRevisions.persist(this, new UnsavedModifications.Snapshot() {
+        final JournalEntry[] pushed = new JournalEntry[1];
+        final Revision[] pushedRev = new Revision[1];
+        BackgroundWriteStats stats = unsavedLastRevisions.persist(this, new UnsavedModifications.Snapshot() {
             @Override
             public void acquiring(Revision mostRecent) {
                 if (store.create(JOURNAL,
                         singletonList(changes.asUpdateOp(mostRecent)))) {
+                    pushed[0] = changes;
+                    pushedRev[0] = mostRecent;
                     changes = JOURNAL.newDocument(getDocumentStore());
                 }
             }
         }, backgroundOperationLock.writeLock());
+        PersistentCache pc = persistentCache;
+        if (pushed[0] != null && pc != null && pc.isPushChanges()) {
+            // the _lastRev of the root document is updated at this point
+            pc.broadcastChanges(pushedRev[0], pushed[0].getModifiedPaths(
+                    MAX_PUSHED_PATHS, MAX_PUSHED_PATHS_LENGTH));
+        }
+        return stats;
+    }
+
+    /**
+     * Called when another cluster node pushed the paths it changed up to the
+     * given revision. The affected documents are invalidated and the
+     * background read is triggered early. Changes already visible through an
+     * earlier background read are ignored.
+     *
+     * @param lastRev the new _lastRev of the other cluster node
+     * @param paths the changed paths, or {@code null} if unknown
+     */
+    void changesPushed(@Nonnull Revision lastRev, @Nullable List<String> paths) {
+        if (isDisposed.get() || lastRev.getClusterId() == clusterId) {
+            return;
+        }
+        DocumentNodeState r = root;
+        if (r == null) {
+            // not yet initialized
+            return;
+        }
+        Revision known = r.getRootRevision().getRevision(lastRev.getClusterId());
+        if (known != null && known.compareRevisionTime(lastRev) >= 0) {
+            return;
+        }
+        if (paths != null) {
+            for (String p : paths) {
+                store.invalidateCache(Collection.NODES, Utils.getIdFromPath(p));
+            }
+        }
+        // the background read must see the new _lastRev
+        store.invalidateCache(Collection.NODES, Utils.getIdFromPath("/"));
+        synchronized (backgroundReadWakeUp) {
+            backgroundReadWakeUp.set(true);
+            backgroundReadWakeUp.notifyAll();
+        }
     }
 
     //-----------------------------< internal >---------------------------------
@@ -2499,19 +2648,33 @@ public final class DocumentNodeStore
     static abstract class NodeStoreTask implements Runnable {
         final WeakReference<DocumentNodeStore> ref;
         private final AtomicBoolean isDisposed;
+        private final AtomicBoolean wakeUp;
         private final Supplier<Integer> delaySupplier;
 
         NodeStoreTask(final DocumentNodeStore nodeStore,
                       final AtomicBoolean isDisposed,
                       Supplier<Integer> delay) {
+            this(nodeStore, isDisposed, null, delay);
+        }
+
+        /**
+         * @param wakeUp if not null, the task waits on this monitor instead
+         *               of isDisposed and runs early when it is set. Must
+         *               also be notified on dispose.
+         */
+        NodeStoreTask(final DocumentNodeStore nodeStore,
+                      final AtomicBoolean isDisposed,
+                      @Nullable final AtomicBoolean wakeUp,
+                      Supplier<Integer> delay) {
             this.ref = new WeakReference<DocumentNodeStore>(nodeStore);
             this.isDisposed = isDisposed;
+            this.wakeUp = wakeUp;
             if (delay == null) {
                 delay = new Supplier<Integer>() {
                     @Override
                     public Integer get() {
                         DocumentNodeStore ns = ref.get();
-                        return ns != null ? ns.getAsyncDelay() : 0;
+                        return ns != null ? getDelay(ns) : 0;
                     }
                 };
             }
@@ -2525,13 +2688,28 @@ public final class DocumentNodeStore
 
         protected abstract void execute(@Nonnull DocumentNodeStore nodeStore);
 
+        /**
+         * @return the delay until the next execution when no delay supplier
+         *          was given. Defaults to the async delay.
+         */
+        protected int getDelay(@Nonnull DocumentNodeStore nodeStore) {
+            return nodeStore.getAsyncDelay();
+        }
+
         @Override
         public void run() {
             int delay = delaySupplier.get();
+            AtomicBoolean monitor = wakeUp != null ? wakeUp : isDisposed;
             while (delay != 0 && !isDisposed.get()) {
-                synchronized (isDisposed) {
+                synchronized (monitor) {
                     try {
-                        isDisposed.wait(delay);
+                        // do not wait if a wake up was requested meanwhile
+                        if (wakeUp == null || !wakeUp.getAndSet(false)) {
+                            monitor.wait(delay);
+                        }
+                        if (wakeUp != null) {
+                            wakeUp.set(false);
+                        }
                     } catch (InterruptedException e) {
                         // ignore
                     }
@@ -2574,14 +2752,20 @@ public final class DocumentNodeStore
     static class BackgroundReadOperation extends NodeStoreTask {
 
         BackgroundReadOperation(DocumentNodeStore nodeStore,
-                                AtomicBoolean isDisposed) {
-            super(nodeStore, isDisposed);
+                                AtomicBoolean isDisposed,
+                                AtomicBoolean wakeUp) {
+            super(nodeStore, isDisposed, wakeUp, null);
         }
 
         @Override
         protected void execute(@Nonnull DocumentNodeStore nodeStore) {
             nodeStore.runBackgroundReadOperations();
         }
+
+        @Override
+        protected int getDelay(@Nonnull DocumentNodeStore nodeStore) {
+            return nodeStore.getBackgroundReadDelay();
+        }
     }
 
     static class BackgroundLeaseUpdate extends NodeStoreTask {
@@ -2655,10 +2839,50 @@ public final class DocumentNodeStore
 
     public void setPersistentCache(PersistentCache persistentCache) {
         this.persistentCache = persistentCache;
+        if (persistentCache.isPushChanges()) {
+            persistentCache.setChangeListener(new PersistentCache.ChangeListener() {
+                @Override
+                public void changed(Revision lastRev, @Nullable List<String> paths) {
+                    changesPushed(lastRev, paths);
+                }
+            });
+        }
     }
 
     @Override
     public String getInstanceId() {
         return String.valueOf(getClusterId());
     }
+
+    //-----------------------------< RootStateResolver >------------------------
+
+    @CheckForNull
+    @Override
+    public String getReference(@Nonnull NodeState root) {
+        if (root instanceof DocumentNodeState) {
+            DocumentNodeState state = (DocumentNodeState) root;
+            if (state.isRootOf(this)) {
+                String ref = state.getRootRevision().asString();
+                return state.isFromExternalChange() ? EXTERNAL_REF_PREFIX + ref : ref;
+            }
+        }
+        return null;
+    }
+
+    @CheckForNull
+    @Override
+    public NodeState resolve(@Nonnull String reference) {
+        boolean external = reference.startsWith(EXTERNAL_REF_PREFIX);
+        if (external) {
+            reference = reference.substring(EXTERNAL_REF_PREFIX.length());
+        }
+        try {
+            DocumentNodeState root = getRoot(RevisionVector.fromString(reference));
+            return external ? root.fromExternalChange() : root;
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to resolve root state for reference {}: {}",
+                    reference, e.toString());
+            return null;
+        }
+    }
 }
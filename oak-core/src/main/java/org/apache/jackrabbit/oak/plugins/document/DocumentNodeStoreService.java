@@ -105,6 +105,7 @@ public class DocumentNodeStoreService {
     private static final String DEFAULT_URI = "mongodb://localhost:27017/oak";
     private static final int DEFAULT_CACHE = 256;
     private static final int DEFAULT_BLOB_CACHE_SIZE = 16;
+    private static final int DEFAULT_OFF_HEAP_CACHE = 0;
     private static final String DEFAULT_DB = "oak";
     private static final String DEFAULT_PERSISTENT_CACHE = "";
     private static final int DEFAULT_CACHE_SEGMENT_COUNT = 16;
@@ -185,6 +186,27 @@ public class DocumentNodeStoreService {
     )
     private static final String PROP_CACHE_STACK_MOVE_DISTANCE = "cacheStackMoveDistance";
 
+    @Property(intValue = DEFAULT_OFF_HEAP_CACHE,
+            label = "Off-Heap Cache Size (in MB)",
+            description = "Size in MB of the off-heap tier of the NodeState and NodeState Children caches. " +
+                    "Entries are kept serialized outside of the Java heap. By default it is not enabled"
+    )
+    private static final String PROP_OFF_HEAP_CACHE = "offHeapCache";
+
+    @Property(intValue = 0,
+            label = "Background Read Minimum Delay (in ms)",
+            description = "Minimum delay between two background reads. If set together with the maximum " +
+                    "delay, the delay is shortened while other cluster nodes write and extended while " +
+                    "they are idle. By default the background read runs every second"
+    )
+    private static final String PROP_BACKGROUND_READ_MIN_DELAY = "backgroundReadMinDelay";
+
+    @Property(intValue = 0,
+            label = "Background Read Maximum Delay (in ms)",
+            description = "Maximum delay between two background reads. See Background Read Minimum Delay"
+    )
+    private static final String PROP_BACKGROUND_READ_MAX_DELAY = "backgroundReadMaxDelay";
+
     @Property(intValue =  DEFAULT_BLOB_CACHE_SIZE,
             label = "Blob Cache Size (in MB)",
             description = "Cache size to store blobs in memory. Used only with default BlobStore " +
@@ -192,6 +214,13 @@ public class DocumentNodeStoreService {
     )
     private static final String PROP_BLOB_CACHE_SIZE = "blobCacheSize";
 
+    @Property(intValue = 0,
+            label = "Blob Read-Ahead (in blocks)",
+            description = "Number of blocks to load ahead when streaming a blob. Used only with default " +
+                    "BlobStore (as per DocumentStore type). By default blocks are not read ahead"
+    )
+    private static final String PROP_BLOB_READ_AHEAD = "blobReadAhead";
+
     @Property(value = DEFAULT_PERSISTENT_CACHE,
             label = "Persistent Cache Config",
             description = "Configuration for enabling Persistent cache. By default it is not enabled. Refer to " +
@@ -358,6 +387,10 @@ public class DocumentNodeStoreService {
         int docChildrenCachePercentage = toInteger(prop(PROP_DOC_CHILDREN_CACHE_PERCENTAGE), DEFAULT_DOC_CHILDREN_CACHE_PERCENTAGE);
         int diffCachePercentage = toInteger(prop(PROP_DIFF_CACHE_PERCENTAGE), DEFAULT_DIFF_CACHE_PERCENTAGE);
         int blobCacheSize = toInteger(prop(PROP_BLOB_CACHE_SIZE), DEFAULT_BLOB_CACHE_SIZE);
+        int blobReadAhead = toInteger(prop(PROP_BLOB_READ_AHEAD), 0);
+        int offHeapCacheSize = toInteger(prop(PROP_OFF_HEAP_CACHE), DEFAULT_OFF_HEAP_CACHE);
+        int backgroundReadMinDelay = toInteger(prop(PROP_BACKGROUND_READ_MIN_DELAY), 0);
+        int backgroundReadMaxDelay = toInteger(prop(PROP_BACKGROUND_READ_MAX_DELAY), 0);
         String persistentCache = PropertiesUtil.toString(prop(PROP_PERSISTENT_CACHE), DEFAULT_PERSISTENT_CACHE);
         int cacheSegmentCount = toInteger(prop(PROP_CACHE_SEGMENT_COUNT), DEFAULT_CACHE_SEGMENT_COUNT);
         int cacheStackMoveDistance = toInteger(prop(PROP_CACHE_STACK_MOVE_DISTANCE), DEFAULT_CACHE_STACK_MOVE_DISTANCE);
@@ -370,6 +403,8 @@ public class DocumentNodeStoreService {
                         childrenCachePercentage, 
                         docChildrenCachePercentage, 
                         diffCachePercentage).
+                offHeapCacheSize(offHeapCacheSize * MB).
+                setBlobReadAhead(Math.max(0, blobReadAhead)).
                 setCacheSegmentCount(cacheSegmentCount).
                 setCacheStackMoveDistance(cacheStackMoveDistance).
                 setLeaseCheck(true /* OAK-2739: enabled by default */).
@@ -399,6 +434,10 @@ public class DocumentNodeStoreService {
             mkBuilder.setPersistentCache(persistentCache);
         }
 
+        if (backgroundReadMinDelay > 0 && backgroundReadMaxDelay >= backgroundReadMinDelay) {
+            mkBuilder.setAdaptiveBackgroundRead(backgroundReadMinDelay, backgroundReadMaxDelay);
+        }
+
         boolean wrappingCustomBlobStore = customBlobStore && blobStore instanceof BlobStoreWrapper;
 
         //Set blobstore before setting the DB
@@ -604,6 +643,12 @@ public class DocumentNodeStoreService {
                             CacheStatsMBean.class, cs,
                             CacheStatsMBean.TYPE, cs.getName()));
         }
+        for (CacheStats cs : mkBuilder.getOffHeapCacheStats()) {
+            registrations.add(
+                    registerMBean(whiteboard,
+                            CacheStatsMBean.class, cs,
+                            CacheStatsMBean.TYPE, cs.getName()));
+        }
         DocumentStore ds = store.getDocumentStore();
         if (ds.getCacheStats() != null) {
             registrations.add(
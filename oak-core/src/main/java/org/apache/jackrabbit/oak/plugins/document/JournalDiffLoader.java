@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.commons.IOUtils;
+import org.apache.jackrabbit.oak.commons.sort.StringSort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A diff cache loader, which computes the diff between two root revisions
+ * from the journal when the revisions only differ in changes of other
+ * cluster nodes. The diff is applied to the diff cache for all changed paths
+ * of the revision range at once, just like the background read does for the
+ * changes it pulls in. With a persistent cache, these entries are persisted
+ * in the diff map. This is mostly useful for observers, which fell behind
+ * and compare root states more than one background read apart.
+ * <p>
+ * The delegate loader is used if the diff cannot be computed from the
+ * journal, e.g. because it includes local changes or the journal entries
+ * may already be garbage collected.
+ */
+class JournalDiffLoader implements DiffCache.Loader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalDiffLoader.class);
+
+    /**
+     * Journal entries are only read for revisions more recent than this age,
+     * to make sure they are not yet garbage collected. The default is well
+     * below the default age of the journal garbage collector.
+     */
+    static final long MAX_REVISION_AGE = Long.getLong(
+            "oak.documentMK.journalDiffMaxAge", TimeUnit.HOURS.toMillis(1));
+
+    private final DocumentNodeStore ns;
+
+    private final RevisionVector from;
+
+    private final RevisionVector to;
+
+    private final String path;
+
+    private final DiffCache.Loader delegate;
+
+    JournalDiffLoader(@Nonnull DocumentNodeStore ns,
+                      @Nonnull RevisionVector from,
+                      @Nonnull RevisionVector to,
+                      @Nonnull String path,
+                      @Nonnull DiffCache.Loader delegate) {
+        this.ns = checkNotNull(ns);
+        this.from = checkNotNull(from);
+        this.to = checkNotNull(to);
+        this.path = checkNotNull(path);
+        this.delegate = checkNotNull(delegate);
+    }
+
+    @Override
+    public String call() {
+        String diff = null;
+        if (isExternalChange()) {
+            try {
+                diff = readFromJournal();
+            } catch (Exception e) {
+                LOG.warn("Unable to read diff from journal for {} -> {}: {}",
+                        from, to, e.toString());
+            }
+        }
+        if (diff == null) {
+            diff = delegate.call();
+        }
+        return diff;
+    }
+
+    /**
+     * @return {@code true} if the revision range only contains changes from
+     *          other cluster nodes, for which journal entries must exist.
+     */
+    private boolean isExternalChange() {
+        if (from.isBranch() || to.isBranch()) {
+            return false;
+        }
+        int clusterId = ns.getClusterId();
+        Revision fromLocal = from.getRevision(clusterId);
+        Revision toLocal = to.getRevision(clusterId);
+        if (fromLocal == null ? toLocal != null : !fromLocal.equals(toLocal)) {
+            return false;
+        }
+        long minTimestamp = ns.getClock().getTime() - MAX_REVISION_AGE;
+        for (Revision r : from) {
+            Revision t = to.getRevision(r.getClusterId());
+            if (t == null || t.compareRevisionTime(r) < 0) {
+                // not a forward diff
+                return false;
+            }
+            if (r.getTimestamp() < minTimestamp && t.compareRevisionTime(r) > 0) {
+                return false;
+            }
+        }
+        for (Revision r : to) {
+            if (from.getRevision(r.getClusterId()) == null) {
+                // no lower bound for the journal entries
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @CheckForNull
+    private String readFromJournal() throws IOException {
+        DocumentStore store = ns.getDocumentStore();
+        DiffCache diffCache = ns.getDiffCache();
+        StringSort sorter = JournalEntry.newSorter();
+        try {
+            for (Revision r : to) {
+                Revision f = from.getRevision(r.getClusterId());
+                if (r.compareRevisionTime(f) > 0) {
+                    JournalEntry.fillExternalChanges(sorter, f, r, store);
+                }
+            }
+            sorter.sort();
+            JournalEntry.applyTo(sorter, diffCache, from, to);
+        } finally {
+            IOUtils.closeQuietly(sorter);
+        }
+        LOG.debug("Applied diff from journal for {} -> {}", from, to);
+        return diffCache.getChanges(from, to, path, null);
+    }
+}
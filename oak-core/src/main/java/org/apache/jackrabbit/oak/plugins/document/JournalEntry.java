@@ -289,6 +289,53 @@ public final class JournalEntry extends Document {
         }
     }
 
+    /**
+     * Returns the paths modified by this journal entry, without the changes
+     * of related branch commits.
+     *
+     * @param maxCount the maximum number of paths
+     * @param maxLength the maximum total length of the paths in bytes, when
+     *                  encoded as UTF-8
+     * @return the paths, or {@code null} if there are more paths than
+     *          allowed by the given limits
+     */
+    @CheckForNull
+    List<String> getModifiedPaths(final int maxCount, final int maxLength) {
+        final List<String> paths = Lists.newArrayList();
+        TraversingVisitor v = new TraversingVisitor() {
+
+            private int length;
+
+            @Override
+            public void node(TreeNode node, String path) throws IOException {
+                length += getUTF8Length(path);
+                if (paths.size() >= maxCount || length > maxLength) {
+                    throw new IOException("Too many changes");
+                }
+                paths.add(path);
+            }
+        };
+        try {
+            getChanges().accept(v, "/");
+        } catch (IOException e) {
+            return null;
+        }
+        return paths;
+    }
+
+    /**
+     * Returns the number of bytes of the given string encoded as UTF-8, at
+     * most three bytes per character.
+     */
+    static int getUTF8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
     /**
      * Returns the branch commits that are related to this journal entry.
      *
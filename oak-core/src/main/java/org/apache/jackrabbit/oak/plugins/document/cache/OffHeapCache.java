@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import static org.apache.jackrabbit.oak.commons.IOUtils.humanReadableByteCount;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import org.apache.jackrabbit.oak.cache.CacheLIRS;
+import org.apache.jackrabbit.oak.cache.CacheLIRS.EvictionCallback;
+import org.apache.jackrabbit.oak.cache.CacheValue;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.CacheType;
+
+/**
+ * A cache tier between an on-heap cache and the backend (or the persistent
+ * cache). Values are stored in serialized form in direct memory, so that a
+ * large number of entries can be kept without the garbage collection cost of
+ * their object graphs. The memory is allocated in a few large slabs (see
+ * {@link OffHeapMemory}), and the space of evicted entries is reused. Keys
+ * are kept on the heap. Entries are evicted using LIRS, based on the size of
+ * the serialized value.
+ * <p>
+ * Entries are written through to both tiers. A value only found in the
+ * off-heap tier is deserialized and put into the on-heap cache again.
+ * <p>
+ * The on-heap cache is still the primary cache: {@link #asMap()},
+ * {@link #size()} and {@link #stats()} only reflect the on-heap entries.
+ * This is only safe for caches with immutable entries.
+ * <p>
+ * Slabs are allocated when needed, up to the configured maximum size. The
+ * JVM must allow for at least this much direct memory (see
+ * {@code -XX:MaxDirectMemorySize}). An eighth of the maximum size is kept
+ * as headroom for fragmentation: entries are evicted once the used memory
+ * exceeds the remaining seven eighths.
+ */
+public class OffHeapCache<K extends CacheValue, V extends CacheValue>
+        implements Cache<K, V> {
+
+    private final Cache<K, V> memCache;
+
+    private final CacheLIRS<K, OffHeapMemory.Value> offHeap;
+
+    private final OffHeapMemory memory;
+
+    private final long maxWeight;
+
+    private final Weigher<K, OffHeapMemory.Value> weigher =
+            new Weigher<K, OffHeapMemory.Value>() {
+        @Override
+        public int weigh(K key, OffHeapMemory.Value value) {
+            return value.getMemory();
+        }
+    };
+
+    private final CacheType type;
+
+    private final DocumentNodeStore docNodeStore;
+
+    private final DocumentStore docStore;
+
+    /**
+     * Creates a new off-heap cache.
+     *
+     * @param memCache the on-heap cache
+     * @param type the type of the cached entries
+     * @param maxMemory the maximum size of the off-heap tier in bytes
+     * @param segmentCount the number of cache segments
+     * @param stackMoveDistance the LIRS stack move distance
+     * @param docNodeStore the node store (required for {@link CacheType#NODE})
+     * @param docStore the document store (required for {@link CacheType#DOCUMENT})
+     */
+    public OffHeapCache(@Nonnull Cache<K, V> memCache,
+                        @Nonnull CacheType type,
+                        long maxMemory,
+                        int segmentCount,
+                        int stackMoveDistance,
+                        @Nullable DocumentNodeStore docNodeStore,
+                        @Nullable DocumentStore docStore) {
+        this.memCache = checkNotNull(memCache);
+        this.type = checkNotNull(type);
+        this.docNodeStore = docNodeStore;
+        this.docStore = docStore;
+        this.memory = new OffHeapMemory(maxMemory, OffHeapMemory.DEFAULT_SLAB_SIZE);
+        this.maxWeight = maxMemory - maxMemory / 8;
+        this.offHeap = CacheLIRS.<K, OffHeapMemory.Value>newBuilder().
+                module(type.name() + "-OffHeap").
+                weigher(weigher).
+                evictionCallback(new EvictionCallback<K, OffHeapMemory.Value>() {
+                    @Override
+                    public void evicted(@Nonnull K key, @Nullable OffHeapMemory.Value value) {
+                        if (value != null) {
+                            value.free();
+                        }
+                    }
+                }).
+                averageWeight(1000).
+                maximumWeight(maxWeight).
+                segmentCount(segmentCount).
+                stackMoveDistance(stackMoveDistance).
+                recordStats().
+                build();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    @CheckForNull
+    public V getIfPresent(Object key) {
+        V value = memCache.getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        OffHeapMemory.Value v = offHeap.getIfPresent(key);
+        byte[] data = v == null ? null : v.read();
+        if (data != null) {
+            value = type.valueFromBytes(docNodeStore, docStore, data);
+            memCache.put((K) key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public V get(K key, Callable<? extends V> valueLoader)
+            throws ExecutionException {
+        V value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        value = memCache.get(key, valueLoader);
+        write(key, value);
+        return value;
+    }
+
+    @Override
+    public ImmutableMap<K, V> getAllPresent(Iterable<?> keys) {
+        return memCache.getAllPresent(keys);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        memCache.put(key, value);
+        write(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        memCache.invalidate(key);
+        offHeap.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll(Iterable<?> keys) {
+        memCache.invalidateAll(keys);
+        offHeap.invalidateAll(keys);
+    }
+
+    @Override
+    public void invalidateAll() {
+        memCache.invalidateAll();
+        offHeap.invalidateAll();
+    }
+
+    @Override
+    public long size() {
+        return memCache.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return memCache.stats();
+    }
+
+    @Override
+    public ConcurrentMap<K, V> asMap() {
+        return memCache.asMap();
+    }
+
+    @Override
+    public void cleanUp() {
+        memCache.cleanUp();
+    }
+
+    /**
+     * @return the statistics of the off-heap tier
+     */
+    public CacheStats offHeapStats() {
+        return offHeap.stats();
+    }
+
+    /**
+     * @return the number of entries in the off-heap tier
+     */
+    public long offHeapSize() {
+        return offHeap.size();
+    }
+
+    /**
+     * @return the memory used by the off-heap tier in bytes
+     */
+    public long offHeapUsedMemory() {
+        return memory.getUsedMemory();
+    }
+
+    /**
+     * @return the direct memory allocated for the off-heap tier in bytes
+     */
+    public long offHeapAllocatedMemory() {
+        return memory.getAllocatedMemory();
+    }
+
+    /**
+     * @return the number of entries which could not be stored in the
+     *         off-heap tier, because there was no free space large enough
+     */
+    public long offHeapAllocationFailures() {
+        return memory.getAllocationFailures();
+    }
+
+    /**
+     * @param name the name of the statistics
+     * @return the statistics of the off-heap tier, to be registered as
+     *         {@link org.apache.jackrabbit.oak.api.jmx.CacheStatsMBean}
+     */
+    public org.apache.jackrabbit.oak.cache.CacheStats getOffHeapCacheStats(String name) {
+        return new OffHeapCacheStats(name);
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    private void write(K key, V value) {
+        OffHeapMemory.Value v = memory.store(type.valueToBytes(value));
+        if (v != null) {
+            offHeap.put(key, v);
+        } else {
+            // not enough contiguous free space: remove the old
+            // entry, which would be outdated otherwise
+            offHeap.invalidate(key);
+        }
+    }
+
+    private class OffHeapCacheStats extends org.apache.jackrabbit.oak.cache.CacheStats {
+
+        OffHeapCacheStats(String name) {
+            super(offHeap, name, weigher, maxWeight);
+        }
+
+        @Override
+        public long estimateCurrentWeight() {
+            return memory.getUsedMemory();
+        }
+
+        @Override
+        public String cacheInfoAsString() {
+            return Objects.toStringHelper("OffHeapCacheStats")
+                    .add("cacheStats", super.cacheInfoAsString())
+                    .add("slabCount", memory.getSlabCount())
+                    .add("allocatedMemory", humanReadableByteCount(memory.getAllocatedMemory()))
+                    .add("maxMemory", humanReadableByteCount(memory.getMaxMemory()))
+                    .add("allocationFailures", memory.getAllocationFailures())
+                    .toString();
+        }
+    }
+}
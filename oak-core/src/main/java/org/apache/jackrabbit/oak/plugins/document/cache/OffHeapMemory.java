@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Direct memory for the serialized values of an {@link OffHeapCache}. The
+ * memory is allocated in a few large slabs, up to the configured maximum
+ * size, instead of one direct buffer per value. Each slab is divided into
+ * blocks of {@link #BLOCK_SIZE} bytes. A value occupies a range of
+ * contiguous blocks, which is returned to the free space of the slab when
+ * the value is freed. Adjacent free ranges are merged, and new values use
+ * the smallest free range they fit in.
+ * <p>
+ * Reading a value and freeing it may happen concurrently. A freed value can
+ * no longer be read, so a reader never sees the data of a value that reused
+ * the same blocks.
+ */
+class OffHeapMemory {
+
+    static final int BLOCK_SIZE = 64;
+
+    static final int DEFAULT_SLAB_SIZE = 64 * 1024 * 1024;
+
+    private final long maxMemory;
+
+    private final int slabSize;
+
+    private final int maxSlabCount;
+
+    private volatile Slab[] slabs = new Slab[0];
+
+    private final AtomicInteger nextSlab = new AtomicInteger();
+
+    private final AtomicLong usedMemory = new AtomicLong();
+
+    private final AtomicLong allocationFailures = new AtomicLong();
+
+    /**
+     * @param maxMemory the maximum size of all slabs in bytes
+     * @param slabSize the size of a slab in bytes, reduced to the maximum
+     *                 size if that is smaller
+     */
+    OffHeapMemory(long maxMemory, int slabSize) {
+        checkArgument(maxMemory >= BLOCK_SIZE, "maxMemory too small: %s", maxMemory);
+        checkArgument(slabSize >= BLOCK_SIZE, "slabSize too small: %s", slabSize);
+        this.maxMemory = maxMemory;
+        this.slabSize = (int) (Math.min(slabSize, maxMemory) / BLOCK_SIZE * BLOCK_SIZE);
+        this.maxSlabCount = (int) Math.min(Integer.MAX_VALUE, maxMemory / this.slabSize);
+    }
+
+    /**
+     * Copies the data to a free range of blocks.
+     *
+     * @param data the data
+     * @return the stored value, or {@code null} if there is no free range
+     *         large enough for the data
+     */
+    @CheckForNull
+    Value store(@Nonnull byte[] data) {
+        int blocks = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (blocks == 0 || blocks > slabSize / BLOCK_SIZE) {
+            allocationFailures.incrementAndGet();
+            return null;
+        }
+        Slab[] s = slabs;
+        int start = s.length == 0 ? 0 : (nextSlab.getAndIncrement() & Integer.MAX_VALUE) % s.length;
+        for (int i = 0; i < s.length; i++) {
+            Value v = s[(start + i) % s.length].store(data, blocks);
+            if (v != null) {
+                return v;
+            }
+        }
+        Slab slab = addSlab(s.length);
+        Value v = slab == null ? null : slab.store(data, blocks);
+        if (v == null) {
+            allocationFailures.incrementAndGet();
+        }
+        return v;
+    }
+
+    /**
+     * @return the number of slabs allocated so far
+     */
+    int getSlabCount() {
+        return slabs.length;
+    }
+
+    /**
+     * @return the size of the slabs allocated so far in bytes
+     */
+    long getAllocatedMemory() {
+        return (long) slabs.length * slabSize;
+    }
+
+    /**
+     * @return the size of the blocks used by stored values in bytes
+     */
+    long getUsedMemory() {
+        return usedMemory.get();
+    }
+
+    /**
+     * @return the maximum size of all slabs in bytes
+     */
+    long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * @return the number of values which could not be stored, because
+     *         they were too large or there was no free range large enough
+     */
+    long getAllocationFailures() {
+        return allocationFailures.get();
+    }
+
+    /**
+     * Adds a slab, unless the maximum is reached, or another thread already
+     * added a slab since the given number of slabs was seen.
+     *
+     * @param seenCount the number of slabs seen by the caller
+     * @return the new (or concurrently added) slab, or {@code null}
+     */
+    @CheckForNull
+    private synchronized Slab addSlab(int seenCount) {
+        Slab[] s = slabs;
+        if (s.length > seenCount) {
+            return s[s.length - 1];
+        }
+        if (s.length >= maxSlabCount) {
+            return null;
+        }
+        Slab[] n = new Slab[s.length + 1];
+        System.arraycopy(s, 0, n, 0, s.length);
+        n[s.length] = new Slab(slabSize);
+        slabs = n;
+        return n[s.length];
+    }
+
+    /**
+     * A value stored in a slab.
+     */
+    final class Value {
+
+        private final Slab slab;
+
+        private final int start;
+
+        private final int blocks;
+
+        private final int length;
+
+        /**
+         * Guarded by the lock of the slab.
+         */
+        private boolean freed;
+
+        Value(Slab slab, int start, int blocks, int length) {
+            this.slab = slab;
+            this.start = start;
+            this.blocks = blocks;
+            this.length = length;
+        }
+
+        /**
+         * @return the size of the occupied blocks in bytes
+         */
+        int getMemory() {
+            return blocks * BLOCK_SIZE;
+        }
+
+        /**
+         * @return a copy of the data, or {@code null} if the value was freed
+         */
+        @CheckForNull
+        byte[] read() {
+            slab.lock.readLock().lock();
+            try {
+                if (freed) {
+                    return null;
+                }
+                byte[] data = new byte[length];
+                ByteBuffer buff = slab.buffer.duplicate();
+                buff.position(start * BLOCK_SIZE);
+                buff.get(data);
+                return data;
+            } finally {
+                slab.lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Returns the blocks to the free space of the slab. Freeing a value
+         * more than once has no effect.
+         */
+        void free() {
+            slab.lock.writeLock().lock();
+            try {
+                if (freed) {
+                    return;
+                }
+                freed = true;
+                slab.release(start, blocks);
+            } finally {
+                slab.lock.writeLock().unlock();
+            }
+            usedMemory.addAndGet(-getMemory());
+        }
+    }
+
+    private final class Slab {
+
+        private final ByteBuffer buffer;
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /**
+         * The free ranges: start block -> number of blocks.
+         * Guarded by the write lock.
+         */
+        private final TreeMap<Integer, Integer> freeByStart = new TreeMap<Integer, Integer>();
+
+        /**
+         * The free ranges ordered by size: (number of blocks << 32) | start block.
+         * Guarded by the write lock.
+         */
+        private final TreeSet<Long> freeBySize = new TreeSet<Long>();
+
+        Slab(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+            addFree(0, size / BLOCK_SIZE);
+        }
+
+        @CheckForNull
+        Value store(byte[] data, int blocks) {
+            lock.writeLock().lock();
+            try {
+                Long range = freeBySize.ceiling((long) blocks << 32);
+                if (range == null) {
+                    return null;
+                }
+                int start = (int) (range & 0xffffffffL);
+                int count = (int) (range >>> 32);
+                removeFree(start, count);
+                if (count > blocks) {
+                    addFree(start + blocks, count - blocks);
+                }
+                ByteBuffer buff = buffer.duplicate();
+                buff.position(start * BLOCK_SIZE);
+                buff.put(data);
+                Value v = new Value(this, start, blocks, data.length);
+                usedMemory.addAndGet(v.getMemory());
+                return v;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Adds a range to the free space, merged with the adjacent free
+         * ranges. The caller must hold the write lock.
+         */
+        void release(int start, int count) {
+            Map.Entry<Integer, Integer> before = freeByStart.lowerEntry(start);
+            if (before != null && before.getKey() + before.getValue() == start) {
+                removeFree(before.getKey(), before.getValue());
+                start = before.getKey();
+                count += before.getValue();
+            }
+            Integer after = freeByStart.get(start + count);
+            if (after != null) {
+                removeFree(start + count, after);
+                count += after;
+            }
+            addFree(start, count);
+        }
+
+        private void addFree(int start, int count) {
+            freeByStart.put(start, count);
+            freeBySize.add(((long) count << 32) | start);
+        }
+
+        private void removeFree(int start, int count) {
+            freeByStart.remove(start);
+            freeBySize.remove(((long) count << 32) | start);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.persistentCache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.apache.jackrabbit.oak.stats.CounterStats;
+import org.apache.jackrabbit.oak.stats.MeterStats;
+import org.apache.jackrabbit.oak.stats.NoopStats;
+import org.apache.jackrabbit.oak.stats.StatisticsProvider;
+import org.apache.jackrabbit.oak.stats.StatsOptions;
+
+/**
+ * Writes entries to the maps of the persistent cache in a background
+ * thread, so that threads populating the cache do not wait for the store.
+ * Pending writes for the same key are coalesced. The number of pending
+ * writes is limited. If the limit is reached, new entries are dropped, as
+ * the cache is allowed to lose them. Removals can not be dropped, because
+ * the stored entry would otherwise become visible again; they are applied
+ * directly by the calling thread instead.
+ * <p>
+ * Entries stay pending until they are written, so that reads see the
+ * pending state (see {@link #getPending(Map, Object)}). The pending entries
+ * are kept in a concurrent map, so reads and writes do not block each other.
+ * <p>
+ * The writer thread is started with {@link #start()}.
+ */
+class AsyncCacheWriter {
+
+    /**
+     * The pending value of a removed entry.
+     */
+    static final Object REMOVED = new Object();
+
+    static final String QUEUE_SIZE = "PERSISTENT_CACHE_WRITE_QUEUE_SIZE";
+    static final String DROPPED_WRITES = "PERSISTENT_CACHE_DROPPED_WRITES";
+
+    /**
+     * The number of writes after which the generation is checked.
+     */
+    private static final int SWITCH_GENERATION_INTERVAL = 100;
+
+    private final PersistentCache cache;
+
+    private final int maxQueueSize;
+
+    /**
+     * The pending writes.
+     */
+    private final ConcurrentMap<PendingKey, Object> pending =
+            new ConcurrentHashMap<PendingKey, Object>();
+
+    /**
+     * The order in which the pending writes are processed. A key is added
+     * when it becomes pending. It may contain keys which are no longer
+     * pending, because the writes were discarded.
+     */
+    private final BlockingQueue<PendingKey> order =
+            new LinkedBlockingQueue<PendingKey>();
+
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    private volatile CounterStats queueSizeStats = NoopStats.INSTANCE;
+
+    private volatile MeterStats droppedStats = NoopStats.INSTANCE;
+
+    AsyncCacheWriter(PersistentCache cache, int maxQueueSize) {
+        this.cache = cache;
+        this.maxQueueSize = maxQueueSize;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                process();
+            }
+        }, "PersistentCache writer");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the writer thread. Writes are only queued until then.
+     */
+    void start() {
+        thread.start();
+    }
+
+    void setStatisticsProvider(StatisticsProvider statisticsProvider) {
+        queueSizeStats = statisticsProvider.getCounterStats(
+                QUEUE_SIZE, StatsOptions.DEFAULT);
+        droppedStats = statisticsProvider.getMeter(
+                DROPPED_WRITES, StatsOptions.DEFAULT);
+    }
+
+    /**
+     * Adds a write to the queue. A removal is applied directly if the queue
+     * is full.
+     *
+     * @param map the target map
+     * @param key the key
+     * @param value the value, or null to remove the entry
+     * @return false if the write was dropped
+     */
+    <K, V> boolean write(Map<K, V> map, K key, @Nullable V value) {
+        if (closed) {
+            return false;
+        }
+        PendingKey k = new PendingKey(map, key);
+        Object v = value == null ? REMOVED : value;
+        while (true) {
+            Object old = pending.get(k);
+            if (old != null) {
+                // coalesce with the pending write
+                if (pending.replace(k, old, v)) {
+                    return true;
+                }
+            } else if (queueSize.get() >= maxQueueSize) {
+                if (value != null) {
+                    droppedCount.incrementAndGet();
+                    droppedStats.mark();
+                    return false;
+                }
+                remove(map, key);
+                return true;
+            } else if (pending.putIfAbsent(k, v) == null) {
+                queueSize.incrementAndGet();
+                queueSizeStats.inc();
+                order.add(k);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the pending value for the given key.
+     *
+     * @return the value, {@link #REMOVED} if the entry is being removed, or
+     *          null if there is no pending write
+     */
+    @CheckForNull
+    Object getPending(Map<?, ?> map, Object key) {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        return pending.get(new PendingKey(map, key));
+    }
+
+    /**
+     * Discards the pending writes to the given map.
+     */
+    void discard(Map<?, ?> map) {
+        Iterator<PendingKey> it = pending.keySet().iterator();
+        while (it.hasNext()) {
+            PendingKey k = it.next();
+            if (k.map == map && pending.remove(k) != null) {
+                written();
+            }
+        }
+    }
+
+    int getQueueSize() {
+        return queueSize.get();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Waits until all pending writes are done.
+     */
+    synchronized void flush() throws InterruptedException {
+        while (!pending.isEmpty() && thread.isAlive()) {
+            wait(100);
+        }
+    }
+
+    /**
+     * Writes the pending entries and stops the writer thread.
+     */
+    void close() {
+        closed = true;
+        if (!thread.isAlive()) {
+            // not started
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void process() {
+        int count = 0;
+        while (true) {
+            PendingKey key;
+            try {
+                key = order.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // ignore
+                continue;
+            }
+            if (key == null) {
+                if (closed && pending.isEmpty()) {
+                    wakeUpFlush();
+                    return;
+                } else if (pending.isEmpty()) {
+                    wakeUpFlush();
+                }
+                continue;
+            }
+            Object value = pending.get(key);
+            if (value == null) {
+                // discarded
+                continue;
+            }
+            if (count++ % SWITCH_GENERATION_INTERVAL == 0) {
+                cache.switchGenerationIfNeeded();
+            }
+            Map<Object, Object> map = (Map<Object, Object>) key.map;
+            if (value == REMOVED) {
+                remove(map, key.key);
+            } else {
+                try {
+                    map.put(key.key, value);
+                } catch (RuntimeException e) {
+                    PersistentCache.LOG.warn("Could not write to the persistent cache: " + e);
+                }
+            }
+            // only remove if not updated meanwhile
+            if (pending.remove(key, value)) {
+                written();
+                if (pending.isEmpty()) {
+                    wakeUpFlush();
+                }
+            } else if (pending.containsKey(key)) {
+                // updated meanwhile: write again
+                order.add(key);
+            }
+        }
+    }
+
+    private static <K> void remove(Map<K, ?> map, K key) {
+        try {
+            map.remove(key);
+        } catch (RuntimeException e) {
+            PersistentCache.LOG.warn("Could not remove from the persistent cache: " + e);
+        }
+    }
+
+    private void written() {
+        queueSize.decrementAndGet();
+        queueSizeStats.dec();
+    }
+
+    private synchronized void wakeUpFlush() {
+        notifyAll();
+    }
+
+    private static final class PendingKey {
+
+        final Map<?, ?> map;
+
+        final Object key;
+
+        PendingKey(Map<?, ?> map, Object key) {
+            this.map = map;
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(map) ^ key.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey other = (PendingKey) obj;
+            return map == other.map && key.equals(other.key);
+        }
+    }
+}
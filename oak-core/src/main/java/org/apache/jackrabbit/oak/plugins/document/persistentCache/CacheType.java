@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.oak.plugins.document.persistentCache;
 
+import com.google.common.base.Charsets;
+import org.apache.jackrabbit.oak.plugins.document.DocumentBinarySerializer;
 import org.apache.jackrabbit.oak.plugins.document.LocalDiffCache;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeState;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
@@ -51,6 +53,16 @@ public enum CacheType {
                 DocumentNodeStore store, DocumentStore docStore, String value) {
             return (V) DocumentNodeState.fromString(store, value);
         }
+        @Override
+        public <V> byte[] valueToBytes(V value) {
+            return DocumentBinarySerializer.toBytes((DocumentNodeState) value);
+        }
+        @SuppressWarnings("unchecked")
+        @Override
+        public <V> V valueFromBytes(
+                DocumentNodeStore store, DocumentStore docStore, byte[] value) {
+            return (V) DocumentBinarySerializer.nodeStateFromBytes(store, value);
+        }
     },
     
     CHILDREN {
@@ -155,6 +167,16 @@ public enum CacheType {
                 DocumentNodeStore store, DocumentStore docStore, String value) {
             return (V) NodeDocument.fromString(docStore, value);
         }
+        @Override
+        public <V> byte[] valueToBytes(V value) {
+            return DocumentBinarySerializer.toBytes((NodeDocument) value);
+        }
+        @SuppressWarnings("unchecked")
+        @Override
+        public <V> V valueFromBytes(
+                DocumentNodeStore store, DocumentStore docStore, byte[] value) {
+            return (V) DocumentBinarySerializer.documentFromBytes(docStore, value);
+        }
     },
 
     LOCAL_DIFF {
@@ -222,5 +244,29 @@ public enum CacheType {
     public abstract <V> V valueFromString(
             DocumentNodeStore store, DocumentStore docStore, String value);
 
+    /**
+     * Serializes the given value. By default, this is the UTF-8 encoded
+     * {@link #valueToString(Object) string representation}.
+     *
+     * @param value the value
+     * @return the serialized value
+     */
+    public <V> byte[] valueToBytes(V value) {
+        return valueToString(value).getBytes(Charsets.UTF_8);
+    }
+
+    /**
+     * Deserializes a value serialized with {@link #valueToBytes(Object)}.
+     *
+     * @param store the node store
+     * @param docStore the document store
+     * @param value the serialized value
+     * @return the value
+     */
+    public <V> V valueFromBytes(
+            DocumentNodeStore store, DocumentStore docStore, byte[] value) {
+        return valueFromString(store, docStore, new String(value, Charsets.UTF_8));
+    }
+
 }
 
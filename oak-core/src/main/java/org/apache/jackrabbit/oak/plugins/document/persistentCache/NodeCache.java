@@ -68,7 +68,7 @@ class NodeCache<K, V> implements Cache<K, V>, GenerationCache {
     public void addGeneration(int generation, boolean readOnly) {
         MVMap.Builder<K, V> b = new MVMap.Builder<K, V>().
                 keyType(keyType).valueType(valueType);
-        String mapName = type.name();
+        String mapName = type.name() + "-v" + ValueDataType.VERSION;
         CacheMap<K, V> m = cache.openMap(generation, mapName, b);
         map.addReadMap(generation, m);
         if (!readOnly) {
@@ -81,7 +81,15 @@ class NodeCache<K, V> implements Cache<K, V>, GenerationCache {
         map.removeReadMap(generation);
     }
     
+    @SuppressWarnings("unchecked")
     private V readIfPresent(K key) {
+        AsyncCacheWriter w = cache.getAsyncWriter();
+        if (w != null) {
+            Object pending = w.getPending(map, key);
+            if (pending != null) {
+                return pending == AsyncCacheWriter.REMOVED ? null : (V) pending;
+            }
+        }
         cache.switchGenerationIfNeeded();
         V v = map.get(key);
         return v;
@@ -96,7 +104,10 @@ class NodeCache<K, V> implements Cache<K, V>, GenerationCache {
     }
 
     private void write(final K key, final V value, boolean broadcast) {
-        cache.switchGenerationIfNeeded();
+        AsyncCacheWriter w = cache.getAsyncWriter();
+        if (w == null) {
+            cache.switchGenerationIfNeeded();
+        }
         if (broadcast) {
             cache.broadcast(type, new Function<WriteBuffer, Void>() {
                 @Override
@@ -114,7 +125,10 @@ class NodeCache<K, V> implements Cache<K, V>, GenerationCache {
             });
         }
         MultiGenerationMap<K, V> m = map;
-        if (m != null) {
+        if (m != null && w != null) {
+            // the writer thread checks the generation
+            w.write(m, key, value);
+        } else if (m != null) {
             if (value == null) {
                 m.remove(key);
             } else {
@@ -183,6 +197,10 @@ class NodeCache<K, V> implements Cache<K, V>, GenerationCache {
     @Override
     public void invalidateAll() {
         memCache.invalidateAll();
+        AsyncCacheWriter w = cache.getAsyncWriter();
+        if (w != null) {
+            w.discard(map);
+        }
         map.clear();
     }
 
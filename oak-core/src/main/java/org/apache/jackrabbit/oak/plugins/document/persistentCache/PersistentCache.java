@@ -18,26 +18,35 @@ package org.apache.jackrabbit.oak.plugins.document.persistentCache;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nullable;
+
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
 import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.Revision;
 import org.apache.jackrabbit.oak.plugins.document.persistentCache.broadcast.Broadcaster;
 import org.apache.jackrabbit.oak.plugins.document.persistentCache.broadcast.InMemoryBroadcaster;
 import org.apache.jackrabbit.oak.plugins.document.persistentCache.broadcast.TCPBroadcaster;
 import org.apache.jackrabbit.oak.plugins.document.persistentCache.broadcast.UDPBroadcaster;
 import org.apache.jackrabbit.oak.spi.blob.GarbageCollectableBlobStore;
+import org.apache.jackrabbit.oak.stats.StatisticsProvider;
+import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.FileStore;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVMap.Builder;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.MVStoreTool;
 import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.StringDataType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +63,20 @@ public class PersistentCache implements Broadcaster.Listener {
     private static final String FILE_PREFIX = "cache-";
     private static final String FILE_SUFFIX = ".data";
     private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /**
+     * The message type of change notifications. Other messages use the
+     * ordinal of their {@link CacheType}.
+     */
+    private static final byte TYPE_CHANGES = -1;
+
+    /**
+     * The maximum encoded length of a change notification with paths, in
+     * bytes. Longer notifications only contain the revision. This keeps the
+     * message well below the message length of the UDP broadcaster (32 KB,
+     * including its key), which drops longer messages.
+     */
+    static final int MAX_CHANGES_MESSAGE_LENGTH = 16 * 1024;
     
     private boolean cacheNodes = true;
     private boolean cacheChildren = true;
@@ -63,6 +86,11 @@ public class PersistentCache implements Broadcaster.Listener {
     private boolean cacheDocChildren;
     private boolean compactOnClose;
     private boolean compress = true;
+    private boolean pushChanges;
+    private boolean asyncWrites;
+    private int writeQueueSize = 4096;
+    private AsyncCacheWriter asyncWriter;
+    private volatile ChangeListener changeListener;
     private HashMap<CacheType, GenerationCache> caches = 
             new HashMap<CacheType, GenerationCache>();
     
@@ -117,6 +145,12 @@ public class PersistentCache implements Broadcaster.Listener {
                 compactOnClose = true;
             } else if (p.equals("-compress")) {
                 compress = false;
+            } else if (p.equals("+push")) {
+                pushChanges = true;
+            } else if (p.equals("+async")) {
+                asyncWrites = true;
+            } else if (p.startsWith("writeQueue=")) {
+                writeQueueSize = Integer.parseInt(p.split("=")[1]);
             } else if (p.endsWith("time")) {
                 dir += "-" + System.currentTimeMillis() + "-" + COUNTER.getAndIncrement();
             } else if (p.startsWith("size=")) {
@@ -134,10 +168,14 @@ public class PersistentCache implements Broadcaster.Listener {
             }
         }
         this.directory = dir;
+        if (asyncWrites) {
+            asyncWriter = new AsyncCacheWriter(this, writeQueueSize);
+        }
         if (dir.length() == 0) {
             readGeneration = -1;
             writeGeneration = 0;
             writeStore = createMapFactory(writeGeneration, false);
+            startAsyncWriter();
             return;
         }
         File dr = new File(dir);
@@ -187,6 +225,15 @@ public class PersistentCache implements Broadcaster.Listener {
         }
         writeStore = createMapFactory(writeGeneration, false);
         initBroadcast(broadcast);
+        startAsyncWriter();
+    }
+
+    private void startAsyncWriter() {
+        // only once the stores are open, as the writer
+        // thread may switch the generation
+        if (asyncWriter != null) {
+            asyncWriter.start();
+        }
     }
     
     private void initBroadcast(String broadcast) {
@@ -331,6 +378,9 @@ public class PersistentCache implements Broadcaster.Listener {
     }
     
     public void close() {
+        if (asyncWriter != null) {
+            asyncWriter.close();
+        }
         if (writeStore != null) {
             writeStore.closeStore();
         }
@@ -467,11 +517,110 @@ public class PersistentCache implements Broadcaster.Listener {
     public int getExceptionCount() {
         return exceptionCount;
     }
+
+    /**
+     * Sets the statistics provider for the metrics of the asynchronous
+     * writes (configured with "+async").
+     *
+     * @param statisticsProvider the statistics provider
+     */
+    public void setStatisticsProvider(StatisticsProvider statisticsProvider) {
+        if (asyncWriter != null) {
+            asyncWriter.setStatisticsProvider(statisticsProvider);
+        }
+    }
+
+    /**
+     * @return the number of pending asynchronous writes
+     */
+    public int getWriteQueueSize() {
+        return asyncWriter == null ? 0 : asyncWriter.getQueueSize();
+    }
+
+    /**
+     * @return the number of writes dropped because the write queue was full
+     */
+    public long getDroppedWriteCount() {
+        return asyncWriter == null ? 0 : asyncWriter.getDroppedCount();
+    }
+
+    /**
+     * @return the asynchronous writer, or null if entries are written
+     *          by the caller
+     */
+    AsyncCacheWriter getAsyncWriter() {
+        return asyncWriter;
+    }
     
+    /**
+     * Whether changes should be pushed to the other cluster nodes using the
+     * broadcaster (configured with "+push").
+     *
+     * @return true if changes are pushed
+     */
+    public boolean isPushChanges() {
+        return pushChanges && broadcaster != null;
+    }
+
+    /**
+     * Sets the listener for changes pushed by other cluster nodes.
+     *
+     * @param listener the listener, or null
+     */
+    public void setChangeListener(ChangeListener listener) {
+        this.changeListener = listener;
+    }
+
+    /**
+     * Notifies the other cluster nodes about persisted changes.
+     *
+     * @param lastRev the new _lastRev of the root document for the local
+     *                cluster node
+     * @param paths the changed paths, or null if unknown
+     */
+    public void broadcastChanges(Revision lastRev, Collection<String> paths) {
+        if (paths != null && broadcast(TYPE_CHANGES,
+                changesWriter(lastRev, paths), MAX_CHANGES_MESSAGE_LENGTH)) {
+            return;
+        }
+        // no paths, or too long
+        broadcast(TYPE_CHANGES, changesWriter(lastRev, null), Integer.MAX_VALUE);
+    }
+
+    private static Function<WriteBuffer, Void> changesWriter(
+            final Revision lastRev, final Collection<String> paths) {
+        return new Function<WriteBuffer, Void>() {
+            @Override
+            @Nullable
+            public Void apply(@Nullable WriteBuffer buffer) {
+                StringDataType.INSTANCE.write(buffer, lastRev.toString());
+                if (paths == null) {
+                    buffer.putVarInt(0);
+                } else {
+                    buffer.putVarInt(paths.size() + 1);
+                    for (String p : paths) {
+                        StringDataType.INSTANCE.write(buffer, p);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
     void broadcast(CacheType type, Function<WriteBuffer, Void> writer) {
+        broadcast((byte) type.ordinal(), writer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Sends a message, unless it is longer than the given length.
+     *
+     * @return false if the message was too long
+     */
+    private boolean broadcast(byte type, Function<WriteBuffer, Void> writer,
+            int maxLength) {
         Broadcaster b = broadcaster;
         if (b == null) {
-            return;
+            return true;
         }
         WriteBuffer buff = writeBuffer.get();
         if (buff == null) {
@@ -482,15 +631,19 @@ public class PersistentCache implements Broadcaster.Listener {
         // space for the length
         buff.putInt(0);
         buff.put(broadcastId);
-        buff.put((byte) type.ordinal());
+        buff.put(type);
         writer.apply(buff);
         ByteBuffer byteBuff = buff.getBuffer();
         int length = byteBuff.position();
+        if (length > maxLength) {
+            return false;
+        }
         byteBuff.limit(length);
         // write length
         byteBuff.putInt(0, length);
         byteBuff.position(0);
         b.send(byteBuff);
+        return true;
     }
     
     @Override
@@ -506,7 +659,16 @@ public class PersistentCache implements Broadcaster.Listener {
     }
     
     private void receiveMessage(ByteBuffer buff) {
-        CacheType type = CacheType.VALUES[buff.get()];
+        byte t = buff.get();
+        if (t == TYPE_CHANGES) {
+            receiveChanges(buff);
+            return;
+        }
+        if (t < 0 || t >= CacheType.VALUES.length) {
+            // unknown message type, e.g. from a newer version
+            return;
+        }
+        CacheType type = CacheType.VALUES[t];
         GenerationCache cache = caches.get(type);
         if (cache == null) {
             return;
@@ -514,6 +676,38 @@ public class PersistentCache implements Broadcaster.Listener {
         cache.receive(buff);
     }
 
+    private void receiveChanges(ByteBuffer buff) {
+        ChangeListener listener = changeListener;
+        if (listener == null) {
+            return;
+        }
+        Revision lastRev = Revision.fromString(StringDataType.INSTANCE.read(buff));
+        List<String> paths = null;
+        int count = DataUtils.readVarInt(buff);
+        if (count > 0) {
+            paths = new ArrayList<String>(count - 1);
+            for (int i = 1; i < count; i++) {
+                paths.add(StringDataType.INSTANCE.read(buff));
+            }
+        }
+        listener.changed(lastRev, paths);
+    }
+
+    /**
+     * A listener for changes pushed by other cluster nodes.
+     */
+    public interface ChangeListener {
+
+        /**
+         * Called when another cluster node persisted changes.
+         *
+         * @param lastRev the new _lastRev of the other cluster node
+         * @param paths the changed paths, or null if unknown
+         */
+        void changed(Revision lastRev, @Nullable List<String> paths);
+
+    }
+
     interface GenerationCache {
 
         void addGeneration(int writeGeneration, boolean b);
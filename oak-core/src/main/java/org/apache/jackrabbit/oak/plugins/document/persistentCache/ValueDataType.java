@@ -21,11 +21,17 @@ import java.nio.ByteBuffer;
 import org.apache.jackrabbit.oak.cache.CacheValue;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
 import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.WriteBuffer;
 import org.h2.mvstore.type.DataType;
-import org.h2.mvstore.type.StringDataType;
 
 public class ValueDataType implements DataType {
+
+    /**
+     * The version of the serialized form of the values. Maps written with an
+     * older version are not read.
+     */
+    static final int VERSION = 2;
     
     private final DocumentNodeStore docNodeStore;
     private final DocumentStore docStore;
@@ -51,14 +57,15 @@ public class ValueDataType implements DataType {
 
     @Override
     public void write(WriteBuffer buff, Object obj) {
-        String s = type.valueToString(obj);
-        StringDataType.INSTANCE.write(buff, s);
+        byte[] data = type.valueToBytes(obj);
+        buff.putVarInt(data.length).put(data);
     }
 
     @Override
     public Object read(ByteBuffer buff) {
-        String s = StringDataType.INSTANCE.read(buff);
-        return type.valueFromString(docNodeStore, docStore, s);
+        byte[] data = new byte[DataUtils.readVarInt(buff)];
+        buff.get(data);
+        return type.valueFromBytes(docNodeStore, docStore, data);
     }
 
     @Override
@@ -54,6 +54,13 @@ public interface IndexConstants {
      */
     String PROPERTY_NAMES = "propertyNames";
 
+    /**
+     * Defines the names of additional properties whose values are stored in
+     * the entries of a property index, so that queries can read them without
+     * loading the node (a covering index).
+     */
+    String COVERED_PROPERTY_NAMES = "coveredPropertyNames";
+
     /**
      * Defines the property name of the "declaringNodeTypes" property with
      * allows to restrict a given index definition to specific node types.
@@ -22,6 +22,7 @@ import java.util.List;
 
 import javax.annotation.CheckForNull;
 
+import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.spi.query.Filter;
 import org.apache.jackrabbit.oak.spi.query.Filter.PropertyRestriction;
 import org.apache.jackrabbit.oak.spi.query.QueryIndex.IndexPlan;
@@ -172,6 +173,21 @@ public class AggregateIndexPlan implements IndexPlan {
         return null;
     }
 
+    /**
+     * As the results are not sorted, there is no sort key to search after.
+     * 
+     * @return null
+     */
+    @Override
+    public List<PropertyValue> getSearchAfter() {
+        return null;
+    }
+
+    @Override
+    public void setSearchAfter(List<PropertyValue> searchAfter) {
+        // ignore
+    }
+
     // the following methods probably shouldn't be in the IndexPlan interface
     // as they are only used locally (in the ordered index, or in the lucene index)
     
@@ -56,6 +56,8 @@ import com.google.common.base.Charsets;
  * <ul> 
  * <li> a uniqueness constraint on a property index by setting the <code>unique</code> flag to <code>true</code></li>
  * <li> that the property index only applies to a certain node type by setting the <code>declaringNodeTypes</code> property</li>
+ * <li> additional properties whose values are stored in the index, by setting the <code>coveredPropertyNames</code> property.
+ * Queries can then evaluate conditions on those properties without loading the nodes (not supported for unique indexes)</li>
  * </ul>
  * </p>
  * <p>
@@ -63,6 +65,9 @@ import com.google.common.base.Charsets;
  * <ul>
  * <li> <code>propertyNames</code> can be a list of properties, and it is optional.in case it is missing, the node name will be used as a property name reference value</li>
  * <li> <code>reindex</code> is a property that when set to <code>true</code>, triggers a full content reindex.</li>
+ * <li> for non-unique indexes, sketches of the number of distinct values and of the number of entries per value
+ * are kept in the hidden <code>:statistics</code> node, so that the cost of a lookup can be estimated without reading
+ * the index content. They are only available after the index was (re-)built.</li>
  * </ul>
  * </p>
  * 
@@ -24,6 +24,7 @@ import static org.apache.jackrabbit.oak.api.CommitFailedException.CONSTRAINT;
 import static org.apache.jackrabbit.oak.api.Type.NAME;
 import static org.apache.jackrabbit.oak.api.Type.NAMES;
 import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.COVERED_PROPERTY_NAMES;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.DECLARING_NODE_TYPES;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_CONTENT_NODE_NAME;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.PROPERTY_NAMES;
@@ -43,6 +44,7 @@ import org.apache.jackrabbit.oak.plugins.index.IndexUpdateCallback;
 import org.apache.jackrabbit.oak.plugins.index.PathFilter;
 import org.apache.jackrabbit.oak.plugins.index.property.strategy.ContentMirrorStoreStrategy;
 import org.apache.jackrabbit.oak.plugins.index.property.strategy.IndexStoreStrategy;
+import org.apache.jackrabbit.oak.plugins.index.property.strategy.PropertyIndexStatistics;
 import org.apache.jackrabbit.oak.plugins.index.property.strategy.UniqueEntryStoreStrategy;
 import org.apache.jackrabbit.oak.plugins.nodetype.TypePredicate;
 import org.apache.jackrabbit.oak.spi.commit.Editor;
@@ -60,8 +62,16 @@ import com.google.common.base.Predicate;
  */
 class PropertyIndexEditor implements IndexEditor {
 
+    /**
+     * The names of the covered properties whose values are stored in all
+     * index entries, as they were covered when the index was last reindexed.
+     * Properties added to {@link IndexConstants#COVERED_PROPERTY_NAMES}
+     * later are only used once the index is reindexed.
+     */
+    static final String INDEXED_COVERED_PROPERTY_NAMES = ":indexedCoveredPropertyNames";
+
     /** Index storage strategy */
-    private static final IndexStoreStrategy MIRROR =
+    private static final ContentMirrorStoreStrategy MIRROR =
             new ContentMirrorStoreStrategy();
 
     /** Index storage strategy */
@@ -85,6 +95,12 @@ class PropertyIndexEditor implements IndexEditor {
 
      private final Set<String> propertyNames;
 
+    /**
+     * Names of the properties whose values are stored in the index entries
+     * (empty if this is not a covering index).
+     */
+    private final Set<String> coveredPropertyNames;
+
     /** Type predicate, or {@code null} if there are no type restrictions */
     private final Predicate<NodeState> typePredicate;
 
@@ -94,6 +110,12 @@ class PropertyIndexEditor implements IndexEditor {
      */
     private final Set<String> keysToCheckForUniqueness;
 
+    /**
+     * Statistics about the keys, or {@code null} if they are not maintained
+     * for this index. Set when entering the root node.
+     */
+    private PropertyIndexStatistics statistics;
+
     /**
      * Flag to indicate whether the type of this node may have changed.
      */
@@ -109,6 +131,11 @@ class PropertyIndexEditor implements IndexEditor {
      */
     private Set<String> afterKeys;
 
+    /**
+     * Flag to indicate whether a covered property of this node was changed.
+     */
+    private boolean coveredChanged;
+
     private final IndexUpdateCallback updateCallback;
 
     private final PathFilter pathFilter;
@@ -136,6 +163,18 @@ class PropertyIndexEditor implements IndexEditor {
             this.propertyNames = newHashSet(names.getValue(NAMES));
         }
 
+        // covered values are not stored in unique indexes
+        if (definition.hasProperty(COVERED_PROPERTY_NAMES)
+                && !definition.getBoolean(IndexConstants.UNIQUE_PROPERTY_NAME)) {
+            // the indexed properties are covered as well, as the keys
+            // are encoded and might be truncated
+            this.coveredPropertyNames =
+                    newHashSet(definition.getNames(COVERED_PROPERTY_NAMES));
+            this.coveredPropertyNames.addAll(propertyNames);
+        } else {
+            this.coveredPropertyNames = Collections.emptySet();
+        }
+
         // get declaring types, and all their subtypes
         // TODO: should we reindex when type definitions change?
         if (definition.hasProperty(DECLARING_NODE_TYPES)) {
@@ -161,8 +200,10 @@ class PropertyIndexEditor implements IndexEditor {
         this.definition = parent.definition;
         this.root = parent.root;
         this.propertyNames = parent.getPropertyNames();
+        this.coveredPropertyNames = parent.coveredPropertyNames;
         this.typePredicate = parent.typePredicate;
         this.keysToCheckForUniqueness = parent.keysToCheckForUniqueness;
+        this.statistics = parent.statistics;
         this.updateCallback = parent.updateCallback;
         this.pathFilter = parent.pathFilter;
         this.pathFilterResult = pathFilterResult;
@@ -232,6 +273,13 @@ class PropertyIndexEditor implements IndexEditor {
         
         beforeKeys = null;
         afterKeys = null;
+        coveredChanged = false;
+
+        // statistics are not needed for unique indexes;
+        // the index content of a re-index was removed at this point
+        if (parent == null && keysToCheckForUniqueness == null) {
+            statistics = PropertyIndexStatistics.forUpdate(definition);
+        }
     }
 
     @Override
@@ -243,8 +291,39 @@ class PropertyIndexEditor implements IndexEditor {
             updateIndex(before, after);
         }
         checkUniquenessConstraints();
+        if (parent == null && statistics != null) {
+            statistics.write(definition);
+        }
+        if (parent == null) {
+            updateIndexedCoveredPropertyNames(before);
+        }
         
     }
+
+    /**
+     * Records which covered properties are stored in all index entries: all
+     * of them after a reindex, otherwise those that were stored before and
+     * are still covered.
+     */
+    private void updateIndexedCoveredPropertyNames(NodeState before) {
+        Set<String> indexed;
+        if (!before.exists()) {
+            // reindex
+            indexed = coveredPropertyNames;
+        } else if (definition.hasProperty(INDEXED_COVERED_PROPERTY_NAMES)) {
+            indexed = newHashSet(definition.getNames(INDEXED_COVERED_PROPERTY_NAMES));
+            if (!indexed.retainAll(coveredPropertyNames)) {
+                return;
+            }
+        } else {
+            return;
+        }
+        if (indexed.isEmpty()) {
+            definition.removeProperty(INDEXED_COVERED_PROPERTY_NAMES);
+        } else {
+            definition.setProperty(INDEXED_COVERED_PROPERTY_NAMES, indexed, NAMES);
+        }
+    }
     
     private void applyTypeRestrictions(NodeState before, NodeState after) {
         // apply the type restrictions
@@ -294,12 +373,41 @@ class PropertyIndexEditor implements IndexEditor {
                 }
                 getStrategy(uniqueIndex).update(
                         index, getPath(), properties, definition, beforeKeys, afterKeys);
+                if (statistics != null) {
+                    for (String key : beforeKeys) {
+                        statistics.keyRemoved(key);
+                    }
+                    for (String key : afterKeys) {
+                        statistics.keyAdded(key);
+                    }
+                }
             }
         }
 
+        if (!coveredPropertyNames.isEmpty()
+                && (coveredChanged || (afterKeys != null && !afterKeys.isEmpty()))) {
+            updateCoveredValues(after);
+        }
+
         checkUniquenessConstraints();
     }
 
+    /**
+     * Stores the values of the covered properties in all index entries of
+     * this node.
+     */
+    private void updateCoveredValues(NodeState after) {
+        if (typePredicate != null && !typePredicate.apply(after)) {
+            return;
+        }
+        Set<String> keys = getMatchingKeys(after, getPropertyNames());
+        if (keys != null) {
+            MIRROR.updateCoveredValues(
+                    definition.child(INDEX_CONTENT_NODE_NAME),
+                    getPath(), keys, coveredPropertyNames, after);
+        }
+    }
+
     private void checkUniquenessConstraints() throws CommitFailedException {
         if (parent == null) {
             // make sure that the index node exist, even with no content
@@ -375,6 +483,7 @@ class PropertyIndexEditor implements IndexEditor {
         if (getPropertyNames().contains(name)) {
             afterKeys = addValueKeys(afterKeys, after);
         }
+        coveredChanged = coveredChanged || coveredPropertyNames.contains(name);
     }
 
     @Override
@@ -385,6 +494,7 @@ class PropertyIndexEditor implements IndexEditor {
             beforeKeys = addValueKeys(beforeKeys, before);
             afterKeys = addValueKeys(afterKeys, after);
         }
+        coveredChanged = coveredChanged || coveredPropertyNames.contains(name);
     }
 
     @Override
@@ -394,6 +504,7 @@ class PropertyIndexEditor implements IndexEditor {
         if (getPropertyNames().contains(name)) {
             beforeKeys = addValueKeys(beforeKeys, before);
         }
+        coveredChanged = coveredChanged || coveredPropertyNames.contains(name);
     }
 
     /**
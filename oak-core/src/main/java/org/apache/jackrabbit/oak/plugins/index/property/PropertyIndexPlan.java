@@ -20,7 +20,9 @@ import static com.google.common.base.Predicates.in;
 import static com.google.common.collect.Iterables.any;
 import static com.google.common.collect.Sets.newHashSet;
 import static com.google.common.collect.Sets.newLinkedHashSet;
+import static com.google.common.collect.Sets.newTreeSet;
 import static java.util.Collections.emptySet;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.COVERED_PROPERTY_NAMES;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.DECLARING_NODE_TYPES;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.PROPERTY_NAMES;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.UNIQUE_PROPERTY_NAME;
@@ -65,7 +67,7 @@ public class PropertyIndexPlan {
     static final int MAX_COST = 100;
 
     /** Index storage strategy */
-    private static final IndexStoreStrategy MIRROR =
+    private static final ContentMirrorStoreStrategy MIRROR =
             new ContentMirrorStoreStrategy();
 
     /** Index storage strategy */
@@ -80,6 +82,13 @@ public class PropertyIndexPlan {
 
     private final Set<String> properties;
 
+    /**
+     * The properties whose values are stored in all index entries (empty if
+     * this is not a covering index, or the index was not reindexed since
+     * the properties were added).
+     */
+    private final Set<String> coveredProperties;
+
     private final IndexStoreStrategy strategy;
 
     private final Filter filter;
@@ -105,8 +114,16 @@ public class PropertyIndexPlan {
 
         if (definition.getBoolean(UNIQUE_PROPERTY_NAME)) {
             this.strategy = UNIQUE;
+            this.coveredProperties = emptySet();
         } else {
             this.strategy = MIRROR;
+            // only the values written by a reindex are complete
+            Set<String> covered = newTreeSet(definition.getNames(
+                    PropertyIndexEditor.INDEXED_COVERED_PROPERTY_NAMES));
+            Set<String> defined = newHashSet(definition.getNames(COVERED_PROPERTY_NAMES));
+            defined.addAll(properties);
+            covered.retainAll(defined);
+            this.coveredProperties = covered;
         }
 
         this.filter = filter;
@@ -257,6 +274,12 @@ public class PropertyIndexPlan {
 
     Cursor execute() {
         QueryEngineSettings settings = filter.getQueryEngineSettings();
+        if (isCovering()) {
+            // the rows contain the values of the covered properties
+            return Cursors.newIndexRowCursorDistinct(
+                    MIRROR.queryCovering(filter, name, definition, values, coveredProperties),
+                    settings);
+        }
         Cursor cursor = Cursors.newPathCursor(
                 strategy.query(filter, name, definition, values),
                 settings);
@@ -270,6 +293,15 @@ public class PropertyIndexPlan {
         return filter;
     }
 
+    /**
+     * Whether the rows contain the values of the covered properties. This is
+     * not the case if the condition is on a property of a child node, as
+     * the rows are then the ancestors of the index entries.
+     */
+    private boolean isCovering() {
+        return !coveredProperties.isEmpty() && depth == 1;
+    }
+
     //------------------------------------------------------------< Object >--
 
     @Override
@@ -295,6 +327,9 @@ public class PropertyIndexPlan {
             }
             buffer.append(")");
         }
+        if (isCovering()) {
+            buffer.append(" COVERING ").append(coveredProperties);
+        }
         return buffer.toString();
     }
 
@@ -0,0 +1,680 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.property;
+
+import static com.google.common.base.Predicates.in;
+import static com.google.common.collect.Iterables.any;
+import static com.google.common.collect.Lists.newArrayList;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.DECLARING_NODE_TYPES;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_CONTENT_NODE_NAME;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_DEFINITIONS_NAME;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.PROPERTY_NAMES;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.TYPE_PROPERTY_NAME;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.oak.api.PropertyValue;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.plugins.index.PathFilter;
+import org.apache.jackrabbit.oak.plugins.index.property.strategy.ContentMirrorStoreStrategy;
+import org.apache.jackrabbit.oak.plugins.value.Conversions;
+import org.apache.jackrabbit.oak.spi.query.Cursor;
+import org.apache.jackrabbit.oak.spi.query.Cursors;
+import org.apache.jackrabbit.oak.spi.query.Filter;
+import org.apache.jackrabbit.oak.spi.query.Filter.PropertyRestriction;
+import org.apache.jackrabbit.oak.spi.query.PropertyValues;
+import org.apache.jackrabbit.oak.spi.query.QueryIndex;
+import org.apache.jackrabbit.oak.spi.query.QueryIndex.AdvancedQueryIndex;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
+import org.apache.jackrabbit.oak.util.ApproximateCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
+
+/**
+ * Provides a QueryIndex that does range lookups against a range index, and
+ * that can return the rows in the order of the indexed property.
+ * <p>
+ * A range index is defined like a property index, but with the
+ * <code>type</code> property set to <b><code>range</code></b>. It indexes
+ * one property, and the <code>propertyType</code> property defines how its
+ * values are compared: <code>String</code> (the default), <code>Long</code>,
+ * <code>Double</code>, <code>Decimal</code>, or <code>Date</code>. Only
+ * values of this type are indexed, and the index is only used for
+ * conditions on values of this type (or on numbers, if this is a numeric
+ * type), as values of other types compare differently. Optionally, the
+ * index can be restricted to certain node types using
+ * <code>declaringNodeTypes</code>.
+ * </p>
+ * <p>
+ * The values are stored as keys that sort in the same order as the values.
+ * Each key is stored in a bucket (a prefix of the key), and the paths of the
+ * nodes with this value are mirrored below the key:
+ * </p>
+ * <pre>
+ * {@code
+ * /oak:index/lastModified/:index/<bucket>/<key>/content/node
+ * }
+ * </pre>
+ * <p>
+ * A range scan reads the buckets and keys that are within the range, in
+ * order. The number of entries of each bucket is used to estimate the
+ * cost.
+ * </p>
+ *
+ * <pre>
+ * <code>
+ * {
+ *     NodeBuilder index = root.child("oak:index");
+ *     index.child("lastModified")
+ *         .setProperty("jcr:primaryType", "oak:QueryIndexDefinition", Type.NAME)
+ *         .setProperty("type", "range")
+ *         .setProperty("propertyNames", "jcr:lastModified")
+ *         .setProperty("propertyType", "Date")
+ *         .setProperty("reindex", true);
+ * }
+ * </code>
+ * </pre>
+ *
+ * @see RangeIndexEditor
+ */
+class RangeIndex implements QueryIndex, AdvancedQueryIndex {
+
+    static final String TYPE = "range";
+
+    /**
+     * The property of the index definition that contains the type of the
+     * values (a JCR property type name).
+     */
+    static final String PROPERTY_TYPE = "propertyType";
+
+    /**
+     * The cost overhead to use the index in number of read operations.
+     */
+    static final double COST_OVERHEAD = 2;
+
+    /**
+     * The prefix of all keys (so that the key of the empty string is not
+     * empty).
+     */
+    private static final String KEY_PREFIX = "k";
+
+    /**
+     * The maximum length of a key. Longer string keys are truncated.
+     */
+    private static final int MAX_KEY_LENGTH = 1 + 128;
+
+    /**
+     * The length of the bucket names of string keys (the first two bytes).
+     */
+    private static final int STRING_BUCKET_LENGTH = 1 + 4;
+
+    /**
+     * The length of the bucket names of numeric keys (the highest six bytes).
+     */
+    private static final int NUMBER_BUCKET_LENGTH = 1 + 12;
+
+    /**
+     * The length of the bucket names of decimal keys (the sign, the
+     * exponent, and the first three digits).
+     */
+    private static final int DECIMAL_BUCKET_LENGTH = 1 + 1 + 16 + 3;
+
+    /**
+     * The maximum number of entries to count per bucket, for buckets without
+     * approximate count.
+     */
+    private static final int MAX_COUNT = 1000;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ContentMirrorStoreStrategy MIRROR =
+            new ContentMirrorStoreStrategy();
+
+    private static final Logger LOG = LoggerFactory.getLogger(RangeIndex.class);
+
+    /**
+     * Get the value type of the given index definition.
+     *
+     * @param definition the index definition
+     * @return the property type
+     */
+    static int getValueType(NodeState definition) {
+        String name = definition.getString(PROPERTY_TYPE);
+        if (name == null) {
+            return PropertyType.STRING;
+        }
+        try {
+            return PropertyType.valueFromName(name);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Unsupported property type {}, using String", name);
+            return PropertyType.STRING;
+        }
+    }
+
+    /**
+     * Whether conditions on the given value can be evaluated using an index
+     * of the given type. Numbers are converted to the numeric type of the
+     * index, like the query engine does when comparing them with the
+     * indexed values. Other values compare differently than the indexed
+     * values, for example the string "10" is smaller than "5".
+     *
+     * @param value the value
+     * @param type the value type of the index
+     * @return true if the index can be used
+     */
+    static boolean isCompatible(PropertyValue value, int type) {
+        int tag = value.getType().tag();
+        return tag == type || (isNumber(tag) && isNumber(type));
+    }
+
+    private static boolean isNumber(int type) {
+        return type == PropertyType.LONG || type == PropertyType.DOUBLE
+                || type == PropertyType.DECIMAL;
+    }
+
+    /**
+     * Encode the given values as keys that sort in the same order as the
+     * values.
+     *
+     * @param value the values
+     * @param type the value type of the index
+     * @return the keys
+     * @throws IllegalArgumentException if a value can't be converted
+     */
+    static Set<String> encode(PropertyValue value, int type) {
+        Set<String> keys = new TreeSet<String>();
+        switch (type) {
+        case PropertyType.LONG:
+            for (long x : value.getValue(Type.LONGS)) {
+                keys.add(encodeLong(x));
+            }
+            break;
+        case PropertyType.DATE:
+            for (String x : value.getValue(Type.DATES)) {
+                keys.add(encodeLong(Conversions.convert(x).toCalendar().getTimeInMillis()));
+            }
+            break;
+        case PropertyType.DOUBLE:
+            for (double x : value.getValue(Type.DOUBLES)) {
+                keys.add(encodeDouble(x));
+            }
+            break;
+        case PropertyType.DECIMAL:
+            for (BigDecimal x : value.getValue(Type.DECIMALS)) {
+                keys.add(encodeDecimal(x));
+            }
+            break;
+        default:
+            for (String x : value.getValue(Type.STRINGS)) {
+                keys.add(encodeString(x));
+            }
+        }
+        return keys;
+    }
+
+    private static String encodeLong(long x) {
+        // flip the sign bit, so that the unsigned order matches
+        return KEY_PREFIX + toHex(x ^ Long.MIN_VALUE);
+    }
+
+    private static String encodeDouble(double x) {
+        long bits = Double.doubleToLongBits(x);
+        // negative values: flip all bits; positive values: flip the sign bit
+        bits = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+        return KEY_PREFIX + toHex(bits);
+    }
+
+    /**
+     * Encode a decimal without loss of precision. The key consists of the
+     * sign (0 for negative, 1 for zero, 2 for positive values), the
+     * exponent, and the digits, such that the value is 0.digits * 10^exponent.
+     * For negative values, the exponent and digits are inverted, and the
+     * digits are terminated by a character larger than any digit, so that
+     * a longer key is smaller. Long keys are truncated.
+     */
+    static String encodeDecimal(BigDecimal x) {
+        int signum = x.signum();
+        if (signum == 0) {
+            return KEY_PREFIX + "1";
+        }
+        x = x.stripTrailingZeros();
+        long exponent = (long) x.precision() - x.scale();
+        String digits = x.unscaledValue().abs().toString();
+        StringBuilder buff = new StringBuilder(KEY_PREFIX);
+        if (signum > 0) {
+            buff.append('2').append(toHex(exponent ^ Long.MIN_VALUE));
+            buff.append(digits);
+        } else {
+            buff.append('0').append(toHex(~(exponent ^ Long.MIN_VALUE)));
+            for (int i = 0; i < digits.length(); i++) {
+                buff.append((char) ('9' - digits.charAt(i) + '0'));
+            }
+            buff.append('~');
+        }
+        if (buff.length() > MAX_KEY_LENGTH) {
+            buff.setLength(MAX_KEY_LENGTH);
+        }
+        return buff.toString();
+    }
+
+    private static String encodeString(String x) {
+        // the order of the UTF-8 bytes matches the order of the code points
+        byte[] bytes = x.getBytes(Charsets.UTF_8);
+        StringBuilder buff = new StringBuilder(KEY_PREFIX);
+        for (int i = 0; i < bytes.length && buff.length() < MAX_KEY_LENGTH; i++) {
+            buff.append(HEX[(bytes[i] >> 4) & 15]).append(HEX[bytes[i] & 15]);
+        }
+        return buff.toString();
+    }
+
+    private static String toHex(long x) {
+        char[] chars = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            chars[i] = HEX[(int) (x & 15)];
+            x >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Get the bucket of the given key.
+     *
+     * @param key the key
+     * @param type the value type of the index
+     * @return the bucket name
+     */
+    static String getBucket(String key, int type) {
+        int length;
+        if (type == PropertyType.DECIMAL) {
+            length = DECIMAL_BUCKET_LENGTH;
+        } else if (type == PropertyType.LONG || type == PropertyType.DATE
+                || type == PropertyType.DOUBLE) {
+            length = NUMBER_BUCKET_LENGTH;
+        } else {
+            length = STRING_BUCKET_LENGTH;
+        }
+        return key.length() <= length ? key : key.substring(0, length);
+    }
+
+    //--------------------------------------------------------< QueryIndex >--
+
+    @Override
+    public double getMinimumCost() {
+        return COST_OVERHEAD;
+    }
+
+    @Override
+    public String getIndexName() {
+        return TYPE;
+    }
+
+    @Override
+    public double getCost(Filter filter, NodeState rootState) {
+        throw new UnsupportedOperationException("Not supported as implementing AdvancedQueryIndex");
+    }
+
+    @Override
+    public Cursor query(Filter filter, NodeState rootState) {
+        throw new UnsupportedOperationException("Not supported as implementing AdvancedQueryIndex");
+    }
+
+    @Override
+    public String getPlan(Filter filter, NodeState rootState) {
+        throw new UnsupportedOperationException("Not supported as implementing AdvancedQueryIndex");
+    }
+
+    //------------------------------------------------< AdvancedQueryIndex >--
+
+    @Override
+    public List<IndexPlan> getPlans(Filter filter, List<OrderEntry> sortOrder,
+            NodeState rootState) {
+        if (filter.getFullTextConstraint() != null
+                || filter.containsNativeConstraint()
+                || filter.getPropertyRestrictions().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<IndexPlan> plans = newArrayList();
+        NodeState state = rootState.getChildNode(INDEX_DEFINITIONS_NAME);
+        for (ChildNodeEntry entry : state.getChildNodeEntries()) {
+            NodeState definition = entry.getNodeState();
+            if (TYPE.equals(definition.getString(TYPE_PROPERTY_NAME))
+                    && definition.hasChildNode(INDEX_CONTENT_NODE_NAME)) {
+                IndexPlan plan = createPlan(entry.getName(), definition, filter, sortOrder);
+                if (plan != null) {
+                    plans.add(plan);
+                }
+            }
+        }
+        return plans;
+    }
+
+    private static IndexPlan createPlan(String name, NodeState definition,
+            Filter filter, List<OrderEntry> sortOrder) {
+        Iterator<String> names = definition.getNames(PROPERTY_NAMES).iterator();
+        if (!names.hasNext()) {
+            return null;
+        }
+        String propertyName = names.next();
+        if (definition.hasProperty(DECLARING_NODE_TYPES)
+                && !any(definition.getNames(DECLARING_NODE_TYPES), in(filter.getSupertypes()))) {
+            return null;
+        }
+        if (!PathFilter.from(definition.builder()).areAllDescendantsIncluded(filter.getPath())) {
+            return null;
+        }
+        PropertyRestriction restriction = filter.getPropertyRestriction(propertyName);
+        if (restriction == null || restriction.isNullRestriction() || restriction.list != null) {
+            // nodes without the property are not indexed, and
+            // "in(...)" conditions are better served by a property index
+            return null;
+        }
+        int type = getValueType(definition);
+        if (restriction.propertyType != PropertyType.UNDEFINED
+                && restriction.propertyType != type) {
+            // the property is converted to a different type
+            return null;
+        }
+        KeyRange range = KeyRange.create(restriction, type);
+        if (range == null) {
+            return null;
+        }
+        List<OrderEntry> order = null;
+        if (sortOrder != null && !sortOrder.isEmpty()
+                && propertyName.equals(sortOrder.get(0).getPropertyName())
+                && (sortOrder.get(0).getPropertyType() == Type.UNDEFINED
+                        || sortOrder.get(0).getPropertyType().tag() == type)) {
+            order = Collections.singletonList(new OrderEntry(
+                    propertyName, Type.fromTag(type, false), sortOrder.get(0).getOrder()));
+        }
+        NodeState content = definition.getChildNode(INDEX_CONTENT_NODE_NAME);
+        return new IndexPlan.Builder()
+                .setCostPerExecution(COST_OVERHEAD)
+                .setCostPerEntry(1)
+                .setEstimatedEntryCount(range.count(content))
+                .setFilter(filter)
+                .setSortOrder(order)
+                .setDefinition(definition)
+                .setPropertyRestriction(restriction)
+                .setPlanName(name)
+                .build();
+    }
+
+    @Override
+    public String getPlanDescription(IndexPlan plan, NodeState root) {
+        StringBuilder buff = new StringBuilder(TYPE);
+        buff.append(' ').append(plan.getPlanName());
+        PropertyRestriction restriction = plan.getPropertyRestriction();
+        buff.append(' ').append(restriction.propertyName);
+        buff.append(' ').append(restriction);
+        List<OrderEntry> order = plan.getSortOrder();
+        if (order != null) {
+            buff.append(" ordered ").append(
+                    order.get(0).getOrder() == OrderEntry.Order.DESCENDING ?
+                            "descending" : "ascending");
+        }
+        return buff.toString();
+    }
+
+    @Override
+    public Cursor query(IndexPlan plan, NodeState rootState) {
+        final Filter filter = plan.getFilter();
+        final String name = plan.getPlanName();
+        final NodeState definition = plan.getDefinition();
+        final NodeState content = definition.getChildNode(INDEX_CONTENT_NODE_NAME);
+        final String propertyName = plan.getPropertyRestriction().propertyName;
+        int type = getValueType(definition);
+        KeyRange range = KeyRange.create(plan.getPropertyRestriction(), type);
+        List<OrderEntry> order = plan.getSortOrder();
+        final boolean descending = order != null
+                && order.get(0).getOrder() == OrderEntry.Order.DESCENDING;
+        if (order != null) {
+            List<PropertyValue> searchAfter = plan.getSearchAfter();
+            if (searchAfter != null && searchAfter.get(0) != null) {
+                // skip the keys before the sort key
+                // (the sort key itself is filtered by the query engine)
+                range = range.startAt(searchAfter.get(0), descending);
+            }
+        }
+        final KeyRange keys = range;
+        final Comparator<String> keyOrder = descending ?
+                Ordering.<String>natural().reverse() : Ordering.<String>natural();
+        final NodeState root = rootState;
+        Iterable<String> paths = Iterables.concat(Iterables.transform(
+                keys.getBuckets(content, keyOrder),
+                new Function<String, Iterable<String>>() {
+            @Override
+            public Iterable<String> apply(final String bucket) {
+                return Iterables.concat(Iterables.transform(
+                        keys.getKeys(content.getChildNode(bucket), keyOrder),
+                        new Function<String, Iterable<String>>() {
+                    @Override
+                    public Iterable<String> apply(String key) {
+                        return getPaths(filter, name, content, bucket, key,
+                                propertyName, descending, root);
+                    }
+                }));
+            }
+        }));
+        return Cursors.newPathCursorDistinct(paths, filter.getQueryEngineSettings());
+    }
+
+    /**
+     * Get the paths of a key. The values of truncated keys might differ, so
+     * they are sorted by the value of the node.
+     */
+    private static Iterable<String> getPaths(Filter filter, String name,
+            NodeState content, String bucket, String key,
+            final String propertyName, boolean descending, final NodeState root) {
+        Iterable<String> paths = Iterables.transform(
+                MIRROR.query(filter, name, content, bucket, ImmutableSet.of(key)),
+                new Function<String, String>() {
+            @Override
+            public String apply(String path) {
+                return PathUtils.isAbsolute(path) ? path : "/" + path;
+            }
+        });
+        if (key.length() < MAX_KEY_LENGTH) {
+            return paths;
+        }
+        Ordering<String> byValue = new Ordering<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return compareValues(getValue(a), getValue(b));
+            }
+            private PropertyValue getValue(String path) {
+                return PropertyValues.create(NodeStateUtils.getNode(
+                        root, path).getProperty(propertyName));
+            }
+        };
+        return (descending ? byValue.reverse() : byValue).sortedCopy(paths);
+    }
+
+    private static int compareValues(PropertyValue a, PropertyValue b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * A range of keys.
+     */
+    static class KeyRange {
+
+        /**
+         * The first key, inclusive, or null if unbounded.
+         */
+        final String first;
+
+        /**
+         * The last key, inclusive, or null if unbounded.
+         */
+        final String last;
+
+        private final int type;
+
+        KeyRange(String first, String last, int type) {
+            this.first = first;
+            this.last = last;
+            this.type = type;
+        }
+
+        /**
+         * Create the range of keys that contains all values of the given
+         * restriction. Exclusive bounds are included, as the query engine
+         * evaluates the condition as well.
+         *
+         * @param restriction the restriction
+         * @param type the value type of the index
+         * @return the range, or null if a bound is not compatible with the
+         *         index type or can't be converted
+         */
+        static KeyRange create(PropertyRestriction restriction, int type) {
+            if ((restriction.first != null && !isCompatible(restriction.first, type))
+                    || (restriction.last != null && !isCompatible(restriction.last, type))) {
+                return null;
+            }
+            try {
+                String first = restriction.first == null ? null :
+                    encode(restriction.first, type).iterator().next();
+                String last = restriction.last == null ? null :
+                    encode(restriction.last, type).iterator().next();
+                return new KeyRange(first, last, type);
+            } catch (IllegalArgumentException e) {
+                LOG.debug("Can not convert the condition {} to the index type", restriction, e);
+                return null;
+            }
+        }
+
+        /**
+         * Restrict the range to the keys after the given value.
+         *
+         * @param value the value
+         * @param descending whether the keys are read in descending order
+         * @return the restricted range
+         */
+        KeyRange startAt(PropertyValue value, boolean descending) {
+            String key;
+            try {
+                key = encode(value, type).iterator().next();
+            } catch (IllegalArgumentException e) {
+                return this;
+            }
+            if (descending) {
+                return new KeyRange(first, last == null || key.compareTo(last) < 0 ? key : last, type);
+            }
+            return new KeyRange(first == null || key.compareTo(first) > 0 ? key : first, last, type);
+        }
+
+        boolean containsBucket(String bucket) {
+            return (first == null || bucket.compareTo(getBucket(first, type)) >= 0)
+                    && (last == null || bucket.compareTo(getBucket(last, type)) <= 0);
+        }
+
+        boolean containsKey(String key) {
+            return (first == null || key.compareTo(first) >= 0)
+                    && (last == null || key.compareTo(last) <= 0);
+        }
+
+        /**
+         * Get the names of the buckets within this range.
+         */
+        List<String> getBuckets(NodeState content, Comparator<String> order) {
+            List<String> list = newArrayList();
+            for (String bucket : content.getChildNodeNames()) {
+                if (!NodeStateUtils.isHidden(bucket) && containsBucket(bucket)) {
+                    list.add(bucket);
+                }
+            }
+            Collections.sort(list, order);
+            return list;
+        }
+
+        /**
+         * Get the keys of a bucket that are within this range.
+         */
+        List<String> getKeys(NodeState bucket, Comparator<String> order) {
+            List<String> list = newArrayList();
+            for (String key : bucket.getChildNodeNames()) {
+                if (containsKey(key)) {
+                    list.add(key);
+                }
+            }
+            Collections.sort(list, order);
+            return list;
+        }
+
+        /**
+         * Estimate the number of entries within this range. Buckets with an
+         * approximate count use it, the entries of other buckets are
+         * counted.
+         *
+         * @param content the index content node
+         * @return the estimated number of entries
+         */
+        long count(NodeState content) {
+            long count = 0;
+            for (String bucket : getBuckets(content, Ordering.<String>natural())) {
+                NodeState state = content.getChildNode(bucket);
+                long c = ApproximateCounter.getCountSync(state);
+                if (c < 0) {
+                    c = 0;
+                    for (String key : getKeys(state, Ordering.<String>natural())) {
+                        c += countEntries(state.getChildNode(key), MAX_COUNT - c);
+                        if (c >= MAX_COUNT) {
+                            break;
+                        }
+                    }
+                }
+                count += c;
+            }
+            return count;
+        }
+
+        private static long countEntries(NodeState node, long max) {
+            long count = node.getBoolean("match") ? 1 : 0;
+            for (ChildNodeEntry child : node.getChildNodeEntries()) {
+                if (count >= max) {
+                    break;
+                }
+                count += countEntries(child.getNodeState(), max - count);
+            }
+            return count;
+        }
+
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.property;
+
+import static com.google.common.collect.Sets.newHashSet;
+import static java.util.Collections.singleton;
+import static org.apache.jackrabbit.JcrConstants.JCR_MIXINTYPES;
+import static org.apache.jackrabbit.JcrConstants.JCR_PRIMARYTYPE;
+import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.DECLARING_NODE_TYPES;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_CONTENT_NODE_NAME;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.PROPERTY_NAMES;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.plugins.index.IndexEditor;
+import org.apache.jackrabbit.oak.plugins.index.IndexUpdateCallback;
+import org.apache.jackrabbit.oak.plugins.index.PathFilter;
+import org.apache.jackrabbit.oak.plugins.index.property.strategy.ContentMirrorStoreStrategy;
+import org.apache.jackrabbit.oak.plugins.nodetype.TypePredicate;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.query.PropertyValues;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Index editor for keeping a range index up to date.
+ *
+ * @see RangeIndex
+ */
+class RangeIndexEditor implements IndexEditor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RangeIndexEditor.class);
+
+    /** Storage strategy for the entries of a bucket */
+    private static final ContentMirrorStoreStrategy MIRROR =
+            new ContentMirrorStoreStrategy();
+
+    /** Parent editor, or {@code null} if this is the root editor. */
+    private final RangeIndexEditor parent;
+
+    /** Name of this node, or {@code null} for the root node. */
+    private final String name;
+
+    /** Path of this editor, built lazily in {@link #getPath()}. */
+    private String path;
+
+    /** Index definition node builder */
+    private final NodeBuilder definition;
+
+    /** The name of the indexed property */
+    private final String propertyName;
+
+    /** The value type of the index */
+    private final int valueType;
+
+    /** Type predicate, or {@code null} if there are no type restrictions */
+    private final Predicate<NodeState> typePredicate;
+
+    private final IndexUpdateCallback updateCallback;
+
+    private final PathFilter pathFilter;
+
+    private final PathFilter.Result pathFilterResult;
+
+    /**
+     * Flag to indicate whether the indexed property, or the type of this
+     * node, may have changed.
+     */
+    private boolean changed;
+
+    RangeIndexEditor(NodeBuilder definition, NodeState root,
+            IndexUpdateCallback updateCallback) {
+        this.parent = null;
+        this.name = null;
+        this.path = "/";
+        this.definition = definition;
+        this.propertyName = definition.getNames(PROPERTY_NAMES).iterator().next();
+        this.valueType = RangeIndex.getValueType(definition.getNodeState());
+        if (definition.hasProperty(DECLARING_NODE_TYPES)) {
+            this.typePredicate = new TypePredicate(
+                    root, definition.getNames(DECLARING_NODE_TYPES));
+        } else {
+            this.typePredicate = null;
+        }
+        this.updateCallback = updateCallback;
+        this.pathFilter = PathFilter.from(definition);
+        this.pathFilterResult = pathFilter.filter(path);
+    }
+
+    private RangeIndexEditor(RangeIndexEditor parent, String name,
+            PathFilter.Result pathFilterResult) {
+        this.parent = parent;
+        this.name = name;
+        this.path = null;
+        this.definition = parent.definition;
+        this.propertyName = parent.propertyName;
+        this.valueType = parent.valueType;
+        this.typePredicate = parent.typePredicate;
+        this.updateCallback = parent.updateCallback;
+        this.pathFilter = parent.pathFilter;
+        this.pathFilterResult = pathFilterResult;
+    }
+
+    /**
+     * Returns the path of this node, building it lazily when first requested.
+     */
+    private String getPath() {
+        if (path == null) {
+            path = concat(parent.getPath(), name);
+        }
+        return path;
+    }
+
+    /**
+     * Get the keys of the indexed property of the given node. Values of a
+     * different type than the index are not indexed, as they compare
+     * differently.
+     *
+     * @param state the node
+     * @return the keys (empty if the node is not indexed)
+     */
+    private Set<String> getKeys(NodeState state) {
+        PropertyState property = state.getProperty(propertyName);
+        if (property == null || property.getType().tag() != valueType
+                || property.count() == 0) {
+            return Collections.emptySet();
+        }
+        if (typePredicate != null && !typePredicate.apply(state)) {
+            return Collections.emptySet();
+        }
+        try {
+            return RangeIndex.encode(PropertyValues.create(property), valueType);
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Value of {} at {} can not be converted, not indexed",
+                    propertyName, getPath(), e);
+            return Collections.emptySet();
+        }
+    }
+
+    @Override
+    public void enter(NodeState before, NodeState after) {
+        changed = false;
+    }
+
+    @Override
+    public void leave(NodeState before, NodeState after)
+            throws CommitFailedException {
+        if (parent == null) {
+            // make sure that the index node exist, even with no content
+            definition.child(INDEX_CONTENT_NODE_NAME);
+        }
+        if (!changed || pathFilterResult != PathFilter.Result.INCLUDE) {
+            return;
+        }
+        Set<String> beforeKeys = newHashSet(getKeys(before));
+        Set<String> afterKeys = newHashSet(getKeys(after));
+        Set<String> sharedKeys = newHashSet(beforeKeys);
+        sharedKeys.retainAll(afterKeys);
+        beforeKeys.removeAll(sharedKeys);
+        afterKeys.removeAll(sharedKeys);
+        if (beforeKeys.isEmpty() && afterKeys.isEmpty()) {
+            return;
+        }
+        updateCallback.indexUpdate();
+        NodeBuilder index = definition.child(INDEX_CONTENT_NODE_NAME);
+        Set<String> none = Collections.emptySet();
+        for (String key : beforeKeys) {
+            NodeBuilder bucket = index.getChildNode(RangeIndex.getBucket(key, valueType));
+            if (bucket.exists()) {
+                MIRROR.update(bucket, getPath(), null, null, singleton(key), none);
+                if (bucket.getChildNodeCount(1) == 0) {
+                    bucket.remove();
+                }
+            }
+        }
+        for (String key : afterKeys) {
+            NodeBuilder bucket = index.child(RangeIndex.getBucket(key, valueType));
+            MIRROR.update(bucket, getPath(), null, null, none, singleton(key));
+        }
+    }
+
+    private void propertyChanged(String name) {
+        changed = changed || propertyName.equals(name)
+                || (typePredicate != null
+                        && (JCR_PRIMARYTYPE.equals(name) || JCR_MIXINTYPES.equals(name)));
+    }
+
+    @Override
+    public void propertyAdded(PropertyState after) {
+        propertyChanged(after.getName());
+    }
+
+    @Override
+    public void propertyChanged(PropertyState before, PropertyState after) {
+        propertyChanged(after.getName());
+    }
+
+    @Override
+    public void propertyDeleted(PropertyState before) {
+        propertyChanged(before.getName());
+    }
+
+    @Override
+    public Editor childNodeAdded(String name, NodeState after) {
+        return getChildIndexEditor(name);
+    }
+
+    @Override
+    public Editor childNodeChanged(
+            String name, NodeState before, NodeState after) {
+        return getChildIndexEditor(name);
+    }
+
+    @Override
+    public Editor childNodeDeleted(String name, NodeState before) {
+        return getChildIndexEditor(name);
+    }
+
+    private Editor getChildIndexEditor(String name) {
+        PathFilter.Result filterResult = pathFilter.filter(concat(getPath(), name));
+        if (filterResult == PathFilter.Result.EXCLUDE) {
+            return null;
+        }
+        return new RangeIndexEditor(this, name, filterResult);
+    }
+
+}
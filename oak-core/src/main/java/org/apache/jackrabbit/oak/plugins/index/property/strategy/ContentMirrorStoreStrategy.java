@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.oak.plugins.index.property.strategy;
 
+import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Queues.newArrayDeque;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_CONTENT_NODE_NAME;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.ENTRY_COUNT_PROPERTY_NAME;
@@ -25,18 +26,24 @@ import java.util.Deque;
 import java.util.Iterator;
 import java.util.Set;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.commons.PathUtils;
 import org.apache.jackrabbit.oak.plugins.index.counter.NodeCounterEditor;
 import org.apache.jackrabbit.oak.plugins.index.counter.jmx.NodeCounter;
 import org.apache.jackrabbit.oak.plugins.memory.MemoryChildNodeEntry;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
 import org.apache.jackrabbit.oak.query.FilterIterators;
 import org.apache.jackrabbit.oak.query.QueryEngineSettings;
+import org.apache.jackrabbit.oak.spi.query.CoveringIndexRow;
 import org.apache.jackrabbit.oak.spi.query.Filter;
+import org.apache.jackrabbit.oak.spi.query.IndexRow;
+import org.apache.jackrabbit.oak.spi.query.PropertyValues;
 import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
@@ -80,6 +87,13 @@ public class ContentMirrorStoreStrategy implements IndexStoreStrategy {
      */
     public static final int TRAVERSING_WARN = Integer.getInteger("oak.traversing.warn", 10000);
 
+    /**
+     * The prefix of the names of the properties that contain the values of
+     * covered properties, in the index entries (the nodes with the "match"
+     * property).
+     */
+    static final String COVERED_PROPERTY_PREFIX = ":covered:";
+
     @Override
     public void update(
             NodeBuilder index, String path,
@@ -109,9 +123,14 @@ public class ContentMirrorStoreStrategy implements IndexStoreStrategy {
                 builders.addFirst(builder);
             }
 
-            // Drop the match value,  if present
+            // Drop the match value and the covered values, if present
             if (builder.exists()) {
                 builder.removeProperty("match");
+                for (PropertyState p : newArrayList(builder.getProperties())) {
+                    if (p.getName().startsWith(COVERED_PROPERTY_PREFIX)) {
+                        builder.removeProperty(p.getName());
+                    }
+                }
             }
 
             // Prune all index nodes that are no longer needed
@@ -130,6 +149,41 @@ public class ContentMirrorStoreStrategy implements IndexStoreStrategy {
         builder.setProperty("match", true);
     }
 
+    /**
+     * Stores the values of the given covered properties of a node in the
+     * index entries of the node, for the given keys. Properties the node
+     * doesn't have are removed from the entries.
+     *
+     * @param index the index node
+     * @param path the path of the node
+     * @param keys the keys of the node
+     * @param propertyNames the names of the covered properties
+     * @param node the node
+     */
+    public void updateCoveredValues(NodeBuilder index, String path,
+            Set<String> keys, Set<String> propertyNames, NodeState node) {
+        for (String key : keys) {
+            NodeBuilder builder = index.getChildNode(key);
+            for (String name : PathUtils.elements(path)) {
+                builder = builder.getChildNode(name);
+            }
+            if (!builder.getBoolean("match")) {
+                continue;
+            }
+            for (String name : propertyNames) {
+                PropertyState property = node.getProperty(name);
+                if (property == null) {
+                    builder.removeProperty(COVERED_PROPERTY_PREFIX + name);
+                } else {
+                    builder.setProperty(PropertyStates.createProperty(
+                            COVERED_PROPERTY_PREFIX + name,
+                            property.getValue(property.getType()),
+                            property.getType()));
+                }
+            }
+        }
+    }
+
     public Iterable<String> query(final Filter filter, final String indexName,
             final NodeState indexMeta, final String indexStorageNodeName,
             final Iterable<String> values) {
@@ -137,25 +191,74 @@ public class ContentMirrorStoreStrategy implements IndexStoreStrategy {
         return new Iterable<String>() {
             @Override
             public Iterator<String> iterator() {
-                PathIterator it = new PathIterator(filter, indexName, "");
-                if (values == null) {
-                    it.setPathContainsValue(true);
-                    it.enqueue(getChildNodeEntries(index).iterator());
-                } else {
-                    for (String p : values) {
-                        NodeState property = index.getChildNode(p);
-                        if (property.exists()) {
-                            // we have an entry for this value, so use it
-                            it.enqueue(Iterators.singletonIterator(
-                                    new MemoryChildNodeEntry("", property)));
-                        }
+                return createPathIterator(filter, indexName, index, values);
+            }
+        };
+    }
+
+    /**
+     * Search for a given set of values, and return index rows that contain
+     * the values of the given covered properties.
+     *
+     * @param filter the filter
+     * @param indexName the name of the index (for logging)
+     * @param indexMeta the index metadata node
+     * @param values values to look for (null to check for property existence)
+     * @param propertyNames the names of the covered properties
+     * @return the rows (possibly multiple rows for the same path)
+     */
+    public Iterable<IndexRow> queryCovering(final Filter filter, final String indexName,
+            final NodeState indexMeta, final Iterable<String> values,
+            final Set<String> propertyNames) {
+        final NodeState index = indexMeta.getChildNode(INDEX_CONTENT_NODE_NAME);
+        return new Iterable<IndexRow>() {
+            @Override
+            public Iterator<IndexRow> iterator() {
+                final PathIterator it = createPathIterator(filter, indexName, index, values);
+                return new Iterator<IndexRow>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
                     }
-                }
-                return it;
+
+                    @Override
+                    public IndexRow next() {
+                        String path = it.next();
+                        return new CoveringRow(
+                                PathUtils.isAbsolute(path) ? path : "/" + path,
+                                propertyNames, it.getEntry());
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+
+                };
             }
         };
     }
 
+    private PathIterator createPathIterator(Filter filter, String indexName,
+            NodeState index, Iterable<String> values) {
+        PathIterator it = new PathIterator(filter, indexName, "");
+        if (values == null) {
+            it.setPathContainsValue(true);
+            it.enqueue(getChildNodeEntries(index).iterator());
+        } else {
+            for (String p : values) {
+                NodeState property = index.getChildNode(p);
+                if (property.exists()) {
+                    // we have an entry for this value, so use it
+                    it.enqueue(Iterators.singletonIterator(
+                            new MemoryChildNodeEntry("", property)));
+                }
+            }
+        }
+        return it;
+    }
+
     @Nonnull
     Iterable<? extends ChildNodeEntry> getChildNodeEntries(@Nonnull
     final NodeState index) {
@@ -231,26 +334,42 @@ public class ContentMirrorStoreStrategy implements IndexStoreStrategy {
                     count = (long) ((double) count / keyCount) + size;
                 }
             } else {
-                // for this index, property "entryCount" is not set
-                long approxMax = 0;
-                long approxCount = ApproximateCounter.getCountSync(index);
-                if (approxCount != -1) {
-                    // approximate count is available for the index:
-                    // check approximate counts for each value
+                // for this index, property "entryCount" is not set:
+                // use the statistics if available
+                PropertyIndexStatistics statistics = getStatistics(indexMeta, indexStorageNodeName);
+                if (statistics != null) {
+                    // keys without entries would only add collisions
+                    Set<String> keys = Sets.newHashSet();
                     for (String p : values) {
-                        NodeState s = index.getChildNode(p);
-                        if (s.exists()) {
-                            long a = ApproximateCounter.getCountSync(s);
-                            if (a != -1) {
-                                approxMax += a;
-                            } else if (approxMax > 0) {
-                                // in absence of approx count for a key we should be conservative
-                                approxMax += 10 * NodeCounterEditor.DEFAULT_RESOLUTION;
-                            }
+                        if (index.hasChildNode(p)) {
+                            keys.add(p);
                         }
                     }
-                    if (approxMax > 0) {
-                        count = approxMax;
+                    // -1 if the count is too small to be estimated,
+                    // in which case counting the entries is cheap
+                    count = keys.isEmpty() ? 0 : statistics.estimateCount(keys);
+                }
+                if (count < 0) {
+                    long approxMax = 0;
+                    long approxCount = ApproximateCounter.getCountSync(index);
+                    if (approxCount != -1) {
+                        // approximate count is available for the index:
+                        // check approximate counts for each value
+                        for (String p : values) {
+                            NodeState s = index.getChildNode(p);
+                            if (s.exists()) {
+                                long a = ApproximateCounter.getCountSync(s);
+                                if (a != -1) {
+                                    approxMax += a;
+                                } else if (approxMax > 0) {
+                                    // in absence of approx count for a key we should be conservative
+                                    approxMax += 10 * NodeCounterEditor.DEFAULT_RESOLUTION;
+                                }
+                            }
+                        }
+                        if (approxMax > 0) {
+                            count = approxMax;
+                        }
                     }
                 }
             }
@@ -297,6 +416,19 @@ public class ContentMirrorStoreStrategy implements IndexStoreStrategy {
         return count;
     }
 
+    /**
+     * Get the key statistics of the index, if they are available for the
+     * given index content node.
+     */
+    @CheckForNull
+    private static PropertyIndexStatistics getStatistics(NodeState indexMeta,
+            String indexStorageNodeName) {
+        if (!INDEX_CONTENT_NODE_NAME.equals(indexStorageNodeName)) {
+            return null;
+        }
+        return PropertyIndexStatistics.read(indexMeta);
+    }
+
     /**
      * An iterator over paths within an index node.
      */
@@ -314,6 +446,8 @@ public class ContentMirrorStoreStrategy implements IndexStoreStrategy {
         private String pathPrefix;
         private String parentPath;
         private String currentPath;
+        private NodeState currentEntry;
+        private NodeState entry;
         private boolean pathContainsValue;
         
         /**
@@ -417,6 +551,7 @@ public class ContentMirrorStoreStrategy implements IndexStoreStrategy {
                     parentPath = currentPath;
 
                     if (node.getBoolean("match")) {
+                        currentEntry = node;
                         readCount++;
                         if (readCount % TRAVERSING_WARN == 0) {
                             FilterIterators.checkReadLimit(readCount, settings);
@@ -433,6 +568,7 @@ public class ContentMirrorStoreStrategy implements IndexStoreStrategy {
                 }
             }
             currentPath = null;
+            currentEntry = null;
             closed = true;
         }
 
@@ -446,10 +582,21 @@ public class ContentMirrorStoreStrategy implements IndexStoreStrategy {
                 init = true;
             }
             String result = PathUtils.concat(pathPrefix, currentPath);
+            entry = currentEntry;
             fetchNext();
             return result;
         }
 
+        /**
+         * The index entry of the path that was last returned by
+         * {@link #next()}.
+         *
+         * @return the index entry
+         */
+        NodeState getEntry() {
+            return entry;
+        }
+
         @Override
         public void remove() {
             throw new UnsupportedOperationException();
@@ -457,6 +604,48 @@ public class ContentMirrorStoreStrategy implements IndexStoreStrategy {
 
     }
 
+    /**
+     * A row of a covering index, that contains the covered values stored in
+     * the index entry.
+     */
+    private static class CoveringRow implements CoveringIndexRow {
+
+        private final String path;
+        private final Set<String> propertyNames;
+        private final NodeState entry;
+
+        CoveringRow(String path, Set<String> propertyNames, NodeState entry) {
+            this.path = path;
+            this.propertyNames = propertyNames;
+            this.entry = entry;
+        }
+
+        @Override
+        public boolean isVirtualRow() {
+            return false;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public boolean covers(String propertyName) {
+            return propertyNames.contains(propertyName);
+        }
+
+        @Override
+        public PropertyValue getValue(String columnName) {
+            if (!propertyNames.contains(columnName)) {
+                return null;
+            }
+            return PropertyValues.create(
+                    entry.getProperty(COVERED_PROPERTY_PREFIX + columnName));
+        }
+
+    }
+
     /**
      * A node visitor to recursively traverse a number of nodes.
      */
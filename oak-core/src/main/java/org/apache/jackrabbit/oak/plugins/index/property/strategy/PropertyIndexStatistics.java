@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.property.strategy;
+
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_CONTENT_NODE_NAME;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.commons.StringUtils;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.util.ApproximateCounter;
+import org.apache.jackrabbit.oak.util.CountMinSketch;
+import org.apache.jackrabbit.oak.util.HyperLogLog;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+/**
+ * Statistics about the keys of a property index: a HyperLogLog sketch of the
+ * number of distinct keys, and a count-min sketch of the number of entries per
+ * key. They are stored in the hidden child node {@value #STATISTICS_NODE_NAME}
+ * of the index definition, and allow to estimate the cost of a lookup without
+ * reading the index content.
+ * <p>
+ * To avoid conflicts between concurrent commits, also from other cluster
+ * nodes, the stored sketches are not changed by a regular commit. Instead,
+ * each commit adds the registers and counters it changed as new properties
+ * with unique names, and all of them are merged when reading. Once there are
+ * {@link #MAX_CHANGES} such properties, they are merged into the stored
+ * sketches and removed (this can still conflict, but rarely).
+ * <p>
+ * To keep the number of changes low, the count-min sketch is only updated for
+ * some of the entries, using {@link ApproximateCounter#calculateOffset}, so
+ * estimates below {@link #MIN_ESTIMATED_COUNT} are not reliable. The number of
+ * distinct keys is not reduced when keys are removed.
+ * <p>
+ * The statistics are only maintained for indexes that were built (or
+ * re-indexed) after this feature was added.
+ */
+public class PropertyIndexStatistics {
+
+    /**
+     * The name of the hidden child node of the index definition that contains
+     * the statistics.
+     */
+    public static final String STATISTICS_NODE_NAME = ":statistics";
+
+    /**
+     * The smallest count that is estimated. Smaller counts are not reliable.
+     */
+    public static final long MIN_ESTIMATED_COUNT = 10 * ApproximateCounter.COUNT_RESOLUTION;
+
+    static final String DISTINCT_KEYS = "distinctKeys";
+
+    static final String KEY_FREQUENCIES = "keyFrequencies";
+
+    /**
+     * The name prefix of the properties with the registers changed by a
+     * commit (pairs of index and value).
+     */
+    static final String DISTINCT_KEYS_CHANGE_PREFIX = DISTINCT_KEYS + "_";
+
+    /**
+     * The name prefix of the properties with the counters changed by a
+     * commit (pairs of index and offset).
+     */
+    static final String KEY_FREQUENCIES_CHANGE_PREFIX = KEY_FREQUENCIES + "_";
+
+    /**
+     * The number of change properties at which they are merged into the
+     * stored sketches.
+     */
+    static final int MAX_CHANGES = 32;
+
+    static final int REGISTER_COUNT = 64;
+
+    static final int DEPTH = 4;
+
+    static final int WIDTH = 64;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final HyperLogLog distinctKeys;
+
+    private final CountMinSketch keyFrequencies;
+
+    /**
+     * The names of the change properties that were read.
+     */
+    private final List<String> changes;
+
+    /**
+     * The registers that were read, or null if the statistics are new.
+     */
+    private byte[] storedRegisters;
+
+    /**
+     * The counter offsets of this commit.
+     */
+    private final long[] frequencyOffsets;
+
+    private boolean modified;
+
+    private PropertyIndexStatistics(HyperLogLog distinctKeys,
+            CountMinSketch keyFrequencies, List<String> changes,
+            boolean isNew) {
+        this.distinctKeys = distinctKeys;
+        this.keyFrequencies = keyFrequencies;
+        this.changes = changes;
+        this.storedRegisters = isNew ? null : distinctKeys.getRegisters();
+        this.frequencyOffsets = new long[keyFrequencies.getCounts().length];
+        this.modified = isNew;
+    }
+
+    /**
+     * Read the statistics of an index.
+     *
+     * @param definition the index definition
+     * @return the statistics, or null if not available
+     */
+    @CheckForNull
+    public static PropertyIndexStatistics read(NodeState definition) {
+        return read(definition.getChildNode(STATISTICS_NODE_NAME).getProperties());
+    }
+
+    @CheckForNull
+    private static PropertyIndexStatistics read(
+            Iterable<? extends PropertyState> properties) {
+        PropertyState hll = null;
+        PropertyState cms = null;
+        List<PropertyState> changes = Lists.newArrayList();
+        for (PropertyState p : properties) {
+            String name = p.getName();
+            if (DISTINCT_KEYS.equals(name)) {
+                hll = p;
+            } else if (KEY_FREQUENCIES.equals(name)) {
+                cms = p;
+            } else if (name.startsWith(DISTINCT_KEYS_CHANGE_PREFIX)
+                    || name.startsWith(KEY_FREQUENCIES_CHANGE_PREFIX)) {
+                changes.add(p);
+            }
+        }
+        if (hll == null || cms == null) {
+            return null;
+        }
+        try {
+            byte[] registers = StringUtils.convertHexToBytes(hll.getValue(Type.STRING));
+            long[] counts = toArray(cms);
+            List<String> names = Lists.newArrayList();
+            for (PropertyState p : changes) {
+                boolean isRegister = p.getName().startsWith(DISTINCT_KEYS_CHANGE_PREFIX);
+                long[] pairs = toArray(p);
+                if (pairs.length % 2 != 0) {
+                    throw new IllegalArgumentException("Odd length: " + p);
+                }
+                for (int i = 0; i < pairs.length; i += 2) {
+                    long index = pairs[i];
+                    long value = pairs[i + 1];
+                    if (isRegister) {
+                        checkIndex(index, registers.length);
+                        registers[(int) index] = (byte) Math.max(
+                                registers[(int) index], value);
+                    } else {
+                        checkIndex(index, counts.length);
+                        counts[(int) index] += value;
+                    }
+                }
+                names.add(p.getName());
+            }
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = Math.max(0, counts[i]);
+            }
+            return new PropertyIndexStatistics(new HyperLogLog(registers),
+                    new CountMinSketch(DEPTH, counts), names, false);
+        } catch (IllegalArgumentException e) {
+            // corrupt or incompatible statistics
+            return null;
+        }
+    }
+
+    private static long[] toArray(PropertyState property) {
+        return Longs.toArray(Lists.newArrayList(property.getValue(Type.LONGS)));
+    }
+
+    private static void checkIndex(long index, int length) {
+        if (index < 0 || index >= length) {
+            throw new IllegalArgumentException("Index out of range: " + index);
+        }
+    }
+
+    /**
+     * Get the statistics of an index that is updated. For a new (or
+     * re-indexed) index, empty statistics are returned. For an existing
+     * index without statistics, null is returned, as the statistics would
+     * not match the content.
+     *
+     * @param definition the index definition
+     * @return the statistics, or null if they are not maintained
+     */
+    @CheckForNull
+    public static PropertyIndexStatistics forUpdate(NodeBuilder definition) {
+        if (definition.hasChildNode(STATISTICS_NODE_NAME)) {
+            return read(definition.getChildNode(STATISTICS_NODE_NAME).getProperties());
+        }
+        if (definition.hasChildNode(INDEX_CONTENT_NODE_NAME)) {
+            return null;
+        }
+        return new PropertyIndexStatistics(new HyperLogLog(REGISTER_COUNT),
+                new CountMinSketch(DEPTH, WIDTH), Lists.<String>newArrayList(), true);
+    }
+
+    /**
+     * Count an index entry that was added.
+     *
+     * @param key the key of the entry
+     */
+    public void keyAdded(String key) {
+        long hash = hash(key);
+        if (distinctKeys.add(hash)) {
+            modified = true;
+        }
+        adjustFrequency(hash, 1);
+    }
+
+    /**
+     * Count an index entry that was removed.
+     *
+     * @param key the key of the entry
+     */
+    public void keyRemoved(String key) {
+        adjustFrequency(hash(key), -1);
+    }
+
+    private void adjustFrequency(long hash, long offset) {
+        offset = ApproximateCounter.calculateOffset(
+                offset, ApproximateCounter.COUNT_RESOLUTION);
+        if (offset != 0) {
+            keyFrequencies.add(hash, offset);
+            for (int row = 0; row < DEPTH; row++) {
+                frequencyOffsets[keyFrequencies.getIndex(hash, row)] += offset;
+            }
+            modified = true;
+        }
+    }
+
+    /**
+     * Store the statistics, if they were modified. Usually, only the changes
+     * are stored, in new properties.
+     *
+     * @param definition the index definition
+     */
+    public void write(NodeBuilder definition) {
+        if (!modified) {
+            return;
+        }
+        NodeBuilder statistics = definition.child(STATISTICS_NODE_NAME);
+        byte[] registers = distinctKeys.getRegisters();
+        if (storedRegisters == null || changes.size() >= MAX_CHANGES) {
+            statistics.setProperty(DISTINCT_KEYS,
+                    StringUtils.convertBytesToHex(registers));
+            statistics.setProperty(KEY_FREQUENCIES,
+                    Longs.asList(keyFrequencies.getCounts()), Type.LONGS);
+            for (String name : changes) {
+                statistics.removeProperty(name);
+            }
+            changes.clear();
+        } else {
+            String suffix = UUID.randomUUID().toString();
+            List<Long> registerChanges = Lists.newArrayList();
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != storedRegisters[i]) {
+                    registerChanges.add((long) i);
+                    registerChanges.add((long) registers[i]);
+                }
+            }
+            addChange(statistics, DISTINCT_KEYS_CHANGE_PREFIX + suffix, registerChanges);
+            List<Long> counterChanges = Lists.newArrayList();
+            for (int i = 0; i < frequencyOffsets.length; i++) {
+                if (frequencyOffsets[i] != 0) {
+                    counterChanges.add((long) i);
+                    counterChanges.add(frequencyOffsets[i]);
+                }
+            }
+            addChange(statistics, KEY_FREQUENCIES_CHANGE_PREFIX + suffix, counterChanges);
+        }
+        storedRegisters = registers;
+        Arrays.fill(frequencyOffsets, 0);
+        modified = false;
+    }
+
+    private void addChange(NodeBuilder statistics, String name, List<Long> pairs) {
+        if (!pairs.isEmpty()) {
+            statistics.setProperty(name, pairs, Type.LONGS);
+            changes.add(name);
+        }
+    }
+
+    /**
+     * Estimate the number of distinct keys.
+     *
+     * @return the estimation
+     */
+    public long getDistinctKeyCount() {
+        return distinctKeys.estimate();
+    }
+
+    /**
+     * Estimate the number of entries with any of the given keys.
+     *
+     * @param keys the keys
+     * @return the estimation, or -1 if the count is too small to be estimated
+     */
+    public long estimateCount(Iterable<String> keys) {
+        // with few distinct keys, there are few collisions,
+        // and the correction would underestimate
+        boolean correct = getDistinctKeyCount() > 4 * WIDTH;
+        long count = 0;
+        for (String key : keys) {
+            long hash = hash(key);
+            count += correct ? keyFrequencies.estimateCorrected(hash)
+                    : keyFrequencies.estimate(hash);
+        }
+        return count < MIN_ESTIMATED_COUNT ? -1 : count;
+    }
+
+    private static long hash(String key) {
+        return HASH.hashString(key, Charsets.UTF_8).asLong();
+    }
+
+}
@@ -30,8 +30,13 @@ import static org.apache.jackrabbit.oak.spi.state.MoveDetector.SOURCE_PATH;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
@@ -53,6 +58,12 @@ import org.slf4j.LoggerFactory;
  *     generator.generate();
  * }
  * </pre>
+ * <p>
+ * Optionally, the content diffs of queued continuations can be computed
+ * ahead of time by the threads of an {@link Executor}. This way, large
+ * content diffs are computed in parallel, while all {@link EventHandler}
+ * callbacks are still made by the thread calling {@link #generate()}, in
+ * the same order as without the executor.
  */
 public class EventGenerator {
 
@@ -76,11 +87,32 @@ public class EventGenerator {
 
     private final LinkedList<Continuation> continuations = newLinkedList();
 
+    /**
+     * Executor used to compute the content diffs of queued continuations
+     * ahead of time, or {@code null}.
+     */
+    @CheckForNull
+    private final Executor prefetchExecutor;
+
     /**
      * Creates a new generator instance. Changes to process need to be added
      * through {@link #addHandler(NodeState, NodeState, EventHandler)}
      */
-    public EventGenerator() {}
+    public EventGenerator() {
+        this(null);
+    }
+
+    /**
+     * Creates a new generator instance, which computes the content diffs of
+     * queued continuations with the given executor. Changes to process need
+     * to be added through {@link #addHandler(NodeState, NodeState, EventHandler)}
+     *
+     * @param prefetchExecutor the executor, or {@code null} to compute all
+     *                         content diffs in {@link #generate()}
+     */
+    public EventGenerator(@Nullable Executor prefetchExecutor) {
+        this.prefetchExecutor = prefetchExecutor;
+    }
 
     /**
      * Creates a new generator instance for processing the given changes.
@@ -88,6 +120,7 @@ public class EventGenerator {
     public EventGenerator(
             @Nonnull NodeState before, @Nonnull NodeState after,
             @Nonnull EventHandler handler) {
+        this(null);
         continuations.addFirst(new Continuation(handler, before, after, 0));
     }
 
@@ -147,13 +180,25 @@ public class EventGenerator {
          */
         private int counter = 0;
 
+        /**
+         * The content diff computed ahead of time, or {@code null}.
+         */
+        private final PrefetchedDiff prefetched;
+
         private Continuation(
                 EventHandler handler, NodeState before, NodeState after,
                 int skip) {
+            this(handler, before, after, skip, null);
+        }
+
+        private Continuation(
+                EventHandler handler, NodeState before, NodeState after,
+                int skip, PrefetchedDiff prefetched) {
             this.handler = handler;
             this.before = before;
             this.after = after;
             this.skip = skip;
+            this.prefetched = prefetched;
         }
 
         //------------------------------------------------------< Runnable >--
@@ -169,7 +214,13 @@ public class EventGenerator {
                 // the MAX_CHANGES_PER_CONTINUATION limit before
                 handler.enter(before, after);
             }
-            if (after.compareAgainstBaseState(before, this)) {
+            boolean done;
+            if (prefetched != null && prefetched.isAvailable()) {
+                done = prefetched.replay(this);
+            } else {
+                done = after.compareAgainstBaseState(before, this);
+            }
+            if (done) {
                 // Only call leave if this continuation exists normally and not
                 // as a result of hitting the MAX_CHANGES_PER_CONTINUATION limit
                 handler.leave(before, after);
@@ -316,7 +367,8 @@ public class EventGenerator {
                 String name, NodeState before, NodeState after) {
             EventHandler h = handler.getChildHandler(name, before, after);
             if (h != null) {
-                continuations.addFirst(new Continuation(h, before, after, 0));
+                continuations.addFirst(new Continuation(
+                        h, before, after, 0, prefetch(before, after)));
             }
         }
 
@@ -340,7 +392,7 @@ public class EventGenerator {
             if (counter > skip // must have processed at least one event
                     && continuations.size() >= MAX_QUEUED_CONTINUATIONS) {
                 continuations.add(new Continuation(
-                        handler, this.before, this.after, counter));
+                        handler, this.before, this.after, counter, prefetched));
                 return true;
             } else {
                 return false;
@@ -355,8 +407,8 @@ public class EventGenerator {
          */
         private boolean afterEvent() {
             if (counter >= skip + MAX_CHANGES_PER_CONTINUATION) {
-                continuations.addFirst(
-                        new Continuation(handler, before, after, counter));
+                continuations.addFirst(new Continuation(
+                        handler, before, after, counter, prefetched));
                 return false;
             } else {
                 return true;
@@ -365,4 +417,203 @@ public class EventGenerator {
 
     }
 
+    /**
+     * Starts computing the content diff between the given states with the
+     * prefetch executor, if there is one.
+     */
+    @CheckForNull
+    private PrefetchedDiff prefetch(NodeState before, NodeState after) {
+        if (prefetchExecutor == null) {
+            return null;
+        }
+        PrefetchedDiff diff = new PrefetchedDiff(before, after);
+        try {
+            prefetchExecutor.execute(diff);
+        } catch (RejectedExecutionException e) {
+            // work queue full or executor shut down
+            return null;
+        }
+        return diff;
+    }
+
+    /**
+     * The changes of a content diff, recorded for one level of the content
+     * tree. The diff is either computed by the prefetch executor or, if that
+     * did not start yet when the changes are needed, by the generating
+     * thread without recording.
+     */
+    private static class PrefetchedDiff implements Runnable, NodeStateDiff {
+
+        /**
+         * Recordings with more changes than this are abandoned, to bound
+         * the memory used by prefetched diffs.
+         */
+        private static final int MAX_RECORDED_CHANGES = 1000;
+
+        private final NodeState before;
+
+        private final NodeState after;
+
+        /**
+         * Set by whoever computes the diff first: the prefetch executor or
+         * the generating thread.
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private final List<Change> changes = newArrayList();
+
+        /**
+         * Whether the prefetch executor finished. Guarded by {@code this}.
+         */
+        private boolean done;
+
+        /**
+         * Whether all changes were recorded. Guarded by {@code this}.
+         */
+        private boolean complete;
+
+        PrefetchedDiff(NodeState before, NodeState after) {
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override
+        public void run() {
+            if (claimed.compareAndSet(false, true)) {
+                boolean c = false;
+                try {
+                    c = after.compareAgainstBaseState(before, this);
+                } catch (RuntimeException e) {
+                    // the generating thread will compute the diff again
+                    // and get the exception
+                } finally {
+                    synchronized (this) {
+                        complete = c;
+                        done = true;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Waits for the recorded diff, if the prefetch executor started
+         * computing it.
+         *
+         * @return {@code true} if the recorded changes are available for
+         *          {@link #replay(NodeStateDiff)}
+         */
+        boolean isAvailable() {
+            synchronized (this) {
+                if (claimed.compareAndSet(false, true)) {
+                    // not started, the caller computes the diff itself
+                    done = true;
+                    return false;
+                }
+                while (!done) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                return complete;
+            }
+        }
+
+        /**
+         * Replays the recorded changes to the given diff.
+         *
+         * @return {@code false} if the diff aborted
+         */
+        boolean replay(NodeStateDiff diff) {
+            for (Change c : changes) {
+                if (!c.replay(diff)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean record(Change change) {
+            changes.add(change);
+            if (changes.size() > MAX_RECORDED_CHANGES) {
+                changes.clear();
+                return false;
+            }
+            return true;
+        }
+
+        //-------------------------------------------------< NodeStateDiff >--
+
+        @Override
+        public boolean propertyAdded(final PropertyState after) {
+            return record(new Change() {
+                @Override
+                boolean replay(NodeStateDiff diff) {
+                    return diff.propertyAdded(after);
+                }
+            });
+        }
+
+        @Override
+        public boolean propertyChanged(final PropertyState before,
+                                       final PropertyState after) {
+            return record(new Change() {
+                @Override
+                boolean replay(NodeStateDiff diff) {
+                    return diff.propertyChanged(before, after);
+                }
+            });
+        }
+
+        @Override
+        public boolean propertyDeleted(final PropertyState before) {
+            return record(new Change() {
+                @Override
+                boolean replay(NodeStateDiff diff) {
+                    return diff.propertyDeleted(before);
+                }
+            });
+        }
+
+        @Override
+        public boolean childNodeAdded(final String name, final NodeState after) {
+            return record(new Change() {
+                @Override
+                boolean replay(NodeStateDiff diff) {
+                    return diff.childNodeAdded(name, after);
+                }
+            });
+        }
+
+        @Override
+        public boolean childNodeChanged(final String name,
+                                        final NodeState before,
+                                        final NodeState after) {
+            return record(new Change() {
+                @Override
+                boolean replay(NodeStateDiff diff) {
+                    return diff.childNodeChanged(name, before, after);
+                }
+            });
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before) {
+            return record(new Change() {
+                @Override
+                boolean replay(NodeStateDiff diff) {
+                    return diff.childNodeDeleted(name, before);
+                }
+            });
+        }
+    }
+
+    private abstract static class Change {
+
+        abstract boolean replay(NodeStateDiff diff);
+    }
+
 }
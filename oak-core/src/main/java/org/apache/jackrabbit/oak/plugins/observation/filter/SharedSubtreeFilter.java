@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.observation.filter;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.spi.state.EqualsDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * A pre-filter shared by all observation listeners of a repository. It
+ * combines the {@link FilterProvider#getSubTrees() subtrees} of all
+ * listeners into a path trie and determines with a single traversal per
+ * content change which of these subtrees contain changes. Subtrees not
+ * registered by any listener are not looked at. Listeners use
+ * {@link #hasChanges(NodeState, NodeState, Iterable)} to skip the
+ * generation of events for changes outside of their subtrees, without
+ * evaluating their filters.
+ * <p>
+ * The result of the traversal is kept for the most recent content changes,
+ * so that listeners processing the same change at different times share it.
+ */
+public class SharedSubtreeFilter {
+
+    /**
+     * The number of content changes for which the changed subtrees are kept.
+     */
+    private static final int CACHE_SIZE = 16;
+
+    /**
+     * The registered subtree paths, counted by the number of registrations.
+     */
+    private final Multiset<String> paths = HashMultiset.create();
+
+    /**
+     * Trie of the registered paths, rebuilt whenever the paths change.
+     */
+    private volatile Trie trie = new Trie(ImmutableSet.<String>of());
+
+    /**
+     * The changed subtrees by after state. Uses identity for the keys.
+     */
+    private final Cache<NodeState, ChangedSubtrees> changes = CacheBuilder.newBuilder()
+            .weakKeys().maximumSize(CACHE_SIZE).build();
+
+    /**
+     * Registers the given subtrees.
+     */
+    public void add(@Nonnull Iterable<String> subtrees) {
+        synchronized (paths) {
+            for (String p : subtrees) {
+                paths.add(checkNotNull(p));
+            }
+            trie = new Trie(ImmutableSet.copyOf(paths.elementSet()));
+        }
+    }
+
+    /**
+     * Unregisters the given subtrees, which must have been registered with
+     * {@link #add(Iterable)} before.
+     */
+    public void remove(@Nonnull Iterable<String> subtrees) {
+        synchronized (paths) {
+            for (String p : subtrees) {
+                paths.remove(p);
+            }
+            trie = new Trie(ImmutableSet.copyOf(paths.elementSet()));
+        }
+    }
+
+    /**
+     * Checks whether there are changes between the given states in any of
+     * the given subtrees. Subtrees which were not registered when the
+     * changes were computed are assumed to have changes.
+     *
+     * @param before the root state before the change
+     * @param after the root state after the change
+     * @param subtrees the subtree paths
+     * @return {@code false} if there are no changes within the subtrees
+     */
+    public boolean hasChanges(@Nonnull NodeState before,
+                              @Nonnull NodeState after,
+                              @Nonnull Iterable<String> subtrees) {
+        ChangedSubtrees c = getChangedSubtrees(checkNotNull(before), checkNotNull(after));
+        for (String p : subtrees) {
+            if (!c.registered.contains(p) || c.changed.contains(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ChangedSubtrees getChangedSubtrees(final NodeState before,
+                                               final NodeState after) {
+        final Trie t = trie;
+        Callable<ChangedSubtrees> loader = new Callable<ChangedSubtrees>() {
+            @Override
+            public ChangedSubtrees call() {
+                return t.getChanges(before, after);
+            }
+        };
+        ChangedSubtrees c;
+        try {
+            c = changes.get(after, loader);
+        } catch (ExecutionException e) {
+            throw new UncheckedExecutionException(e.getCause());
+        }
+        if (c.before != before || c.registered != t.paths) {
+            // other base state or the subtrees changed meanwhile
+            c = t.getChanges(before, after);
+            changes.put(after, c);
+        }
+        return c;
+    }
+
+    private static final class ChangedSubtrees {
+
+        /**
+         * The before state of the change.
+         */
+        final NodeState before;
+
+        /**
+         * The subtrees registered when the changes were computed.
+         */
+        final Set<String> registered;
+
+        /**
+         * The registered subtrees with changes.
+         */
+        final Set<String> changed;
+
+        ChangedSubtrees(NodeState before, Set<String> registered,
+                        Set<String> changed) {
+            this.before = before;
+            this.registered = registered;
+            this.changed = changed;
+        }
+    }
+
+    private static final class Trie {
+
+        final Set<String> paths;
+
+        final TrieNode root = new TrieNode();
+
+        Trie(Set<String> paths) {
+            this.paths = paths;
+            for (String p : paths) {
+                TrieNode n = root;
+                for (String name : PathUtils.elements(p)) {
+                    TrieNode c = n.children.get(name);
+                    if (c == null) {
+                        c = new TrieNode();
+                        n.children.put(name, c);
+                    }
+                    n = c;
+                }
+                // there may be multiple spellings of a path, e.g. of the root
+                n.paths.add(p);
+            }
+        }
+
+        ChangedSubtrees getChanges(NodeState before, NodeState after) {
+            Set<String> changed = new HashSet<String>();
+            root.collectChanges(before, after, changed);
+            return new ChangedSubtrees(before, paths,
+                    Collections.unmodifiableSet(changed));
+        }
+    }
+
+    private static final class TrieNode {
+
+        final Map<String, TrieNode> children = new TreeMap<String, TrieNode>();
+
+        /**
+         * The registered paths of this node.
+         */
+        final List<String> paths = new ArrayList<String>(1);
+
+        void collectChanges(NodeState before, NodeState after, Set<String> changed) {
+            if (!before.exists() && !after.exists()) {
+                return;
+            }
+            if (before != after && !EqualsDiff.equals(before, after)) {
+                // only descend into subtrees with changes
+                changed.addAll(paths);
+                for (Map.Entry<String, TrieNode> e : children.entrySet()) {
+                    String name = e.getKey();
+                    e.getValue().collectChanges(before.getChildNode(name),
+                            after.getChildNode(name), changed);
+                }
+            }
+        }
+    }
+}
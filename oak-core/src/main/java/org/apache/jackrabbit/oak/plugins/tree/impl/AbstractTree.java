@@ -45,6 +45,7 @@ import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.commons.PathUtils;
 import org.apache.jackrabbit.oak.plugins.index.IndexConstants;
+import org.apache.jackrabbit.oak.plugins.index.property.strategy.PropertyIndexStatistics;
 import org.apache.jackrabbit.oak.plugins.index.reference.NodeReferenceConstants;
 import org.apache.jackrabbit.oak.spi.state.ConflictAnnotatingRebaseDiff;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
@@ -61,6 +62,7 @@ public abstract class AbstractTree implements Tree {
     // TODO: make this configurable
     private static final String[] INTERNAL_NODE_NAMES = {
             IndexConstants.INDEX_CONTENT_NODE_NAME,
+            PropertyIndexStatistics.STATISTICS_NODE_NAME,
             NodeReferenceConstants.REF_NAME,
             NodeReferenceConstants.WEAK_REF_NAME,
             ConflictAnnotatingRebaseDiff.CONFLICT};
@@ -43,6 +43,18 @@ public interface Query {
 
     void setOffset(long offset);
 
+    /**
+     * Only return the rows that sort after the given sort key, for keyset
+     * pagination. The key contains one value for each "order by" column,
+     * usually those of the last row of the previous page. Rows with the same
+     * sort key are skipped as well.
+     * 
+     * @param searchAfter the sort key, or null to return all rows
+     * @throws IllegalArgumentException if the query has no "order by" clause,
+     *             or the number of values does not match
+     */
+    void setSearchAfter(@Nullable List<PropertyValue> searchAfter);
+
     void bindValue(String key, PropertyValue value);
 
     void setTraversalEnabled(boolean traversalEnabled);
@@ -61,6 +73,21 @@ public interface Query {
 
     Iterator<ResultRowImpl> getRows();
 
+    /**
+     * Start reading the index rows in the background, so that the rows of
+     * several queries (for example the parts of a union) are read
+     * concurrently. The rows are returned by the next call to
+     * {@link #getRows()}.
+     */
+    void prefetch();
+
+    /**
+     * Collect the execution profile of this query in the given profile.
+     * 
+     * @param profile the profile
+     */
+    void setProfile(QueryProfile profile);
+
     /**
      * Get the size if known.
      * 
@@ -238,6 +238,15 @@ public abstract class QueryEngineImpl implements QueryEngine {
             String statement, String language, long limit, long offset,
             Map<String, ? extends PropertyValue> bindings,
             Map<String, String> mappings) throws ParseException {
+        return executeQuery(statement, language, limit, offset, null, bindings, mappings);
+    }
+
+    @Override
+    public Result executeQuery(
+            String statement, String language, long limit, long offset,
+            List<? extends PropertyValue> searchAfter,
+            Map<String, ? extends PropertyValue> bindings,
+            Map<String, String> mappings) throws ParseException {
         if (limit < 0) {
             throw new IllegalArgumentException("Limit may not be negative, is: " + limit);
         }
@@ -254,12 +263,19 @@ public abstract class QueryEngineImpl implements QueryEngine {
         }
 
         ExecutionContext context = getExecutionContext();
+        QueryProfile profile = context.getSettings().getProfiler().start(language, statement);
         List<Query> queries = parseQuery(statement, language, context, mappings);
+        if (profile != null) {
+            profile.parsed();
+        }
         
         for (Query q : queries) {
             q.setExecutionContext(context);
             q.setLimit(limit);
             q.setOffset(offset);
+            if (searchAfter != null) {
+                q.setSearchAfter(new ArrayList<PropertyValue>(searchAfter));
+            }
             if (bindings != null) {
                 for (Entry<String, ? extends PropertyValue> e : bindings.entrySet()) {
                     q.bindValue(e.getKey(), e.getValue());
@@ -271,6 +287,10 @@ public abstract class QueryEngineImpl implements QueryEngine {
         boolean mdc = false;
         try {
             Query query = prepareAndSelect(queries); 
+            if (profile != null && !query.isInternal()) {
+                profile.prepared();
+                query.setProfile(profile);
+            }
             mdc = setupMDC(query);
             return query.executeQuery();
         } finally {
@@ -41,6 +41,12 @@ public class QueryEngineSettings extends AnnotatedStandardMBean implements Query
     private static final boolean DEFAULT_FULL_TEXT_COMPARISON_WITHOUT_INDEX = 
             Boolean.getBoolean("oak.queryFullTextComparisonWithoutIndex");
     
+    private static final int DEFAULT_QUERY_PREFETCH_COUNT = 
+            Integer.getInteger("oak.queryPrefetchCount", 0);
+    
+    private static final int DEFAULT_QUERY_HASH_JOIN_LIMIT = 
+            Integer.getInteger("oak.queryHashJoinLimit", 10000);
+    
     private long limitInMemory = DEFAULT_QUERY_LIMIT_IN_MEMORY;
     
     private long limitReads = DEFAULT_QUERY_LIMIT_READS;
@@ -48,6 +54,15 @@ public class QueryEngineSettings extends AnnotatedStandardMBean implements Query
     private boolean fullTextComparisonWithoutIndex = 
             DEFAULT_FULL_TEXT_COMPARISON_WITHOUT_INDEX;
     
+    private int prefetchCount = DEFAULT_QUERY_PREFETCH_COUNT;
+    
+    private int hashJoinLimit = DEFAULT_QUERY_HASH_JOIN_LIMIT;
+    
+    private boolean parallelUnion = 
+            Boolean.parseBoolean(System.getProperty("oak.queryParallelUnion", "false"));
+    
+    private final QueryProfiler profiler = new QueryProfiler();
+    
     private boolean sql2Optimisation = Boolean.parseBoolean(System.getProperty(SQL2_OPTIMISATION_FLAG, "true"));
 
     public QueryEngineSettings() {
@@ -106,6 +121,83 @@ public class QueryEngineSettings extends AnnotatedStandardMBean implements Query
         return fullTextComparisonWithoutIndex;
     }
     
+    /**
+     * Get the number of index rows each selector reads ahead in the
+     * background, while the previously read rows are consumed. The nodes of
+     * those rows are loaded ahead as well. Access control is still checked
+     * when the rows are consumed.
+     * 
+     * @return the number of rows, or 0 if prefetching is disabled
+     */
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+    
+    /**
+     * Change the number of rows to read ahead.
+     * 
+     * @param prefetchCount the new number of rows, or 0 to disable
+     *        prefetching
+     */
+    public void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = prefetchCount;
+    }
+    
+    /**
+     * Get the maximum number of rows of the inner side of a join that are
+     * read into a hash table, so that the inner side is only read once
+     * instead of once for each row of the outer side. If more rows are
+     * read, the join falls back to a nested loop.
+     * 
+     * @return the number of rows, or 0 if hash joins are disabled
+     */
+    public int getHashJoinLimit() {
+        return hashJoinLimit;
+    }
+    
+    /**
+     * Change the maximum number of rows of a hash join.
+     * 
+     * @param hashJoinLimit the new number of rows, or 0 to disable hash
+     *        joins
+     */
+    public void setHashJoinLimit(int hashJoinLimit) {
+        this.hashJoinLimit = hashJoinLimit;
+    }
+    
+    /**
+     * Whether the index rows of all parts of a union query are read
+     * concurrently in the background, instead of one part after the other.
+     * Only the index cursors are read ahead, by the threads of the shared
+     * prefetch pool, in batches of rows; the nodes are still loaded, access
+     * checked, filtered and merged by the thread that iterates over the
+     * result, one part after the other.
+     * <p>
+     * Disabled by default (system property oak.queryParallelUnion), because
+     * all parts are read ahead even if the caller only reads the first rows
+     * (for example with a limit), which causes index reads that are not
+     * needed, and because the shared pool then serves every union query of
+     * the repository.
+     * 
+     * @return true if enabled
+     */
+    public boolean isParallelUnion() {
+        return parallelUnion;
+    }
+    
+    public void setParallelUnion(boolean parallelUnion) {
+        this.parallelUnion = parallelUnion;
+    }
+    
+    /**
+     * Get the profiler that collects the execution profiles of queries.
+     * 
+     * @return the profiler
+     */
+    public QueryProfiler getProfiler() {
+        return profiler;
+    }
+    
     public boolean isSql2Optimisation() {
         return sql2Optimisation;
     }
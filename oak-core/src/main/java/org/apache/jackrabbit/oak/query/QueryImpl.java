@@ -83,6 +83,7 @@ import org.apache.jackrabbit.oak.query.ast.UpperCaseImpl;
 import org.apache.jackrabbit.oak.query.index.FilterImpl;
 import org.apache.jackrabbit.oak.query.index.TraversingIndex;
 import org.apache.jackrabbit.oak.query.plan.ExecutionPlan;
+import org.apache.jackrabbit.oak.query.plan.Permutations;
 import org.apache.jackrabbit.oak.query.plan.SelectorExecutionPlan;
 import org.apache.jackrabbit.oak.spi.query.Filter;
 import org.apache.jackrabbit.oak.spi.query.PropertyValues;
@@ -140,6 +141,19 @@ public class QueryImpl implements Query {
 
     private static final Logger LOG = LoggerFactory.getLogger(QueryImpl.class);
 
+    /**
+     * The maximum number of selectors of a join for which all join orders
+     * are compared. For larger joins, a greedy algorithm is used.
+     */
+    private static final int MAX_JOIN_ORDER_SELECTORS = 4;
+
+    /**
+     * The number of index rows read ahead for each selector, if the query is
+     * executed concurrently with other queries, and prefetching is not
+     * otherwise enabled.
+     */
+    private static final int CONCURRENT_PREFETCH_COUNT = 50;
+
     private static final Ordering<QueryIndex> MINIMAL_COST_ORDERING = new Ordering<QueryIndex>() {
         @Override
         public int compare(QueryIndex left, QueryIndex right) {
@@ -174,6 +188,7 @@ public class QueryImpl implements Query {
     private boolean distinct;
     private long limit = Long.MAX_VALUE;
     private long offset;
+    private List<PropertyValue> searchAfter;
     private long size = -1;
     private boolean prepared;
     private ExecutionContext context;
@@ -195,6 +210,19 @@ public class QueryImpl implements Query {
 
     private boolean isInternal;
 
+    /**
+     * Whether this query is executed concurrently with other queries, so
+     * that its index rows are read in the background.
+     */
+    private boolean concurrent;
+
+    /**
+     * Whether the source was already executed by {@link #prefetch()}.
+     */
+    private boolean sourceExecuted;
+
+    private QueryProfile profile;
+
     QueryImpl(String statement, SourceImpl source, ConstraintImpl constraint,
         ColumnImpl[] columns, NamePathMapper mapper, QueryEngineSettings settings) {
         this.statement = statement;
@@ -474,6 +502,22 @@ public class QueryImpl implements Query {
         this.offset = offset;
     }
 
+    @Override
+    public void setSearchAfter(List<PropertyValue> searchAfter) {
+        if (searchAfter != null) {
+            if (orderings == null) {
+                throw new IllegalArgumentException(
+                        "Search after requires an order by clause");
+            }
+            if (searchAfter.size() != orderings.length) {
+                throw new IllegalArgumentException(
+                        "Search after requires " + orderings.length + 
+                        " values, got " + searchAfter.size());
+            }
+        }
+        this.searchAfter = searchAfter;
+    }
+
     @Override
     public void setExplain(boolean explain) {
         this.explain = explain;
@@ -490,7 +534,7 @@ public class QueryImpl implements Query {
 
     @Override
     public ResultImpl executeQuery() {
-        return new ResultImpl(this);
+        return new ResultImpl(this, profile);
     }
 
     @Override
@@ -512,6 +556,7 @@ public class QueryImpl implements Query {
             logDebug("query execute " + statement);
             logDebug("query plan " + getPlan());
         }
+        applySearchAfter();
         final RowIterator rowIt = new RowIterator(context.getBaseState());
         Comparator<ResultRowImpl> orderBy;
         if (isSortedByIndex) {
@@ -633,6 +678,16 @@ public class QueryImpl implements Query {
             return;
         }
 
+        if (sources.size() <= MAX_JOIN_ORDER_SELECTORS) {
+            SourceImpl result = prepareBestJoinOrder(sources, conditions);
+            if (result != null) {
+                estimatedCost = result.prepare().getEstimatedCost();
+                source = result;
+                isSortedByIndex = canSortByIndex();
+                return;
+            }
+        }
+
         // use a greedy algorithm
         SourceImpl result = null;
         Set<SourceImpl> available = new HashSet<SourceImpl>();
@@ -666,6 +721,53 @@ public class QueryImpl implements Query {
         isSortedByIndex = canSortByIndex();
     }
     
+    /**
+     * Compare the estimated cost of all join orders, and prepare the join
+     * with the lowest cost.
+     * 
+     * @param sources the selectors
+     * @param conditions the join conditions
+     * @return the prepared join, or null if no join order is possible
+     */
+    private static SourceImpl prepareBestJoinOrder(List<SourceImpl> sources, 
+            List<JoinConditionImpl> conditions) {
+        SourceImpl[] in = sources.toArray(new SourceImpl[sources.size()]);
+        SourceImpl[] out = new SourceImpl[in.length];
+        SourceImpl[] bestOrder = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        Permutations<SourceImpl> p = Permutations.create(in, out);
+        while (p.next()) {
+            SourceImpl test = buildJoin(out, conditions);
+            if (test == null) {
+                continue;
+            }
+            double cost = test.prepare().getEstimatedCost();
+            if (bestOrder == null || cost < bestCost) {
+                bestOrder = out.clone();
+                bestCost = cost;
+            }
+            test.unprepare();
+        }
+        if (bestOrder == null) {
+            return null;
+        }
+        SourceImpl result = buildJoin(bestOrder, conditions);
+        result.prepare();
+        return result;
+    }
+
+    private static SourceImpl buildJoin(SourceImpl[] order, List<JoinConditionImpl> conditions) {
+        SourceImpl result = order[0];
+        for (int i = 1; i < order.length; i++) {
+            result = buildJoin(result, order[i], conditions);
+            if (result == null) {
+                // no join condition
+                return null;
+            }
+        }
+        return result;
+    }
+
     private static SourceImpl buildJoin(SourceImpl result, SourceImpl last, List<JoinConditionImpl> conditions) {
         if (result == null) {
             return last;
@@ -796,12 +898,26 @@ public class QueryImpl implements Query {
     class RowIterator implements Iterator<ResultRowImpl> {
 
         private final NodeState rootState;
+        private final Comparator<ResultRowImpl> orderBy;
+        private final ResultRowImpl searchAfterRow;
         private ResultRowImpl current;
         private boolean started, end;
         private long rowIndex;
 
         RowIterator(NodeState rootState) {
             this.rootState = rootState;
+            // the source may already be executed by prefetch()
+            started = sourceExecuted;
+            sourceExecuted = false;
+            if (searchAfter == null) {
+                orderBy = null;
+                searchAfterRow = null;
+            } else {
+                orderBy = ResultRowImpl.getComparator(orderings);
+                searchAfterRow = new ResultRowImpl(QueryImpl.this, 
+                        Tree.EMPTY_ARRAY, null, null, 
+                        searchAfter.toArray(new PropertyValue[searchAfter.size()]));
+            }
         }
 
         public long getReadCount() {
@@ -819,6 +935,9 @@ public class QueryImpl implements Query {
             while (true) {
                 if (source.next()) {
                     if (constraint == null || constraint.evaluate()) {
+                        if (searchAfterRow != null && !isAfterSearchKey()) {
+                            continue;
+                        }
                         current = currentRow();
                         rowIndex++;
                         break;
@@ -836,6 +955,12 @@ public class QueryImpl implements Query {
             }
         }
 
+        private boolean isAfterSearchKey() {
+            ResultRowImpl r = new ResultRowImpl(QueryImpl.this, 
+                    Tree.EMPTY_ARRAY, null, null, currentOrderValues());
+            return orderBy.compare(r, searchAfterRow) > 0;
+        }
+
         @Override
         public boolean hasNext() {
             if (end) {
@@ -880,17 +1005,19 @@ public class QueryImpl implements Query {
             ColumnImpl c = columns[i];
             values[i] = c.currentProperty();
         }
-        PropertyValue[] orderValues;
+        return new ResultRowImpl(this, trees, values, distinctColumns, currentOrderValues());
+    }
+
+    private PropertyValue[] currentOrderValues() {
         if (orderings == null) {
-            orderValues = null;
-        } else {
-            int size = orderings.length;
-            orderValues = new PropertyValue[size];
-            for (int i = 0; i < size; i++) {
-                orderValues[i] = orderings[i].getOperand().currentProperty();
-            }
+            return null;
+        }
+        int size = orderings.length;
+        PropertyValue[] orderValues = new PropertyValue[size];
+        for (int i = 0; i < size; i++) {
+            orderValues[i] = orderings[i].getOperand().currentProperty();
         }
-        return new ResultRowImpl(this, trees, values, distinctColumns, orderValues);
+        return orderValues;
     }
 
     @Override
@@ -1171,6 +1298,57 @@ public class QueryImpl implements Query {
         return settings;
     }
 
+    @Override
+    public void prefetch() {
+        prepare();
+        if (explain || sourceExecuted) {
+            return;
+        }
+        concurrent = true;
+        applySearchAfter();
+        source.execute(context.getBaseState());
+        sourceExecuted = true;
+    }
+
+    @Override
+    public void setProfile(QueryProfile profile) {
+        this.profile = profile;
+        profile.addSelectors(selectors);
+    }
+
+    private void applySearchAfter() {
+        if (searchAfter != null && isSortedByIndex) {
+            // the index returns the rows in the query order,
+            // so it may skip the rows up to the key
+            selectors.get(0).setSearchAfter(searchAfter);
+        }
+    }
+
+    /**
+     * Whether this query is executed concurrently with other queries (for
+     * example the other parts of a union), so that its selectors start
+     * reading ahead right away.
+     * 
+     * @return true if executed concurrently
+     */
+    public boolean isExecutedConcurrently() {
+        return concurrent;
+    }
+
+    /**
+     * Get the number of index rows each selector reads ahead in the
+     * background.
+     * 
+     * @return the number of rows, or 0 if the rows are read on demand
+     */
+    public int getPrefetchCount() {
+        int count = settings.getPrefetchCount();
+        if (count == 0 && concurrent) {
+            count = CONCURRENT_PREFETCH_COUNT;
+        }
+        return count;
+    }
+
     @Override
     public void setInternal(boolean isInternal) {
         this.isInternal = isInternal;
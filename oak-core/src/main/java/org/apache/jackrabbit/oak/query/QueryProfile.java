@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.query.ast.SelectorImpl;
+import org.apache.jackrabbit.oak.query.plan.SelectorExecutionPlan;
+import org.apache.jackrabbit.oak.spi.query.QueryIndex;
+
+/**
+ * The execution profile of a query: the time spent parsing, planning and
+ * executing it, and what its selectors read. A profile is completed once all
+ * rows of the result are read.
+ */
+public class QueryProfile {
+
+    private final QueryProfiler profiler;
+    private final long id;
+    private final String language;
+    private final String statement;
+    private final long startTime = System.currentTimeMillis();
+    private final long start = System.nanoTime();
+    private long parseTime, prepareTime, executeTime;
+    private long rowCount;
+    private boolean ended;
+
+    private final List<SelectorImpl> selectors = new ArrayList<SelectorImpl>();
+    private final StringBuilder selectorInfo = new StringBuilder();
+    private long readCount, filteredCount, accessDeniedCount, nodeReadCount;
+
+    QueryProfile(QueryProfiler profiler, long id, String language, String statement) {
+        this.profiler = profiler;
+        this.id = id;
+        this.language = language;
+        this.statement = statement;
+    }
+
+    /**
+     * The query was parsed.
+     */
+    void parsed() {
+        parseTime = System.nanoTime() - start;
+    }
+
+    /**
+     * The query plan was chosen.
+     */
+    void prepared() {
+        prepareTime = System.nanoTime() - start - parseTime;
+    }
+
+    /**
+     * Add the selectors of a query, so that what they read is added to this
+     * profile once the query is executed.
+     *
+     * @param list the selectors
+     */
+    void addSelectors(List<SelectorImpl> list) {
+        selectors.addAll(list);
+    }
+
+    /**
+     * Wrap the result rows, so that this profile is completed once all rows
+     * are read.
+     *
+     * @param it the rows
+     * @return the wrapped rows
+     */
+    Iterator<ResultRowImpl> wrap(final Iterator<ResultRowImpl> it) {
+        return new Iterator<ResultRowImpl>() {
+
+            @Override
+            public boolean hasNext() {
+                if (it.hasNext()) {
+                    return true;
+                }
+                end();
+                return false;
+            }
+
+            @Override
+            public ResultRowImpl next() {
+                ResultRowImpl r = it.next();
+                rowCount++;
+                return r;
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+            }
+
+        };
+    }
+
+    private void end() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        executeTime = System.nanoTime() - start - parseTime - prepareTime;
+        for (SelectorImpl s : selectors) {
+            readCount += s.getScanCount();
+            filteredCount += s.getFilteredCount();
+            accessDeniedCount += s.getAccessDeniedCount();
+            nodeReadCount += s.getNodeReadCount();
+            if (selectorInfo.length() > 0) {
+                selectorInfo.append(", ");
+            }
+            SelectorExecutionPlan plan = s.getExecutionPlan();
+            QueryIndex index = plan == null ? null : plan.getIndex();
+            selectorInfo.append(s.getSelectorName()).
+                append(" (").
+                append(index == null ? "no index" : index.getIndexName()).
+                append("): read ").append(s.getScanCount()).
+                append(", filtered ").append(s.getFilteredCount()).
+                append(", denied ").append(s.getAccessDeniedCount()).
+                append(", nodes ").append(s.getNodeReadCount());
+        }
+        selectors.clear();
+        profiler.end(this);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public String getStatement() {
+        return statement;
+    }
+
+    /**
+     * @return the time the query was started, in milliseconds since 1970
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the time spent parsing, in nanoseconds
+     */
+    public long getParseTime() {
+        return parseTime;
+    }
+
+    /**
+     * @return the time spent choosing the query plan, in nanoseconds
+     */
+    public long getPrepareTime() {
+        return prepareTime;
+    }
+
+    /**
+     * @return the time spent reading the rows, in nanoseconds
+     */
+    public long getExecuteTime() {
+        return executeTime;
+    }
+
+    /**
+     * @return the total time, in nanoseconds
+     */
+    public long getDuration() {
+        return parseTime + prepareTime + executeTime;
+    }
+
+    /**
+     * @return the number of rows returned
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of rows the selectors read from the indexes
+     */
+    public long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * @return the number of rows that didn't match the conditions of the
+     *         selectors
+     */
+    public long getFilteredCount() {
+        return filteredCount;
+    }
+
+    /**
+     * @return the number of rows that were skipped because the node is not
+     *         readable (or doesn't exist any longer)
+     */
+    public long getAccessDeniedCount() {
+        return accessDeniedCount;
+    }
+
+    /**
+     * @return the number of nodes the selectors read
+     */
+    public long getNodeReadCount() {
+        return nodeReadCount;
+    }
+
+    /**
+     * @return the index and the counts of each selector
+     */
+    public String getSelectorInfo() {
+        return selectorInfo.toString();
+    }
+
+    @Override
+    public String toString() {
+        return statement + " (" + language + "): " + getDuration() / 1000000 + " ms; " +
+                selectorInfo;
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.apache.jackrabbit.oak.api.jmx.QueryProfilerMBean;
+import org.apache.jackrabbit.oak.commons.jmx.AnnotatedStandardMBean;
+import org.apache.jackrabbit.oak.stats.MeterStats;
+import org.apache.jackrabbit.oak.stats.StatisticsProvider;
+import org.apache.jackrabbit.oak.stats.StatsOptions;
+import org.apache.jackrabbit.oak.stats.TimerStats;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Collects the execution profiles of queries. The timings and counts of all
+ * queries are reported to a {@link StatisticsProvider}, and the profiles of
+ * the slowest queries are kept.
+ */
+public class QueryProfiler extends AnnotatedStandardMBean implements QueryProfilerMBean {
+
+    private static final Comparator<QueryProfile> BY_DURATION = new Comparator<QueryProfile>() {
+        @Override
+        public int compare(QueryProfile a, QueryProfile b) {
+            return a.getDuration() < b.getDuration() ? -1 :
+                a.getDuration() > b.getDuration() ? 1 : 0;
+        }
+    };
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    private volatile boolean enabled =
+            Boolean.parseBoolean(System.getProperty("oak.queryProfiler", "true"));
+
+    private volatile int maxSlowQueries =
+            Integer.getInteger("oak.queryProfilerSlowQueries", 20);
+
+    private volatile Stats stats = new Stats(StatisticsProvider.NOOP);
+
+    /**
+     * The slowest queries, fastest first.
+     */
+    private final PriorityQueue<QueryProfile> slowQueries =
+            new PriorityQueue<QueryProfile>(16, BY_DURATION);
+
+    public QueryProfiler() {
+        super(QueryProfilerMBean.class);
+    }
+
+    /**
+     * Report the timings and counts of all queries to the given provider.
+     *
+     * @param statisticsProvider the provider
+     */
+    public void setStatisticsProvider(@Nonnull StatisticsProvider statisticsProvider) {
+        stats = new Stats(checkNotNull(statisticsProvider));
+    }
+
+    /**
+     * Start the profile of a query.
+     *
+     * @param language the query language
+     * @param statement the query statement
+     * @return the profile, or null if profiling is disabled
+     */
+    @CheckForNull
+    QueryProfile start(String language, String statement) {
+        if (!enabled) {
+            return null;
+        }
+        return new QueryProfile(this, nextId.incrementAndGet(), language, statement);
+    }
+
+    /**
+     * The query of the given profile was executed.
+     *
+     * @param profile the profile
+     */
+    void end(QueryProfile profile) {
+        Stats s = stats;
+        s.parseTime.update(profile.getParseTime(), TimeUnit.NANOSECONDS);
+        s.prepareTime.update(profile.getPrepareTime(), TimeUnit.NANOSECONDS);
+        s.executeTime.update(profile.getExecuteTime(), TimeUnit.NANOSECONDS);
+        s.readCount.mark(profile.getReadCount());
+        s.filteredCount.mark(profile.getFilteredCount());
+        s.accessDeniedCount.mark(profile.getAccessDeniedCount());
+        s.nodeReadCount.mark(profile.getNodeReadCount());
+        int max = maxSlowQueries;
+        synchronized (slowQueries) {
+            if (slowQueries.size() >= max) {
+                QueryProfile fastest = slowQueries.peek();
+                if (fastest == null || BY_DURATION.compare(profile, fastest) <= 0) {
+                    return;
+                }
+            }
+            slowQueries.add(profile);
+            while (slowQueries.size() > max) {
+                slowQueries.poll();
+            }
+        }
+    }
+
+    /**
+     * Get the profiles of the slowest queries.
+     *
+     * @return the profiles, slowest first
+     */
+    public List<QueryProfile> getSlowQueryProfiles() {
+        List<QueryProfile> list;
+        synchronized (slowQueries) {
+            list = new ArrayList<QueryProfile>(slowQueries);
+        }
+        Collections.sort(list, Collections.reverseOrder(BY_DURATION));
+        return list;
+    }
+
+    @Override
+    public TabularData getSlowQueries() {
+        TabularDataSupport tds;
+        try {
+            TabularType tt = new TabularType(QueryProfileData.class.getName(),
+                    "Slow query profiles", QueryProfileData.TYPE, new String[]{"id"});
+            tds = new TabularDataSupport(tt);
+            for (QueryProfile p : getSlowQueryProfiles()) {
+                tds.put(QueryProfileData.toCompositeData(p));
+            }
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+        return tds;
+    }
+
+    @Override
+    public void resetSlowQueries() {
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    @Override
+    public int getMaxSlowQueries() {
+        return maxSlowQueries;
+    }
+
+    @Override
+    public void setMaxSlowQueries(int maxSlowQueries) {
+        this.maxSlowQueries = maxSlowQueries;
+        synchronized (slowQueries) {
+            while (slowQueries.size() > maxSlowQueries) {
+                slowQueries.poll();
+            }
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    private static class Stats {
+
+        final TimerStats parseTime, prepareTime, executeTime;
+        final MeterStats readCount, filteredCount, accessDeniedCount, nodeReadCount;
+
+        Stats(StatisticsProvider p) {
+            parseTime = p.getTimer("QUERY_PARSE_TIME", StatsOptions.METRICS_ONLY);
+            prepareTime = p.getTimer("QUERY_PREPARE_TIME", StatsOptions.METRICS_ONLY);
+            executeTime = p.getTimer("QUERY_EXECUTE_TIME", StatsOptions.METRICS_ONLY);
+            readCount = p.getMeter("QUERY_ROWS_READ", StatsOptions.METRICS_ONLY);
+            filteredCount = p.getMeter("QUERY_ROWS_FILTERED", StatsOptions.METRICS_ONLY);
+            accessDeniedCount = p.getMeter("QUERY_ROWS_ACCESS_DENIED", StatsOptions.METRICS_ONLY);
+            nodeReadCount = p.getMeter("QUERY_NODES_READ", StatsOptions.METRICS_ONLY);
+        }
+
+    }
+
+    private static class QueryProfileData {
+
+        static final String[] FIELD_NAMES = new String[]{
+                "id",
+                "statement",
+                "language",
+                "startTime",
+                "durationMillis",
+                "parseMillis",
+                "prepareMillis",
+                "executeMillis",
+                "rows",
+                "rowsRead",
+                "rowsFiltered",
+                "rowsAccessDenied",
+                "nodesRead",
+                "selectors",
+        };
+
+        static final String[] FIELD_DESCRIPTIONS = FIELD_NAMES;
+
+        @SuppressWarnings("rawtypes")
+        static final OpenType[] FIELD_TYPES = new OpenType[]{
+                SimpleType.LONG,
+                SimpleType.STRING,
+                SimpleType.STRING,
+                SimpleType.LONG,
+                SimpleType.LONG,
+                SimpleType.LONG,
+                SimpleType.LONG,
+                SimpleType.LONG,
+                SimpleType.LONG,
+                SimpleType.LONG,
+                SimpleType.LONG,
+                SimpleType.LONG,
+                SimpleType.LONG,
+                SimpleType.STRING,
+        };
+
+        static final CompositeType TYPE = createCompositeType();
+
+        static CompositeType createCompositeType() {
+            try {
+                return new CompositeType(
+                        QueryProfileData.class.getName(),
+                        "Composite data type for query profiles",
+                        FIELD_NAMES,
+                        FIELD_DESCRIPTIONS,
+                        FIELD_TYPES);
+            } catch (OpenDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        static CompositeDataSupport toCompositeData(QueryProfile p) throws OpenDataException {
+            Object[] values = new Object[]{
+                    p.getId(),
+                    p.getStatement(),
+                    p.getLanguage(),
+                    p.getStartTime(),
+                    TimeUnit.NANOSECONDS.toMillis(p.getDuration()),
+                    TimeUnit.NANOSECONDS.toMillis(p.getParseTime()),
+                    TimeUnit.NANOSECONDS.toMillis(p.getPrepareTime()),
+                    TimeUnit.NANOSECONDS.toMillis(p.getExecuteTime()),
+                    p.getRowCount(),
+                    p.getReadCount(),
+                    p.getFilteredCount(),
+                    p.getAccessDeniedCount(),
+                    p.getNodeReadCount(),
+                    p.getSelectorInfo(),
+            };
+            return new CompositeDataSupport(TYPE, FIELD_NAMES, values);
+        }
+
+    }
+
+}
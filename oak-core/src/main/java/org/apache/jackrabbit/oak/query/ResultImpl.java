@@ -31,8 +31,15 @@ public class ResultImpl implements Result {
 
     protected final Query query;
 
+    private final QueryProfile profile;
+
     ResultImpl(Query query) {
+        this(query, null);
+    }
+
+    ResultImpl(Query query, QueryProfile profile) {
         this.query = query;
+        this.profile = profile;
     }
 
     @Override
@@ -69,7 +76,11 @@ public class ResultImpl implements Result {
 
             @Override
             public Iterator<ResultRowImpl> iterator() {
-                return query.getRows();
+                Iterator<ResultRowImpl> it = query.getRows();
+                if (profile != null) {
+                    it = profile.wrap(it);
+                }
+                return it;
             }
 
         };
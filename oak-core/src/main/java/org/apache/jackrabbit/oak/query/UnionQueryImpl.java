@@ -55,6 +55,7 @@ public class UnionQueryImpl implements Query {
     private long size = -1;
     private final QueryEngineSettings settings;
     private boolean isInternal;
+    private QueryProfile profile;
     
     UnionQueryImpl(final boolean unionAll, final Query left, final Query right,
                    final QueryEngineSettings settings) {
@@ -101,6 +102,12 @@ public class UnionQueryImpl implements Query {
         applyLimitOffset();
     }
 
+    @Override
+    public void setSearchAfter(List<PropertyValue> searchAfter) {
+        left.setSearchAfter(searchAfter);
+        right.setSearchAfter(searchAfter);
+    }
+
     private void applyLimitOffset() {
         long subqueryLimit = QueryImpl.saturatedAdd(limit, offset);
         left.setLimit(subqueryLimit);
@@ -223,7 +230,7 @@ public class UnionQueryImpl implements Query {
     
     @Override
     public Result executeQuery() {
-        return new ResultImpl(this);
+        return new ResultImpl(this, profile);
     }
     
     @Override
@@ -286,6 +293,11 @@ public class UnionQueryImpl implements Query {
                 LOG.debug("query union plan {}", getPlan());
             }
         }
+        if (settings.isParallelUnion()) {
+            // start reading the index rows of all parts at once, instead
+            // of waiting for the previous parts to be read
+            prefetch();
+        }
         boolean distinct = !unionAll;
         Comparator<ResultRowImpl> orderBy = ResultRowImpl.getComparator(orderings);
 
@@ -349,6 +361,19 @@ public class UnionQueryImpl implements Query {
         return it;     
     }
 
+    @Override
+    public void prefetch() {
+        left.prefetch();
+        right.prefetch();
+    }
+
+    @Override
+    public void setProfile(QueryProfile profile) {
+        left.setProfile(profile);
+        right.setProfile(profile);
+        this.profile = profile;
+    }
+
     @Override
     public void setInternal(boolean isInternal) {
         this.isInternal = isInternal;
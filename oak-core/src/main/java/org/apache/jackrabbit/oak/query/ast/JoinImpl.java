@@ -16,19 +16,39 @@ package org.apache.jackrabbit.oak.query.ast;
 import static org.apache.jackrabbit.oak.query.ast.AstElementFactory.copyElementAndCheckReference;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.api.Result.SizePrecision;
+import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.query.plan.ExecutionPlan;
 import org.apache.jackrabbit.oak.query.plan.JoinExecutionPlan;
+import org.apache.jackrabbit.oak.query.plan.SelectorExecutionPlan;
+import org.apache.jackrabbit.oak.spi.query.Cursors.AbstractCursor;
 import org.apache.jackrabbit.oak.spi.query.Filter;
+import org.apache.jackrabbit.oak.spi.query.IndexRow;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A join. This object contains the left hand side source, the right hand side
  * source, the join type, and the join condition.
+ * <p>
+ * The join is a nested loop join, where the right hand side is executed once
+ * for each row of the left hand side, or, for inner equi-joins, a hash join,
+ * where all rows of the right hand side are read once into a hash table.
  */
 public class JoinImpl extends SourceImpl {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JoinImpl.class);
+
     private final JoinConditionImpl joinCondition;
     private JoinType joinType;
     private SourceImpl left;
@@ -42,6 +62,12 @@ public class JoinImpl extends SourceImpl {
     
     private JoinExecutionPlan plan;
 
+    /**
+     * The rows of the right hand side selector by join value, for a hash join.
+     */
+    private Map<String, List<IndexRow>> hashTable;
+    private boolean hashJoinFailed;
+
     public JoinImpl(SourceImpl left, SourceImpl right, JoinType joinType,
             JoinConditionImpl joinCondition) {
         this.left = left;
@@ -100,13 +126,21 @@ public class JoinImpl extends SourceImpl {
     @Override
     public String getPlan(NodeState rootState) {
         StringBuilder buff = new StringBuilder();
+        SelectorExecutionPlan buildPlan = plan == null ? null : plan.getBuildPlan();
         buff.append(left.getPlan(rootState)).
             append(' ').
             append(joinType).
-            append(' ').
-            append(right.getPlan(rootState)).
-            append(" on ").
+            append(' ');
+        if (buildPlan != null) {
+            buff.append(((SelectorImpl) right).getUnjoinedPlan(rootState, buildPlan));
+        } else {
+            buff.append(right.getPlan(rootState));
+        }
+        buff.append(" on ").
             append(joinCondition);
+        if (buildPlan != null) {
+            buff.append(" /* hash join */");
+        }
         return buff.toString();
     }
 
@@ -184,17 +218,74 @@ public class JoinImpl extends SourceImpl {
             return plan;
         }
         applyJoinConditions();
-        // the estimated cost is the cost of the left selector,
-        // plus twice the cost of the right selector (we expect
-        // two rows for the right selector for each node 
-        // on the left selector)
+        // for a nested loop join, the estimated cost is the cost of the left
+        // hand side, plus the cost of the right hand side for each row
+        // of the left hand side
         ExecutionPlan leftPlan = left.prepare();
         ExecutionPlan rightPlan = right.prepare();
-        double cost = leftPlan.getEstimatedCost() + 2 * rightPlan.getEstimatedCost();
-        plan = new JoinExecutionPlan(this, leftPlan, rightPlan, cost);
+        double leftCount = leftPlan.getEstimatedEntryCount();
+        double rightCount = rightPlan.getEstimatedEntryCount();
+        double cost = leftPlan.getEstimatedCost() + perRow(leftCount, rightPlan.getEstimatedCost());
+        double count = perRow(leftCount, rightCount);
+        if (joinType != JoinType.INNER) {
+            // each row of the left hand side is returned at least once
+            count = perRow(leftCount, Math.max(1, rightCount));
+        }
+        // for a hash join, the right hand side is read only once
+        SelectorExecutionPlan buildPlan = prepareHashJoin();
+        if (buildPlan != null) {
+            double hashCost = leftPlan.getEstimatedCost() + buildPlan.getEstimatedCost();
+            if (hashCost < cost) {
+                cost = hashCost;
+            } else {
+                buildPlan = null;
+            }
+        }
+        plan = new JoinExecutionPlan(this, leftPlan, rightPlan, buildPlan, cost, count);
         return plan;
     }
 
+    /**
+     * Multiply a per-row estimate with the estimated number of rows. No rows
+     * result in zero, even if the per-row estimate is infinite (where the
+     * product would be NaN).
+     *
+     * @param rows the estimated number of rows
+     * @param perRow the estimated cost or count for each row
+     * @return the product
+     */
+    static double perRow(double rows, double perRow) {
+        return rows == 0 ? 0 : rows * perRow;
+    }
+
+    /**
+     * Get the plan to read all rows of the right hand side into a hash table,
+     * if a hash join is possible. This is the case for inner joins where the
+     * right hand side is a selector that is joined on a property value, and
+     * it is expected to return less rows than the hash join limit.
+     * 
+     * @return the plan, or null if a hash join is not possible
+     */
+    private SelectorExecutionPlan prepareHashJoin() {
+        if (joinType != JoinType.INNER || !(right instanceof SelectorImpl)
+                || !(joinCondition instanceof EquiJoinConditionImpl)) {
+            return null;
+        }
+        SelectorImpl s = (SelectorImpl) right;
+        if (((EquiJoinConditionImpl) joinCondition).getPropertyName(s) == null) {
+            return null;
+        }
+        int limit = s.query.getSettings().getHashJoinLimit();
+        if (limit <= 0) {
+            return null;
+        }
+        SelectorExecutionPlan buildPlan = s.prepareUnjoined();
+        if (buildPlan.getIndex() == null || buildPlan.getEstimatedEntryCount() > limit) {
+            return null;
+        }
+        return buildPlan;
+    }
+
     @Override
     public SelectorImpl getSelector(String selectorName) {
         SelectorImpl s = left.getSelector(selectorName);
@@ -209,6 +300,8 @@ public class JoinImpl extends SourceImpl {
         this.rootState = rootState;
         leftNeedExecute = true;
         end = false;
+        hashTable = null;
+        hashJoinFailed = false;
     }
 
     @Override
@@ -255,7 +348,7 @@ public class JoinImpl extends SourceImpl {
                 rightNeedExecute = true;
             }
             if (rightNeedExecute) {
-                right.execute(rootState);
+                executeRight();
                 foundJoinedRow = false;
                 rightNeedExecute = false;
             }
@@ -275,6 +368,126 @@ public class JoinImpl extends SourceImpl {
         }
     }
     
+    private void executeRight() {
+        SelectorExecutionPlan buildPlan = plan == null ? null : plan.getBuildPlan();
+        if (buildPlan == null || hashJoinFailed) {
+            right.execute(rootState);
+            return;
+        }
+        SelectorImpl s = (SelectorImpl) right;
+        EquiJoinConditionImpl c = (EquiJoinConditionImpl) joinCondition;
+        if (hashTable == null) {
+            hashTable = buildHashTable(s, c, buildPlan);
+            if (hashTable == null) {
+                hashJoinFailed = true;
+                right.execute(rootState);
+                return;
+            }
+        }
+        SelectorImpl other = c.getOtherSelector(s);
+        PropertyValue v = other.currentProperty(c.getPropertyName(other));
+        if (v == null) {
+            s.execute(new RowCursor(Collections.<IndexRow>emptyList()));
+            return;
+        }
+        List<String> keys = getHashKeys(v);
+        if (keys == null) {
+            // the value can't be looked up, but may still match
+            // after conversion
+            s.execute(rootState);
+            return;
+        }
+        Collection<IndexRow> rows;
+        if (keys.size() == 1) {
+            rows = hashTable.get(keys.get(0));
+            if (rows == null) {
+                rows = Collections.emptyList();
+            }
+        } else {
+            rows = new LinkedHashSet<IndexRow>();
+            for (String k : keys) {
+                List<IndexRow> list = hashTable.get(k);
+                if (list != null) {
+                    rows.addAll(list);
+                }
+            }
+        }
+        // the join condition is evaluated again for each row
+        s.execute(new RowCursor(rows));
+    }
+
+    /**
+     * Read all rows of the given selector into a hash table, keyed by the
+     * value of the join property.
+     * 
+     * @param s the selector
+     * @param c the join condition
+     * @param buildPlan the plan to read the rows
+     * @return the hash table, or null if there are too many rows, or if
+     *         some values can't be used as keys
+     */
+    private Map<String, List<IndexRow>> buildHashTable(SelectorImpl s, 
+            EquiJoinConditionImpl c, SelectorExecutionPlan buildPlan) {
+        int limit = s.query.getSettings().getHashJoinLimit();
+        String propertyName = c.getPropertyName(s);
+        Map<String, List<IndexRow>> map = new HashMap<String, List<IndexRow>>();
+        s.executeUnjoined(rootState, buildPlan);
+        int count = 0;
+        while (s.next()) {
+            if (++count > limit) {
+                LOG.debug("Hash join of {} exceeds {} rows, using a nested loop", 
+                        this, limit);
+                return null;
+            }
+            PropertyValue v = s.currentProperty(propertyName);
+            if (v == null) {
+                continue;
+            }
+            List<String> keys = getHashKeys(v);
+            if (keys == null) {
+                LOG.debug("Hash join of {} found a value of type {}, using a nested loop", 
+                        this, v.getType());
+                return null;
+            }
+            IndexRow row = s.currentIndexRow();
+            for (String k : keys) {
+                List<IndexRow> list = map.get(k);
+                if (list == null) {
+                    list = new ArrayList<IndexRow>(1);
+                    map.put(k, list);
+                }
+                if (list.isEmpty() || list.get(list.size() - 1) != row) {
+                    list.add(row);
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Get the hash keys of a value. Only values of types that are compared
+     * by their string representation can be used as keys.
+     * 
+     * @param v the value
+     * @return the keys (one per value for multi-valued properties), or null
+     *         if the value can't be used as a key
+     */
+    private static List<String> getHashKeys(PropertyValue v) {
+        Type<?> t = v.getType();
+        if (t.isArray()) {
+            t = t.getBaseType();
+        }
+        if (t != Type.STRING && t != Type.REFERENCE 
+                && t != Type.WEAKREFERENCE && t != Type.URI) {
+            return null;
+        }
+        List<String> keys = new ArrayList<String>(v.count());
+        for (int i = 0; i < v.count(); i++) {
+            keys.add(v.getValue(Type.STRING, i));
+        }
+        return keys;
+    }
+
     @Override
     public boolean isOuterJoinRightHandSide() {
         return left.isOuterJoinRightHandSide() || right.isOuterJoinRightHandSide();
@@ -286,6 +499,29 @@ public class JoinImpl extends SourceImpl {
         return -1;
     }
 
+    /**
+     * A cursor over rows that were read before.
+     */
+    private static class RowCursor extends AbstractCursor {
+
+        private final Iterator<IndexRow> it;
+
+        RowCursor(Collection<IndexRow> rows) {
+            it = rows.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        @Override
+        public IndexRow next() {
+            return it.next();
+        }
+
+    }
+
     @Override
     public AstElement copyOf() {
         return new JoinImpl(
@@ -33,12 +33,15 @@ import static org.apache.jackrabbit.oak.plugins.nodetype.NodeTypeConstants.REP_N
 import static org.apache.jackrabbit.oak.plugins.nodetype.NodeTypeConstants.REP_PRIMARY_SUBTYPES;
 import static org.apache.jackrabbit.oak.plugins.nodetype.NodeTypeConstants.REP_SUPERTYPES;
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
+import javax.jcr.Session;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.api.Result.SizePrecision;
@@ -46,11 +49,13 @@ import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.commons.PathUtils;
 import org.apache.jackrabbit.oak.plugins.memory.PropertyBuilder;
+import org.apache.jackrabbit.oak.query.ExecutionContext;
 import org.apache.jackrabbit.oak.query.QueryImpl;
 import org.apache.jackrabbit.oak.query.fulltext.FullTextExpression;
 import org.apache.jackrabbit.oak.query.index.FilterImpl;
 import org.apache.jackrabbit.oak.query.plan.ExecutionPlan;
 import org.apache.jackrabbit.oak.query.plan.SelectorExecutionPlan;
+import org.apache.jackrabbit.oak.spi.query.CoveringIndexRow;
 import org.apache.jackrabbit.oak.spi.query.Cursor;
 import org.apache.jackrabbit.oak.spi.query.Cursors;
 import org.apache.jackrabbit.oak.spi.query.IndexRow;
@@ -58,6 +63,7 @@ import org.apache.jackrabbit.oak.spi.query.PropertyValues;
 import org.apache.jackrabbit.oak.spi.query.QueryIndex;
 import org.apache.jackrabbit.oak.spi.query.QueryIndex.AdvancedQueryIndex;
 import org.apache.jackrabbit.oak.spi.query.QueryIndex.IndexPlan;
+import org.apache.jackrabbit.oak.spi.security.authorization.permission.PermissionProvider;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -156,9 +162,36 @@ public class SelectorImpl extends SourceImpl {
      */
     private final List<ConstraintImpl> selectorConstraints = newArrayList();
 
+    /**
+     * The sort key to pass to the index, for keyset pagination.
+     */
+    private List<PropertyValue> searchAfter;
+
+    /**
+     * Whether the join condition of this selector is ignored, while all rows
+     * are read for a hash join.
+     */
+    private boolean ignoreJoinCondition;
+
+    /**
+     * Whether the values stored in covering index rows may be used to filter
+     * the rows before the nodes are loaded. This is not the case if the
+     * session has unsaved changes, which the index doesn't contain.
+     */
+    private boolean coveredValuesUsable;
+
+    /**
+     * Whether the conditions of the current row are being evaluated on the
+     * values stored in its covering index row.
+     */
+    private boolean readCoveredValues;
+
     private Cursor cursor;
     private IndexRow currentRow;
     private int scanCount;
+    private int filteredCount;
+    private int accessDeniedCount;
+    private int nodeReadCount;
     
     private Tree lastTree;
     private String lastPath;
@@ -292,6 +325,15 @@ public class SelectorImpl extends SourceImpl {
     public SelectorExecutionPlan getExecutionPlan() {
         return plan;
     }
+
+    /**
+     * Get the current index row.
+     * 
+     * @return the row, or null if there is no current row
+     */
+    IndexRow currentIndexRow() {
+        return currentRow;
+    }
     
     @Override
     public void setQueryConstraint(ConstraintImpl queryConstraint) {
@@ -315,8 +357,67 @@ public class SelectorImpl extends SourceImpl {
         }
     }
 
+    /**
+     * Set the sort key of the last row of the previous page, if the index
+     * returns the rows in the query order.
+     * 
+     * @param searchAfter the sort key, or null
+     */
+    public void setSearchAfter(List<PropertyValue> searchAfter) {
+        this.searchAfter = searchAfter;
+    }
+
+    /**
+     * Get the best plan to read the rows of this selector once, without the
+     * restriction of its join condition. Those rows can then be joined in
+     * memory.
+     * 
+     * @return the plan
+     */
+    public SelectorExecutionPlan prepareUnjoined() {
+        ignoreJoinCondition = true;
+        try {
+            return query.getBestSelectorExecutionPlan(createFilter(true));
+        } finally {
+            ignoreJoinCondition = false;
+        }
+    }
+
     @Override
     public void execute(NodeState rootState) {
+        ignoreJoinCondition = false;
+        execute(rootState, plan);
+    }
+
+    /**
+     * Execute the given plan (as returned by {@link #prepareUnjoined()}),
+     * without evaluating the join condition of this selector.
+     * 
+     * @param rootState the root state
+     * @param unjoinedPlan the plan
+     */
+    public void executeUnjoined(NodeState rootState, SelectorExecutionPlan unjoinedPlan) {
+        ignoreJoinCondition = true;
+        execute(rootState, unjoinedPlan);
+    }
+
+    /**
+     * Iterate over the given rows, which were read before. All conditions,
+     * including the join condition, are evaluated again.
+     * 
+     * @param rows the rows
+     */
+    public void execute(Cursor rows) {
+        ignoreJoinCondition = false;
+        closeCursor();
+        cursor = rows;
+    }
+
+    private void execute(NodeState rootState, SelectorExecutionPlan plan) {
+        closeCursor();
+        ExecutionContext context = query.getExecutionContext();
+        coveredValuesUsable = context.getPermissionProvider() != null
+                && !context.getRoot().hasPendingChanges();
         QueryIndex index = plan.getIndex();
         if (index == null) {
             cursor = Cursors.newPathCursor(new ArrayList<String>(), query.getSettings());
@@ -325,19 +426,68 @@ public class SelectorImpl extends SourceImpl {
         IndexPlan p = plan.getIndexPlan();
         if (p != null) {
             p.setFilter(createFilter(false));
+            p.setSearchAfter(searchAfter);
             AdvancedQueryIndex adv = (AdvancedQueryIndex) index;
             cursor = adv.query(p, rootState);
         } else {
             cursor = index.query(createFilter(false), rootState);
         }
+        int prefetchCount = query.getPrefetchCount();
+        if (prefetchCount > 0) {
+            cursor = Cursors.newPrefetchCursor(cursor, rootState, prefetchCount,
+                    query.isExecutedConcurrently());
+        }
+    }
+
+    /**
+     * Whether the session may read the item at the given path, checked
+     * without loading it through the session.
+     */
+    private boolean isReadable(String path) {
+        PermissionProvider permissionProvider =
+                query.getExecutionContext().getPermissionProvider();
+        return permissionProvider != null
+                && permissionProvider.isGranted(path, Session.ACTION_READ);
+    }
+
+    /**
+     * Stop using the current cursor. A cursor reading ahead in the background
+     * is closed, so that it doesn't read rows no longer needed.
+     */
+    private void closeCursor() {
+        if (cursor instanceof Closeable) {
+            IOUtils.closeQuietly((Closeable) cursor);
+        }
+        cursor = null;
     }
 
     @Override
     public String getPlan(NodeState rootState) {
+        return getPlan(rootState, plan);
+    }
+
+    /**
+     * Get the plan description for the given plan (as returned by
+     * {@link #prepareUnjoined()}).
+     * 
+     * @param rootState the root state
+     * @param unjoinedPlan the plan
+     * @return the plan description
+     */
+    public String getUnjoinedPlan(NodeState rootState, SelectorExecutionPlan unjoinedPlan) {
+        ignoreJoinCondition = true;
+        try {
+            return getPlan(rootState, unjoinedPlan);
+        } finally {
+            ignoreJoinCondition = false;
+        }
+    }
+
+    private String getPlan(NodeState rootState, SelectorExecutionPlan plan) {
         StringBuilder buff = new StringBuilder();
         buff.append(toString());
         buff.append(" /* ");
-        QueryIndex index = getIndex();
+        QueryIndex index = plan == null ? null : plan.getIndex();
         if (index != null) {
             if (index instanceof AdvancedQueryIndex) {
                 AdvancedQueryIndex adv = (AdvancedQueryIndex) index;
@@ -385,7 +535,7 @@ public class SelectorImpl extends SourceImpl {
     public FilterImpl createFilter(boolean preparing) {
         FilterImpl f = new FilterImpl(this, query.getStatement(), query.getSettings());
         f.setPreparing(preparing);
-        if (joinCondition != null) {
+        if (joinCondition != null && !ignoreJoinCondition) {
             joinCondition.restrict(f);
         }
         // rep:excerpt handling: create a (fake) restriction
@@ -441,6 +591,28 @@ public class SelectorImpl extends SourceImpl {
             } else if (currentRow.isVirtualRow()) {
                 // this is a virtual row and should be selected as is
                 return true;
+            } else if (currentRow instanceof CoveringIndexRow && coveredValuesUsable) {
+                // the conditions on readable covered properties can be
+                // evaluated without loading the node, so that the node is
+                // only loaded (and its access checked) if the row matches
+                boolean matches;
+                readCoveredValues = true;
+                try {
+                    matches = evaluateCurrentRow();
+                } finally {
+                    readCoveredValues = false;
+                }
+                if (!matches) {
+                    filteredCount++;
+                    continue;
+                }
+                // the values of the returned row are read from the node
+                Tree tree = getTree(currentRow.getPath());
+                if (tree == null || !tree.exists()) {
+                    accessDeniedCount++;
+                    continue;
+                }
+                return true;
             } else {
                 // we must check whether the _child_ is readable
                 // (even if no properties are read) for joins of type
@@ -453,12 +625,14 @@ public class SelectorImpl extends SourceImpl {
                 // of the child node
                 Tree tree = getTree(currentRow.getPath());
                 if (tree == null || !tree.exists()) {
+                    accessDeniedCount++;
                     continue;
                 }
             }
             if (evaluateCurrentRow()) {
                 return true;
             }
+            filteredCount++;
         }
         cursor = null;
         currentRow = null;
@@ -477,12 +651,12 @@ public class SelectorImpl extends SourceImpl {
             if (!constraint.evaluate()) {
                 if (constraint.evaluateStop()) {
                     // stop processing from now on
-                    cursor = null;
+                    closeCursor();
                 }
                 return false;
             }
         }
-        if (joinCondition != null && !joinCondition.evaluate()) {
+        if (joinCondition != null && !ignoreJoinCondition && !joinCondition.evaluate()) {
             return false;
         }
         return true;
@@ -545,6 +719,7 @@ public class SelectorImpl extends SourceImpl {
         if (lastPath == null || !path.equals(lastPath)) {
             lastTree = query.getTree(path);
             lastPath = path;
+            nodeReadCount++;
         }
         return lastTree;
     }
@@ -632,6 +807,17 @@ public class SelectorImpl extends SourceImpl {
             return PropertyValues.create(s);
         }
         boolean relative = oakPropertyName.indexOf('/') >= 0;
+        if (!relative && readCoveredValues
+                && ((CoveringIndexRow) currentRow).covers(oakPropertyName)
+                && isReadable(PathUtils.concat(currentRow.getPath(), oakPropertyName))) {
+            // read the value from the index instead of the node
+            PropertyValue result = currentRow.getValue(oakPropertyName);
+            if (result == null
+                    || (propertyType != null && result.getType().tag() != propertyType)) {
+                return null;
+            }
+            return result;
+        }
         Tree t = currentTree();
         if (relative) {
             for (String p : PathUtils.elements(PathUtils.getParentPath(oakPropertyName))) {
@@ -747,6 +933,28 @@ public class SelectorImpl extends SourceImpl {
         return scanCount;
     }
 
+    /**
+     * @return the number of rows that didn't match the conditions
+     */
+    public long getFilteredCount() {
+        return filteredCount;
+    }
+
+    /**
+     * @return the number of rows that were skipped because the node is not
+     *         readable (or doesn't exist any longer)
+     */
+    public long getAccessDeniedCount() {
+        return accessDeniedCount;
+    }
+
+    /**
+     * @return the number of nodes that were read
+     */
+    public long getNodeReadCount() {
+        return nodeReadCount;
+    }
+
     public void restrictSelector(ConstraintImpl constraint) {
         selectorConstraints.add(constraint);
     }
@@ -14,7 +14,7 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-@Version("4.2")
+@Version("4.3")
 @Export(optional = "provide:=true")
 package org.apache.jackrabbit.oak.query;
 
@@ -23,4 +23,11 @@ public interface ExecutionPlan {
 
     double getEstimatedCost();
     
+    /**
+     * The estimated number of rows returned by one execution of this plan.
+     * 
+     * @return the estimated number of rows
+     */
+    double getEstimatedEntryCount();
+    
 }
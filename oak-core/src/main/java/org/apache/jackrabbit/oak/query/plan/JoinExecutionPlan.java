@@ -26,13 +26,23 @@ public class JoinExecutionPlan implements ExecutionPlan {
 
     private final JoinImpl join;
     private final ExecutionPlan leftPlan, rightPlan;
+    private final SelectorExecutionPlan buildPlan;
     private final double estimatedCost;
+    private final double estimatedEntryCount;
     
-    public JoinExecutionPlan(JoinImpl join, ExecutionPlan leftPlan, ExecutionPlan rightPlan, double estimatedCost) {
+    public JoinExecutionPlan(JoinImpl join, ExecutionPlan leftPlan, ExecutionPlan rightPlan, 
+            double estimatedCost, double estimatedEntryCount) {
+        this(join, leftPlan, rightPlan, null, estimatedCost, estimatedEntryCount);
+    }
+    
+    public JoinExecutionPlan(JoinImpl join, ExecutionPlan leftPlan, ExecutionPlan rightPlan, 
+            SelectorExecutionPlan buildPlan, double estimatedCost, double estimatedEntryCount) {
         this.join = join;
         this.leftPlan = leftPlan;
         this.rightPlan = rightPlan;
+        this.buildPlan = buildPlan;
         this.estimatedCost = estimatedCost;
+        this.estimatedEntryCount = estimatedEntryCount;
     }
     
     @Override
@@ -40,6 +50,11 @@ public class JoinExecutionPlan implements ExecutionPlan {
         return estimatedCost;
     }
 
+    @Override
+    public double getEstimatedEntryCount() {
+        return estimatedEntryCount;
+    }
+
     public JoinImpl getJoin() {
         return join;
     }
@@ -52,4 +67,14 @@ public class JoinExecutionPlan implements ExecutionPlan {
         return rightPlan;
     }
 
+    /**
+     * Get the plan to read all rows of the right hand side selector once,
+     * into a hash table, if this is a hash join.
+     * 
+     * @return the plan, or null for a nested loop join
+     */
+    public SelectorExecutionPlan getBuildPlan() {
+        return buildPlan;
+    }
+
 }
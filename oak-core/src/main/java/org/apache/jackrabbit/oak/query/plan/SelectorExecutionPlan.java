@@ -45,6 +45,16 @@ public class SelectorExecutionPlan implements ExecutionPlan {
         return estimatedCost;
     }
 
+    @Override
+    public double getEstimatedEntryCount() {
+        if (plan != null) {
+            return plan.getEstimatedEntryCount();
+        }
+        // for indexes that don't estimate the number of entries,
+        // the cost is roughly the number of entries read
+        return estimatedCost;
+    }
+
     public SelectorImpl getSelector() {
         return selector;
     }
@@ -26,11 +26,13 @@ import static com.google.common.collect.Iterables.size;
 import static com.google.common.collect.Queues.newArrayBlockingQueue;
 
 import java.io.Closeable;
+import java.io.File;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -52,6 +54,11 @@ import org.slf4j.LoggerFactory;
  * the background observer thread has yet to process are optionally
  * (see {@code alwaysCollapseExternalEvents} and {@code oak.observation.alwaysCollapseExternal})
  * automatically merged to just one change.
+ * <p>
+ * Alternatively, changes which do not fit into the queue can be written to an
+ * overflow file and are then delivered in order once the queue has been
+ * processed. This requires a {@link RootStateResolver} for the root states
+ * passed to {@link #contentChanged(NodeState, CommitInfo)}.
  */
 public class BackgroundObserver implements Observer, Closeable {
 
@@ -91,15 +98,28 @@ public class BackgroundObserver implements Observer, Closeable {
     private final boolean alwaysCollapseExternalEvents =
             Boolean.parseBoolean(System.getProperty("oak.observation.alwaysCollapseExternal", "false"));
 
-    private static class ContentChange {
-        private final NodeState root;
-        private final CommitInfo info;
+    static class ContentChange {
+        final NodeState root;
+        final CommitInfo info;
         ContentChange(NodeState root, CommitInfo info) {
             this.root = root;
             this.info = info;
         }
     }
 
+    /**
+     * Changes which did not fit into the queue, or {@code null} if such
+     * changes are compacted.
+     */
+    @Nullable
+    private final ChangeSpillFile overflow;
+
+    /**
+     * Flag to indicate that changes are currently appended to the
+     * {@link #overflow} file instead of the queue.
+     */
+    private boolean spilling;
+
     /**
      * The content change that was last added to the queue.
      * Used to compact external changes.
@@ -127,6 +147,9 @@ public class BackgroundObserver implements Observer, Closeable {
             public Void call() throws Exception {
                 try {
                     ContentChange change = queue.poll();
+                    if (change == null && overflow != null) {
+                        change = pollOverflow();
+                    }
                     if (change != null && change != STOP) {
                         observer.contentChanged(change.root, change.info);
                         currentTask.onComplete(completionHandler);
@@ -150,16 +173,46 @@ public class BackgroundObserver implements Observer, Closeable {
      */
     private volatile boolean stopped;
 
+    /**
+     * Creates a background observer which writes changes not fitting into
+     * the queue to the given {@code overflowFile}. Any existing content of
+     * that file is discarded.
+     *
+     * @param observer the observer to forward content changes to
+     * @param executor executor used to dispatch the changes
+     * @param queueLength the length of the in-memory change queue
+     * @param exceptionHandler handler for exceptions of {@code observer}
+     * @param overflowFile the overflow file or {@code null} to compact
+     *                     changes when the queue is full
+     * @param resolver resolver for the root states passed to this observer.
+     *                 Required if {@code overflowFile} is not {@code null}.
+     */
     public BackgroundObserver(
             @Nonnull Observer observer,
             @Nonnull Executor executor,
             int queueLength,
-            @Nonnull UncaughtExceptionHandler exceptionHandler) {
+            @Nonnull UncaughtExceptionHandler exceptionHandler,
+            @Nullable File overflowFile,
+            @Nullable RootStateResolver resolver) {
         this.observer = checkNotNull(observer);
         this.executor = checkNotNull(executor);
         this.exceptionHandler = checkNotNull(exceptionHandler);
         this.maxQueueLength = queueLength;
         this.queue = newArrayBlockingQueue(maxQueueLength);
+        if (overflowFile != null) {
+            this.overflow = new ChangeSpillFile(overflowFile, checkNotNull(resolver));
+            this.overflow.clear();
+        } else {
+            this.overflow = null;
+        }
+    }
+
+    public BackgroundObserver(
+            @Nonnull Observer observer,
+            @Nonnull Executor executor,
+            int queueLength,
+            @Nonnull UncaughtExceptionHandler exceptionHandler) {
+        this(observer, executor, queueLength, exceptionHandler, null, null);
     }
 
     public BackgroundObserver(
@@ -209,6 +262,10 @@ public class BackgroundObserver implements Observer, Closeable {
         queue.clear();
         queue.add(STOP);
         stopped = true;
+        if (overflow != null) {
+            overflow.close();
+            spilling = false;
+        }
     }
 
     @Nonnull
@@ -221,7 +278,7 @@ public class BackgroundObserver implements Observer, Closeable {
 
             @Override
             public int getQueueSize() {
-                return queue.size();
+                return queue.size() + (overflow == null ? 0 : overflow.size());
             }
 
             @Override
@@ -231,22 +288,30 @@ public class BackgroundObserver implements Observer, Closeable {
 
             @Override
             public int getLocalEventCount() {
-                return size(filter(queue, new Predicate<ContentChange>() {
+                int count = size(filter(queue, new Predicate<ContentChange>() {
                     @Override
                     public boolean apply(ContentChange input) {
                         return input.info != null;
                     }
                 }));
+                if (overflow != null) {
+                    count += overflow.size() - overflow.externalSize();
+                }
+                return count;
             }
 
             @Override
             public int getExternalEventCount() {
-                return size(filter(queue, new Predicate<ContentChange>() {
+                int count = size(filter(queue, new Predicate<ContentChange>() {
                     @Override
                     public boolean apply(ContentChange input) {
                         return input.info == null;
                     }
                 }));
+                if (overflow != null) {
+                    count += overflow.externalSize();
+                }
+                return count;
             }
         };
     }
@@ -261,15 +326,28 @@ public class BackgroundObserver implements Observer, Closeable {
         checkState(!stopped);
         checkNotNull(root);
 
-        if (alwaysCollapseExternalEvents && info == null && last != null && last.info == null) {
+        if (alwaysCollapseExternalEvents && !spilling
+                && info == null && last != null && last.info == null) {
             // This is an external change. If the previous change was
             // also external, we can drop it from the queue (since external
             // changes in any case can cover multiple commits) to help
-            // prevent the queue from filling up too fast.
+            // prevent the queue from filling up too fast. Not while
+            // spilling: then the last change in the queue is followed by
+            // the changes in the overflow file.
             queue.remove(last);
             full = false;
         }
 
+        if (overflow != null && (spilling || queue.remainingCapacity() == 0)) {
+            // Keep the change outside of the heap. All subsequent changes
+            // go there as well until the overflow has been processed.
+            overflow.append(root, info);
+            spilling = true;
+            currentTask.onComplete(completionHandler);
+            added(queue.size());
+            return;
+        }
+
         ContentChange change;
         if (full) {
             // If the queue is full, some commits have already been skipped
@@ -299,6 +377,24 @@ public class BackgroundObserver implements Observer, Closeable {
 
     //------------------------------------------------------------< internal >---
 
+    /**
+     * Removes the oldest change from the overflow file. Only called
+     * once the queue is empty.
+     */
+    @CheckForNull
+    private ContentChange pollOverflow() {
+        synchronized (this) {
+            if (!spilling) {
+                return null;
+            } else if (overflow.isEmpty()) {
+                spilling = false;
+                return null;
+            }
+        }
+        // no need to hold the lock while resolving the root state
+        return overflow.poll();
+    }
+
     private static Logger getLogger(@Nonnull Observer observer) {
         return LoggerFactory.getLogger(checkNotNull(observer).getClass());
     }
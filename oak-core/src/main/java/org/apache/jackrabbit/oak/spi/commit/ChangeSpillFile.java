@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.spi.commit;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import org.apache.jackrabbit.oak.spi.commit.BackgroundObserver.ContentChange;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only file of content changes, used by the
+ * {@link BackgroundObserver} when its in-memory queue is full. Root states
+ * are stored as references obtained from a {@link RootStateResolver}.
+ * Only {@code String} values of the {@link CommitInfo#getInfo() info map}
+ * are kept.
+ * <p>
+ * Changes which cannot be stored because their root state cannot be
+ * referenced, or because of an I/O error, are merged with all changes
+ * following them into a single external change. The file is deleted
+ * whenever all changes have been read.
+ */
+class ChangeSpillFile implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeSpillFile.class);
+
+    private static final int NO_INFO = -1;
+
+    private final File file;
+
+    private final RootStateResolver resolver;
+
+    private DataOutputStream out;
+
+    private DataInputStream in;
+
+    /**
+     * Number of changes written to the file.
+     */
+    private long written;
+
+    /**
+     * Number of changes read from the file.
+     */
+    private long read;
+
+    /**
+     * Number of external changes (without commit info) written to and
+     * read from the file.
+     */
+    private long externalWritten;
+
+    private long externalRead;
+
+    /**
+     * The root state of the last change appended.
+     */
+    private NodeState last;
+
+    /**
+     * Flag to indicate that changes could not be written and were merged
+     * into the {@link #last} change.
+     */
+    private boolean collapsed;
+
+    ChangeSpillFile(@Nonnull File file, @Nonnull RootStateResolver resolver) {
+        this.file = checkNotNull(file);
+        this.resolver = checkNotNull(resolver);
+    }
+
+    /**
+     * Appends a content change.
+     */
+    synchronized void append(@Nonnull NodeState root, @Nullable CommitInfo info) {
+        last = root;
+        if (collapsed) {
+            return;
+        }
+        String ref = resolver.getReference(root);
+        if (ref == null) {
+            LOG.debug("Root state cannot be referenced, merging changes");
+            collapsed = true;
+            return;
+        }
+        try {
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file, true)));
+            }
+            writeString(out, ref);
+            writeInfo(out, info);
+            out.flush();
+            written++;
+            if (info == null) {
+                externalWritten++;
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to write content change to " + file + ", merging changes", e);
+            collapsed = true;
+        }
+    }
+
+    /**
+     * Removes the oldest content change from this file.
+     *
+     * @return the change or {@code null} if there are none
+     */
+    @CheckForNull
+    synchronized ContentChange poll() {
+        ContentChange change = null;
+        if (read < written) {
+            change = readChange();
+            if (change == null) {
+                // merge the remaining changes
+                collapsed = true;
+            }
+        }
+        if (change == null && collapsed) {
+            change = new ContentChange(last, null);
+            clear();
+        } else if (read == written && !collapsed) {
+            clear();
+        }
+        return change;
+    }
+
+    /**
+     * @return the number of changes in this file
+     */
+    synchronized int size() {
+        return (int) (written - read) + (collapsed ? 1 : 0);
+    }
+
+    synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the number of external changes (without commit info) in this
+     *          file, including the change the collapsed changes are merged
+     *          into
+     */
+    synchronized int externalSize() {
+        return (int) (externalWritten - externalRead) + (collapsed ? 1 : 0);
+    }
+
+    /**
+     * Discards all changes and deletes the file.
+     */
+    synchronized void clear() {
+        closeStreams();
+        written = 0;
+        read = 0;
+        externalWritten = 0;
+        externalRead = 0;
+        last = null;
+        collapsed = false;
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Unable to delete {}", file);
+        }
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    //------------------------------------------------------------< internal >---
+
+    @CheckForNull
+    private ContentChange readChange() {
+        try {
+            if (in == null) {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file)));
+            }
+            String ref = readString(in);
+            CommitInfo info = readInfo(in);
+            read++;
+            if (info == null) {
+                externalRead++;
+            }
+            NodeState root = resolver.resolve(ref);
+            if (root == null) {
+                LOG.warn("Unable to resolve root state {}, merging changes", ref);
+                return null;
+            }
+            return new ContentChange(root, info);
+        } catch (IOException e) {
+            LOG.warn("Unable to read content change from " + file + ", merging changes", e);
+            return null;
+        }
+    }
+
+    private void closeStreams() {
+        try {
+            Closeables.close(out, true);
+            Closeables.close(in, true);
+        } catch (IOException e) {
+            // swallowed
+        }
+        out = null;
+        in = null;
+    }
+
+    private static void writeInfo(DataOutputStream out, CommitInfo info)
+            throws IOException {
+        if (info == null) {
+            out.writeInt(NO_INFO);
+            return;
+        }
+        Map<String, String> values = Maps.newLinkedHashMap();
+        for (Map.Entry<String, Object> e : info.getInfo().entrySet()) {
+            if (e.getValue() instanceof String) {
+                values.put(e.getKey(), (String) e.getValue());
+            }
+        }
+        out.writeInt(values.size());
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+        writeString(out, info.getSessionId());
+        writeString(out, info.getUserId());
+        out.writeLong(info.getDate());
+    }
+
+    private static CommitInfo readInfo(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size == NO_INFO) {
+            return null;
+        }
+        Map<String, Object> values = Maps.newLinkedHashMap();
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            values.put(key, readString(in));
+        }
+        String sessionId = readString(in);
+        String userId = readString(in);
+        long date = in.readLong();
+        return new CommitInfo(sessionId, userId, values, date);
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = s.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.spi.commit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Converts root node states passed to {@link Observer}s to references and
+ * back. This allows a {@link BackgroundObserver} to keep its backlog of
+ * content changes outside of the heap.
+ */
+public interface RootStateResolver {
+
+    /**
+     * Returns a reference to the given root state.
+     *
+     * @param root a root state
+     * @return the reference, or {@code null} if the state cannot be referenced
+     */
+    @CheckForNull
+    String getReference(@Nonnull NodeState root);
+
+    /**
+     * Resolves a reference returned by {@link #getReference(NodeState)}.
+     *
+     * @param reference the reference
+     * @return the root state, or {@code null} if it is not available anymore
+     */
+    @CheckForNull
+    NodeState resolve(@Nonnull String reference);
+}
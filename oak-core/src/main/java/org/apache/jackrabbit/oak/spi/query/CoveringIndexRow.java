@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.spi.query;
+
+import org.apache.jackrabbit.oak.api.PropertyValue;
+
+/**
+ * A row returned by an index that also contains the values of some
+ * properties of the node (a covering index). Those values can be read without
+ * loading the node.
+ */
+public interface CoveringIndexRow extends IndexRow {
+
+    /**
+     * Whether the row contains the value of the given property. If it does,
+     * then {@link #getValue(String)} returns the value of the property of the
+     * node, or null if the node doesn't have this property.
+     *
+     * @param propertyName the property name
+     * @return true if the value is contained in the row
+     */
+    boolean covers(String propertyName);
+
+    /**
+     * The value of the given property. For covered properties, this is the
+     * value of the property of the node, or null if the node doesn't have
+     * this property.
+     *
+     * @param columnName the column name
+     * @return the value, or null if not available
+     */
+    @Override
+    PropertyValue getValue(String columnName);
+
+}
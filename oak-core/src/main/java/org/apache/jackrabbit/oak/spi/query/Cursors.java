@@ -16,11 +16,22 @@
  */
 package org.apache.jackrabbit.oak.spi.query;
 
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -42,6 +53,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -85,6 +97,18 @@ public class Cursors {
         return new PathCursor(paths.iterator(), true, settings);
     }
 
+    /**
+     * Creates a {@link Cursor} over index rows, and make the result distinct.
+     * The iterator might return multiple rows for the same path.
+     *
+     * @param rows the rows to iterate over (might contain duplicate paths)
+     * @return the Cursor.
+     */
+    public static Cursor newIndexRowCursorDistinct(Iterable<? extends IndexRow> rows,
+            QueryEngineSettings settings) {
+        return new IndexRowCursor(rows.iterator(), settings);
+    }
+
     /**
      * Returns a traversing cursor based on the path restriction in the given
      * {@link Filter}.
@@ -115,6 +139,51 @@ public class Cursors {
         return new AncestorCursor(c, level, settings);
     }
 
+    /**
+     * Returns a cursor wrapper, which reads ahead the rows of the wrapped
+     * cursor <code>c</code> in batches of <code>batchSize</code> rows in a
+     * background thread, while the rows of the previous batch are consumed.
+     * The first batch is read on the first call to <code>hasNext()</code>.
+     * The node states of the prefetched rows are loaded from the given
+     * <code>rootState</code>, so that reading them later is served from the
+     * caches of the underlying node store. The wrapped cursor is never
+     * accessed by more than one thread at a time.
+     * <p>
+     * The returned cursor is {@link Closeable}. Closing it cancels the
+     * outstanding read, as does no longer referencing it.
+     *
+     * @param c the cursor to wrap.
+     * @param rootState the root state the rows are read from.
+     * @param batchSize the number of rows to read ahead. Must be {@code >= 1}.
+     * @return cursor over the rows of <code>c</code>.
+     */
+    public static Cursor newPrefetchCursor(Cursor c, NodeState rootState, int batchSize) {
+        return newPrefetchCursor(c, rootState, batchSize, false);
+    }
+
+    /**
+     * Returns a cursor wrapper as {@link #newPrefetchCursor(Cursor, NodeState, int)},
+     * optionally reading the first batch right away, for cursors that are
+     * read concurrently with other cursors.
+     *
+     * @param c the cursor to wrap.
+     * @param rootState the root state the rows are read from.
+     * @param batchSize the number of rows to read ahead. Must be {@code >= 1}.
+     * @param startNow whether to start reading the first batch right away
+     * @return cursor over the rows of <code>c</code>.
+     */
+    public static Cursor newPrefetchCursor(Cursor c, NodeState rootState, int batchSize,
+                                           boolean startNow) {
+        checkNotNull(c);
+        checkNotNull(rootState);
+        checkArgument(batchSize >= 1);
+        PrefetchCursor cursor = new PrefetchCursor(c, rootState, batchSize);
+        if (startNow) {
+            cursor.pending = cursor.fetch();
+        }
+        return cursor;
+    }
+
     /**
      * A Cursor implementation where the remove method throws an
      * UnsupportedOperationException.
@@ -207,6 +276,41 @@ public class Cursors {
         
     }
 
+    /**
+     * A cursor over index rows, where only the first row of each path is
+     * returned.
+     */
+    private static class IndexRowCursor extends AbstractCursor {
+
+        private final Iterator<? extends IndexRow> iterator;
+
+        IndexRowCursor(Iterator<? extends IndexRow> rows, final QueryEngineSettings settings) {
+            this.iterator = Iterators.filter(rows, new Predicate<IndexRow>() {
+
+                private final HashSet<String> known = new HashSet<String>();
+
+                @Override
+                public boolean apply(@Nullable IndexRow input) {
+                    FilterIterators.checkMemoryLimit(known.size(), settings);
+                    // Set.add returns true for new entries
+                    return known.add(input.getPath());
+                }
+
+            });
+        }
+
+        @Override
+        public IndexRow next() {
+            return iterator.next();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+    }
+
     /**
      * A cursor that reads all nodes in a given subtree.
      */
@@ -531,4 +635,198 @@ public class Cursors {
         }
 
     }
+
+    /**
+     * A cursor that reads ahead the rows of the wrapped cursor in the
+     * background.
+     */
+    private static class PrefetchCursor extends AbstractCursor implements Closeable {
+
+        private static final int PREFETCH_THREADS =
+                Integer.getInteger("oak.queryPrefetchThreads", 4);
+
+        private static final Executor PREFETCH_EXECUTOR = createPrefetchExecutor();
+
+        private final Cursor cursor;
+        private final NodeState rootState;
+        private final int batchSize;
+
+        private Iterator<IndexRow> current = Iterators.emptyIterator();
+        private FutureTask<Batch> pending;
+        private RuntimeException failure;
+        private boolean last;
+        private volatile boolean closed;
+
+        PrefetchCursor(Cursor cursor, NodeState rootState, int batchSize) {
+            this.cursor = cursor;
+            this.rootState = rootState;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            while (!current.hasNext()) {
+                if (failure != null) {
+                    RuntimeException e = failure;
+                    failure = null;
+                    last = true;
+                    throw e;
+                }
+                if (pending == null) {
+                    if (last) {
+                        return false;
+                    }
+                    pending = fetch();
+                }
+                Batch batch = await();
+                current = batch.rows.iterator();
+                failure = batch.failure;
+                last = batch.last;
+                if (!last) {
+                    // read the next batch while this one is consumed
+                    pending = fetch();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public IndexRow next() {
+            if (!hasNext()) {
+                throw new IllegalStateException("This cursor is closed");
+            }
+            return current.next();
+        }
+
+        @Override
+        public long getSize(SizePrecision precision, long max) {
+            if (pending != null) {
+                // the wrapped cursor must not be used concurrently
+                Batch batch = await();
+                current = Iterators.concat(current, batch.rows.iterator());
+                failure = batch.failure;
+                last = batch.last;
+            }
+            return cursor.getSize(precision, max);
+        }
+
+        /**
+         * Cancels the outstanding read. The wrapped cursor is no longer
+         * accessed after the batch currently being read, if any.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            last = true;
+            current = Iterators.emptyIterator();
+            if (pending != null) {
+                pending.cancel(false);
+                pending = null;
+            }
+        }
+
+        private FutureTask<Batch> fetch() {
+            FutureTask<Batch> task = new FutureTask<Batch>(new BatchReader(this));
+            try {
+                PREFETCH_EXECUTOR.execute(task);
+            } catch (RejectedExecutionException e) {
+                // all prefetch threads are busy: read on the caller thread
+                task.run();
+            }
+            return task;
+        }
+
+        private Batch await() {
+            FutureTask<Batch> task = pending;
+            pending = null;
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // the wrapped cursor may still be in use by the prefetch
+                // thread, so this cursor can't continue
+                last = true;
+                current = Iterators.emptyIterator();
+                throw new IllegalStateException("Interrupted while prefetching query results", e);
+            } catch (ExecutionException e) {
+                last = true;
+                throw new IllegalStateException("Unable to prefetch query results", e.getCause());
+            }
+        }
+
+        private Batch readBatch() {
+            Batch batch = new Batch(batchSize);
+            try {
+                while (batch.rows.size() < batchSize) {
+                    if (!cursor.hasNext()) {
+                        batch.last = true;
+                        break;
+                    }
+                    IndexRow row = cursor.next();
+                    batch.rows.add(row);
+                    if (!row.isVirtualRow() && !(row instanceof CoveringIndexRow)) {
+                        // load the node state ahead of the caller (not for
+                        // rows of a covering index, as the caller might
+                        // filter them without loading the node)
+                        NodeStateUtils.getNode(rootState, row.getPath()).exists();
+                    }
+                }
+            } catch (RuntimeException e) {
+                // thrown to the caller once the rows read so far are consumed
+                batch.failure = e;
+                batch.last = true;
+            }
+            return batch;
+        }
+
+        /**
+         * Reads a batch for a cursor, unless the cursor was closed or is no
+         * longer referenced when the read starts. The cursor is only
+         * referenced weakly while the read is queued.
+         */
+        private static class BatchReader implements Callable<Batch> {
+
+            private final WeakReference<PrefetchCursor> owner;
+
+            BatchReader(PrefetchCursor owner) {
+                this.owner = new WeakReference<PrefetchCursor>(owner);
+            }
+
+            @Override
+            public Batch call() {
+                PrefetchCursor c = owner.get();
+                if (c == null || c.closed) {
+                    Batch batch = new Batch(0);
+                    batch.last = true;
+                    return batch;
+                }
+                return c.readBatch();
+            }
+        }
+
+        private static Executor createPrefetchExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    PREFETCH_THREADS, PREFETCH_THREADS, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(100),
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("oak-query-prefetch-%d").build());
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+
+        private static class Batch {
+
+            final List<IndexRow> rows;
+            RuntimeException failure;
+            boolean last;
+
+            Batch(int size) {
+                rows = new ArrayList<IndexRow>(size);
+            }
+        }
+    }
+
 }
@@ -23,10 +23,12 @@ import java.util.List;
 import java.util.Map;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 
 import aQute.bnd.annotation.ProviderType;
 
 import com.google.common.collect.Maps;
+import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.plugins.index.aggregate.NodeAggregator;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
@@ -277,6 +279,24 @@ public interface QueryIndex {
          */
         List<OrderEntry> getSortOrder();
 
+        /**
+         * The sort key of the last entry of the previous page, when paging
+         * through the result with keyset pagination. The key contains one
+         * value for each entry of the {@link #getSortOrder() sort order}. An
+         * index may use it to skip all entries up to and including the key,
+         * instead of reading them. Skipping is optional, as the query engine
+         * filters those entries as well.
+         *
+         * @return the sort key, or {@code null} to read from the start
+         */
+        @CheckForNull
+        List<PropertyValue> getSearchAfter();
+
+        /**
+         * Use the given sort key.
+         */
+        void setSearchAfter(@Nullable List<PropertyValue> searchAfter);
+
         /**
          * The node state with the index definition.
          *
@@ -443,6 +463,7 @@ public interface QueryIndex {
                     private final Map<String, Object> attributes =
                             Builder.this.attributes;
                     private final String planName = Builder.this.planName;
+                    private List<PropertyValue> searchAfter;
 
                     @Override
                     public String toString() {
@@ -517,6 +538,16 @@ public interface QueryIndex {
                         return sortOrder;
                     }
 
+                    @Override
+                    public List<PropertyValue> getSearchAfter() {
+                        return searchAfter;
+                    }
+
+                    @Override
+                    public void setSearchAfter(List<PropertyValue> searchAfter) {
+                        this.searchAfter = searchAfter;
+                    }
+
                     @Override
                     public NodeState getDefinition() {
                         return definition;
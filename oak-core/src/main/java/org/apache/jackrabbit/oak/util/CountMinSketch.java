@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.util;
+
+import java.util.Arrays;
+
+/**
+ * A count-min sketch to estimate the frequency of values. Counts can be
+ * increased and decreased; a counter never goes below 0.
+ */
+public class CountMinSketch {
+
+    private final int depth;
+
+    private final int width;
+
+    private final long[] counts;
+
+    /**
+     * Create a new, empty sketch.
+     *
+     * @param depth the number of rows (hash functions)
+     * @param width the number of counters per row
+     */
+    public CountMinSketch(int depth, int width) {
+        this(depth, new long[depth * width]);
+    }
+
+    /**
+     * Create a sketch with the given counters.
+     *
+     * @param depth the number of rows (hash functions)
+     * @param counts the counters, row by row (the array is copied)
+     */
+    public CountMinSketch(int depth, long[] counts) {
+        if (depth < 1 || counts.length < 2 * depth
+                || counts.length % depth != 0) {
+            throw new IllegalArgumentException("Depth " + depth
+                    + " does not match the number of counters " + counts.length);
+        }
+        this.depth = depth;
+        this.width = counts.length / depth;
+        this.counts = Arrays.copyOf(counts, counts.length);
+    }
+
+    /**
+     * Add to (or, if negative, subtract from) the count of a value.
+     *
+     * @param hash the (well distributed) 64 bit hash of the value
+     * @param count the number to add
+     */
+    public void add(long hash, long count) {
+        for (int row = 0; row < depth; row++) {
+            int i = getIndex(hash, row);
+            counts[i] = Math.max(0, counts[i] + count);
+        }
+    }
+
+    /**
+     * Estimate the count of a value. The result is never lower than the
+     * actual count (unless counts were subtracted for values that were not
+     * added before), but it may be higher if many values are hashed to the
+     * same counters.
+     *
+     * @param hash the hash of the value
+     * @return the estimated count
+     */
+    public long estimate(long hash) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counts[getIndex(hash, row)]);
+        }
+        return min;
+    }
+
+    /**
+     * Estimate the count of a value, correcting the counters by the typical
+     * number of collisions, which is the median counter of the row. This is a
+     * variant of count-mean-min that is not affected by a few very frequent
+     * values. It is more accurate for infrequent values if there are many
+     * more distinct values than counters per row, but underestimates if there
+     * are few distinct values.
+     *
+     * @param hash the hash of the value
+     * @return the estimated count
+     */
+    public long estimateCorrected(long hash) {
+        long min = Long.MAX_VALUE;
+        long[] estimates = new long[depth];
+        long[] row = new long[width];
+        for (int r = 0; r < depth; r++) {
+            long c = counts[getIndex(hash, r)];
+            min = Math.min(min, c);
+            System.arraycopy(counts, r * width, row, 0, width);
+            Arrays.sort(row);
+            estimates[r] = Math.max(0, c - row[width / 2]);
+        }
+        Arrays.sort(estimates);
+        long median = depth % 2 == 1 ? estimates[depth / 2]
+                : (estimates[depth / 2 - 1] + estimates[depth / 2]) / 2;
+        return Math.min(min, median);
+    }
+
+    /**
+     * Get the sum of all counts.
+     *
+     * @return the total
+     */
+    public long getTotal() {
+        long total = 0;
+        for (int i = 0; i < width; i++) {
+            total += counts[i];
+        }
+        return total;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get a copy of the counters, row by row.
+     *
+     * @return the counters
+     */
+    public long[] getCounts() {
+        return Arrays.copyOf(counts, counts.length);
+    }
+
+    /**
+     * Get the index of the counter of a value in the given row, as used in
+     * the array returned by {@link #getCounts()}.
+     *
+     * @param hash the hash of the value
+     * @param row the row
+     * @return the index of the counter
+     */
+    public int getIndex(long hash, int row) {
+        // derive the hash functions from two 32 bit hashes
+        int h = (int) hash + row * (int) (hash >>> 32);
+        return row * width + (h & Integer.MAX_VALUE) % width;
+    }
+
+}
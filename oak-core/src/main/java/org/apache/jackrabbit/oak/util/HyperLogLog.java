@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.util;
+
+import java.util.Arrays;
+
+/**
+ * A HyperLogLog sketch to estimate the number of distinct values. It uses one
+ * byte per register. The standard error is about 1.04 / sqrt(number of
+ * registers). Values can not be removed.
+ */
+public class HyperLogLog {
+
+    private final int registerBits;
+
+    private final byte[] registers;
+
+    /**
+     * Create a new, empty sketch.
+     *
+     * @param registerCount the number of registers (a power of 2, at least
+     *            16)
+     */
+    public HyperLogLog(int registerCount) {
+        this(new byte[registerCount]);
+    }
+
+    /**
+     * Create a sketch with the given registers.
+     *
+     * @param registers the registers (the array is copied)
+     */
+    public HyperLogLog(byte[] registers) {
+        int m = registers.length;
+        if (m < 16 || Integer.bitCount(m) != 1) {
+            throw new IllegalArgumentException(
+                    "Register count must be a power of 2, at least 16: " + m);
+        }
+        this.registerBits = Integer.numberOfTrailingZeros(m);
+        this.registers = Arrays.copyOf(registers, m);
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param hash the (well distributed) 64 bit hash of the value
+     * @return whether a register was changed
+     */
+    public boolean add(long hash) {
+        int index = (int) (hash >>> (64 - registerBits));
+        // the position of the leftmost 1 bit in the remaining bits;
+        // the extra bit limits the result if all remaining bits are 0
+        long w = (hash << registerBits) | (1L << (registerBits - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Estimate the number of distinct values that were added.
+     *
+     * @return the estimation
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double alpha;
+        switch (m) {
+        case 16:
+            alpha = 0.673;
+            break;
+        case 32:
+            alpha = 0.697;
+            break;
+        case 64:
+            alpha = 0.709;
+            break;
+        default:
+            alpha = 0.7213 / (1 + 1.079 / m);
+        }
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // small range correction (linear counting)
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Get a copy of the registers.
+     *
+     * @return the registers
+     */
+    public byte[] getRegisters() {
+        return Arrays.copyOf(registers, registers.length);
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.blob;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BlobReferenceDeltaLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BlobReferenceDeltaLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        log = new BlobReferenceDeltaLog(new File(folder.getRoot(), "refs.log"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.close();
+    }
+
+    @Test
+    public void removedAfterInterval() throws Exception {
+        log.append(10, deltas("a", 1, "b", 2, "c", 1));
+        log.append(20, deltas("a", -1, "b", -1));
+        log.append(30, deltas("c", -1));
+
+        // nothing removed at or before 15
+        assertEquals(ImmutableSet.<String>of(), candidates(15));
+        // b still referenced, c removed too recently
+        assertEquals(ImmutableSet.of("a"), candidates(25));
+        // a is no longer part of the log
+        assertEquals(ImmutableSet.of("c"), candidates(35));
+        assertEquals(ImmutableSet.<String>of(), candidates(100));
+
+        log.append(40, deltas("b", -1));
+        assertEquals(ImmutableSet.of("b"), candidates(100));
+    }
+
+    @Test
+    public void readded() throws Exception {
+        log.append(10, deltas("a", 1));
+        log.append(20, deltas("a", -1));
+        log.append(30, deltas("a", 1));
+        assertEquals(ImmutableSet.<String>of(), candidates(100));
+
+        log.append(40, deltas("a", -1));
+        assertEquals(ImmutableSet.<String>of(), candidates(35));
+        assertEquals(ImmutableSet.of("a"), candidates(45));
+    }
+
+    @Test
+    public void resetCounts() throws Exception {
+        log.append(10, deltas("a", 1, "b", 1));
+        log.append(20, deltas("a", -1));
+        log.resetCounts(50);
+        // b is still referenced
+        log.append(60, deltas("b", 1));
+        // the removal time of a is kept
+        assertEquals(ImmutableSet.of("a"), candidates(30));
+        assertEquals(ImmutableSet.<String>of(), candidates(100));
+    }
+
+    @Test
+    public void recover() throws Exception {
+        assertNull(log.recover());
+        log.append(10, deltas("a", 1, "b", 1));
+        log.markConsistent("cp1");
+        assertTrue(log.isConsistent());
+        log.append(20, deltas("a", -1));
+        log.close();
+
+        log = new BlobReferenceDeltaLog(new File(folder.getRoot(), "refs.log"));
+        assertFalse(log.isConsistent());
+        assertEquals("cp1", log.recover());
+        assertTrue(log.isConsistent());
+        // the removal of a after the consistent point was discarded
+        assertEquals(ImmutableSet.<String>of(), candidates(100));
+
+        // deltas after the consistent point are kept by the compaction
+        log.append(30, deltas("b", -1));
+        assertEquals(ImmutableSet.<String>of(), candidates(100));
+        log.markConsistent("cp2");
+        assertEquals(ImmutableSet.of("b"), candidates(100));
+
+        log.invalidate();
+        log.close();
+        log = new BlobReferenceDeltaLog(new File(folder.getRoot(), "refs.log"));
+        assertNull(log.recover());
+    }
+
+    private Set<String> candidates(long maxRemovedTime) throws Exception {
+        File candidates = folder.newFile();
+        log.collectCandidates(maxRemovedTime, candidates);
+        return Sets.newHashSet(Files.readLines(candidates, Charsets.UTF_8));
+    }
+
+    private static Map<String, Integer> deltas(Object... keyValues) {
+        ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            builder.put((String) keyValues[i], (Integer) keyValues[i + 1]);
+        }
+        return builder.build();
+    }
+}
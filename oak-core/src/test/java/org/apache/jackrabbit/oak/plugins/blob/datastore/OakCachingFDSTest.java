@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.blob.datastore;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataRecord;
+import org.apache.jackrabbit.oak.stats.DefaultStatisticsProvider;
+import org.apache.jackrabbit.oak.stats.StatsOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OakCachingFDSTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService executor;
+
+    private DefaultStatisticsProvider statsProvider;
+
+    private OakCachingFDS dataStore;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        statsProvider = new DefaultStatisticsProvider(executor);
+        dataStore = new OakCachingFDS(statsProvider);
+        Properties props = new Properties();
+        props.setProperty("fsBackendPath", folder.newFolder("backend").getAbsolutePath());
+        dataStore.setProperties(props);
+        dataStore.setPath(folder.newFolder("cache").getAbsolutePath());
+        dataStore.setMinRecordLength(10);
+        dataStore.init(folder.getRoot().getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataStore.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void uploadStats() throws Exception {
+        Random r = new Random(0);
+        for (int i = 0; i < 5; i++) {
+            byte[] data = new byte[4096];
+            r.nextBytes(data);
+            dataStore.addRecord(new ByteArrayInputStream(data));
+        }
+
+        waitForUploads();
+        assertEquals(5, statsProvider.getMeter(
+                OakCachingFDS.RECORDS_ADDED, StatsOptions.DEFAULT).getCount());
+        assertEquals(5, statsProvider.getTimer(
+                OakCachingFDS.UPLOAD_LATENCY, StatsOptions.METRICS_ONLY).getCount());
+        assertEquals(0, statsProvider.getMeter(
+                OakCachingFDS.UPLOAD_FAILURES, StatsOptions.DEFAULT).getCount());
+    }
+
+    @Test
+    public void cacheHitRatio() throws Exception {
+        byte[] data = new byte[4096];
+        new Random(0).nextBytes(data);
+        DataRecord record = dataStore.addRecord(new ByteArrayInputStream(data));
+        waitForUploads();
+        assertEquals(1.0, dataStore.getCacheHitRatio(), 0.0);
+
+        // served from the local cache
+        IOUtils.toByteArray(dataStore.getRecord(record.getIdentifier()).getStream());
+        assertEquals(1.0, dataStore.getCacheHitRatio(), 0.0);
+
+        // read from the backend
+        dataStore.deleteFromCache(record.getIdentifier());
+        IOUtils.toByteArray(dataStore.getRecord(record.getIdentifier()).getStream());
+        assertEquals(2, statsProvider.getMeter(
+                OakCachingFDS.CACHE_REQUESTS, StatsOptions.DEFAULT).getCount());
+        assertEquals(1, statsProvider.getMeter(
+                OakCachingFDS.CACHE_MISSES, StatsOptions.DEFAULT).getCount());
+        assertEquals(0.5, dataStore.getCacheHitRatio(), 0.0);
+    }
+
+    private void waitForUploads() throws InterruptedException {
+        // the uploads are counted before they are scheduled
+        long timeout = System.currentTimeMillis() + 10000;
+        while (dataStore.getUploadQueueSize() > 0
+                && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, dataStore.getUploadQueueSize());
+    }
+}
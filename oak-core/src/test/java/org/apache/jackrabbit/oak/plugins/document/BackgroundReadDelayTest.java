@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.Test;
+
+public class BackgroundReadDelayTest {
+
+    @Test
+    public void bounds() {
+        BackgroundReadDelay delay = new BackgroundReadDelay(100, 1000, 5000);
+        assertEquals(1000, delay.get());
+        delay.update(false);
+        assertEquals(1000, delay.get());
+        delay.update(true);
+        assertEquals(500, delay.get());
+        for (int i = 0; i < 10; i++) {
+            delay.update(true);
+        }
+        assertEquals(100, delay.get());
+        delay.update(false);
+        assertEquals(200, delay.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBounds() {
+        new BackgroundReadDelay(1000, 100, 500);
+    }
+
+    @Test
+    public void shorterDelayWithExternalChanges() throws Exception {
+        MemoryDocumentStore store = new MemoryDocumentStore();
+        DocumentNodeStore ns1 = new DocumentMK.Builder().setAsyncDelay(0)
+                .setClusterId(1).setDocumentStore(store).getNodeStore();
+        DocumentNodeStore ns2 = new DocumentMK.Builder().setAsyncDelay(1000)
+                .setAdaptiveBackgroundRead(10, 2000)
+                .setClusterId(2).setDocumentStore(store).getNodeStore();
+        try {
+            assertEquals(1000, ns2.getBackgroundReadDelay());
+            long end = System.currentTimeMillis() + 10 * 1000;
+            int i = 0;
+            while (ns2.getBackgroundReadDelay() > 100
+                    && System.currentTimeMillis() < end) {
+                NodeBuilder builder = ns1.getRoot().builder();
+                builder.child("node-" + i++);
+                ns1.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+                ns1.runBackgroundOperations();
+                Thread.sleep(10);
+            }
+            assertTrue(ns2.getBackgroundReadDelay() <= 100);
+        } finally {
+            ns2.dispose();
+            ns1.dispose();
+        }
+    }
+}
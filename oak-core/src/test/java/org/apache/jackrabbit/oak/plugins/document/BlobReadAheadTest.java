@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.sql.DataSource;
+
+import com.google.common.io.ByteStreams;
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.plugins.document.rdb.RDBDataSourceFactory;
+import org.apache.jackrabbit.oak.plugins.document.rdb.RDBOptions;
+import org.apache.jackrabbit.oak.spi.blob.AbstractBlobStore;
+import org.junit.Test;
+
+/**
+ * Tests reading ahead blob blocks as configured with the builder.
+ */
+public class BlobReadAheadTest {
+
+    @Test
+    public void readAhead() throws Exception {
+        DataSource ds = RDBDataSourceFactory.forJdbcUrl(
+                "jdbc:h2:file:./target/blob-read-ahead", "sa", "");
+        DocumentMK.Builder builder = new DocumentMK.Builder()
+                .setBlobReadAhead(4)
+                .setRDBConnection(ds, new RDBOptions()
+                        .tablePrefix("RA_").dropTablesOnClose(true));
+        DocumentNodeStore store = builder.getNodeStore();
+        try {
+            AbstractBlobStore blobStore = (AbstractBlobStore) store.getBlobStore();
+            assertEquals(4, blobStore.getReadAheadBlocks());
+            blobStore.setBlockSize(16 * 1024);
+            byte[] data = new byte[100 * 1024];
+            new Random(1).nextBytes(data);
+            Blob blob = store.createBlob(new ByteArrayInputStream(data));
+            blobStore.clearCache();
+
+            assertArrayEquals(data, ByteStreams.toByteArray(blob.getNewStream()));
+            ThreadPoolExecutor executor =
+                    (ThreadPoolExecutor) builder.getBlobReadAheadExecutor();
+            assertTrue(executor.getTaskCount() > 0);
+
+            store.dispose();
+            assertTrue(executor.isShutdown());
+        } finally {
+            store.dispose();
+        }
+    }
+
+    @Test
+    public void disabledByDefault() throws Exception {
+        DocumentMK.Builder builder = new DocumentMK.Builder();
+        DocumentNodeStore store = builder.getNodeStore();
+        try {
+            assertEquals(0, ((AbstractBlobStore) store.getBlobStore()).getReadAheadBlocks());
+            assertNull(builder.getBlobReadAheadExecutor());
+        } finally {
+            store.dispose();
+        }
+    }
+}
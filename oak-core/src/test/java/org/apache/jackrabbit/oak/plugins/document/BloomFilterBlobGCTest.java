@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.plugins.blob.MarkSweepGarbageCollector;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.spi.blob.GarbageCollectableBlobStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the bloom filter accelerated sweep of the blob garbage collector.
+ */
+public class BloomFilterBlobGCTest {
+
+    private DocumentNodeStore store;
+
+    @Before
+    public void setUp() {
+        store = new DocumentMK.Builder()
+                .setAsyncDelay(0)
+                .setDocumentStore(new MemoryDocumentStore())
+                .getNodeStore();
+    }
+
+    @After
+    public void tearDown() {
+        store.dispose();
+    }
+
+    @Test
+    public void gcWithBloomFilter() throws Exception {
+        Set<String> referenced = setUpBlobs();
+        gc(true);
+        assertEquals(referenced, iterate());
+    }
+
+    @Test
+    public void gcWithoutBloomFilter() throws Exception {
+        Set<String> referenced = setUpBlobs();
+        gc(false);
+        assertEquals(referenced, iterate());
+    }
+
+    /**
+     * Creates referenced and unreferenced blobs and returns the chunk ids
+     * of the referenced ones.
+     */
+    private Set<String> setUpBlobs() throws Exception {
+        GarbageCollectableBlobStore blobStore = (GarbageCollectableBlobStore) store.getBlobStore();
+        Set<String> referenced = Sets.newHashSet();
+        NodeBuilder builder = store.getRoot().builder();
+        for (int i = 0; i < 20; i++) {
+            Blob b = store.createBlob(randomStream(i, 16516));
+            if (i % 3 == 0) {
+                // leave this one unreferenced
+                continue;
+            }
+            Iterator<String> idIter = blobStore.resolveChunks(b.toString());
+            while (idIter.hasNext()) {
+                referenced.add(idIter.next());
+            }
+            builder.child("c" + i).setProperty("x", b);
+        }
+        store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        return referenced;
+    }
+
+    private void gc(boolean bloomFilter) throws Exception {
+        MarkSweepGarbageCollector gc = new MarkSweepGarbageCollector(
+                new DocumentBlobReferenceRetriever(store),
+                (GarbageCollectableBlobStore) store.getBlobStore(),
+                MoreExecutors.sameThreadExecutor(), "./target", 5, 0, null);
+        gc.setBloomFilterSweep(bloomFilter);
+        gc.collectGarbage(false);
+    }
+
+    private Set<String> iterate() throws Exception {
+        Iterator<String> cur = ((GarbageCollectableBlobStore) store.getBlobStore()).getAllChunkIds(0);
+        Set<String> existing = Sets.newHashSet();
+        while (cur.hasNext()) {
+            existing.add(cur.next());
+        }
+        return existing;
+    }
+
+    private static InputStream randomStream(int seed, int size) {
+        Random r = new Random(seed);
+        byte[] data = new byte[size];
+        r.nextBytes(data);
+        return new ByteArrayInputStream(data);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import static org.apache.jackrabbit.oak.plugins.document.util.Utils.getIdFromPath;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DocumentBinarySerializerTest {
+
+    private DocumentNodeStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new DocumentMK.Builder().setAsyncDelay(0)
+                .setDocumentStore(new MemoryDocumentStore()).getNodeStore();
+        for (int i = 0; i < 5; i++) {
+            NodeBuilder builder = store.getRoot().builder();
+            NodeBuilder test = builder.child("test");
+            test.setProperty("jcr:primaryType", "nt:unstructured");
+            test.setProperty("count", i);
+            test.setProperty("negative", -i);
+            test.setProperty("flag", i % 2 == 0);
+            test.setProperty("text", "value äöü " + i);
+            test.child("c" + i);
+            store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        store.dispose();
+    }
+
+    @Test
+    public void documentRoundTrip() {
+        NodeDocument doc = store.getDocumentStore().find(
+                Collection.NODES, getIdFromPath("/test"));
+        assertNotNull(doc);
+        byte[] data = DocumentBinarySerializer.toBytes(doc);
+        NodeDocument copy = DocumentBinarySerializer.documentFromBytes(
+                store.getDocumentStore(), data);
+        assertEquals(doc.asString(), copy.asString());
+        assertTrue(data.length < doc.asString().getBytes(Charsets.UTF_8).length);
+    }
+
+    @Test
+    public void nodeStateRoundTrip() {
+        DocumentNodeState state = (DocumentNodeState) store.getRoot().getChildNode("test");
+        byte[] data = DocumentBinarySerializer.toBytes(state);
+        DocumentNodeState copy = DocumentBinarySerializer.nodeStateFromBytes(store, data);
+        assertEquals(state.asString(), copy.asString());
+        assertEquals(state.getLastRevision(), copy.getLastRevision());
+        assertEquals(state.hasChildren, copy.hasChildren);
+        assertEquals(4, copy.getProperty("count").getValue(Type.LONG).longValue());
+        assertTrue(data.length < state.asString().getBytes(Charsets.UTF_8).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedVersion() {
+        DocumentNodeState state = (DocumentNodeState) store.getRoot().getChildNode("test");
+        byte[] data = DocumentBinarySerializer.toBytes(state);
+        data[0] = (byte) (DocumentBinarySerializer.VERSION + 1);
+        DocumentBinarySerializer.nodeStateFromBytes(store, data);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongType() {
+        DocumentNodeState state = (DocumentNodeState) store.getRoot().getChildNode("test");
+        byte[] data = DocumentBinarySerializer.toBytes(state);
+        DocumentBinarySerializer.documentFromBytes(store.getDocumentStore(), data);
+    }
+}
@@ -24,6 +24,7 @@ import static org.apache.jackrabbit.oak.plugins.document.NodeDocument.MODIFIED_I
 import static org.apache.jackrabbit.oak.plugins.document.NodeDocument.NUM_REVS_THRESHOLD;
 import static org.apache.jackrabbit.oak.plugins.document.NodeDocument.PREV_SPLIT_FACTOR;
 import static org.apache.jackrabbit.oak.plugins.document.NodeDocument.getModifiedInSecs;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
@@ -2726,6 +2727,36 @@ public class DocumentNodeStoreTest {
 
     }
 
+    @Test
+    public void resolveRootState() throws Exception {
+        DocumentNodeStore ns = builderProvider.newBuilder()
+                .setAsyncDelay(0).getNodeStore();
+        NodeBuilder builder = ns.getRoot().builder();
+        builder.child("foo");
+        merge(ns, builder);
+        DocumentNodeState root = ns.getRoot();
+        builder = root.builder();
+        builder.child("bar");
+        merge(ns, builder);
+
+        String ref = ns.getReference(root);
+        assertNotNull(ref);
+        NodeState resolved = ns.resolve(ref);
+        assertNotNull(resolved);
+        assertTrue(resolved.hasChildNode("foo"));
+        assertFalse(resolved.hasChildNode("bar"));
+        assertFalse(((DocumentNodeState) resolved).isFromExternalChange());
+
+        String externalRef = ns.getReference(root.fromExternalChange());
+        assertNotNull(externalRef);
+        assertTrue(((DocumentNodeState) ns.resolve(externalRef)).isFromExternalChange());
+
+        // only root states of this store can be referenced
+        assertNull(ns.getReference(root.getChildNode("foo")));
+        assertNull(ns.getReference(EMPTY_NODE));
+        assertNull(ns.resolve("invalid"));
+    }
+
     private static class TestEditor extends DefaultEditor {
 
         private final NodeBuilder builder;
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import static org.apache.jackrabbit.oak.plugins.document.DocumentMK.MANY_CHILDREN_THRESHOLD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Sets;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournalDiffLoaderTest {
+
+    private CountingDocumentStore store2;
+
+    private DocumentNodeStore ns1;
+
+    private DocumentNodeStore ns2;
+
+    @Before
+    public void before() {
+        MemoryDocumentStore store = new MemoryDocumentStore();
+        store2 = new CountingDocumentStore(store);
+        ns1 = new DocumentMK.Builder().setAsyncDelay(0).setClusterId(1)
+                .setDocumentStore(store).getNodeStore();
+        ns2 = new DocumentMK.Builder().setAsyncDelay(0).setClusterId(2)
+                .setDocumentStore(store2).getNodeStore();
+    }
+
+    @After
+    public void after() {
+        ns2.dispose();
+        ns1.dispose();
+    }
+
+    @Test
+    public void diffOverMultipleBackgroundReads() throws Exception {
+        NodeBuilder builder = ns1.getRoot().builder();
+        NodeBuilder foo = builder.child("foo");
+        for (int i = 0; i < MANY_CHILDREN_THRESHOLD * 2; i++) {
+            foo.child("node-" + i);
+        }
+        merge(ns1, builder);
+        ns1.runBackgroundOperations();
+        ns2.runBackgroundOperations();
+        DocumentNodeState r0 = ns2.getRoot();
+
+        builder = ns1.getRoot().builder();
+        builder.child("foo").child("node-1").setProperty("p", "v");
+        merge(ns1, builder);
+        ns1.runBackgroundOperations();
+        ns2.runBackgroundOperations();
+
+        builder = ns1.getRoot().builder();
+        builder.child("foo").child("new");
+        builder.child("foo").child("node-2").remove();
+        merge(ns1, builder);
+        ns1.runBackgroundOperations();
+        ns2.runBackgroundOperations();
+        DocumentNodeState r2 = ns2.getRoot();
+
+        // no diff cache entry exists for r0 -> r2 yet
+        store2.resetCounters();
+        TrackingDiff diff = new TrackingDiff();
+        r2.compareAgainstBaseState(r0, diff);
+
+        assertEquals(Sets.newHashSet("/foo/new"), diff.added);
+        assertEquals(Sets.newHashSet("/foo/node-2"), diff.deleted);
+        assertTrue(diff.modified.contains("/foo/node-1"));
+        assertEquals(0, store2.getNumQueryCalls(Collection.NODES));
+        assertTrue(store2.getNumQueryCalls(Collection.JOURNAL) > 0);
+
+        // the diff for the range is now cached
+        assertNotNull(ns2.getDiffCache().getChanges(r0.getRootRevision(),
+                r2.getRootRevision(), "/foo", null));
+    }
+
+    @Test
+    public void localChanges() throws Exception {
+        DocumentNodeState r0 = ns2.getRoot();
+        NodeBuilder builder = r0.builder();
+        builder.child("bar");
+        merge(ns2, builder);
+        ns2.runBackgroundOperations();
+        DocumentNodeState r1 = ns2.getRoot();
+
+        store2.resetCounters();
+        TrackingDiff diff = new TrackingDiff();
+        r1.compareAgainstBaseState(r0, diff);
+        assertEquals(Sets.newHashSet("/bar"), diff.added);
+        assertEquals(0, store2.getNumQueryCalls(Collection.JOURNAL));
+    }
+
+    private static void merge(DocumentNodeStore ns, NodeBuilder builder)
+            throws Exception {
+        ns.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    }
+}
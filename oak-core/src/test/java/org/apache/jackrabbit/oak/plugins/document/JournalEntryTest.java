@@ -135,6 +135,17 @@ public class JournalEntryTest {
         sort.close();
     }
 
+    @Test
+    public void getModifiedPathsLength() throws Exception {
+        DocumentStore store = new MemoryDocumentStore();
+        JournalEntry entry = JOURNAL.newDocument(store);
+        entry.modified("/\u00e4\u20ac");
+        // "/", "/\u00e4\u20ac": 1 + 6 bytes
+        assertEquals(7, JournalEntry.getUTF8Length("/") + JournalEntry.getUTF8Length("/\u00e4\u20ac"));
+        assertNotNull(entry.getModifiedPaths(10, 7));
+        assertNull(entry.getModifiedPaths(10, 6));
+    }
+
     @Test
     public void getRevisionTimestamp() throws Exception {
         DocumentStore store = new MemoryDocumentStore();
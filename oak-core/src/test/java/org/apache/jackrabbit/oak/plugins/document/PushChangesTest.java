@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for changes pushed to other cluster nodes with the persistent cache
+ * broadcaster.
+ */
+public class PushChangesTest {
+
+    private static final File DIR = new File("target/pushChangesTest");
+
+    private DocumentNodeStore ns1;
+
+    private DocumentNodeStore ns2;
+
+    @Before
+    public void before() throws Exception {
+        FileUtils.deleteDirectory(DIR);
+        MemoryDocumentStore store = new MemoryDocumentStore();
+        ns1 = new DocumentMK.Builder().setAsyncDelay(0).setClusterId(1)
+                .setDocumentStore(store)
+                .setPersistentCache(DIR.getPath() + "/p1,broadcast=inMemory,+push")
+                .getNodeStore();
+        // the regular background read of ns2 will not happen during the test
+        ns2 = new DocumentMK.Builder().setAsyncDelay(60 * 1000).setClusterId(2)
+                .setDocumentStore(store)
+                .setPersistentCache(DIR.getPath() + "/p2,broadcast=inMemory,+push")
+                .getNodeStore();
+    }
+
+    @After
+    public void after() throws Exception {
+        ns2.dispose();
+        ns1.dispose();
+        FileUtils.deleteDirectory(DIR);
+    }
+
+    @Test
+    public void changesVisibleAfterPush() throws Exception {
+        NodeBuilder builder = ns1.getRoot().builder();
+        builder.child("foo").child("bar");
+        ns1.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        assertFalse(ns2.getRoot().hasChildNode("foo"));
+
+        ns1.runBackgroundOperations();
+
+        long end = System.currentTimeMillis() + 10 * 1000;
+        while (!ns2.getRoot().hasChildNode("foo")
+                && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertTrue(ns2.getRoot().getChildNode("foo").hasChildNode("bar"));
+    }
+
+    @Test
+    public void modifiedPaths() throws Exception {
+        JournalEntry entry = Collection.JOURNAL.newDocument(ns1.getDocumentStore());
+        entry.modified("/foo/bar");
+        entry.modified("/foo/baz");
+        List<String> paths = entry.getModifiedPaths(100, 1024);
+        assertNotNull(paths);
+        assertEquals(4, paths.size());
+        assertTrue(paths.contains("/foo/bar"));
+        assertNull(entry.getModifiedPaths(3, 1024));
+        assertNull(entry.getModifiedPaths(100, 10));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.jackrabbit.oak.cache.CacheStats;
+import org.apache.jackrabbit.oak.plugins.document.DocumentMK;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeState;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.PathRev;
+import org.apache.jackrabbit.oak.plugins.document.Revision;
+import org.apache.jackrabbit.oak.plugins.document.RevisionVector;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.CacheType;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Test;
+
+public class OffHeapCacheTest {
+
+    private static final RevisionVector REV = new RevisionVector(new Revision(1, 0, 1));
+
+    @Test
+    public void readFromOffHeap() throws Exception {
+        Cache<PathRev, DocumentNodeState.Children> memCache = CacheBuilder.newBuilder()
+                .maximumSize(1).build();
+        OffHeapCache<PathRev, DocumentNodeState.Children> cache = newCache(memCache);
+        for (int i = 0; i < 10; i++) {
+            cache.put(new PathRev("/n" + i, REV), children(i));
+        }
+        assertTrue(memCache.size() <= 1);
+        assertEquals(10, cache.offHeapSize());
+        assertTrue(cache.offHeapUsedMemory() > 0);
+        for (int i = 0; i < 10; i++) {
+            DocumentNodeState.Children c = cache.getIfPresent(new PathRev("/n" + i, REV));
+            assertEquals(children(i).asString(), c.asString());
+        }
+        assertEquals(10, cache.offHeapStats().hitCount());
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        Cache<PathRev, DocumentNodeState.Children> memCache = CacheBuilder.newBuilder()
+                .maximumSize(1).build();
+        OffHeapCache<PathRev, DocumentNodeState.Children> cache = newCache(memCache);
+        PathRev key = new PathRev("/n", REV);
+        cache.put(key, children(1));
+        cache.invalidate(key);
+        assertNull(cache.getIfPresent(key));
+
+        cache.put(key, children(2));
+        cache.invalidateAll();
+        assertNull(cache.getIfPresent(key));
+        assertEquals(0, cache.offHeapSize());
+    }
+
+    @Test
+    public void evictedMemoryReused() throws Exception {
+        Cache<PathRev, DocumentNodeState.Children> memCache = CacheBuilder.newBuilder()
+                .maximumSize(1).build();
+        OffHeapCache<PathRev, DocumentNodeState.Children> cache =
+                new OffHeapCache<PathRev, DocumentNodeState.Children>(
+                        memCache, CacheType.CHILDREN, 64 * 1024, 1, 16, null, null);
+        CacheStats stats = cache.getOffHeapCacheStats("test");
+        for (int i = 0; i < 5000; i++) {
+            cache.put(new PathRev("/n" + i, REV), children(i));
+        }
+        assertTrue(stats.getEvictionCount() > 0);
+        assertEquals(0, cache.offHeapAllocationFailures());
+        assertEquals(64 * 1024, cache.offHeapAllocatedMemory());
+        assertTrue(cache.offHeapUsedMemory() <= 56 * 1024);
+        assertEquals(cache.offHeapUsedMemory(), stats.estimateCurrentWeight());
+        assertEquals(cache.offHeapSize(), stats.getElementCount());
+        assertEquals(children(4999).asString(),
+                cache.getIfPresent(new PathRev("/n4999", REV)).asString());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.offHeapUsedMemory());
+    }
+
+    @Test
+    public void nodeStore() throws Exception {
+        DocumentMK.Builder builder = new DocumentMK.Builder()
+                .setAsyncDelay(0)
+                .memoryCacheSize(64 * 1024)
+                .offHeapCacheSize(16 * 1024 * 1024)
+                .setDocumentStore(new MemoryDocumentStore());
+        DocumentNodeStore store = builder.getNodeStore();
+        try {
+            assertTrue(builder.buildChildrenCache() instanceof OffHeapCache);
+            assertTrue(builder.getOffHeapCacheStats().iterator().hasNext());
+
+            NodeBuilder nb = store.getRoot().builder();
+            for (int i = 0; i < 200; i++) {
+                nb.child("n" + i).setProperty("p", "value-" + i);
+            }
+            store.merge(nb, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+            // read twice, second time partially from the off-heap tier
+            for (int k = 0; k < 2; k++) {
+                NodeState root = store.getRoot();
+                for (int i = 0; i < 200; i++) {
+                    assertEquals("value-" + i, root.getChildNode("n" + i)
+                            .getString("p"));
+                }
+            }
+        } finally {
+            store.dispose();
+        }
+    }
+
+    private static OffHeapCache<PathRev, DocumentNodeState.Children> newCache(
+            Cache<PathRev, DocumentNodeState.Children> memCache) {
+        return new OffHeapCache<PathRev, DocumentNodeState.Children>(
+                memCache, CacheType.CHILDREN, 1024 * 1024, 1, 16, null, null);
+    }
+
+    private static DocumentNodeState.Children children(int i) {
+        return DocumentNodeState.Children.fromString(
+                "\"children\":[\"a" + i + "\",\"b" + i + "\"]");
+    }
+}
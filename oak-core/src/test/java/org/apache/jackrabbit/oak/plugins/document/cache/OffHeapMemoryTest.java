@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.cache;
+
+import static org.apache.jackrabbit.oak.plugins.document.cache.OffHeapMemory.BLOCK_SIZE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+public class OffHeapMemoryTest {
+
+    @Test
+    public void storeAndRead() {
+        OffHeapMemory memory = new OffHeapMemory(16 * BLOCK_SIZE, 4 * BLOCK_SIZE);
+        assertEquals(0, memory.getSlabCount());
+        OffHeapMemory.Value v = memory.store(data(1, 100));
+        assertNotNull(v);
+        assertEquals(1, memory.getSlabCount());
+        assertEquals(2 * BLOCK_SIZE, v.getMemory());
+        assertEquals(2 * BLOCK_SIZE, memory.getUsedMemory());
+        assertArrayEquals(data(1, 100), v.read());
+
+        v.free();
+        assertNull(v.read());
+        assertEquals(0, memory.getUsedMemory());
+        // freeing twice has no effect
+        v.free();
+        assertEquals(0, memory.getUsedMemory());
+    }
+
+    @Test
+    public void slabsAddedUpToMaximum() {
+        OffHeapMemory memory = new OffHeapMemory(8 * BLOCK_SIZE, 4 * BLOCK_SIZE);
+        List<OffHeapMemory.Value> values = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            values.add(memory.store(data(i, 2 * BLOCK_SIZE)));
+        }
+        assertEquals(2, memory.getSlabCount());
+        assertEquals(8 * BLOCK_SIZE, memory.getAllocatedMemory());
+        assertNull(memory.store(data(5, 1)));
+        // larger than a slab
+        assertNull(new OffHeapMemory(1024 * BLOCK_SIZE, 4 * BLOCK_SIZE)
+                .store(data(6, 5 * BLOCK_SIZE)));
+        assertEquals(1, memory.getAllocationFailures());
+
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(data(i, 2 * BLOCK_SIZE), values.get(i).read());
+        }
+        values.get(1).free();
+        assertNotNull(memory.store(data(7, BLOCK_SIZE)));
+        assertEquals(2, memory.getSlabCount());
+    }
+
+    @Test
+    public void adjacentFreeRangesMerged() {
+        OffHeapMemory memory = new OffHeapMemory(4 * BLOCK_SIZE, 4 * BLOCK_SIZE);
+        OffHeapMemory.Value[] values = new OffHeapMemory.Value[4];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = memory.store(data(i, BLOCK_SIZE));
+        }
+        // free the middle blocks in an order which requires merging
+        // with the free range before and after
+        values[1].free();
+        values[2].free();
+        OffHeapMemory.Value v = memory.store(data(10, 2 * BLOCK_SIZE));
+        assertNotNull(v);
+        assertArrayEquals(data(0, BLOCK_SIZE), values[0].read());
+        assertArrayEquals(data(3, BLOCK_SIZE), values[3].read());
+
+        v.free();
+        values[0].free();
+        values[3].free();
+        assertArrayEquals(data(11, 4 * BLOCK_SIZE),
+                memory.store(data(11, 4 * BLOCK_SIZE)).read());
+    }
+
+    @Test
+    public void smallestFreeRangeUsed() {
+        OffHeapMemory memory = new OffHeapMemory(8 * BLOCK_SIZE, 8 * BLOCK_SIZE);
+        OffHeapMemory.Value a = memory.store(data(0, 3 * BLOCK_SIZE));
+        memory.store(data(1, BLOCK_SIZE));
+        OffHeapMemory.Value c = memory.store(data(2, BLOCK_SIZE));
+        memory.store(data(3, BLOCK_SIZE));
+        // free ranges of 3, 1 and 2 blocks
+        a.free();
+        c.free();
+        // fits into the single free block
+        assertNotNull(memory.store(data(4, BLOCK_SIZE)));
+        // the largest free range is still available
+        assertNotNull(memory.store(data(5, 3 * BLOCK_SIZE)));
+        assertNotNull(memory.store(data(6, 2 * BLOCK_SIZE)));
+        assertNull(memory.store(data(7, 1)));
+    }
+
+    private static byte[] data(int seed, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) seed);
+        return data;
+    }
+}
@@ -18,13 +18,17 @@
  */
 package org.apache.jackrabbit.oak.plugins.document.persistentCache;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
 
@@ -180,6 +184,77 @@ public class BroadcastTest {
         }
     }
     
+    @Test
+    public void broadcastChangesInMemory() throws Exception {
+        FileUtils.deleteDirectory(new File("target/broadcastTest"));
+        new File("target/broadcastTest").mkdirs();
+        PersistentCache p1 = new PersistentCache("target/broadcastTest/p1,broadcast=inMemory,+push");
+        PersistentCache p2 = new PersistentCache("target/broadcastTest/p2,broadcast=inMemory,+push");
+        PersistentCache p3 = new PersistentCache("target/broadcastTest/p3,broadcast=inMemory");
+        try {
+            assertTrue(p1.isPushChanges());
+            assertTrue(!p3.isPushChanges());
+            final List<Revision> revs = new ArrayList<Revision>();
+            final List<List<String>> changes = new ArrayList<List<String>>();
+            p2.setChangeListener(new PersistentCache.ChangeListener() {
+                @Override
+                public void changed(Revision lastRev, List<String> paths) {
+                    revs.add(lastRev);
+                    changes.add(paths);
+                }
+            });
+            Revision r1 = new Revision(1, 0, 1);
+            p1.broadcastChanges(r1, Arrays.asList("/", "/foo", "/foo/bar"));
+            Revision r2 = new Revision(2, 0, 1);
+            p1.broadcastChanges(r2, null);
+            // own changes are ignored
+            p2.broadcastChanges(new Revision(3, 0, 2), null);
+
+            assertEquals(Arrays.asList(r1, r2), revs);
+            assertEquals(Arrays.asList("/", "/foo", "/foo/bar"), changes.get(0));
+            assertNull(changes.get(1));
+
+            // within the character limit, but too long when encoded
+            List<String> paths = new ArrayList<String>();
+            StringBuilder name = new StringBuilder("/");
+            for (int i = 0; i < 100; i++) {
+                name.append('\u20ac');
+            }
+            for (int i = 0; i < 80; i++) {
+                paths.add(name.toString() + i);
+            }
+            Revision r4 = new Revision(4, 0, 1);
+            p1.broadcastChanges(r4, paths);
+            assertEquals(r4, revs.get(2));
+            assertNull(changes.get(2));
+        } finally {
+            p1.close();
+            p2.close();
+            p3.close();
+        }
+    }
+
+    @Test
+    public void unknownMessageTypeIgnored() throws Exception {
+        FileUtils.deleteDirectory(new File("target/broadcastTest"));
+        new File("target/broadcastTest").mkdirs();
+        PersistentCache p1 = new PersistentCache("target/broadcastTest/p1,broadcast=inMemory");
+        try {
+            for (byte type : new byte[] { -2, 100 }) {
+                // length, sender id, message type
+                ByteBuffer buff = ByteBuffer.allocate(4 + 16 + 1);
+                buff.putInt(buff.capacity());
+                buff.put(new byte[16]);
+                buff.put(type);
+                buff.flip();
+                p1.receive(buff);
+                assertEquals(buff.limit(), buff.position());
+            }
+        } finally {
+            p1.close();
+        }
+    }
+
     private static void throwBoth(AssertionError e, AssertionError e2) throws AssertionError {
         Throwable ex = e;
         while (ex.getCause() != null) {
@@ -20,12 +20,16 @@ package org.apache.jackrabbit.oak.plugins.document.persistentCache;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 import com.google.common.cache.Cache;
 import org.apache.commons.io.FileUtils;
@@ -67,6 +71,85 @@ public class CacheTest {
                 pCache.getExceptionCount() < 100);
     }
     
+    @Test
+    public void asyncWrites() throws Exception {
+        FileUtils.deleteDirectory(new File("target/cacheTest"));
+        PersistentCache pCache = new PersistentCache("target/cacheTest,+async");
+        CacheLIRS<PathRev, StringValue> cache = new CacheLIRS.Builder<PathRev, StringValue>().
+                maximumSize(1).build();
+        Cache<PathRev, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+        for (int i = 0; i < 100; i++) {
+            PathRev k = new PathRev("/" + i, new RevisionVector(new Revision(0, 0, 1)));
+            map.put(k, new StringValue("value " + i));
+        }
+        PathRev removed = new PathRev("/0", new RevisionVector(new Revision(0, 0, 1)));
+        map.invalidate(removed);
+        assertNull(map.getIfPresent(removed));
+        pCache.close();
+        assertEquals(0, pCache.getWriteQueueSize());
+
+        pCache = new PersistentCache("target/cacheTest,+async");
+        cache = new CacheLIRS.Builder<PathRev, StringValue>().maximumSize(1).build();
+        map = pCache.wrap(null, null, cache, CacheType.DIFF);
+        for (int i = 1; i < 100; i++) {
+            PathRev k = new PathRev("/" + i, new RevisionVector(new Revision(0, 0, 1)));
+            assertEquals("value " + i, map.getIfPresent(k).toString());
+        }
+        assertNull(map.getIfPresent(removed));
+        pCache.close();
+    }
+
+    @Test
+    public void dropAsyncWritesWhenQueueFull() throws Exception {
+        FileUtils.deleteDirectory(new File("target/cacheTest"));
+        PersistentCache pCache = new PersistentCache("target/cacheTest");
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        Map<String, String> map = new ConcurrentHashMap<String, String>() {
+            @Override
+            public String put(String key, String value) {
+                writing.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                return super.put(key, value);
+            }
+        };
+        map.putIfAbsent("c", "1");
+        AsyncCacheWriter writer = new AsyncCacheWriter(pCache, 2);
+        writer.start();
+        try {
+            writer.write(map, "blocked", "1");
+            writing.await();
+            assertTrue(writer.write(map, "a", "1"));
+            // coalesced with the pending write
+            assertTrue(writer.write(map, "a", "2"));
+            assertFalse(writer.write(map, "b", "1"));
+            assertEquals(1, writer.getDroppedCount());
+            // removals are never dropped, but applied directly
+            assertTrue(writer.write(map, "c", (String) null));
+            assertNull(writer.getPending(map, "c"));
+            assertFalse(map.containsKey("c"));
+            assertEquals(2, writer.getQueueSize());
+            assertEquals("2", writer.getPending(map, "a"));
+            // a pending write is replaced by the removal
+            assertTrue(writer.write(map, "blocked", (String) null));
+            assertEquals(AsyncCacheWriter.REMOVED, writer.getPending(map, "blocked"));
+            proceed.countDown();
+            writer.flush();
+            assertEquals(0, writer.getQueueSize());
+            assertEquals("2", map.get("a"));
+            assertFalse(map.containsKey("b"));
+            assertFalse(map.containsKey("blocked"));
+        } finally {
+            proceed.countDown();
+            writer.close();
+            pCache.close();
+        }
+    }
+
     @Test
     public void closeAlways() throws Exception {
         FileUtils.deleteDirectory(new File("target/cacheTest"));
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.property;
+
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.COVERED_PROPERTY_NAMES;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_CONTENT_NODE_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.index.IndexUtils;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
+import org.apache.jackrabbit.oak.query.AbstractQueryTest;
+import org.apache.jackrabbit.oak.query.QueryEngineSettings;
+import org.apache.jackrabbit.oak.query.QueryProfile;
+import org.apache.jackrabbit.oak.spi.lifecycle.RepositoryInitializer;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests property indexes that store the values of additional properties.
+ */
+public class CoveringPropertyIndexTest extends AbstractQueryTest {
+
+    private final NodeStore store = new MemoryNodeStore();
+
+    private final QueryEngineSettings settings = new QueryEngineSettings();
+
+    @Override
+    protected ContentRepository createRepository() {
+        return new Oak(store).with(new InitialContent())
+                .with(new RepositoryInitializer() {
+                    @Override
+                    public void initialize(@Nonnull NodeBuilder builder) {
+                        NodeBuilder index = IndexUtils.getOrCreateOakIndex(builder);
+                        IndexUtils.createIndexDefinition(index, "type", true,
+                                false, ImmutableList.<String>of("type"), null)
+                                .setProperty(COVERED_PROPERTY_NAMES,
+                                        ImmutableList.of("x", "y"), Type.NAMES);
+                    }
+                })
+                .with(new OpenSecurityProvider())
+                .with(new PropertyIndexProvider())
+                .with(new PropertyIndexEditorProvider())
+                .with(settings)
+                .createContentRepository();
+    }
+
+    @Before
+    @Override
+    public void before() throws Exception {
+        super.before();
+        Tree t = root.getTree("/").addChild("test");
+        for (int i = 0; i < 20; i++) {
+            Tree n = t.addChild("n" + i);
+            n.setProperty("type", "a");
+            n.setProperty("x", (long) i);
+        }
+        root.commit();
+        setTraversalEnabled(false);
+        settings.getProfiler().resetSlowQueries();
+    }
+
+    @Test
+    public void explain() throws Exception {
+        List<String> lines = executeQuery(
+                "explain select [jcr:path] from [nt:base] where [type] = 'a' and [x] < 5",
+                SQL2);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("property type = a COVERING [type, x, y]"));
+    }
+
+    @Test
+    public void filterWithoutLoadingNodes() throws Exception {
+        assertQuery("select [jcr:path] from [nt:base] where [type] = 'a' and [x] < 3",
+                ImmutableList.of("/test/n0", "/test/n1", "/test/n2"));
+        QueryProfile p = settings.getProfiler().getSlowQueryProfiles().get(0);
+        assertEquals(20, p.getReadCount());
+        assertEquals(17, p.getFilteredCount());
+        // only the matching nodes are loaded
+        assertEquals(3, p.getNodeReadCount());
+
+        assertQuery("select [jcr:path] from [nt:base] where [type] = 'a' and [x] = 4 and [y] is null",
+                ImmutableList.of("/test/n4"));
+    }
+
+    @Test
+    public void update() throws Exception {
+        NodeState entry = getEntry("a", "test/n1");
+        assertEquals(1, (long) entry.getProperty(":covered:x").getValue(Type.LONG));
+        assertFalse(entry.hasProperty(":covered:y"));
+
+        // the covered properties changed, but not the indexed property
+        Tree n1 = root.getTree("/test/n1");
+        n1.setProperty("x", 100L);
+        n1.setProperty("y", "hello");
+        root.getTree("/test/n2").removeProperty("x");
+        root.commit();
+        assertQuery("select [jcr:path] from [nt:base] where [type] = 'a' and [x] >= 100",
+                ImmutableList.of("/test/n1"));
+        assertQuery("select [jcr:path] from [nt:base] where [type] = 'a' and [y] = 'hello'",
+                ImmutableList.of("/test/n1"));
+        assertQuery("select [jcr:path] from [nt:base] where [type] = 'a' and [x] is null",
+                ImmutableList.of("/test/n2"));
+
+        // the indexed property changed
+        n1.setProperty("type", "b");
+        root.commit();
+        assertFalse(getEntry("a", "test/n1").exists());
+        entry = getEntry("b", "test/n1");
+        assertEquals(100, (long) entry.getProperty(":covered:x").getValue(Type.LONG));
+        assertEquals("hello", entry.getProperty(":covered:y").getValue(Type.STRING));
+        assertQuery("select [jcr:path] from [nt:base] where [type] = 'b' and [x] >= 100",
+                ImmutableList.of("/test/n1"));
+    }
+
+    @Test
+    public void projection() throws Exception {
+        List<String> result = executeQuery(
+                "select [x] from [nt:base] where [type] = 'a' and [x] = 7", SQL2, false);
+        assertEquals(ImmutableList.of("7"), result);
+    }
+
+    @Test
+    public void coveredAfterReindex() throws Exception {
+        String explain = "explain select [jcr:path] from [nt:base] where [type] = 'a' and [z] = 1";
+        Tree index = root.getTree("/oak:index/type");
+        index.setProperty(COVERED_PROPERTY_NAMES, ImmutableList.of("x", "y", "z"), Type.NAMES);
+        root.commit();
+        // the existing entries don't contain the values of z
+        String plan = executeQuery(explain, SQL2).get(0);
+        assertTrue(plan, plan.contains("COVERING [type, x, y]"));
+
+        index.setProperty("reindex", true);
+        root.commit();
+        plan = executeQuery(explain, SQL2).get(0);
+        assertTrue(plan, plan.contains("COVERING [type, x, y, z]"));
+
+        index.setProperty(COVERED_PROPERTY_NAMES, ImmutableList.of("z"), Type.NAMES);
+        root.commit();
+        plan = executeQuery(explain, SQL2).get(0);
+        assertTrue(plan, plan.contains("COVERING [type, z]"));
+    }
+
+    @Test
+    public void unsavedChanges() throws Exception {
+        // the index doesn't contain the unsaved value
+        root.getTree("/test/n1").setProperty("x", 100L);
+        assertQuery("select [jcr:path] from [nt:base] where [type] = 'a' and [x] >= 100",
+                ImmutableList.of("/test/n1"));
+        root.refresh();
+    }
+
+    private NodeState getEntry(String key, String path) {
+        NodeState state = store.getRoot()
+                .getChildNode("oak:index").getChildNode("type")
+                .getChildNode(INDEX_CONTENT_NODE_NAME).getChildNode(key);
+        for (String name : path.split("/")) {
+            state = state.getChildNode(name);
+        }
+        return state;
+    }
+
+}
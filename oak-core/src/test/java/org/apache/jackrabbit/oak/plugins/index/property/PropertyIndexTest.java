@@ -54,6 +54,7 @@ import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.plugins.index.IndexUpdateProvider;
 import org.apache.jackrabbit.oak.plugins.index.property.strategy.ContentMirrorStoreStrategy;
+import org.apache.jackrabbit.oak.plugins.index.property.strategy.PropertyIndexStatistics;
 import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
 import org.apache.jackrabbit.oak.query.QueryEngineSettings;
 import org.apache.jackrabbit.oak.query.ast.Operator;
@@ -127,6 +128,54 @@ public class PropertyIndexTest {
         assertTrue("cost: " + cost, cost >= MANY);
     }
 
+    @Test
+    public void costEstimationWithStatistics() throws Exception {
+        NodeState root = INITIAL_CONTENT;
+
+        NodeBuilder builder = root.builder();
+        createIndexDefinition(builder.child(INDEX_DEFINITIONS_NAME), "foo",
+                true, false, ImmutableSet.of("foo"), null);
+        NodeState before = builder.getNodeState();
+
+        // one frequent value, and many infrequent ones
+        for (int i = 0; i < 5000; i++) {
+            builder.child("a" + i).setProperty("foo", "a");
+        }
+        for (int i = 0; i < 1000; i++) {
+            builder.child("n" + i).setProperty("foo", "x" + i % 200);
+        }
+        NodeState after = builder.getNodeState();
+
+        NodeState indexed = HOOK.processCommit(before, after, CommitInfo.EMPTY);
+        NodeState definition = indexed.getChildNode(INDEX_DEFINITIONS_NAME).getChildNode("foo");
+        assertTrue(definition.hasChildNode(PropertyIndexStatistics.STATISTICS_NODE_NAME));
+        PropertyIndexStatistics statistics = PropertyIndexStatistics.read(definition);
+        long distinct = statistics.getDistinctKeyCount();
+        assertTrue("distinct: " + distinct, distinct > 100 && distinct < 400);
+
+        FilterImpl f = createFilter(indexed, NT_BASE);
+        PropertyIndexLookup lookup = new PropertyIndexLookup(indexed);
+        double cost;
+
+        // estimated by the sketch
+        cost = lookup.getCost(f, "foo", PropertyValues.newString("a"));
+        assertTrue("cost: " + cost, cost >= 2500 && cost <= 7500);
+
+        // too infrequent for the sketch, so the entries are counted
+        cost = lookup.getCost(f, "foo", PropertyValues.newString("x1"));
+        assertTrue("cost: " + cost, cost >= 6.5 && cost <= 7.5);
+
+        // statistics are not created for an existing index
+        builder = indexed.builder();
+        builder.child(INDEX_DEFINITIONS_NAME).child("foo")
+                .getChildNode(PropertyIndexStatistics.STATISTICS_NODE_NAME).remove();
+        before = builder.getNodeState();
+        builder.child("b").setProperty("foo", "b");
+        indexed = HOOK.processCommit(before, builder.getNodeState(), CommitInfo.EMPTY);
+        definition = indexed.getChildNode(INDEX_DEFINITIONS_NAME).getChildNode("foo");
+        assertFalse(definition.hasChildNode(PropertyIndexStatistics.STATISTICS_NODE_NAME));
+    }
+
     /**
      * This is essentially same test as {@link #costEstimation()} with one difference that it uses
      * path constraint in query and creates similar trees under 2 branches {@code path1} and {@code path2}.
@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.property;
+
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_CONTENT_NODE_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.index.IndexUtils;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
+import org.apache.jackrabbit.oak.query.AbstractQueryTest;
+import org.apache.jackrabbit.oak.spi.lifecycle.RepositoryInitializer;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the range index.
+ */
+public class RangeIndexTest extends AbstractQueryTest {
+
+    private final NodeStore store = new MemoryNodeStore();
+
+    @Override
+    protected ContentRepository createRepository() {
+        return new Oak(store).with(new InitialContent())
+                .with(new RepositoryInitializer() {
+                    @Override
+                    public void initialize(@Nonnull NodeBuilder builder) {
+                        NodeBuilder index = IndexUtils.getOrCreateOakIndex(builder);
+                        createRangeIndex(index, "x", "Long");
+                        createRangeIndex(index, "d", "Double");
+                        createRangeIndex(index, "s", null);
+                        createRangeIndex(index, "date", "Date");
+                        createRangeIndex(index, "dec", "Decimal");
+                    }
+                })
+                .with(new OpenSecurityProvider())
+                .with(new RangeIndexProvider())
+                .with(new RangeIndexEditorProvider())
+                .createContentRepository();
+    }
+
+    private static void createRangeIndex(NodeBuilder index, String name, String type) {
+        NodeBuilder def = IndexUtils.createIndexDefinition(index, name, true,
+                false, ImmutableList.<String>of(name), null);
+        def.setProperty("type", RangeIndex.TYPE);
+        if (type != null) {
+            def.setProperty(RangeIndex.PROPERTY_TYPE, type);
+        }
+    }
+
+    @Before
+    @Override
+    public void before() throws Exception {
+        super.before();
+        Tree t = root.getTree("/").addChild("test");
+        for (int i = -10; i < 30; i++) {
+            Tree n = t.addChild("n" + (i + 10));
+            n.setProperty("x", (long) i * 100);
+            n.setProperty("d", i / 4.0);
+        }
+        root.commit();
+        setTraversalEnabled(false);
+    }
+
+    @Test
+    public void longRange() throws Exception {
+        String query = "select [jcr:path] from [nt:base] where [x] > 500 and [x] <= 800";
+        List<String> lines = executeQuery("explain " + query, SQL2);
+        assertTrue(lines.get(0), lines.get(0).contains("/* range x x (500.."));
+        assertQuery(query, ImmutableList.of("/test/n16", "/test/n17", "/test/n18"));
+        assertQuery("select [jcr:path] from [nt:base] where [x] < -700",
+                ImmutableList.of("/test/n0", "/test/n1", "/test/n2"));
+        assertQuery("select [jcr:path] from [nt:base] where [x] = 0",
+                ImmutableList.of("/test/n10"));
+    }
+
+    @Test
+    public void orderBy() throws Exception {
+        String query = "select [jcr:path] from [nt:base] where [d] >= -1 and [d] < 1 order by [d]";
+        List<String> lines = executeQuery("explain " + query, SQL2);
+        assertTrue(lines.get(0), lines.get(0).contains("ordered ascending"));
+        assertEquals(ImmutableList.of("/test/n6", "/test/n7", "/test/n8", "/test/n9",
+                "/test/n10", "/test/n11", "/test/n12", "/test/n13"),
+                executeQuery(query, SQL2, true, true));
+
+        query = "select [jcr:path] from [nt:base] where [x] is not null order by [x] desc";
+        lines = executeQuery("explain " + query, SQL2);
+        assertTrue(lines.get(0), lines.get(0).contains("ordered descending"));
+        List<String> result = executeQuery(query, SQL2, true, true);
+        assertEquals(40, result.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals("/test/n" + (39 - i), result.get(i));
+        }
+    }
+
+    @Test
+    public void strings() throws Exception {
+        Tree t = root.getTree("/test");
+        String longPrefix = Strings.repeat("x", 100);
+        t.getChild("n0").setProperty("s", "");
+        t.getChild("n1").setProperty("s", "apple");
+        t.getChild("n2").setProperty("s", "banana");
+        t.getChild("n3").setProperty("s", "bär");
+        t.getChild("n4").setProperty("s", ImmutableList.of("cherry", "apricot"), Type.STRINGS);
+        t.getChild("n5").setProperty("s", longPrefix + "b");
+        t.getChild("n6").setProperty("s", longPrefix + "a");
+        root.commit();
+        assertQuery("select [jcr:path] from [nt:base] where [s] like 'ap%'",
+                ImmutableList.of("/test/n1", "/test/n4"));
+        // "cherry" >= 'b' and "apricot" < 'c'
+        assertQuery("select [jcr:path] from [nt:base] where [s] >= 'b' and [s] < 'c'",
+                ImmutableList.of("/test/n2", "/test/n3", "/test/n4"));
+        assertQuery("select [jcr:path] from [nt:base] where [s] = ''",
+                ImmutableList.of("/test/n0"));
+        // the keys of long values are truncated
+        assertEquals(ImmutableList.of("/test/n2", "/test/n3", "/test/n4", "/test/n6", "/test/n5"),
+                executeQuery("select [jcr:path] from [nt:base] where [s] > 'b' order by [s]",
+                        SQL2, true, true));
+    }
+
+    @Test
+    public void dates() throws Exception {
+        Tree t = root.getTree("/test");
+        t.getChild("n0").setProperty("date", "2016-01-01T00:00:00.000Z", Type.DATE);
+        t.getChild("n1").setProperty("date", "2016-01-01T02:00:00.000+01:00", Type.DATE);
+        t.getChild("n2").setProperty("date", "2015-12-31T23:30:00.000-01:00", Type.DATE);
+        root.commit();
+        assertEquals(ImmutableList.of("/test/n2", "/test/n1"), executeQuery(
+                "select [jcr:path] from [nt:base] "
+                + "where [date] > cast('2016-01-01T00:00:00.000Z' as date) order by [date]",
+                SQL2, true, true));
+    }
+
+    @Test
+    public void otherValueTypes() throws Exception {
+        Tree t = root.getTree("/test");
+        t.getChild("n0").setProperty("s", 2L);
+        t.getChild("n1").setProperty("s", 10L);
+        t.getChild("n2").setProperty("s", 9L);
+        t.getChild("n3").setProperty("s", "x");
+        root.commit();
+        // the values are not indexed, as they compare differently than strings
+        NodeState content = store.getRoot().getChildNode("oak:index")
+                .getChildNode("s").getChildNode(INDEX_CONTENT_NODE_NAME);
+        assertEquals(1, content.getChildNodeCount(10));
+
+        // conditions on numbers are not evaluated using the string index
+        setTraversalEnabled(true);
+        String query = "select [jcr:path] from [nt:base] where [s] > 5 and [s] < 100 order by [s]";
+        List<String> lines = executeQuery("explain " + query, SQL2);
+        assertFalse(lines.get(0), lines.get(0).contains("range s"));
+        assertEquals(ImmutableList.of("/test/n2", "/test/n1"),
+                executeQuery(query, SQL2, true, true));
+        query = "select [jcr:path] from [nt:base] where [s] > 'a'";
+        lines = executeQuery("explain " + query, SQL2);
+        assertTrue(lines.get(0), lines.get(0).contains("range s"));
+    }
+
+    @Test
+    public void decimals() throws Exception {
+        Tree t = root.getTree("/test");
+        List<BigDecimal> values = Lists.newArrayList();
+        for (String v : new String[] {"0", "1", "-1", "10", "-10", "0.5", "-0.5",
+                "1.25", "-1.25", "1.2", "-1.2", "123456789012345678901234567890.1",
+                "0.0000000000000000000001", "-0.0000000000000000000001",
+                "1.00000000000000000001", "1.00000000000000000002"}) {
+            values.add(new BigDecimal(v));
+        }
+        for (int i = 0; i < values.size(); i++) {
+            t.getChild("n" + i).setProperty("dec", values.get(i));
+        }
+        root.commit();
+        List<BigDecimal> sorted = Lists.newArrayList(values);
+        Collections.sort(sorted);
+        List<String> expected = Lists.newArrayList();
+        for (BigDecimal v : sorted) {
+            expected.add("/test/n" + values.indexOf(v));
+        }
+        assertEquals(expected, executeQuery(
+                "select [jcr:path] from [nt:base] where [dec] is not null order by [dec]",
+                SQL2, true, true));
+        // 1.00000000000000000001 and 1.00000000000000000002 are equal as doubles
+        assertQuery("select [jcr:path] from [nt:base] "
+                + "where [dec] > cast('1.00000000000000000001' as decimal) and [dec] < 2",
+                ImmutableList.of("/test/n7", "/test/n9", "/test/n15"));
+    }
+
+    @Test
+    public void decimalKeyOrder() {
+        Random r = new Random(1);
+        List<BigDecimal> values = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            BigDecimal v = new BigDecimal(r.nextLong()).movePointLeft(r.nextInt(40) - 20);
+            values.add(r.nextBoolean() ? v : v.setScale(v.scale() + r.nextInt(3)));
+        }
+        for (BigDecimal a : values) {
+            for (BigDecimal b : values) {
+                int expected = Integer.signum(a.compareTo(b));
+                int actual = Integer.signum(RangeIndex.encodeDecimal(a).compareTo(
+                        RangeIndex.encodeDecimal(b)));
+                assertEquals(a + " " + b, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void update() throws Exception {
+        Tree t = root.getTree("/test");
+        t.getChild("n10").setProperty("x", 5000L);
+        t.getChild("n11").removeProperty("x");
+        t.getChild("n12").remove();
+        root.commit();
+        assertQuery("select [jcr:path] from [nt:base] where [x] >= 0 and [x] <= 200",
+                ImmutableList.<String>of());
+        assertQuery("select [jcr:path] from [nt:base] where [x] > 2900",
+                ImmutableList.of("/test/n10"));
+
+        // the buckets of removed keys are removed as well
+        t.remove();
+        root.commit();
+        NodeState content = store.getRoot().getChildNode("oak:index")
+                .getChildNode("x").getChildNode(INDEX_CONTENT_NODE_NAME);
+        assertFalse(content.getChildNodeNames().iterator().hasNext());
+    }
+
+}
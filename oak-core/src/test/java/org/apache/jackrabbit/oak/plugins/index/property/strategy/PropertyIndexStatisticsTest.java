@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index.property.strategy;
+
+import static java.util.Collections.singleton;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_DEFINITIONS_NAME;
+import static org.apache.jackrabbit.oak.plugins.index.IndexUtils.createIndexDefinition;
+import static org.apache.jackrabbit.oak.plugins.index.property.strategy.PropertyIndexStatistics.DISTINCT_KEYS_CHANGE_PREFIX;
+import static org.apache.jackrabbit.oak.plugins.index.property.strategy.PropertyIndexStatistics.KEY_FREQUENCIES_CHANGE_PREFIX;
+import static org.apache.jackrabbit.oak.plugins.index.property.strategy.PropertyIndexStatistics.MAX_CHANGES;
+import static org.apache.jackrabbit.oak.plugins.index.property.strategy.PropertyIndexStatistics.STATISTICS_NODE_NAME;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.plugins.document.DocumentMKBuilderProvider;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.index.IndexUpdateProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvider;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EditorHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Test the property index statistics
+ */
+public class PropertyIndexStatisticsTest {
+
+    private static final CommitHook HOOK = new EditorHook(
+            new IndexUpdateProvider(new PropertyIndexEditorProvider()));
+
+    @Rule
+    public DocumentMKBuilderProvider builderProvider = new DocumentMKBuilderProvider();
+
+    /**
+     * Commits on different cluster nodes that both change the statistics must
+     * not conflict.
+     */
+    @Test
+    public void concurrentUpdates() throws Exception {
+        DocumentNodeStore ns1 = builderProvider.newBuilder()
+                .setClusterId(1).setAsyncDelay(0).getNodeStore();
+        DocumentNodeStore ns2 = builderProvider.newBuilder()
+                .setClusterId(2).setAsyncDelay(0)
+                .setDocumentStore(ns1.getDocumentStore()).getNodeStore();
+
+        NodeBuilder builder = ns1.getRoot().builder();
+        createIndexDefinition(builder.child(INDEX_DEFINITIONS_NAME), "foo",
+                true, false, ImmutableSet.of("foo"), null);
+        // concurrently adding the same key would conflict in the index content
+        builder.child("a").setProperty("foo", "a");
+        builder.child("b").setProperty("foo", "b");
+        ns1.merge(builder, HOOK, CommitInfo.EMPTY);
+        ns1.runBackgroundOperations();
+        ns2.runBackgroundOperations();
+
+        NodeBuilder b1 = ns1.getRoot().builder();
+        NodeBuilder b2 = ns2.getRoot().builder();
+        for (int i = 0; i < 5000; i++) {
+            b1.child("a" + i).setProperty("foo", "a");
+            b2.child("b" + i).setProperty("foo", "b");
+        }
+        for (int i = 0; i < 200; i++) {
+            b1.child("x" + i).setProperty("foo", "x" + i);
+            b2.child("y" + i).setProperty("foo", "y" + i);
+        }
+        ns1.merge(b1, HOOK, CommitInfo.EMPTY);
+        ns2.merge(b2, HOOK, CommitInfo.EMPTY);
+        ns2.runBackgroundOperations();
+        ns1.runBackgroundOperations();
+
+        NodeState definition = ns1.getRoot().getChildNode(
+                INDEX_DEFINITIONS_NAME).getChildNode("foo");
+        PropertyIndexStatistics statistics = PropertyIndexStatistics.read(definition);
+        long distinct = statistics.getDistinctKeyCount();
+        assertTrue("distinct: " + distinct, distinct > 200 && distinct < 800);
+        long count = statistics.estimateCount(singleton("a"));
+        assertTrue("count: " + count, count > 2000 && count < 10000);
+        count = statistics.estimateCount(singleton("b"));
+        assertTrue("count: " + count, count > 2000 && count < 10000);
+    }
+
+    @Test
+    public void changesMerged() throws Exception {
+        NodeBuilder definition = EMPTY_NODE.builder();
+        for (int i = 0; i < 100; i++) {
+            PropertyIndexStatistics statistics =
+                    PropertyIndexStatistics.forUpdate(definition);
+            for (int j = 0; j < 1000; j++) {
+                statistics.keyAdded("a");
+            }
+            statistics.write(definition);
+            int changes = 0;
+            for (PropertyState p : definition.getChildNode(
+                    STATISTICS_NODE_NAME).getProperties()) {
+                if (p.getName().startsWith(DISTINCT_KEYS_CHANGE_PREFIX)
+                        || p.getName().startsWith(KEY_FREQUENCIES_CHANGE_PREFIX)) {
+                    changes++;
+                }
+            }
+            assertTrue("changes: " + changes, changes <= MAX_CHANGES + 2);
+        }
+        long count = PropertyIndexStatistics.read(definition.getNodeState())
+                .estimateCount(singleton("a"));
+        assertTrue("count: " + count, count > 80000 && count < 120000);
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.observation;
+
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.After;
+import org.junit.Test;
+
+public class EventGeneratorTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void after() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void prefetchKeepsEventOrder() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        for (int i = 0; i < 30; i++) {
+            NodeBuilder child = builder.child("a").child("n" + i);
+            for (int j = 0; j < 30; j++) {
+                child.child("c" + j).setProperty("p", j);
+            }
+        }
+        NodeState before = builder.getNodeState();
+
+        builder = before.builder();
+        for (int i = 0; i < 30; i++) {
+            NodeBuilder child = builder.child("a").child("n" + i);
+            child.child("c" + i).remove();
+            child.child("c" + (i + 1) % 30).setProperty("p", "changed");
+            child.child("c" + (i + 2) % 30).setProperty("q", i);
+            child.child("new").child("x").setProperty("p", i);
+        }
+        // enough changes to split the diff over multiple continuations
+        NodeBuilder big = builder.child("big");
+        for (int i = 0; i < 12000; i++) {
+            big.child("n" + i).setProperty("p", i);
+        }
+        NodeState after = builder.getNodeState();
+
+        List<String> expected = generate(new EventGenerator(), before, after);
+        List<String> actual = generate(new EventGenerator(executor), before, after);
+        assertTrue(expected.size() > 36000);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void rejectedPrefetch() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        NodeState before = builder.getNodeState();
+        builder.child("a").child("b").setProperty("p", 1);
+        NodeState after = builder.getNodeState();
+
+        List<String> expected = generate(new EventGenerator(), before, after);
+        executor.shutdown();
+        List<String> actual = generate(new EventGenerator(executor), before, after);
+        assertEquals(expected, actual);
+    }
+
+    private static List<String> generate(EventGenerator generator,
+                                         NodeState before, NodeState after) {
+        List<String> events = Lists.newArrayList();
+        generator.addHandler(before, after, new RecordingHandler("", events));
+        while (!generator.isDone()) {
+            generator.generate();
+        }
+        return events;
+    }
+
+    private static class RecordingHandler extends DefaultEventHandler {
+
+        private final String path;
+
+        private final List<String> events;
+
+        RecordingHandler(String path, List<String> events) {
+            this.path = path;
+            this.events = events;
+        }
+
+        @Override
+        public void enter(NodeState before, NodeState after) {
+            events.add("enter " + path);
+        }
+
+        @Override
+        public void leave(NodeState before, NodeState after) {
+            events.add("leave " + path);
+        }
+
+        @Override
+        public EventHandler getChildHandler(String name, NodeState before, NodeState after) {
+            return new RecordingHandler(path + "/" + name, events);
+        }
+
+        @Override
+        public void propertyAdded(PropertyState after) {
+            events.add("propertyAdded " + path + "/" + after.getName());
+        }
+
+        @Override
+        public void propertyChanged(PropertyState before, PropertyState after) {
+            events.add("propertyChanged " + path + "/" + after.getName());
+        }
+
+        @Override
+        public void propertyDeleted(PropertyState before) {
+            events.add("propertyDeleted " + path + "/" + before.getName());
+        }
+
+        @Override
+        public void nodeAdded(String name, NodeState after) {
+            events.add("nodeAdded " + path + "/" + name);
+        }
+
+        @Override
+        public void nodeDeleted(String name, NodeState before) {
+            events.add("nodeDeleted " + path + "/" + name);
+        }
+    }
+}
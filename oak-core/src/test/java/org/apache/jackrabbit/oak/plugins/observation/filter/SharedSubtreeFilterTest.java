@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.observation.filter;
+
+import static java.util.Collections.singleton;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedSubtreeFilterTest {
+
+    private final SharedSubtreeFilter filter = new SharedSubtreeFilter();
+
+    private NodeState root;
+
+    @Before
+    public void before() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.child("a").child("x");
+        builder.child("b").child("c").child("y");
+        builder.child("d");
+        root = builder.getNodeState();
+        filter.add(ImmutableList.of("/a", "/b/c"));
+        filter.add(singleton("/d"));
+    }
+
+    @Test
+    public void changesInSubtrees() {
+        NodeBuilder builder = root.builder();
+        builder.child("a").child("x").setProperty("p", "v");
+        NodeState after = builder.getNodeState();
+
+        assertTrue(filter.hasChanges(root, after, singleton("/a")));
+        assertFalse(filter.hasChanges(root, after, singleton("/b/c")));
+        assertFalse(filter.hasChanges(root, after, singleton("/d")));
+        assertTrue(filter.hasChanges(root, after, ImmutableList.of("/d", "/a")));
+    }
+
+    @Test
+    public void removedSubtree() {
+        NodeBuilder builder = root.builder();
+        builder.child("b").child("c").remove();
+        NodeState after = builder.getNodeState();
+
+        assertFalse(filter.hasChanges(root, after, singleton("/a")));
+        assertTrue(filter.hasChanges(root, after, singleton("/b/c")));
+    }
+
+    @Test
+    public void changeOnParent() {
+        NodeBuilder builder = root.builder();
+        builder.child("b").setProperty("p", "v");
+        NodeState after = builder.getNodeState();
+
+        assertFalse(filter.hasChanges(root, after, singleton("/b/c")));
+    }
+
+    @Test
+    public void rootSubtree() {
+        // FilterBuilder registers the root as empty path
+        filter.add(singleton(""));
+        NodeBuilder builder = root.builder();
+        builder.child("b").setProperty("p", "v");
+        NodeState after = builder.getNodeState();
+
+        assertTrue(filter.hasChanges(root, after, singleton("")));
+        assertFalse(filter.hasChanges(root, root, singleton("")));
+    }
+
+    @Test
+    public void unregisteredSubtree() {
+        NodeBuilder builder = root.builder();
+        builder.child("a").setProperty("p", "v");
+        NodeState after = builder.getNodeState();
+
+        // not known to the filter, must be treated as changed
+        assertTrue(filter.hasChanges(root, after, singleton("/e")));
+
+        assertFalse(filter.hasChanges(root, after, singleton("/d")));
+        filter.remove(singleton("/d"));
+        assertTrue(filter.hasChanges(root, after, singleton("/d")));
+
+        filter.add(singleton("/e"));
+        assertFalse(filter.hasChanges(root, after, singleton("/e")));
+    }
+}
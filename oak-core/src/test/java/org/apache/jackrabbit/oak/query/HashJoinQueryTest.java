@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests joins that read the right hand side into a hash table.
+ */
+public class HashJoinQueryTest extends AbstractQueryTest {
+
+    private final QueryEngineSettings settings = new QueryEngineSettings();
+
+    @Override
+    protected ContentRepository createRepository() {
+        return new Oak()
+                .with(new OpenSecurityProvider())
+                .with(new InitialContent())
+                .with(settings)
+                .createContentRepository();
+    }
+
+    @Before
+    @Override
+    public void before() throws Exception {
+        super.before();
+        Tree t = root.getTree("/").addChild("test");
+        Tree parents = t.addChild("parents");
+        for (int i = 0; i < 20; i++) {
+            parents.addChild("p" + i).setProperty("id", "id" + i);
+        }
+        Tree children = t.addChild("children");
+        for (int i = 0; i < 50; i++) {
+            Tree c = children.addChild("c" + i);
+            if (i % 7 == 0) {
+                c.setProperty("p", ImmutableList.of("id" + (i % 20), "id" + (i % 3)),
+                        Type.STRINGS);
+            } else {
+                c.setProperty("p", "id" + (i % 25));
+            }
+        }
+        // can't be looked up in the hash table
+        parents.addChild("x").setProperty("id", 11L);
+        root.commit();
+    }
+
+    @Test
+    public void explain() throws Exception {
+        String plan = executeQuery("explain select [p].[jcr:path] from [nt:base] as [p] "
+                + "inner join [nt:base] as [c] on [p].[id] = [c].[p] "
+                + "where isdescendantnode([p], '/test/parents') "
+                + "and isdescendantnode([c], '/test/children')", SQL2).get(0);
+        assertTrue(plan, plan.endsWith("/* hash join */"));
+
+        settings.setHashJoinLimit(0);
+        plan = executeQuery("explain select [p].[jcr:path] from [nt:base] as [p] "
+                + "inner join [nt:base] as [c] on [p].[id] = [c].[p] "
+                + "where isdescendantnode([p], '/test/parents') "
+                + "and isdescendantnode([c], '/test/children')", SQL2).get(0);
+        assertFalse(plan, plan.contains("hash join"));
+    }
+
+    @Test
+    public void sameResultsAsNestedLoop() throws Exception {
+        assertSameResults("select [p].[jcr:path], [c].[jcr:path] from [nt:base] as [p] "
+                + "inner join [nt:base] as [c] on [p].[id] = [c].[p] "
+                + "where isdescendantnode([p], '/test/parents') "
+                + "and isdescendantnode([c], '/test/children')");
+        assertSameResults("select [p].[jcr:path], [c].[jcr:path] from [nt:base] as [c] "
+                + "inner join [nt:base] as [p] on [c].[p] = [p].[id] "
+                + "where isdescendantnode([p], '/test/parents') "
+                + "and isdescendantnode([c], '/test/children') "
+                + "and [c].[p] <> 'id3'");
+        assertSameResults("select [a].[jcr:path], [b].[jcr:path], [c].[jcr:path] "
+                + "from [nt:base] as [a] "
+                + "inner join [nt:base] as [b] on [a].[id] = [b].[p] "
+                + "inner join [nt:base] as [c] on [b].[p] = [c].[p] "
+                + "where isdescendantnode([a], '/test/parents') "
+                + "and isdescendantnode([b], '/test/children') "
+                + "and isdescendantnode([c], '/test/children')");
+    }
+
+    @Test
+    public void valuesThatCantBeHashed() throws Exception {
+        Tree children = root.getTree("/test/children");
+        children.addChild("long").setProperty("p", 11L);
+        children.addChild("date").setProperty("p", "2015-01-01T00:00:00.000Z", Type.DATE);
+        root.commit();
+        // the hash table can't be built: falls back to a nested loop
+        assertSameResults("select [p].[jcr:path], [c].[jcr:path] from [nt:base] as [p] "
+                + "inner join [nt:base] as [c] on [p].[id] = [c].[p] "
+                + "where isdescendantnode([p], '/test/parents') "
+                + "and isdescendantnode([c], '/test/children')");
+    }
+
+    private void assertSameResults(String query) {
+        settings.setHashJoinLimit(10000);
+        List<String> hashed = executeQuery(query, SQL2);
+        settings.setHashJoinLimit(0);
+        List<String> nested = executeQuery(query, SQL2);
+        assertFalse(nested.isEmpty());
+        assertEquals(nested, hashed);
+    }
+
+}
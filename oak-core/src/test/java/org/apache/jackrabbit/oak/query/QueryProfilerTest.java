@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.apache.jackrabbit.oak.api.QueryEngine.NO_BINDINGS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.ResultRow;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the execution profiles of queries.
+ */
+public class QueryProfilerTest extends AbstractQueryTest {
+
+    private final QueryEngineSettings settings = new QueryEngineSettings();
+
+    private final QueryProfiler profiler = settings.getProfiler();
+
+    @Override
+    protected ContentRepository createRepository() {
+        return new Oak()
+                .with(new OpenSecurityProvider())
+                .with(new InitialContent())
+                .with(settings)
+                .createContentRepository();
+    }
+
+    @Before
+    @Override
+    public void before() throws Exception {
+        super.before();
+        Tree t = root.getTree("/").addChild("test");
+        for (int i = 0; i < 30; i++) {
+            t.addChild("n" + i).setProperty("x", (long) i);
+        }
+        root.commit();
+        profiler.resetSlowQueries();
+    }
+
+    @Test
+    public void profile() throws Exception {
+        String query = "select [jcr:path] from [nt:base] as [a] "
+                + "where isdescendantnode([a], '/test') and [a].[x] < 10";
+        assertEquals(10, executeQuery(query, SQL2).size());
+
+        List<QueryProfile> profiles = profiler.getSlowQueryProfiles();
+        assertEquals(1, profiles.size());
+        QueryProfile p = profiles.get(0);
+        assertEquals(query, p.getStatement());
+        assertEquals(SQL2, p.getLanguage());
+        assertEquals(10, p.getRowCount());
+        // the traversal also returns the node "/test"
+        assertEquals(31, p.getReadCount());
+        assertEquals(21, p.getFilteredCount());
+        assertEquals(0, p.getAccessDeniedCount());
+        assertEquals(31, p.getNodeReadCount());
+        assertEquals(p.getDuration(),
+                p.getParseTime() + p.getPrepareTime() + p.getExecuteTime());
+        assertTrue(p.getSelectorInfo(), p.getSelectorInfo().startsWith("a (traverse): read 31"));
+        assertEquals(1, profiler.getSlowQueries().size());
+    }
+
+    @Test
+    public void union() throws Exception {
+        executeQuery("select [jcr:path] from [nt:base] as [a] "
+                + "where isdescendantnode([a], '/test') and [a].[x] < 10 "
+                + "union select [jcr:path] from [nt:base] as [a] "
+                + "where isdescendantnode([a], '/test') and [a].[x] > 25", SQL2);
+        QueryProfile p = profiler.getSlowQueryProfiles().get(0);
+        assertEquals(14, p.getRowCount());
+        assertEquals(62, p.getReadCount());
+        assertEquals(48, p.getFilteredCount());
+    }
+
+    @Test
+    public void onlyCompletedQueries() throws Exception {
+        Iterator<? extends ResultRow> it = executeQuery(
+                "select [jcr:path] from [nt:base] where isdescendantnode('/test')",
+                SQL2, NO_BINDINGS).getRows().iterator();
+        it.next();
+        assertEquals(0, profiler.getSlowQueryProfiles().size());
+        while (it.hasNext()) {
+            it.next();
+        }
+        assertEquals(1, profiler.getSlowQueryProfiles().size());
+    }
+
+    @Test
+    public void slowestQueriesAreKept() throws Exception {
+        profiler.setMaxSlowQueries(3);
+        for (int i = 0; i < 10; i++) {
+            executeQuery("select [jcr:path] from [nt:base] "
+                    + "where isdescendantnode('/test') and [x] = " + i, SQL2);
+        }
+        List<QueryProfile> profiles = profiler.getSlowQueryProfiles();
+        assertEquals(3, profiles.size());
+        for (int i = 1; i < profiles.size(); i++) {
+            assertTrue(profiles.get(i - 1).getDuration() >= profiles.get(i).getDuration());
+        }
+
+        profiler.setMaxSlowQueries(1);
+        assertEquals(1, profiler.getSlowQueryProfiles().size());
+        profiler.resetSlowQueries();
+        assertEquals(0, profiler.getSlowQueryProfiles().size());
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        profiler.setEnabled(false);
+        executeQuery("select [jcr:path] from [nt:base] where isdescendantnode('/test')", SQL2);
+        assertEquals(0, profiler.getSlowQueryProfiles().size());
+    }
+
+}
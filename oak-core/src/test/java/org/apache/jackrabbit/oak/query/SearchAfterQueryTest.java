@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.PropertyValue;
+import org.apache.jackrabbit.oak.api.QueryEngine;
+import org.apache.jackrabbit.oak.api.Result;
+import org.apache.jackrabbit.oak.api.ResultRow;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
+import org.apache.jackrabbit.oak.spi.query.PropertyValues;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests keyset pagination with a sort key to search after.
+ */
+public class SearchAfterQueryTest extends AbstractQueryTest {
+
+    private static final String QUERY = "select [jcr:path], [x], [y] from [nt:base] "
+            + "where isdescendantnode('/test') order by [x] desc, [y]";
+
+    @Override
+    protected ContentRepository createRepository() {
+        return new Oak()
+                .with(new OpenSecurityProvider())
+                .with(new InitialContent())
+                .createContentRepository();
+    }
+
+    @Before
+    @Override
+    public void before() throws Exception {
+        super.before();
+        Tree t = root.getTree("/").addChild("test");
+        for (int i = 0; i < 20; i++) {
+            Tree n = t.addChild("n" + i);
+            n.setProperty("x", (long) (i % 5));
+            n.setProperty("y", (long) i);
+        }
+        root.commit();
+    }
+
+    @Test
+    public void pages() throws Exception {
+        assertEquals(paths(QUERY, Long.MAX_VALUE, null), pageThrough(QUERY, 3));
+    }
+
+    @Test
+    public void union() throws Exception {
+        String union = "select [jcr:path], [x], [y] from [nt:base] "
+                + "where isdescendantnode('/test') and [x] < 2 "
+                + "union select [jcr:path], [x], [y] from [nt:base] "
+                + "where isdescendantnode('/test') and [y] > 10 "
+                + "order by [x] desc, [y]";
+        assertEquals(paths(union, Long.MAX_VALUE, null), pageThrough(union, 4));
+    }
+
+    @Test
+    public void duplicateKeysAreSkipped() throws Exception {
+        String query = "select [jcr:path], [x] from [nt:base] "
+                + "where isdescendantnode('/test') order by [x]";
+        List<PropertyValue> key = Arrays.asList(PropertyValues.newLong(3L));
+        assertEquals(Arrays.asList("/test/n4", "/test/n9", "/test/n14", "/test/n19"),
+                paths(query, Long.MAX_VALUE, key));
+    }
+
+    @Test
+    public void invalidKey() throws Exception {
+        List<PropertyValue> key = Arrays.asList(PropertyValues.newLong(3L));
+        try {
+            paths(QUERY, Long.MAX_VALUE, key);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected: two order by columns
+        }
+        try {
+            paths("select [jcr:path] from [nt:base] where isdescendantnode('/test')",
+                    Long.MAX_VALUE, key);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected: no order by
+        }
+    }
+
+    private List<String> pageThrough(String query, long pageSize) throws Exception {
+        List<String> paths = Lists.newArrayList();
+        List<PropertyValue> key = null;
+        while (true) {
+            Result result = qe.executeQuery(query, SQL2, pageSize, 0, key,
+                    QueryEngine.NO_BINDINGS, QueryEngine.NO_MAPPINGS);
+            ResultRow last = null;
+            for (ResultRow row : result.getRows()) {
+                paths.add(row.getPath());
+                last = row;
+            }
+            if (last == null) {
+                return paths;
+            }
+            key = Arrays.asList(last.getValue("x"), last.getValue("y"));
+        }
+    }
+
+    private List<String> paths(String query, long limit, List<PropertyValue> key)
+            throws Exception {
+        Result result = qe.executeQuery(query, SQL2, limit, 0, key,
+                QueryEngine.NO_BINDINGS, QueryEngine.NO_MAPPINGS);
+        List<String> paths = Lists.newArrayList();
+        for (ResultRow row : result.getRows()) {
+            paths.add(row.getPath());
+        }
+        return paths;
+    }
+}
@@ -36,11 +36,14 @@ import static org.junit.Assert.assertEquals;
 
 public class UnionQueryTest extends AbstractQueryTest {
 
+    private final QueryEngineSettings settings = new QueryEngineSettings();
+
     @Override
     protected ContentRepository createRepository() {
         return new Oak()
                 .with(new OpenSecurityProvider())
                 .with(new InitialContent())
+                .with(settings)
                 .createContentRepository();
     }
 
@@ -96,4 +99,38 @@ public class UnionQueryTest extends AbstractQueryTest {
             assertEquals(rr.getPath(), expected[i++]);
         }
     }
+
+    @Test
+    public void testParallelUnion() throws Exception {
+        Tree t = root.getTree("/UnionQueryTest");
+        for (int i = 0; i < 200; i++) {
+            Tree n = t.addChild("n" + i);
+            n.setProperty("p" + (i % 7), (long) i);
+            n.setProperty("x", (long) (i % 13));
+        }
+        root.commit();
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; i < 7; i++) {
+            if (i > 0) {
+                buff.append(" UNION ");
+            }
+            buff.append("SELECT [jcr:path], [x] FROM [nt:base] AS a "
+                    + "WHERE ISDESCENDANTNODE(a, '/UnionQueryTest') AND [p" + i + "] > 50");
+        }
+        String union = buff.toString();
+        String ordered = union + " ORDER BY [x], [jcr:path]";
+
+        settings.setParallelUnion(false);
+        List<String> serial = executeQuery(union, SQL2);
+        List<String> serialOrdered = executeQuery(ordered, SQL2);
+        assertEquals(149, serial.size());
+        assertEquals(149, serialOrdered.size());
+
+        settings.setParallelUnion(true);
+        assertEquals(serial, executeQuery(union, SQL2));
+        assertEquals(serialOrdered, executeQuery(ordered, SQL2));
+        settings.setPrefetchCount(3);
+        assertEquals(serialOrdered, executeQuery(ordered, SQL2));
+        settings.setPrefetchCount(0);
+    }
 }
@@ -0,0 +1,33 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query.ast;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class JoinImplTest {
+
+    @Test
+    public void perRow() {
+        assertEquals(30, JoinImpl.perRow(3, 10), 0);
+        assertEquals(0, JoinImpl.perRow(0, 10), 0);
+        // no rows on the left hand side: an unusable right hand side costs nothing
+        assertEquals(0, JoinImpl.perRow(0, Double.POSITIVE_INFINITY), 0);
+        assertEquals(Double.POSITIVE_INFINITY, JoinImpl.perRow(1, Double.POSITIVE_INFINITY), 0);
+    }
+}
@@ -22,21 +22,32 @@ package org.apache.jackrabbit.oak.spi.commit;
 import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class BackgroundObserverTest {
     private static final CommitInfo COMMIT_INFO = new CommitInfo("no-session", null);
@@ -45,6 +56,9 @@ public class BackgroundObserverTest {
     private final List<Runnable> assertions = Lists.newArrayList();
     private CountDownLatch doneCounter;
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     /**
      * Assert that each observer of many running concurrently sees the same
      * linearly sequence of commits (i.e. sees the commits in the correct order).
@@ -65,6 +79,110 @@ public class BackgroundObserverTest {
         }
     }
 
+    @Test
+    public void overflowKeepsChanges() throws IOException {
+        File file = folder.newFile();
+        TestResolver resolver = new TestResolver();
+        ManualExecutor executor = new ManualExecutor();
+        RecordingObserver recorder = new RecordingObserver();
+        BackgroundObserver observer = new BackgroundObserver(recorder, executor, 2,
+                new ThrowingHandler(), file, resolver);
+
+        List<NodeState> roots = Lists.newArrayList();
+        List<CommitInfo> infos = Lists.newArrayList();
+        for (int k = 0; k < 10; k++) {
+            NodeState root = EMPTY_NODE.builder().setProperty("p", k).getNodeState();
+            Map<String, Object> info = ImmutableMap.<String, Object>of(
+                    "path", "/" + k, "ignored", k);
+            CommitInfo commitInfo = k % 3 == 0
+                    ? null : new CommitInfo("s" + k, "u" + k, info, k);
+            roots.add(root);
+            infos.add(commitInfo);
+            observer.contentChanged(root, commitInfo);
+        }
+        assertEquals(10, observer.getMBean().getQueueSize());
+        assertTrue(file.length() > 0);
+
+        executor.runAll();
+        assertEquals(roots, recorder.roots);
+        for (int k = 0; k < 10; k++) {
+            CommitInfo expected = infos.get(k);
+            CommitInfo actual = recorder.infos.get(k);
+            if (expected == null) {
+                assertNull(actual);
+            } else if (k < 2) {
+                assertEquals(expected, actual);
+            } else {
+                // only string values are written to the overflow file
+                assertEquals(expected.getSessionId(), actual.getSessionId());
+                assertEquals(expected.getUserId(), actual.getUserId());
+                assertEquals(expected.getDate(), actual.getDate());
+                assertEquals(ImmutableMap.of("path", "/" + k), actual.getInfo());
+            }
+        }
+        assertFalse(file.exists());
+
+        // back to the in-memory queue
+        NodeState root = EMPTY_NODE.builder().setProperty("p", 10).getNodeState();
+        observer.contentChanged(root, COMMIT_INFO);
+        assertFalse(file.exists());
+        executor.runAll();
+        assertEquals(root, recorder.roots.get(10));
+        assertEquals(COMMIT_INFO, recorder.infos.get(10));
+        observer.close();
+    }
+
+    @Test
+    public void overflowMergesUnresolvedChanges() throws IOException {
+        File file = folder.newFile();
+        TestResolver resolver = new TestResolver();
+        ManualExecutor executor = new ManualExecutor();
+        RecordingObserver recorder = new RecordingObserver();
+        BackgroundObserver observer = new BackgroundObserver(recorder, executor, 1,
+                new ThrowingHandler(), file, resolver);
+
+        List<NodeState> roots = Lists.newArrayList();
+        for (int k = 0; k < 6; k++) {
+            NodeState root = EMPTY_NODE.builder().setProperty("p", k).getNodeState();
+            roots.add(root);
+            if (k == 3) {
+                resolver.unresolvable.add(root);
+            }
+            observer.contentChanged(root, COMMIT_INFO);
+        }
+
+        executor.runAll();
+        // changes from the unresolvable one onwards are merged
+        assertEquals(roots.subList(0, 3), recorder.roots.subList(0, 3));
+        assertEquals(roots.get(5), recorder.roots.get(3));
+        assertEquals(4, recorder.roots.size());
+        assertNull(recorder.infos.get(3));
+        assertFalse(file.exists());
+        observer.close();
+    }
+
+    @Test
+    public void overflowCountsSpilledChanges() throws IOException {
+        File file = folder.newFile();
+        ManualExecutor executor = new ManualExecutor();
+        BackgroundObserver observer = new BackgroundObserver(new RecordingObserver(), executor, 2,
+                new ThrowingHandler(), file, new TestResolver());
+
+        for (int k = 0; k < 7; k++) {
+            NodeState root = EMPTY_NODE.builder().setProperty("p", k).getNodeState();
+            observer.contentChanged(root, k % 2 == 0 ? null : COMMIT_INFO);
+        }
+        // 0 and 1 in memory, 2 to 6 in the overflow file
+        assertEquals(7, observer.getMBean().getQueueSize());
+        assertEquals(4, observer.getMBean().getExternalEventCount());
+        assertEquals(3, observer.getMBean().getLocalEventCount());
+
+        executor.runAll();
+        assertEquals(0, observer.getMBean().getExternalEventCount());
+        assertEquals(0, observer.getMBean().getLocalEventCount());
+        observer.close();
+    }
+
     private static void contentChanged(Observer observer, long value) {
         NodeState node = EMPTY_NODE.builder().setProperty("p", value).getNodeState();
         observer.contentChanged(node, COMMIT_INFO);
@@ -126,4 +244,54 @@ public class BackgroundObserverTest {
         }, executor, queueLength);
     }
 
+    private static class TestResolver implements RootStateResolver {
+        final Map<String, NodeState> roots = Maps.newHashMap();
+        final List<NodeState> unresolvable = Lists.newArrayList();
+
+        @Override
+        public String getReference(@Nonnull NodeState root) {
+            String ref = String.valueOf(roots.size());
+            roots.put(ref, root);
+            return ref;
+        }
+
+        @Override
+        public NodeState resolve(@Nonnull String reference) {
+            NodeState root = roots.get(reference);
+            return unresolvable.contains(root) ? null : root;
+        }
+    }
+
+    private static class RecordingObserver implements Observer {
+        final List<NodeState> roots = Lists.newArrayList();
+        final List<CommitInfo> infos = Lists.newArrayList();
+
+        @Override
+        public void contentChanged(@Nonnull NodeState root, @Nullable CommitInfo info) {
+            roots.add(root);
+            infos.add(info);
+        }
+    }
+
+    private static class ManualExecutor implements Executor {
+        final LinkedList<Runnable> tasks = Lists.newLinkedList();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.removeFirst().run();
+            }
+        }
+    }
+
+    private static class ThrowingHandler implements Thread.UncaughtExceptionHandler {
+        @Override
+        public void uncaughtException(Thread t, Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
 }
@@ -18,14 +18,20 @@ package org.apache.jackrabbit.oak.spi.query;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.api.Result.SizePrecision;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
 import org.apache.jackrabbit.oak.query.QueryEngineSettings;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.junit.Test;
 
 /**
@@ -65,6 +71,78 @@ public class CursorsTest {
         }
     }
 
+    @Test
+    public void prefetchCursor() {
+        NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        builder.child("a").child("b");
+        builder.child("c");
+        NodeState root = builder.getNodeState();
+        for (int batchSize = 1; batchSize <= 6; batchSize++) {
+            Cursor a = new SimpleCursor("1:", "/a", "/a/b", "/c", "/d", "/e");
+            Cursor c = Cursors.newPrefetchCursor(a, root, batchSize);
+            assertEquals("1:/a, 1:/a/b, 1:/c, 1:/d, 1:/e", list(c));
+            assertFalse(c.hasNext());
+        }
+        Cursor c = Cursors.newPrefetchCursor(new SimpleCursor("1:"), root, 2);
+        assertEquals("", list(c));
+    }
+
+    @Test
+    public void prefetchCursorExceptions() {
+        Cursor a = new SimpleCursor("1:", "/a", "/b", "/c") {
+            @Override
+            public IndexRow next() {
+                IndexRow row = super.next();
+                if (row.getPath().equals("/c")) {
+                    throw new UnsupportedOperationException("/c");
+                }
+                return row;
+            }
+        };
+        Cursor c = Cursors.newPrefetchCursor(a, EmptyNodeState.EMPTY_NODE, 10);
+        // the rows before the failure are returned first
+        assertEquals("1:/a", c.next().toString());
+        assertEquals("1:/b", c.next().toString());
+        try {
+            c.hasNext();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals("/c", e.getMessage());
+        }
+        assertFalse(c.hasNext());
+        try {
+            c.remove();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void prefetchCursorClose() throws Exception {
+        final AtomicInteger read = new AtomicInteger();
+        String[] paths = new String[100];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = "/" + i;
+        }
+        Cursor a = new SimpleCursor("1:", paths) {
+            @Override
+            public IndexRow next() {
+                read.incrementAndGet();
+                return super.next();
+            }
+        };
+        Cursor c = Cursors.newPrefetchCursor(a, EmptyNodeState.EMPTY_NODE, 2);
+        // nothing is read before the first row is requested
+        assertEquals(0, read.get());
+        assertEquals("1:/0", c.next().toString());
+        ((Closeable) c).close();
+        assertFalse(c.hasNext());
+        // at most the batch read ahead while the first one was consumed
+        Thread.sleep(100);
+        assertTrue(read.get() <= 4);
+    }
+
     static String list(Cursor c) {
         StringBuilder buff = new StringBuilder();
         while (c.hasNext()) {
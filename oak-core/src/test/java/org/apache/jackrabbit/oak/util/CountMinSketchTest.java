@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CountMinSketchTest {
+
+    @Test
+    public void estimate() {
+        Random r = new Random(1);
+        long[] hashes = new long[1000];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = r.nextLong();
+        }
+        CountMinSketch cms = new CountMinSketch(4, 64);
+        // value 0 is frequent, the others are not
+        cms.add(hashes[0], 10000);
+        for (int i = 1; i < hashes.length; i++) {
+            cms.add(hashes[i], 10);
+        }
+        assertEquals(10000 + 999 * 10, cms.getTotal());
+        long frequent = cms.estimate(hashes[0]);
+        assertTrue("" + frequent, frequent >= 10000 && frequent < 11000);
+        assertEquals(10000, cms.estimateCorrected(hashes[0]), 500);
+        long total = 0;
+        long totalCorrected = 0;
+        for (int i = 1; i < hashes.length; i++) {
+            long e = cms.estimate(hashes[i]);
+            assertTrue(e >= 10);
+            total += e;
+            totalCorrected += cms.estimateCorrected(hashes[i]);
+        }
+        // the correction removes most of the collisions
+        assertTrue(total + " " + totalCorrected, totalCorrected < total / 4);
+    }
+
+    @Test
+    public void remove() {
+        CountMinSketch cms = new CountMinSketch(3, 16);
+        cms.add(1, 5);
+        cms.add(1, -3);
+        assertEquals(2, cms.estimate(1));
+        cms.add(1, -10);
+        assertEquals(0, cms.estimate(1));
+        CountMinSketch copy = new CountMinSketch(3, cms.getCounts());
+        assertEquals(16, copy.getWidth());
+        assertEquals(0, copy.getTotal());
+    }
+
+}
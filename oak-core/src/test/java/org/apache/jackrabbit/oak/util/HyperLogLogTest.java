@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void estimate() {
+        Random r = new Random(1);
+        for (int count : new int[] { 0, 10, 100, 1000, 10000, 100000 }) {
+            HyperLogLog hll = new HyperLogLog(256);
+            for (int i = 0; i < count; i++) {
+                hll.add(r.nextLong());
+            }
+            long estimate = hll.estimate();
+            // the standard error is about 6.5%
+            assertTrue(count + " estimated as " + estimate,
+                    Math.abs(estimate - count) <= count / 4 + 1);
+        }
+    }
+
+    @Test
+    public void duplicates() {
+        HyperLogLog hll = new HyperLogLog(64);
+        for (long i = 0; i < 10; i++) {
+            hll.add(i * 0x9e3779b97f4a7c15L);
+        }
+        byte[] registers = hll.getRegisters();
+        for (long i = 0; i < 10; i++) {
+            assertFalse(hll.add(i * 0x9e3779b97f4a7c15L));
+        }
+        HyperLogLog copy = new HyperLogLog(registers);
+        assertEquals(hll.estimate(), copy.estimate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRegisterCount() {
+        new HyperLogLog(100);
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.jcr;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+/**
+ * Extension of the JCR {@link javax.jcr.Session} for reading many items at
+ * once. Sessions of an Oak repository implement this interface.
+ */
+public interface BatchReadSession {
+
+    /**
+     * Returns the nodes at the given absolute paths. This is equivalent to
+     * calling {@link javax.jcr.Session#getNode(String)} for each path, but
+     * all nodes are read from the same revision of the repository within a
+     * single pass over the content tree, where ancestors shared by several
+     * paths are only resolved once.
+     * <p>
+     * The given properties of the returned nodes are read in the same pass,
+     * which allows the underlying node store to load them ahead of the
+     * subsequent {@link Node#getProperty(String)} calls.
+     *
+     * @param absPaths absolute paths of the nodes
+     * @param propertyNames names of the properties to read along with the nodes
+     * @return the existing and accessible nodes by path, in the iteration
+     *         order of {@code absPaths}. Nodes which don't exist or can't
+     *         be read by this session are not contained.
+     * @throws RepositoryException if a path is not absolute or another
+     *         error occurs
+     */
+    @Nonnull
+    Map<String, Node> getNodes(@Nonnull Collection<String> absPaths,
+                               @Nonnull String... propertyNames)
+            throws RepositoryException;
+}
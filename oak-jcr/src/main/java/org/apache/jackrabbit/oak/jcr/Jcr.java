@@ -39,6 +39,8 @@ import org.apache.jackrabbit.oak.plugins.index.nodetype.NodeTypeIndexProvider;
 import org.apache.jackrabbit.oak.plugins.index.property.OrderedPropertyIndexEditorProvider;
 import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvider;
 import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.RangeIndexEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.RangeIndexProvider;
 import org.apache.jackrabbit.oak.plugins.index.reference.ReferenceEditorProvider;
 import org.apache.jackrabbit.oak.plugins.index.reference.ReferenceIndexProvider;
 import org.apache.jackrabbit.oak.plugins.itemsave.ItemSaveValidatorProvider;
@@ -126,9 +128,11 @@ public class Jcr {
         with(new ReferenceIndexProvider());
 
         with(new PropertyIndexEditorProvider());
+        with(new RangeIndexEditorProvider());
         with(new NodeCounterEditorProvider());
 
         with(new PropertyIndexProvider());
+        with(new RangeIndexProvider());
         with(new NodeTypeIndexProvider());
 
         with(new OrderedPropertyIndexEditorProvider());
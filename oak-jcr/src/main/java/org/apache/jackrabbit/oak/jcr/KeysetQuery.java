@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.jcr;
+
+import javax.annotation.Nullable;
+import javax.jcr.Value;
+
+/**
+ * Extension of the JCR {@link javax.jcr.query.Query} for keyset pagination.
+ * Queries of an Oak repository implement this interface.
+ */
+public interface KeysetQuery {
+
+    /**
+     * Only return the rows that sort after the given sort key. The key
+     * contains one value for each column of the "order by" clause, usually
+     * the values of the last row of the previous page. Rows with the same
+     * sort key are skipped as well, so the sort key should be unique.
+     * <p>
+     * Unlike {@link javax.jcr.query.Query#setOffset(long)}, the rows of the
+     * previous pages are not read if the index returns the rows in the
+     * query order, so that all pages can be read at the same cost.
+     *
+     * @param sortKey the values of the "order by" columns, or {@code null}
+     *        to start at the first row
+     */
+    void setSearchAfter(@Nullable Value... sortKey);
+}
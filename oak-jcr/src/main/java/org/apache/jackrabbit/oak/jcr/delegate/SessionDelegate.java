@@ -27,8 +27,15 @@ import static org.apache.jackrabbit.api.stats.RepositoryStatistics.Type.SESSION_
 import static org.apache.jackrabbit.oak.commons.PathUtils.denotesRoot;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -77,6 +84,18 @@ public class SessionDelegate {
     static final Logger readOperationLogger = LoggerFactory.getLogger("org.apache.jackrabbit.oak.jcr.operations.reads");
     static final Logger writeOperationLogger = LoggerFactory.getLogger("org.apache.jackrabbit.oak.jcr.operations.writes");
 
+    /**
+     * Maximum number of reads counted before they are reported to the
+     * repository-wide read counter.
+     */
+    static final int MAX_PENDING_READS = 1000;
+
+    /**
+     * Maximum time in milliseconds reads are counted before they are reported
+     * to the repository-wide read counter.
+     */
+    static final long READ_COUNT_FLUSH_INTERVAL = 100;
+
     private final ContentSession contentSession;
     private final SecurityProvider securityProvider;
     private final RefreshAtNextAccess refreshAtNextAccess = new RefreshAtNextAccess();
@@ -102,6 +121,10 @@ public class SessionDelegate {
     private int sessionOpCount;
     private long updateCount = 0;
 
+    // reads not reported to the repository-wide read counter yet, see readPerformed()
+    private final AtomicLong pendingReadCount = new AtomicLong();
+    private long pendingReadsSince;
+
     private String userData = null;
 
     private PermissionProvider permissionProvider;
@@ -195,6 +218,14 @@ public class SessionDelegate {
      */
     @Nonnull
     public <T> T perform(@Nonnull SessionOperation<T> sessionOperation) throws RepositoryException {
+        if (isNestedRead(sessionOperation)) {
+            long t0 = clock.getTime();
+            try {
+                return sessionOperation.perform();
+            } finally {
+                readPerformed(t0);
+            }
+        }
         long t0 = clock.getTime();
 
         // Acquire the exclusive lock for accessing session internals.
@@ -230,6 +261,14 @@ public class SessionDelegate {
      */
     @Nullable
     public <T> T performNullable(@Nonnull SessionOperation<T> sessionOperation) throws RepositoryException {
+        if (isNestedRead(sessionOperation)) {
+            long t0 = clock.getTime();
+            try {
+                return sessionOperation.performNullable();
+            } finally {
+                readPerformed(t0);
+            }
+        }
         long t0 = clock.getTime();
 
         // Acquire the exclusive lock for accessing session internals.
@@ -261,6 +300,15 @@ public class SessionDelegate {
      * @see #perform(org.apache.jackrabbit.oak.jcr.session.operation.SessionOperation)
      */
     public void performVoid(SessionOperation<Void> sessionOperation) throws RepositoryException {
+        if (isNestedRead(sessionOperation)) {
+            long t0 = clock.getTime();
+            try {
+                sessionOperation.performVoid();
+            } finally {
+                readPerformed(t0);
+            }
+            return;
+        }
         long t0 = clock.getTime();
 
         // Acquire the exclusive lock for accessing session internals.
@@ -395,6 +443,7 @@ public class SessionDelegate {
         }
 
         isAlive = false;
+        flushReadStatistics();
         // TODO
 
         sessionStats.close();
@@ -427,6 +476,47 @@ public class SessionDelegate {
         return tree.exists() ? new NodeDelegate(this, tree) : null;
     }
 
+    /**
+     * Returns the node delegates at the given paths. The paths are resolved
+     * in sorted order, each one starting from the closest ancestor of the
+     * previous one, so that shared ancestors are only looked up once.
+     *
+     * @param paths Oak paths
+     * @param propertyNames Oak names of properties to read along with the nodes
+     * @return the existing nodes by path
+     */
+    @Nonnull
+    public Map<String, NodeDelegate> getNodes(@Nonnull Collection<String> paths,
+                                              @Nonnull Iterable<String> propertyNames) {
+        List<String> sorted = new ArrayList<String>(paths);
+        Collections.sort(sorted);
+        Map<String, NodeDelegate> nodes = new HashMap<String, NodeDelegate>();
+        Tree tree = root.getTree("/");
+        String treePath = "/";
+        for (String path : sorted) {
+            if (nodes.containsKey(path)) {
+                continue;
+            }
+            while (!treePath.equals(path) && !PathUtils.isAncestor(treePath, path)) {
+                tree = tree.getParent();
+                treePath = PathUtils.getParentPath(treePath);
+            }
+            if (!treePath.equals(path)) {
+                for (String name : PathUtils.elements(PathUtils.relativize(treePath, path))) {
+                    tree = tree.getChild(name);
+                }
+                treePath = path;
+            }
+            if (tree.exists()) {
+                for (String name : propertyNames) {
+                    tree.getProperty(name);
+                }
+                nodes.put(path, new NodeDelegate(this, tree));
+            }
+        }
+        return nodes;
+    }
+
     /**
      * Returns the node or property delegate at the given path.
      *
@@ -500,6 +590,7 @@ public class SessionDelegate {
     }
 
     public void refresh(boolean keepChanges) {
+        flushReadStatistics();
         sessionCounters.refreshTime = clock.getTime();
         sessionCounters.refreshCount++;
         if (keepChanges && hasPendingChanges()) {
@@ -621,16 +712,17 @@ public class SessionDelegate {
         long dt = NANOSECONDS.convert(clock.getTime() - t0, MILLISECONDS);
         sessionOpCount--;
         if (op.isUpdate()) {
+            flushReadStatistics();
             sessionCounters.writeTime = t0;
             sessionCounters.writeCount++;
             writeCounter.mark();
             writeDuration.update(dt, TimeUnit.NANOSECONDS);
             updateCount++;
         } else {
-            sessionCounters.readTime = t0;
-            sessionCounters.readCount++;
-            readCounter.mark();
-            readDuration.update(dt, TimeUnit.NANOSECONDS);
+            readPerformed(t0, dt);
+        }
+        if (op.isLogout()) {
+            flushReadStatistics();
         }
         if (op.isSave()) {
             refreshAtNextAccess.refreshAtNextAccess(false);
@@ -643,6 +735,56 @@ public class SessionDelegate {
     }
 
 
+    private void readPerformed(long t0) {
+        readPerformed(t0, NANOSECONDS.convert(clock.getTime() - t0, MILLISECONDS));
+    }
+
+    /**
+     * Updates the statistics for a read operation started at {@code t0} and
+     * taking {@code dt} nanoseconds. Only the repository-wide read counter is
+     * updated in batches, saving the contention on it in hot read paths. A
+     * batch is reported after {@link #MAX_PENDING_READS} reads or once it is
+     * {@link #READ_COUNT_FLUSH_INTERVAL} milliseconds old, whichever comes
+     * first, and before writes, on refresh and on logout. The repository
+     * also reports the batches of idle sessions periodically, see
+     * {@link #flushReadStatistics()}.
+     */
+    private void readPerformed(long t0, long dt) {
+        sessionCounters.readTime = t0;
+        sessionCounters.readCount++;
+        readDuration.update(dt, TimeUnit.NANOSECONDS);
+        long count = pendingReadCount.incrementAndGet();
+        if (count == 1) {
+            pendingReadsSince = t0;
+        }
+        if (count >= MAX_PENDING_READS
+                || t0 - pendingReadsSince >= READ_COUNT_FLUSH_INTERVAL) {
+            flushReadStatistics();
+        }
+    }
+
+    /**
+     * Reports the reads not yet reported to the repository-wide read counter.
+     * This method may be called by any thread, so that the reads of a session
+     * that became idle are reported as well.
+     */
+    public void flushReadStatistics() {
+        long count = pendingReadCount.getAndSet(0);
+        if (count > 0) {
+            readCounter.mark(count);
+        }
+    }
+
+    /**
+     * Nested read-only operations are performed without acquiring the lock:
+     * the calling thread already holds it, and the outer operation takes care
+     * of refreshing the session. They are still counted as reads.
+     */
+    private boolean isNestedRead(@Nonnull SessionOperation<?> op) {
+        return lock.isHeldByCurrentThread() && sessionOpCount > 0
+                && !op.isUpdate() && !op.isRefresh() && !op.isSave() && !op.isLogout();
+    }
+
     private static <T> void logOperationDetails(ContentSession session, SessionOperation<T> ops) {
         if (readOperationLogger.isTraceEnabled()
                 || writeOperationLogger.isTraceEnabled()
@@ -724,30 +866,39 @@ public class SessionDelegate {
      * such a method.
      */
     private static final class WarningLock implements Lock {
-        private final Lock lock;
+        private final ReentrantLock lock;
 
         // All access to members only *after* the lock has been acquired
         private boolean isUpdate;
         private Exception holderTrace;
-        private String holderThread;
+        private Thread holderThread;
 
-        private WarningLock(Lock lock) {
+        private WarningLock(ReentrantLock lock) {
             this.lock = lock;
         }
 
-        public void lock(boolean isUpdate, String opName) {
+        public boolean isHeldByCurrentThread() {
+            return lock.isHeldByCurrentThread();
+        }
+
+        /**
+         * Acquires the lock for the given operation. The {@code op} is only
+         * converted to a string for logging attempts to concurrently use a
+         * session, so that uncontended operations don't pay for it.
+         */
+        public void lock(boolean isUpdate, Object op) {
             if (!lock.tryLock()) {
                 // Acquire the lock before logging the warnings. As otherwise race conditions
                 // on the involved fields might lead to wrong warnings.
                 lock.lock();
                 if (holderThread != null) {
                     if (this.isUpdate) {
-                        warn(log, "Attempted to perform " + opName + " while thread " + holderThread +
+                        warn(log, "Attempted to perform " + op + " while thread " + holderThread.getName() +
                                 " was concurrently writing to this session. Blocked until the " +
                                 "other thread finished using this session. Please review your code " +
                                 "to avoid concurrent use of a session.", holderTrace);
                     } else if (log.isDebugEnabled()) {
-                        log.debug("Attempted to perform " + opName + " while thread " + holderThread +
+                        log.debug("Attempted to perform " + op + " while thread " + holderThread.getName() +
                                 " was concurrently reading from this session. Blocked until the " +
                                 "other thread finished using this session. Please review your code " +
                                 "to avoid concurrent use of a session.", holderTrace);
@@ -758,7 +909,7 @@ public class SessionDelegate {
             if (log.isDebugEnabled()) {
                 holderTrace = new Exception("Stack trace of concurrent access to session");
             }
-            holderThread = Thread.currentThread().getName();
+            holderThread = Thread.currentThread();
         }
 
         private static void warn(Logger logger, String message, Exception stackTrace) {
@@ -770,7 +921,7 @@ public class SessionDelegate {
         }
 
         public void lock(SessionOperation<?> sessionOperation) {
-            lock(sessionOperation.isUpdate(), sessionOperation.toString());
+            lock(sessionOperation.isUpdate(), sessionOperation);
         }
 
         @Override
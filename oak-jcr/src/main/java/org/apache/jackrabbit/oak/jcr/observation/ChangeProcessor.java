@@ -22,15 +22,24 @@ import static com.google.common.base.Preconditions.checkState;
 import static org.apache.jackrabbit.api.stats.RepositoryStatistics.Type.OBSERVATION_EVENT_COUNTER;
 import static org.apache.jackrabbit.api.stats.RepositoryStatistics.Type.OBSERVATION_EVENT_DURATION;
 import static org.apache.jackrabbit.oak.plugins.observation.filter.VisibleFilter.VISIBLE_FILTER;
+import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.getService;
 import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.registerMBean;
 import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.registerObserver;
 import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.scheduleWithFixedDelay;
 
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.jcr.observation.Event;
@@ -40,6 +49,7 @@ import javax.jcr.observation.EventListener;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Monitor;
 import com.google.common.util.concurrent.Monitor.Guard;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.jackrabbit.api.jmx.EventListenerMBean;
 import org.apache.jackrabbit.commons.observation.ListenerTracker;
 import org.apache.jackrabbit.oak.api.ContentSession;
@@ -49,10 +59,12 @@ import org.apache.jackrabbit.oak.plugins.observation.filter.EventFilter;
 import org.apache.jackrabbit.oak.plugins.observation.filter.FilterConfigMBean;
 import org.apache.jackrabbit.oak.plugins.observation.filter.FilterProvider;
 import org.apache.jackrabbit.oak.plugins.observation.filter.Filters;
+import org.apache.jackrabbit.oak.plugins.observation.filter.SharedSubtreeFilter;
 import org.apache.jackrabbit.oak.spi.commit.BackgroundObserver;
 import org.apache.jackrabbit.oak.spi.commit.BackgroundObserverMBean;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.commit.RootStateResolver;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.whiteboard.CompositeRegistration;
 import org.apache.jackrabbit.oak.spi.whiteboard.Registration;
@@ -92,6 +104,48 @@ class ChangeProcessor implements Observer {
 
     private static final AtomicInteger COUNTER = new AtomicInteger();
 
+    /**
+     * Number of threads computing the content diffs of large changes ahead
+     * of event generation, shared by all change processors. Zero (the
+     * default) disables parallel diffs.
+     */
+    static final int DIFF_THREADS = Integer.getInteger("oak.observation.diffThreads", 0);
+
+    /**
+     * Executor for the content diffs computed ahead of event generation,
+     * shared by all started change processors, or {@code null} if there
+     * are none. Diffs are simply computed by the event generating thread
+     * when the work queue is full. Guarded by {@code ChangeProcessor.class}.
+     */
+    private static ThreadPoolExecutor diffExecutor;
+
+    /**
+     * The number of started change processors using the {@code diffExecutor}.
+     * Guarded by {@code ChangeProcessor.class}.
+     */
+    private static int diffExecutorUsers;
+
+    /**
+     * Directory for the overflow files of the observation queues. Changes
+     * not fitting into a full queue are written there instead of being
+     * compacted, if the node store is a {@link RootStateResolver}. The
+     * directory must not be shared with other repository instances: overflow
+     * files left over from a previous run are deleted when the first one is
+     * created.
+     */
+    @CheckForNull
+    static final String OVERFLOW_DIR = System.getProperty("oak.observation.overflowDir");
+
+    private static final String OVERFLOW_FILE_PREFIX = "oak-observation-";
+
+    private static final String OVERFLOW_FILE_SUFFIX = ".queue";
+
+    /**
+     * Whether overflow files of a previous run were already deleted.
+     * Guarded by {@code ChangeProcessor.class}.
+     */
+    private static boolean staleOverflowFilesDeleted;
+
     /**
      * JMX ObjectName property storing the listenerId which allows
      * to correlate various mbeans
@@ -109,6 +163,19 @@ class ChangeProcessor implements Observer {
     private final int queueLength;
     private final CommitRateLimiter commitRateLimiter;
 
+    /**
+     * Shared pre-filter for the subtrees of all listeners, or {@code null}
+     * if every change is passed to the filter of this listener.
+     */
+    @CheckForNull
+    private final SharedSubtreeFilter subtreeFilter;
+
+    /**
+     * Whether the subtrees of the filter provider are currently added to
+     * the {@code subtreeFilter}. Guarded by {@code this}.
+     */
+    private boolean subtreesAdded;
+
     /**
      * Lazy initialization via the {@link #start(Whiteboard)} method
      */
@@ -121,6 +188,13 @@ class ChangeProcessor implements Observer {
 
     private volatile NodeState previousRoot;
 
+    /**
+     * The executor for the content diffs of this change processor, or
+     * {@code null} if parallel diffs are disabled.
+     */
+    @CheckForNull
+    private volatile Executor prefetchExecutor;
+
     public ChangeProcessor(
             ContentSession contentSession,
             NamePathMapper namePathMapper,
@@ -128,7 +202,8 @@ class ChangeProcessor implements Observer {
             FilterProvider filter,
             StatisticManager statisticManager,
             int queueLength,
-            CommitRateLimiter commitRateLimiter) {
+            CommitRateLimiter commitRateLimiter,
+            @Nullable SharedSubtreeFilter subtreeFilter) {
         this.contentSession = contentSession;
         this.namePathMapper = namePathMapper;
         this.tracker = tracker;
@@ -139,14 +214,19 @@ class ChangeProcessor implements Observer {
         this.maxQueueLength = statisticManager.maxQueLengthRecorder();
         this.queueLength = queueLength;
         this.commitRateLimiter = commitRateLimiter;
+        this.subtreeFilter = subtreeFilter;
     }
 
     /**
      * Set the filter for the events this change processor will generate.
      * @param filter
      */
-    public void setFilterProvider(FilterProvider filter) {
-        filterProvider.set(filter);
+    public synchronized void setFilterProvider(FilterProvider filter) {
+        FilterProvider previous = filterProvider.getAndSet(filter);
+        if (subtreesAdded) {
+            subtreeFilter.add(filter.getSubTrees());
+            subtreeFilter.remove(previous.getSubTrees());
+        }
     }
 
     /**
@@ -159,8 +239,13 @@ class ChangeProcessor implements Observer {
         checkState(registration == null, "Change processor started already");
         final WhiteboardExecutor executor = new WhiteboardExecutor();
         executor.start(whiteboard);
-        final BackgroundObserver observer = createObserver(executor);
+        final BackgroundObserver observer = createObserver(executor, whiteboard);
         listenerId = COUNTER.incrementAndGet() + "";
+        prefetchExecutor = acquireDiffExecutor();
+        if (subtreeFilter != null) {
+            subtreeFilter.add(filterProvider.get().getSubTrees());
+            subtreesAdded = true;
+        }
         Map<String, String> attrs = ImmutableMap.of(LISTENER_ID, listenerId);
         String name = tracker.toString();
         registration = new CompositeRegistration(
@@ -179,12 +264,27 @@ class ChangeProcessor implements Observer {
                     observer.close();
                 }
             },
+            new Registration() {
+                @Override
+                public void unregister() {
+                    removeSubtrees();
+                }
+            },
             new Registration() {
                 @Override
                 public void unregister() {
                     executor.stop();
                 }
             },
+            new Registration() {
+                @Override
+                public void unregister() {
+                    if (prefetchExecutor != null) {
+                        prefetchExecutor = null;
+                        releaseDiffExecutor();
+                    }
+                }
+            },
             scheduleWithFixedDelay(whiteboard, new Runnable() {
                 @Override
                 public void run() {
@@ -194,8 +294,24 @@ class ChangeProcessor implements Observer {
         );
     }
 
-    private BackgroundObserver createObserver(final WhiteboardExecutor executor) {
-        return new BackgroundObserver(this, executor, queueLength) {
+    private BackgroundObserver createObserver(final WhiteboardExecutor executor,
+                                              Whiteboard whiteboard) {
+        RootStateResolver resolver = null;
+        File overflowFile = null;
+        if (OVERFLOW_DIR != null) {
+            resolver = getService(whiteboard, RootStateResolver.class);
+            if (resolver != null) {
+                overflowFile = createOverflowFile();
+            }
+        }
+        UncaughtExceptionHandler exceptionHandler = new UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                LOG.error("Uncaught exception in " + ChangeProcessor.this, e);
+            }
+        };
+        return new BackgroundObserver(this, executor, queueLength,
+                exceptionHandler, overflowFile, resolver) {
             private volatile long delay;
             private volatile boolean blocking;
 
@@ -306,10 +422,12 @@ class ChangeProcessor implements Observer {
                 long start = PERF_LOGGER.start();
                 FilterProvider provider = filterProvider.get();
                 // FIXME don't rely on toString for session id
-                if (provider.includeCommit(contentSession.toString(), info)) {
+                if (provider.includeCommit(contentSession.toString(), info)
+                        && hasChanges(provider, previousRoot, root)) {
                     EventFilter filter = provider.getFilter(previousRoot, root);
                     EventIterator events = new EventQueue(namePathMapper, info, previousRoot, root,
-                            provider.getSubTrees(), Filters.all(filter, VISIBLE_FILTER));
+                            provider.getSubTrees(), Filters.all(filter, VISIBLE_FILTER),
+                            prefetchExecutor);
 
                     if (events.hasNext() && runningMonitor.enterIf(running)) {
                         try {
@@ -331,6 +449,100 @@ class ChangeProcessor implements Observer {
         previousRoot = root;
     }
 
+    /**
+     * Returns the shared diff executor, creating it for the first user.
+     * Tasks are rejected when its work queue is full.
+     *
+     * @return the executor, or {@code null} if parallel diffs are disabled
+     */
+    @CheckForNull
+    private static synchronized Executor acquireDiffExecutor() {
+        if (DIFF_THREADS <= 0) {
+            return null;
+        }
+        if (diffExecutorUsers++ == 0) {
+            diffExecutor = new ThreadPoolExecutor(
+                    DIFF_THREADS, DIFF_THREADS, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(1000),
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("oak-observation-diff-%d").build(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            diffExecutor.allowCoreThreadTimeOut(true);
+        }
+        return diffExecutor;
+    }
+
+    /**
+     * Shuts the shared diff executor down once the last user released it.
+     * Diffs not yet started are then computed by the generating thread.
+     */
+    private static synchronized void releaseDiffExecutor() {
+        if (--diffExecutorUsers == 0) {
+            diffExecutor.shutdownNow();
+            diffExecutor = null;
+        }
+    }
+
+    @CheckForNull
+    private static synchronized File createOverflowFile() {
+        File dir = new File(OVERFLOW_DIR);
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create directory " + dir);
+            }
+            if (!staleOverflowFilesDeleted) {
+                deleteStaleOverflowFiles(dir);
+                staleOverflowFilesDeleted = true;
+            }
+            return File.createTempFile(OVERFLOW_FILE_PREFIX, OVERFLOW_FILE_SUFFIX, dir);
+        } catch (IOException e) {
+            LOG.warn("Unable to create observation overflow file in " + dir
+                    + ", changes will be compacted", e);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the overflow files left over by a previous run, which was not
+     * shut down cleanly. The changes in these files can't be delivered anymore.
+     */
+    private static void deleteStaleOverflowFiles(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(OVERFLOW_FILE_PREFIX)
+                        && name.endsWith(OVERFLOW_FILE_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.delete()) {
+                LOG.info("Deleted stale observation overflow file {}", file);
+            } else {
+                LOG.warn("Unable to delete stale observation overflow file {}", file);
+            }
+        }
+    }
+
+    private synchronized void removeSubtrees() {
+        if (subtreesAdded) {
+            subtreeFilter.remove(filterProvider.get().getSubTrees());
+            subtreesAdded = false;
+        }
+    }
+
+    /**
+     * @return {@code false} if the change is outside of the subtrees of
+     *          the given filter provider
+     */
+    private boolean hasChanges(FilterProvider provider,
+                               NodeState before, NodeState after) {
+        return subtreeFilter == null
+                || subtreeFilter.hasChanges(before, after, provider.getSubTrees());
+    }
+
     private static class CountingIterator implements EventIterator {
         private final long t0 = System.nanoTime();
         private final EventIterator events;
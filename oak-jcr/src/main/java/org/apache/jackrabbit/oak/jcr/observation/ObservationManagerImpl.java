@@ -24,6 +24,7 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
 import static org.apache.jackrabbit.oak.plugins.observation.filter.GlobbingPathFilter.STAR;
 import static org.apache.jackrabbit.oak.plugins.observation.filter.GlobbingPathFilter.STAR_STAR;
+import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.getService;
 
 import java.security.Principal;
 import java.util.HashMap;
@@ -59,6 +60,7 @@ import org.apache.jackrabbit.oak.plugins.observation.filter.FilterBuilder.Condit
 import org.apache.jackrabbit.oak.plugins.observation.filter.FilterProvider;
 import org.apache.jackrabbit.oak.plugins.observation.filter.PermissionProviderFactory;
 import org.apache.jackrabbit.oak.plugins.observation.filter.Selectors;
+import org.apache.jackrabbit.oak.plugins.observation.filter.SharedSubtreeFilter;
 import org.apache.jackrabbit.oak.spi.commit.Observable;
 import org.apache.jackrabbit.oak.spi.security.authorization.AuthorizationConfiguration;
 import org.apache.jackrabbit.oak.spi.security.authorization.permission.PermissionProvider;
@@ -79,6 +81,13 @@ public class ObservationManagerImpl implements JackrabbitObservationManager {
     private static final Marker DEPRECATED =
             MarkerFactory.getMarker("deprecated");
 
+    /**
+     * Whether listeners skip changes outside of their subtrees with the
+     * {@link SharedSubtreeFilter} of the repository.
+     */
+    private static final boolean SHARED_SUBTREE_FILTER = Boolean.parseBoolean(
+            System.getProperty("oak.observation.sharedSubtreeFilter", "true"));
+
     private final Map<EventListener, ChangeProcessor> processors =
             new HashMap<EventListener, ChangeProcessor>();
 
@@ -91,6 +100,7 @@ public class ObservationManagerImpl implements JackrabbitObservationManager {
     private final int queueLength;
     private final CommitRateLimiter commitRateLimiter;
     private final PermissionProviderFactory permissionProviderFactory;
+    private final SharedSubtreeFilter subtreeFilter;
 
     /**
      * Create a new instance based on a {@link ContentSession} that needs to implement
@@ -114,6 +124,8 @@ public class ObservationManagerImpl implements JackrabbitObservationManager {
         this.statisticManager = sessionContext.getStatisticManager();
         this.queueLength = queueLength;
         this.commitRateLimiter = commitRateLimiter;
+        this.subtreeFilter = SHARED_SUBTREE_FILTER
+                ? getService(whiteboard, SharedSubtreeFilter.class) : null;
         this.permissionProviderFactory = new PermissionProviderFactory() {
             Set<Principal> principals = sessionDelegate.getAuthInfo().getPrincipals();
             @Nonnull
@@ -150,7 +162,7 @@ public class ObservationManagerImpl implements JackrabbitObservationManager {
             // session. See OAK-1368.
             processor = new ChangeProcessor(sessionDelegate.getContentSession(), namePathMapper,
                     tracker, filterProvider, statisticManager, queueLength,
-                    commitRateLimiter);
+                    commitRateLimiter, subtreeFilter);
             processors.put(listener, processor);
             processor.start(whiteboard);
         } else {
@@ -35,6 +35,7 @@ import javax.jcr.version.VersionException;
 
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.jcr.KeysetQuery;
 import org.apache.jackrabbit.oak.jcr.delegate.NodeDelegate;
 import org.apache.jackrabbit.oak.jcr.session.NodeImpl;
 import org.apache.jackrabbit.oak.jcr.session.SessionContext;
@@ -43,7 +44,7 @@ import org.apache.jackrabbit.oak.jcr.session.operation.SessionOperation;
 /**
  * The implementation of the corresponding JCR interface.
  */
-public class QueryImpl implements Query {
+public class QueryImpl implements Query, KeysetQuery {
 
     private final SessionContext sessionContext;
     private final QueryManagerImpl manager;
@@ -52,6 +53,7 @@ public class QueryImpl implements Query {
     private final String statement;
     private long limit = Long.MAX_VALUE;
     private long offset;
+    private Value[] searchAfter;
     private boolean parsed;
     private String storedQueryPath;
 
@@ -102,7 +104,7 @@ public class QueryImpl implements Query {
                     @Override
                     public QueryResult perform() throws RepositoryException {
                         return manager.executeQuery(statement, language, limit,
-                                offset, bindVariableMap);
+                                offset, searchAfter, bindVariableMap);
                     }
                 });
     }
@@ -149,6 +151,11 @@ public class QueryImpl implements Query {
         this.offset = offset;
     }
 
+    @Override
+    public void setSearchAfter(Value... sortKey) {
+        this.searchAfter = sortKey == null ? null : sortKey.clone();
+    }
+
     @Override
     public Node storeAsNode(String absPath) throws RepositoryException {
         manager.ensureIsAlive();
@@ -128,11 +128,25 @@ public class QueryManagerImpl implements QueryManager {
 
     public QueryResult executeQuery(String statement, String language,
             long limit, long offset, HashMap<String, Value> bindVariableMap) throws RepositoryException {
+        return executeQuery(statement, language, limit, offset, null, bindVariableMap);
+    }
+
+    public QueryResult executeQuery(String statement, String language,
+            long limit, long offset, Value[] searchAfter,
+            HashMap<String, Value> bindVariableMap) throws RepositoryException {
         try {
             Map<String, PropertyValue> bindMap = convertMap(bindVariableMap);
+            List<PropertyValue> sortKey = null;
+            if (searchAfter != null) {
+                sortKey = new ArrayList<PropertyValue>(searchAfter.length);
+                for (Value v : searchAfter) {
+                    sortKey.add(PropertyValues.create(
+                            PropertyStates.createProperty("", v)));
+                }
+            }
             TimerStats.Context context = queryDuration.time();
             Result r = queryEngine.executeQuery(
-                    statement, language, limit, offset, bindMap,
+                    statement, language, limit, offset, sortKey, bindMap,
                     sessionContext.getSessionLocalMappings());
             queryCount.mark();
             long nanos = context.stop();
@@ -22,7 +22,11 @@ import static java.util.Collections.singletonMap;
 import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.registerMBean;
 
 import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -43,6 +47,7 @@ import javax.jcr.Value;
 import javax.security.auth.login.LoginException;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.api.JackrabbitRepository;
@@ -58,6 +63,7 @@ import org.apache.jackrabbit.oak.jcr.session.RefreshStrategy.Composite;
 import org.apache.jackrabbit.oak.jcr.session.SessionContext;
 import org.apache.jackrabbit.oak.jcr.session.SessionStats;
 import org.apache.jackrabbit.oak.plugins.observation.CommitRateLimiter;
+import org.apache.jackrabbit.oak.plugins.observation.filter.SharedSubtreeFilter;
 import org.apache.jackrabbit.oak.spi.gc.DelegatingGCMonitor;
 import org.apache.jackrabbit.oak.spi.gc.GCMonitor;
 import org.apache.jackrabbit.oak.spi.security.SecurityProvider;
@@ -104,6 +110,7 @@ public class RepositoryImpl implements JackrabbitRepository {
     private final Clock.Fast clock;
     private final DelegatingGCMonitor gcMonitor = new DelegatingGCMonitor();
     private final Registration gcMonitorRegistration;
+    private final Registration subtreeFilterRegistration;
 
     /**
      * {@link ThreadLocal} counter that keeps track of the save operations
@@ -123,6 +130,16 @@ public class RepositoryImpl implements JackrabbitRepository {
 
     private final StatisticManager statisticManager;
 
+    /**
+     * The sessions not logged out yet, whose pending read statistics are
+     * reported periodically. Sessions that are not logged out are removed
+     * when they are garbage collected.
+     */
+    private final Set<SessionDelegate> liveSessions = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<SessionDelegate, Boolean>()));
+
+    private final ScheduledFuture<?> readStatisticsTask;
+
     /**
      * Constructor used for backward compatibility.
      */
@@ -150,7 +167,15 @@ public class RepositoryImpl implements JackrabbitRepository {
         this.statisticManager = new StatisticManager(whiteboard, scheduledExecutor);
         this.clock = new Clock.Fast(scheduledExecutor);
         this.gcMonitorRegistration = whiteboard.register(GCMonitor.class, gcMonitor, emptyMap());
+        this.subtreeFilterRegistration = whiteboard.register(
+                SharedSubtreeFilter.class, new SharedSubtreeFilter(), emptyMap());
         this.fastQueryResultSize = fastQueryResultSize;
+        this.readStatisticsTask = scheduledExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushReadStatistics();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
     }
 
     //---------------------------------------------------------< Repository >---
@@ -296,7 +321,7 @@ public class RepositoryImpl implements JackrabbitRepository {
         final RefreshOnGC refreshOnGC = new RefreshOnGC(gcMonitor);
         refreshStrategy = Composite.create(refreshStrategy, refreshOnGC);
 
-        return new SessionDelegate(
+        SessionDelegate sessionDelegate = new SessionDelegate(
                 contentSession, securityProvider, refreshStrategy,
                 threadSaveCount, statisticManager, clock) {
             // Defer session MBean registration to avoid cluttering the
@@ -310,15 +335,34 @@ public class RepositoryImpl implements JackrabbitRepository {
                 // Cancel session MBean registration
                 registrationTask.cancel();
                 scheduledTask.cancel(false);
+                liveSessions.remove(this);
                 super.logout();
             }
         };
+        liveSessions.add(sessionDelegate);
+        return sessionDelegate;
+    }
+
+    /**
+     * Reports the reads of the live sessions not reported yet, so that the
+     * read statistics don't lag behind for idle sessions.
+     */
+    private void flushReadStatistics() {
+        List<SessionDelegate> sessions;
+        synchronized (liveSessions) {
+            sessions = Lists.newArrayList(liveSessions);
+        }
+        for (SessionDelegate session : sessions) {
+            session.flushReadStatistics();
+        }
     }
 
     @Override
     public void shutdown() {
+        readStatisticsTask.cancel(false);
         statisticManager.dispose();
         gcMonitorRegistration.unregister();
+        subtreeFilterRegistration.unregister();
         clock.close();
         new ExecutorCloser(scheduledExecutor).close();
         if (contentRepository instanceof Closeable) {
@@ -17,6 +17,8 @@
 package org.apache.jackrabbit.oak.jcr.session;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayListWithCapacity;
+import static com.google.common.collect.Maps.newLinkedHashMap;
 import static com.google.common.collect.Sets.newTreeSet;
 import static org.apache.jackrabbit.api.stats.RepositoryStatistics.Type.SESSION_COUNT;
 import static org.apache.jackrabbit.oak.commons.PathUtils.getParentPath;
@@ -25,7 +27,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.AccessControlException;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.CheckForNull;
@@ -59,6 +64,7 @@ import org.apache.jackrabbit.commons.xml.SystemViewExporter;
 import org.apache.jackrabbit.commons.xml.ToXmlContentHandler;
 import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.jcr.BatchReadSession;
 import org.apache.jackrabbit.oak.jcr.delegate.ItemDelegate;
 import org.apache.jackrabbit.oak.jcr.delegate.NodeDelegate;
 import org.apache.jackrabbit.oak.jcr.delegate.PropertyDelegate;
@@ -78,7 +84,7 @@ import org.xml.sax.SAXException;
 /**
  * TODO document
  */
-public class SessionImpl implements JackrabbitSession {
+public class SessionImpl implements JackrabbitSession, BatchReadSession {
     private static final Logger log = LoggerFactory.getLogger(SessionImpl.class);
 
     private SessionContext sessionContext;
@@ -230,6 +236,46 @@ public class SessionImpl implements JackrabbitSession {
         });
     }
 
+    //---------------------------------------------------< BatchReadSession >---
+
+    @Override
+    @Nonnull
+    public Map<String, Node> getNodes(@Nonnull final Collection<String> absPaths,
+                                      @Nonnull final String... propertyNames)
+            throws RepositoryException {
+        checkNotNull(absPaths);
+        checkNotNull(propertyNames);
+        checkAlive();
+        return sd.perform(new ReadOperation<Map<String, Node>>("getNodes") {
+            @Nonnull
+            @Override
+            public Map<String, Node> perform() throws RepositoryException {
+                Map<String, String> oakPaths = newLinkedHashMap();
+                for (String absPath : absPaths) {
+                    try {
+                        oakPaths.put(absPath, getOakPathOrThrow(absPath));
+                    } catch (PathNotFoundException e) {
+                        // not a valid path, hence no such node
+                    }
+                }
+                List<String> oakNames = newArrayListWithCapacity(propertyNames.length);
+                for (String name : propertyNames) {
+                    oakNames.add(sessionContext.getOakName(name));
+                }
+
+                Map<String, NodeDelegate> delegates = sd.getNodes(oakPaths.values(), oakNames);
+                Map<String, Node> nodes = newLinkedHashMap();
+                for (Map.Entry<String, String> entry : oakPaths.entrySet()) {
+                    NodeDelegate nd = delegates.get(entry.getValue());
+                    if (nd != null) {
+                        nodes.put(entry.getKey(), NodeImpl.createNode(nd, sessionContext));
+                    }
+                }
+                return nodes;
+            }
+        });
+    }
+
     //------------------------------------------------------------< Session >---
 
     @Override
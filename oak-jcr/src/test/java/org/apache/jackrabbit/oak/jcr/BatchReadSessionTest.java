@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.jcr;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.jackrabbit.oak.fixture.NodeStoreFixture;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchReadSessionTest extends AbstractRepositoryTest {
+
+    public BatchReadSessionTest(NodeStoreFixture fixture) {
+        super(fixture);
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = getAdminSession();
+        Node test = session.getRootNode().addNode("test");
+        Node a = test.addNode("a");
+        a.setProperty("title", "a");
+        a.addNode("b").setProperty("title", "b");
+        test.addNode("a-c").addNode("d");
+        test.addNode("e");
+        session.save();
+    }
+
+    @Test
+    public void getNodes() throws RepositoryException {
+        BatchReadSession session = (BatchReadSession) getAdminSession();
+        Map<String, Node> nodes = session.getNodes(asList(
+                "/test/e", "/test/a/b", "/test/missing/x", "/test/a-c/d",
+                "/", "/test/a", "/test/missing"), "title", "jcr:primaryType");
+
+        assertEquals(ImmutableList.of("/test/e", "/test/a/b", "/test/a-c/d", "/", "/test/a"),
+                ImmutableList.copyOf(nodes.keySet()));
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().getPath());
+        }
+        assertEquals("b", nodes.get("/test/a/b").getProperty("title").getString());
+        assertTrue(nodes.get("/").isSame(getAdminSession().getRootNode()));
+    }
+
+    @Test
+    public void duplicatePaths() throws RepositoryException {
+        BatchReadSession session = (BatchReadSession) getAdminSession();
+        Map<String, Node> nodes = session.getNodes(asList(
+                "/test/a", "/test/./a", "/test/a/b/.."));
+        assertEquals(3, nodes.size());
+        for (Node node : nodes.values()) {
+            assertEquals("/test/a", node.getPath());
+        }
+    }
+
+    @Test
+    public void transientChanges() throws RepositoryException {
+        Session admin = getAdminSession();
+        admin.getNode("/test/e").addNode("f");
+        admin.getNode("/test/a/b").remove();
+
+        Map<String, Node> nodes = ((BatchReadSession) admin).getNodes(asList(
+                "/test/e/f", "/test/a/b"));
+        assertEquals(ImmutableList.of("/test/e/f"), ImmutableList.copyOf(nodes.keySet()));
+        assertTrue(nodes.get("/test/e/f").isNew());
+    }
+
+    @Test
+    public void relativePath() throws RepositoryException {
+        try {
+            ((BatchReadSession) getAdminSession()).getNodes(asList("/test", "test/a"));
+            fail("relative path must not be accepted");
+        } catch (RepositoryException e) {
+            // expected
+        }
+    }
+}
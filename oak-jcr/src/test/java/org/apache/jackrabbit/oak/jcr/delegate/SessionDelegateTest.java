@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.jcr.delegate;
+
+import static org.apache.jackrabbit.api.stats.RepositoryStatistics.Type.SESSION_READ_COUNTER;
+import static org.apache.jackrabbit.api.stats.RepositoryStatistics.Type.SESSION_READ_DURATION;
+import static org.apache.jackrabbit.oak.jcr.delegate.SessionDelegate.MAX_PENDING_READS;
+import static org.apache.jackrabbit.oak.jcr.delegate.SessionDelegate.READ_COUNT_FLUSH_INTERVAL;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.Nonnull;
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.jcr.session.RefreshStrategy;
+import org.apache.jackrabbit.oak.jcr.session.operation.SessionOperation;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.apache.jackrabbit.oak.spi.whiteboard.Whiteboard;
+import org.apache.jackrabbit.oak.stats.Clock;
+import org.apache.jackrabbit.oak.stats.DefaultStatisticsProvider;
+import org.apache.jackrabbit.oak.stats.MeterStats;
+import org.apache.jackrabbit.oak.stats.StatisticManager;
+import org.apache.jackrabbit.oak.stats.StatisticsProvider;
+import org.apache.jackrabbit.oak.stats.StatsOptions;
+import org.apache.jackrabbit.oak.stats.TimerStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionDelegateTest {
+
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private final DefaultStatisticsProvider statistics =
+            new DefaultStatisticsProvider(executor);
+
+    private final ManualClock clock = new ManualClock();
+
+    private StatisticManager statisticManager;
+
+    private SessionDelegate sd;
+
+    @Before
+    public void before() throws Exception {
+        Oak oak = new Oak().with(new OpenSecurityProvider());
+        Whiteboard whiteboard = oak.getWhiteboard();
+        whiteboard.register(StatisticsProvider.class, statistics,
+                Collections.emptyMap());
+        statisticManager = new StatisticManager(whiteboard, executor);
+        sd = new SessionDelegate(oak.createContentRepository().login(null, null),
+                new OpenSecurityProvider(), new RefreshStrategy.Timed(Long.MAX_VALUE),
+                new ThreadLocal<Long>(), statisticManager, clock);
+    }
+
+    @After
+    public void after() {
+        sd.logout();
+        statisticManager.dispose();
+        executor.shutdown();
+    }
+
+    /**
+     * Nested reads are counted and timed like top-level reads, and all reads
+     * are reported to the repository wide counter on logout.
+     */
+    @Test
+    public void nestedReads() throws Exception {
+        MeterStats reads = statistics.getMeter(
+                SESSION_READ_COUNTER.name(), StatsOptions.DEFAULT);
+        TimerStats duration = statistics.getTimer(
+                SESSION_READ_DURATION.name(), StatsOptions.DEFAULT);
+
+        sd.perform(new Read() {
+            @Nonnull
+            @Override
+            public Boolean perform() throws RepositoryException {
+                sd.perform(new Read());
+                sd.perform(new Read());
+                return super.perform();
+            }
+        });
+        assertEquals(3, sd.getSessionStats().getCounters().getReadCount());
+        assertEquals(3, duration.getCount());
+
+        // the logout is counted as a read too
+        logout();
+        assertEquals(4, reads.getCount());
+    }
+
+    @Test
+    public void readsReportedInBatches() throws Exception {
+        MeterStats reads = statistics.getMeter(
+                SESSION_READ_COUNTER.name(), StatsOptions.DEFAULT);
+        clock.frozen = true;
+        for (int i = 0; i < MAX_PENDING_READS - 1; i++) {
+            sd.perform(new Read());
+        }
+        assertEquals(0, reads.getCount());
+        sd.perform(new Read());
+        assertEquals(MAX_PENDING_READS, reads.getCount());
+
+        // a batch is reported once it is old enough
+        sd.perform(new Read());
+        assertEquals(MAX_PENDING_READS, reads.getCount());
+        clock.time += READ_COUNT_FLUSH_INTERVAL;
+        sd.perform(new Read());
+        assertEquals(MAX_PENDING_READS + 2, reads.getCount());
+    }
+
+    @Test
+    public void idleSessionReadsReported() throws Exception {
+        MeterStats reads = statistics.getMeter(
+                SESSION_READ_COUNTER.name(), StatsOptions.DEFAULT);
+        clock.frozen = true;
+        for (int i = 0; i < 5; i++) {
+            sd.perform(new Read());
+        }
+        assertEquals(0, reads.getCount());
+        // as done periodically by the repository
+        sd.flushReadStatistics();
+        assertEquals(5, reads.getCount());
+
+        sd.perform(new Read());
+        sd.refresh(false);
+        assertEquals(6, reads.getCount());
+    }
+
+    private void logout() throws RepositoryException {
+        sd.performVoid(new SessionOperation<Void>("logout") {
+            @Override
+            public void performVoid() {
+                sd.logout();
+            }
+
+            @Override
+            public boolean isLogout() {
+                return true;
+            }
+        });
+    }
+
+    /**
+     * A read operation advancing the clock by 1ms, unless it is frozen.
+     */
+    private class Read extends SessionOperation<Boolean> {
+        Read() {
+            super("read");
+        }
+
+        @Nonnull
+        @Override
+        public Boolean perform() throws RepositoryException {
+            if (!clock.frozen) {
+                clock.time++;
+            }
+            return Boolean.TRUE;
+        }
+    }
+
+    private static class ManualClock extends Clock {
+        long time;
+        boolean frozen;
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+}
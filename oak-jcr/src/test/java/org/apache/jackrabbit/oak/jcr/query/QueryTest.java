@@ -56,6 +56,7 @@ import org.apache.jackrabbit.oak.commons.json.JsonObject;
 import org.apache.jackrabbit.oak.commons.json.JsopTokenizer;
 import org.apache.jackrabbit.oak.fixture.NodeStoreFixture;
 import org.apache.jackrabbit.oak.jcr.AbstractRepositoryTest;
+import org.apache.jackrabbit.oak.jcr.KeysetQuery;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -92,6 +93,44 @@ public class QueryTest extends AbstractRepositoryTest {
                         Query.JCR_SQL2));
     }
     
+    @Test
+    public void searchAfter() throws Exception {
+        Session session = getAdminSession();
+        Node test = session.getRootNode().addNode("test");
+        for (int i = 0; i < 10; i++) {
+            test.addNode("n" + i, "oak:Unstructured").setProperty("x", i);
+        }
+        session.save();
+
+        QueryManager qm = session.getWorkspace().getQueryManager();
+        String sql2 = "select [jcr:path] from [nt:base] " + 
+                "where isdescendantnode('/test') order by [x] desc";
+        StringBuilder buff = new StringBuilder();
+        Node last = null;
+        do {
+            Query q = qm.createQuery(sql2, Query.JCR_SQL2);
+            q.setLimit(3);
+            if (last != null) {
+                ((KeysetQuery) q).setSearchAfter(last.getProperty("x").getValue());
+            }
+            last = null;
+            for (NodeIterator it = q.execute().getNodes(); it.hasNext();) {
+                last = it.nextNode();
+                buff.append(buff.length() == 0 ? "" : ", ").append(last.getName());
+            }
+        } while (last != null);
+        assertEquals("n9, n8, n7, n6, n5, n4, n3, n2, n1, n0", buff.toString());
+
+        Query q = qm.createQuery(sql2.replace(" order by [x] desc", ""), Query.JCR_SQL2);
+        ((KeysetQuery) q).setSearchAfter(session.getValueFactory().createValue(5));
+        try {
+            q.execute();
+            fail();
+        } catch (InvalidQueryException e) {
+            // expected: no order by
+        }
+    }
+
     @Test
     public void typeConversion() throws Exception {
         Session session = getAdminSession();
@@ -100,6 +100,7 @@ import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
 import org.apache.lucene.queryparser.flexible.standard.config.StandardQueryConfigHandler;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.NumericRangeQuery;
@@ -304,12 +305,13 @@ public class LucenePropertyIndex implements AdvancedQueryIndex, QueryIndex, Nati
     public Cursor query(final IndexPlan plan, NodeState rootState) {
         final Filter filter = plan.getFilter();
         final Sort sort = getSort(plan);
+        final FieldDoc searchAfter = getSearchAfter(plan, sort);
         final PlanResult pr = getPlanResult(plan);
         QueryEngineSettings settings = filter.getQueryEngineSettings();
         Iterator<LuceneResultRow> itr = new AbstractIterator<LuceneResultRow>() {
             private final Deque<LuceneResultRow> queue = Queues.newArrayDeque();
             private final Set<String> seenPaths = Sets.newHashSet();
-            private ScoreDoc lastDoc;
+            private ScoreDoc lastDoc = searchAfter;
             private int nextBatchSize = LUCENE_QUERY_BATCH_SIZE;
             private boolean noDocs = false;
             private long lastSearchIndexerVersion;
@@ -506,8 +508,8 @@ public class LucenePropertyIndex implements AdvancedQueryIndex, QueryIndex, Nati
 
             private void checkForIndexVersionChange(IndexSearcher searcher) {
                 long currentVersion = getVersion(searcher);
-                if (currentVersion != lastSearchIndexerVersion && lastDoc != null) {
-                    lastDoc = null;
+                if (currentVersion != lastSearchIndexerVersion && lastDoc != searchAfter) {
+                    lastDoc = searchAfter;
                     LOG.debug("Change in index version detected {} => {}. Query would be performed without " +
                             "offset", currentVersion, lastSearchIndexerVersion);
                 }
@@ -617,6 +619,65 @@ public class LucenePropertyIndex implements AdvancedQueryIndex, QueryIndex, Nati
         }
     }
 
+    /**
+     * Get the document to search after for keyset pagination. Documents with
+     * the same sort key as the returned document are skipped as well.
+     *
+     * @param plan the index plan
+     * @param sort the sort of the plan
+     * @return the document, or null if there is no sort key, or it can't be
+     *         converted to the sort fields
+     */
+    @CheckForNull
+    private static FieldDoc getSearchAfter(IndexPlan plan, @Nullable Sort sort) {
+        List<PropertyValue> key = plan.getSearchAfter();
+        if (key == null || sort == null) {
+            return null;
+        }
+        List<OrderEntry> sortOrder = plan.getSortOrder();
+        SortField[] sortFields = sort.getSort();
+        if (sortOrder.size() != key.size() || sortFields.length != key.size()) {
+            // sorted by score as well
+            return null;
+        }
+        PlanResult planResult = getPlanResult(plan);
+        Object[] values = new Object[key.size()];
+        for (int i = 0; i < key.size(); i++) {
+            PropertyValue value = key.get(i);
+            if (value == null || value.isArray()) {
+                return null;
+            }
+            OrderEntry oe = sortOrder.get(i);
+            PropertyDefinition pd = planResult.getOrderedProperty(i);
+            try {
+                switch (sortFields[i].getType()) {
+                    case LONG:
+                        if (getPropertyType(pd, oe.getPropertyName(),
+                                oe.getPropertyType().tag()) == PropertyType.DATE) {
+                            values[i] = FieldFactory.dateToLong(value.getValue(Type.DATE));
+                        } else {
+                            values[i] = value.getValue(Type.LONG);
+                        }
+                        break;
+                    case DOUBLE:
+                        values[i] = value.getValue(Type.DOUBLE);
+                        break;
+                    default:
+                        values[i] = new BytesRef(value.getValue(Type.STRING));
+                }
+            } catch (RuntimeException e) {
+                LOG.debug("Unable to convert sort key {} for {}", value, oe, e);
+                return null;
+            }
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        // documents with an equal sort key have a lower doc id, and are
+        // therefore skipped as well
+        return new FieldDoc(Integer.MAX_VALUE, Float.NaN, values);
+    }
+
     /**
      * Identifies the default sort order used by the index (@jcr:score descending)
      *
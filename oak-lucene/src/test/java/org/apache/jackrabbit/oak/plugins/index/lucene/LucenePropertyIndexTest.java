@@ -65,6 +65,7 @@ import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
 import org.apache.jackrabbit.oak.plugins.nodetype.write.NodeTypeRegistry;
 import org.apache.jackrabbit.oak.query.AbstractQueryTest;
 import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.query.PropertyValues;
 import org.apache.jackrabbit.oak.spi.query.QueryIndexProvider;
 import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
 import org.apache.jackrabbit.util.ISO8601;
@@ -1047,6 +1048,37 @@ public class LucenePropertyIndexTest extends AbstractQueryTest {
         assertSortedDate();
     }
 
+    @Test
+    public void sortQueriesWithSearchAfter() throws Exception {
+        Tree idx = createIndex("test1", of("foo", "bar"));
+        idx.setProperty(createProperty(ORDERED_PROP_NAMES, of("foo", "bar"), STRINGS));
+        Tree props = idx.addChild(PROP_NODE);
+        props.addChild("foo").setProperty(LuceneIndexConstants.PROP_TYPE, PropertyType.TYPENAME_LONG);
+        props.addChild("bar").setProperty(LuceneIndexConstants.PROP_TYPE, PropertyType.TYPENAME_DATE);
+        root.commit();
+
+        Tree test = root.getTree("/").addChild("test");
+        for (int i = 0; i < 10; i++) {
+            Tree child = test.addChild("n" + i);
+            child.setProperty("foo", (long) (i % 3));
+            child.setProperty("bar", "2015-01-" + (10 + i) + "T00:00:00.000Z", Type.DATE);
+        }
+        root.commit();
+
+        String query = "select [jcr:path] from [nt:base] where [foo] is not null order by [foo], [bar] desc";
+        assertThat(explain(query), containsString("lucene:test1"));
+
+        List<PropertyValue> key = asList(PropertyValues.newLong(1L),
+                PropertyValues.newDate("2015-01-14T00:00:00.000Z"));
+        Result result = qe.executeQuery(query, SQL2, Long.MAX_VALUE, 0, key, NO_BINDINGS, NO_MAPPINGS);
+        List<String> paths = Lists.newArrayList();
+        for (ResultRow row : result.getRows()) {
+            paths.add(row.getPath());
+        }
+        // [foo] = 1 is n7, n4, n1 by descending [bar]
+        assertEquals(asList("/test/n1", "/test/n8", "/test/n5", "/test/n2"), paths);
+    }
+
     void assertSortedDate() throws ParseException, CommitFailedException {
         Tree test = root.getTree("/").addChild("test");
         List<Calendar> values = createDates(NUMBER_OF_NODES);